@@ -51,6 +51,115 @@ public class Config implements Cloneable {
     public Date targetMonth;
     private static final String TARGET_MONTH = "target.month";
 
+    /**
+     * 料金計算の処理対象を格納するキューの種類
+     */
+    public CalculationTargetQueueType calculationTargetQueueType;
+    private static final String CALCULATION_TARGET_QUEUE_TYPE = "calculation.target.queue.type";
+
+    /**
+     * キューの種類にPARTITIONEDを指定したときの、料金計算スレッド1つあたりのパーティション数
+     */
+    public int partitionsPerThread;
+    private static final String PARTITIONS_PER_THREAD = "partitions.per.thread";
+
+    /**
+     * 料金計算の方式
+     */
+    public BillingEngine billingEngine;
+    private static final String BILLING_ENGINE = "billing.engine";
+
+    /**
+     * 料金計算の方式にHISTORY_SCANを指定したときの、通話履歴の更新と請求情報の挿入をまとめて行うレコード数
+     */
+    public int historyScanBatchSize;
+    private static final String HISTORY_SCAN_BATCH_SIZE = "history.scan.batch.size";
+
+    /**
+     * 料金計算スレッドごとに通話履歴を先読みする契約数(0の場合は先読みしない)
+     */
+    public int prefetchDepth;
+    private static final String PREFETCH_DEPTH = "prefetch.depth";
+
+    /**
+     * 料金がnullの通話履歴を持つ契約と請求情報の無い契約のみ料金計算を行う(差分料金計算)
+     */
+    public boolean enableDeltaBilling;
+    private static final String ENABLE_DELTA_BILLING = "enable.delta.billing";
+
+    /**
+     * 通話履歴を列ごとの配列で読み込み、配列単位で料金計算を行う
+     */
+    public boolean enableColumnarFetch;
+    private static final String ENABLE_COLUMNAR_FETCH = "enable.columnar.fetch";
+
+    /**
+     * 再計算した料金が既存の料金と同じ通話履歴を更新しない
+     */
+    public boolean skipUnchangedCharge;
+    private static final String SKIP_UNCHANGED_CHARGE = "skip.unchanged.charge";
+
+    /**
+     * 計算対象月の請求情報を削除せず、請求情報の無い契約のみ料金計算を行う(中断したバッチの再開)
+     */
+    public boolean enableResume;
+    private static final String ENABLE_RESUME = "enable.resume";
+
+    /**
+     * 処理に失敗した契約の再処理を、abort回数に応じたバックオフ後に行う
+     */
+    public boolean enableRetryScheduler;
+    private static final String ENABLE_RETRY_SCHEDULER = "enable.retry.scheduler";
+
+    /**
+     * 再処理のスケジューラを使用するときの、1回目のabort後のバックオフ時間(ミリ秒)
+     */
+    public long retryBackoffBaseMillis;
+    private static final String RETRY_BACKOFF_BASE_MILLIS = "retry.backoff.base.millis";
+
+    /**
+     * 再処理のスケジューラを使用するときの、バックオフ時間の上限(ミリ秒)
+     */
+    public long retryBackoffMaxMillis;
+    private static final String RETRY_BACKOFF_MAX_MILLIS = "retry.backoff.max.millis";
+
+    /**
+     * 再処理のスケジューラを使用するときに、LTXで1契約ずつ処理する最終フェーズに回すabort回数
+     */
+    public int retryFinalPhaseThreshold;
+    private static final String RETRY_FINAL_PHASE_THRESHOLD = "retry.final.phase.threshold";
+
+    /**
+     * 通話履歴の件数から見積もった処理量の多い契約から順に料金計算を行う(PARTITIONEDのキューでは無効)
+     */
+    public boolean enableLargestFirst;
+    private static final String ENABLE_LARGEST_FIRST = "enable.largest.first";
+
+    /**
+     * 料金計算を行う月数、target.monthから指定の月数分の料金計算を行う
+     */
+    public int targetMonthCount;
+    private static final String TARGET_MONTH_COUNT = "target.month.count";
+
+    /**
+     * 契約を電話番号の範囲ごとに分けて読み込むときの、1回に読み込む電話番号の範囲の幅、0以下の場合は全契約を一度に読み込む
+     */
+    public int contractLoadPageSize;
+    private static final String CONTRACT_LOAD_PAGE_SIZE = "contract.load.page.size";
+
+    /**
+     * 契約を電話番号の範囲ごとに分けて読み込むときに、読み込んだ処理対象を保持するキューの容量
+     */
+    public int contractLoadQueueCapacity;
+    private static final String CONTRACT_LOAD_QUEUE_CAPACITY = "contract.load.queue.capacity";
+
+    /**
+     * 料金計算のスレッドごとに2つのセッションを使用し、一方のコミット中にもう一方で次の契約の料金計算を行う
+     * (トランザクションスコープがCONTRACTで、DBMSがTsurugiの場合のみ有効)
+     */
+    public boolean enableCommitOverlap;
+    private static final String ENABLE_COMMIT_OVERLAP = "enable.commit.overlap";
+
     /* 契約マスタ生成に関するパラメータ */
 
     /**
@@ -260,6 +369,156 @@ public class Config implements Cloneable {
     public double onlineAppRandomAtLeastOnceRate;
     private static final String ONLINE_APP_RANDOM_AT_LEAST_ONCE_RATE = "online.app.random.at.least.once.rate";
 
+    /**
+     * オンラインアプリケーションをオープンループで実行する。trueの場合、トランザクションを共有のタイマから
+     * スケジュールした時刻に投入し、前のトランザクションの完了を待たずに次の投入を行う。遅延はスケジュール
+     * した時刻からも計測する。1分間の実行回数が負数(連続実行)のアプリには適用しない。
+     */
+    public boolean onlineAppOpenLoop;
+    private static final String ONLINE_APP_OPEN_LOOP = "online.app.open.loop";
+
+    /**
+     * オープンループで実行するオンラインアプリケーションのトランザクションの到着間隔の分布
+     */
+    public ArrivalDistribution onlineAppArrivalDistribution;
+    private static final String ONLINE_APP_ARRIVAL_DISTRIBUTION = "online.app.arrival.distribution";
+
+    /**
+     * オンラインアプリケーションがランダムにマスタを選択するときに、キーを分割して管理するシャード数。
+     * 0の場合はシャードに分割せず、全スレッドで1つのロックを共有する。
+     */
+    public int onlineAppKeySelectorShards;
+    private static final String ONLINE_APP_KEY_SELECTOR_SHARDS = "online.app.key.selector.shards";
+
+    /**
+     * マスタをアップデートするアプリがマスタのキーを選択するときの分布
+     */
+    public KeyDistribution masterUpdateKeyDistribution;
+    private static final String MASTER_UPDATE_KEY_DISTRIBUTION = "master.update.key.distribution";
+
+    /**
+     * マスタを削除・追加するアプリが削除するマスタのキーを選択するときの分布
+     */
+    public KeyDistribution masterDeleteInsertKeyDistribution;
+    private static final String MASTER_DELETE_INSERT_KEY_DISTRIBUTION = "master.delete.insert.key.distribution";
+
+    /**
+     * 履歴をアップデートするアプリがマスタのキーを選択するときの分布
+     */
+    public KeyDistribution historyUpdateKeyDistribution;
+    private static final String HISTORY_UPDATE_KEY_DISTRIBUTION = "history.update.key.distribution";
+
+    /**
+     * キーの選択にZIPFIAN, LATESTの分布を使用するときの偏りを表すパラメータθ(0より大きく1未満)
+     */
+    public double onlineAppZipfianTheta;
+    private static final String ONLINE_APP_ZIPFIAN_THETA = "online.app.zipfian.theta";
+
+    /**
+     * キーの選択にHOTSPOTの分布を使用するときに、ホットスポットのキーを選択する割合
+     */
+    public double onlineAppHotspotAccessRate;
+    private static final String ONLINE_APP_HOTSPOT_ACCESS_RATE = "online.app.hotspot.access.rate";
+
+    /**
+     * キーの選択にHOTSPOTの分布を使用するときに、全てのキーのうちホットスポットとするキーの割合
+     */
+    public double onlineAppHotspotKeyRate;
+    private static final String ONLINE_APP_HOTSPOT_KEY_RATE = "online.app.hotspot.key.rate";
+
+    /**
+     * マスタをアップデートするアプリの負荷プロファイル
+     */
+    public LoadProfileType masterUpdateLoadProfile;
+    private static final String MASTER_UPDATE_LOAD_PROFILE = "master.update.load.profile";
+
+    /**
+     * マスタを削除・追加するアプリの負荷プロファイル
+     */
+    public LoadProfileType masterDeleteInsertLoadProfile;
+    private static final String MASTER_DELETE_INSERT_LOAD_PROFILE = "master.delete.insert.load.profile";
+
+    /**
+     * 履歴をアップデートするアプリの負荷プロファイル
+     */
+    public LoadProfileType historyUpdateLoadProfile;
+    private static final String HISTORY_UPDATE_LOAD_PROFILE = "history.update.load.profile";
+
+    /**
+     * 履歴を追加するアプリの負荷プロファイル
+     */
+    public LoadProfileType historyInsertLoadProfile;
+    private static final String HISTORY_INSERT_LOAD_PROFILE = "history.insert.load.profile";
+
+    /**
+     * 負荷プロファイルの周期(秒)
+     */
+    public int onlineAppLoadProfilePeriodSecs;
+    private static final String ONLINE_APP_LOAD_PROFILE_PERIOD_SECS = "online.app.load.profile.period.secs";
+
+    /**
+     * 負荷プロファイルで1分間の実行回数に乗じる倍率の最小値
+     */
+    public double onlineAppLoadProfileMinRate;
+    private static final String ONLINE_APP_LOAD_PROFILE_MIN_RATE = "online.app.load.profile.min.rate";
+
+    /**
+     * 負荷プロファイルで1分間の実行回数に乗じる倍率の最大値
+     */
+    public double onlineAppLoadProfileMaxRate;
+    private static final String ONLINE_APP_LOAD_PROFILE_MAX_RATE = "online.app.load.profile.max.rate";
+
+    /**
+     * 負荷プロファイルの1周期を分割するセグメント数。STEPの場合は段数になる。SPIKEには適用しない。
+     */
+    public int onlineAppLoadProfileSteps;
+    private static final String ONLINE_APP_LOAD_PROFILE_STEPS = "online.app.load.profile.steps";
+
+    /**
+     * 負荷プロファイルがSPIKEのときに、周期の最後で倍率を最大にする時間(秒)
+     */
+    public int onlineAppLoadProfileSpikeSecs;
+    private static final String ONLINE_APP_LOAD_PROFILE_SPIKE_SECS = "online.app.load.profile.spike.secs";
+
+    /**
+     * 履歴更新アプリが通話履歴のキーをキャッシュする契約数、0の場合はキャッシュを使用せず、
+     * 更新の都度契約の全通話履歴を読み込む
+     */
+    public int historyUpdateKeyCacheSize;
+    private static final String HISTORY_UPDATE_KEY_CACHE_SIZE = "history.update.key.cache.size";
+
+    /* 飽和点探索に関するパラメータ */
+
+    /**
+     * 飽和点探索で、1ステップあたりにオンラインアプリケーションを実行する時間(秒)
+     */
+    public int saturationSearchStepSecs;
+    private static final String SATURATION_SEARCH_STEP_SECS = "saturation.search.step.secs";
+
+    /**
+     * 飽和点探索で、ステップごとに1分間の実行回数に乗じる倍率(1より大きい値)
+     */
+    public double saturationSearchRateFactor;
+    private static final String SATURATION_SEARCH_RATE_FACTOR = "saturation.search.rate.factor";
+
+    /**
+     * 飽和点探索の最大ステップ数
+     */
+    public int saturationSearchMaxSteps;
+    private static final String SATURATION_SEARCH_MAX_STEPS = "saturation.search.max.steps";
+
+    /**
+     * 飽和点探索で許容するp99の遅延(ミリ秒)。超過した場合に探索を終了する。
+     */
+    public int saturationSearchP99SloMillis;
+    private static final String SATURATION_SEARCH_P99_SLO_MILLIS = "saturation.search.p99.slo.millis";
+
+    /**
+     * 飽和点探索で、スループットが増加したとみなす最小の増加率。スループットの増加率がこの値未満の場合に探索を終了する。
+     */
+    public double saturationSearchMinThroughputGain;
+    private static final String SATURATION_SEARCH_MIN_THROUGHPUT_GAIN = "saturation.search.min.throughput.gain";
+
     /* jdbcのパラメータ */
     public String url;
     public String user;
@@ -359,6 +618,24 @@ public class Config implements Cloneable {
     public TransactionScope transactionScope;
     private static final String TRANSACTION_SCOPE = "transaction.scope";
 
+    /**
+     * トランザクションスコープにADAPTIVEを指定したときの、1トランザクションで処理する契約数の初期値
+     */
+    public int adaptiveScopeInitialSize;
+    private static final String ADAPTIVE_SCOPE_INITIAL_SIZE = "adaptive.scope.initial.size";
+
+    /**
+     * トランザクションスコープにADAPTIVEを指定したときの、1トランザクションで処理する契約数の最大値
+     */
+    public int adaptiveScopeMaxSize;
+    private static final String ADAPTIVE_SCOPE_MAX_SIZE = "adaptive.scope.max.size";
+
+    /**
+     * トランザクションスコープにADAPTIVEを指定したときの、トランザクションの処理時間の目標値(ミリ秒)
+     */
+    public int adaptiveScopeTargetLatencyMillis;
+    private static final String ADAPTIVE_SCOPE_TARGET_LATENCY_MILLIS = "adaptive.scope.target.latency.millis";
+
     /**
      * システムプロパティ経由で設定する場合のプロパティキープレフィックス
      */
@@ -375,6 +652,18 @@ public class Config implements Cloneable {
     public boolean enableTsurugiWatcher;
     private static final String ENABLE_TSURUGI_WATCHER = "enable.tsurugi.watcher";
 
+    /**
+     * 実行中のメトリクスをPrometheusのテキスト形式で公開するHTTPのポート番号、0の場合は公開しない
+     */
+    public int metricsPort;
+    private static final String METRICS_PORT = "metrics.port";
+
+    /**
+     * メトリクスを公開するHTTPサーバがバインドするアドレス、デフォルトはループバックアドレスのみ
+     */
+    public String metricsBindAddress;
+    private static final String METRICS_BIND_ADDRESS = "metrics.bind.address";
+
     /**
      * 複数ノード構成時のサーバのリッスンポート
      */
@@ -477,6 +766,25 @@ public class Config implements Cloneable {
     private void init() {
         // 料金計算に関するパラメータ
         targetMonth = getDate(TARGET_MONTH, DateUtils.toDate("2020-12-01"));
+        calculationTargetQueueType = getCalculationTargetQueueType(CALCULATION_TARGET_QUEUE_TYPE,
+                CalculationTargetQueueType.SIMPLE);
+        partitionsPerThread = getInt(PARTITIONS_PER_THREAD, 4);
+        billingEngine = getBillingEngine(BILLING_ENGINE, BillingEngine.PER_CONTRACT);
+        historyScanBatchSize = getInt(HISTORY_SCAN_BATCH_SIZE, 1000);
+        prefetchDepth = getInt(PREFETCH_DEPTH, 0);
+        enableDeltaBilling = getBoolean(ENABLE_DELTA_BILLING, false);
+        enableColumnarFetch = getBoolean(ENABLE_COLUMNAR_FETCH, false);
+        skipUnchangedCharge = getBoolean(SKIP_UNCHANGED_CHARGE, false);
+        enableResume = getBoolean(ENABLE_RESUME, false);
+        enableRetryScheduler = getBoolean(ENABLE_RETRY_SCHEDULER, false);
+        retryBackoffBaseMillis = getLong(RETRY_BACKOFF_BASE_MILLIS, 10);
+        retryBackoffMaxMillis = getLong(RETRY_BACKOFF_MAX_MILLIS, 1000);
+        retryFinalPhaseThreshold = getInt(RETRY_FINAL_PHASE_THRESHOLD, 3);
+        enableLargestFirst = getBoolean(ENABLE_LARGEST_FIRST, false);
+        targetMonthCount = getInt(TARGET_MONTH_COUNT, 1);
+        contractLoadPageSize = getInt(CONTRACT_LOAD_PAGE_SIZE, 0);
+        contractLoadQueueCapacity = getInt(CONTRACT_LOAD_QUEUE_CAPACITY, 10000);
+        enableCommitOverlap = getBoolean(ENABLE_COMMIT_OVERLAP, false);
 
         // 契約マスタ生成に関するパラメータ
         numberOfContractsRecords = getInt(NUMBER_OF_CONTRACTS_RECORDS, 1000);
@@ -536,6 +844,34 @@ public class Config implements Cloneable {
 
         onlineAppRandomCoverRate = getDouble(ONLINE_APP_RANDOM_COVER_RATE, 1d);
         onlineAppRandomAtLeastOnceRate = getDouble(ONLINE_APP_RANDOM_AT_LEAST_ONCE_RATE, 0d);
+        onlineAppOpenLoop = getBoolean(ONLINE_APP_OPEN_LOOP, false);
+        onlineAppArrivalDistribution = getArrivalDistribution(ONLINE_APP_ARRIVAL_DISTRIBUTION,
+                ArrivalDistribution.UNIFORM);
+        onlineAppKeySelectorShards = getInt(ONLINE_APP_KEY_SELECTOR_SHARDS, 0);
+        masterUpdateKeyDistribution = getKeyDistribution(MASTER_UPDATE_KEY_DISTRIBUTION, KeyDistribution.UNIFORM);
+        masterDeleteInsertKeyDistribution = getKeyDistribution(MASTER_DELETE_INSERT_KEY_DISTRIBUTION,
+                KeyDistribution.UNIFORM);
+        historyUpdateKeyDistribution = getKeyDistribution(HISTORY_UPDATE_KEY_DISTRIBUTION, KeyDistribution.UNIFORM);
+        onlineAppZipfianTheta = getDouble(ONLINE_APP_ZIPFIAN_THETA, 0.99d);
+        onlineAppHotspotAccessRate = getDouble(ONLINE_APP_HOTSPOT_ACCESS_RATE, 0.8d);
+        onlineAppHotspotKeyRate = getDouble(ONLINE_APP_HOTSPOT_KEY_RATE, 0.2d);
+        masterUpdateLoadProfile = getLoadProfileType(MASTER_UPDATE_LOAD_PROFILE, LoadProfileType.CONSTANT);
+        masterDeleteInsertLoadProfile = getLoadProfileType(MASTER_DELETE_INSERT_LOAD_PROFILE, LoadProfileType.CONSTANT);
+        historyUpdateLoadProfile = getLoadProfileType(HISTORY_UPDATE_LOAD_PROFILE, LoadProfileType.CONSTANT);
+        historyInsertLoadProfile = getLoadProfileType(HISTORY_INSERT_LOAD_PROFILE, LoadProfileType.CONSTANT);
+        onlineAppLoadProfilePeriodSecs = getInt(ONLINE_APP_LOAD_PROFILE_PERIOD_SECS, 600);
+        onlineAppLoadProfileMinRate = getDouble(ONLINE_APP_LOAD_PROFILE_MIN_RATE, 0.5d);
+        onlineAppLoadProfileMaxRate = getDouble(ONLINE_APP_LOAD_PROFILE_MAX_RATE, 2d);
+        onlineAppLoadProfileSteps = getInt(ONLINE_APP_LOAD_PROFILE_STEPS, 4);
+        onlineAppLoadProfileSpikeSecs = getInt(ONLINE_APP_LOAD_PROFILE_SPIKE_SECS, 30);
+        historyUpdateKeyCacheSize = getInt(HISTORY_UPDATE_KEY_CACHE_SIZE, 0);
+
+        // 飽和点探索に関するパラメータ
+        saturationSearchStepSecs = getInt(SATURATION_SEARCH_STEP_SECS, 60);
+        saturationSearchRateFactor = getDouble(SATURATION_SEARCH_RATE_FACTOR, 1.5d);
+        saturationSearchMaxSteps = getInt(SATURATION_SEARCH_MAX_STEPS, 10);
+        saturationSearchP99SloMillis = getInt(SATURATION_SEARCH_P99_SLO_MILLIS, 100);
+        saturationSearchMinThroughputGain = getDouble(SATURATION_SEARCH_MIN_THROUGHPUT_GAIN, 0.05d);
 
         //  CSVデータに関するパラメータ
         csvDir = getString(CSV_DIR, "/var/lib/csv");
@@ -553,17 +889,26 @@ public class Config implements Cloneable {
         // その他のパラメータ
         randomSeed = getInt(RANDOM_SEED, 0);
         transactionScope = getTransactionScope(TRANSACTION_SCOPE, TransactionScope.WHOLE);
+        adaptiveScopeInitialSize = getInt(ADAPTIVE_SCOPE_INITIAL_SIZE, 16);
+        adaptiveScopeMaxSize = getInt(ADAPTIVE_SCOPE_MAX_SIZE, 1024);
+        adaptiveScopeTargetLatencyMillis = getInt(ADAPTIVE_SCOPE_TARGET_LATENCY_MILLIS, 1000);
         listenPort = getInt(LISTEN_PORT, 0);
         onlineOnly = getBoolean(ONLINE_ONLY, false);
         execTimeLimitSecs = getInt(EXEC_TIME_LIMIT_SECS, 0);
         reportDir = getString(REPORT_DIR, "/tmp");
         enableTsurugiWatcher = getBoolean(ENABLE_TSURUGI_WATCHER, false);
+        metricsPort = getInt(METRICS_PORT, 0);
+        metricsBindAddress = getString(METRICS_BIND_ADDRESS, "127.0.0.1");
 
         // パラメータ間の矛盾のチェック
         if (transactionScope == TransactionScope.CONTRACT && sharedConnection) {
             // トランザクションのスコープが契約単位で、コネクション共有は許されない
             throw new RuntimeException("TransactionScope Contract and sharedConnection cannot be specified at the same time.");
         }
+        if (transactionScope == TransactionScope.ADAPTIVE && sharedConnection) {
+            // トランザクションのスコープがADAPTIVEの場合も、コネクション共有は許されない
+            throw new RuntimeException("TransactionScope Adaptive and sharedConnection cannot be specified at the same time.");
+        }
     }
 
     /**
@@ -582,9 +927,12 @@ public class Config implements Cloneable {
             return TransactionScope.CONTRACT;
         } else if (prop.getProperty(key).equalsIgnoreCase(TransactionScope.WHOLE.toString())) {
             return TransactionScope.WHOLE;
+        } else if (prop.getProperty(key).equalsIgnoreCase(TransactionScope.ADAPTIVE.toString())) {
+            return TransactionScope.ADAPTIVE;
         } else {
             throw new RuntimeException("Unsupported transaction scope: " + prop.getProperty(key) + ", only '"
-                    + TransactionScope.CONTRACT + "' or '" + TransactionScope.WHOLE + "' are supported.");
+                    + TransactionScope.CONTRACT + "', '" + TransactionScope.WHOLE + "' or '"
+                    + TransactionScope.ADAPTIVE + "' are supported.");
         }
     }
 
@@ -633,6 +981,77 @@ public class Config implements Cloneable {
         return TransactionOption.valueOf(prop.getProperty(key));
     }
 
+    /**
+     * 料金計算の処理対象を格納するキューの種類を取得する
+     *
+     * @param key プロパティ名
+     * @param defaultValue プロパティが存在しない時のデフォルト値
+     * @return
+     */
+    private CalculationTargetQueueType getCalculationTargetQueueType(String key,
+            CalculationTargetQueueType defaultValue) {
+        if (!prop.containsKey(key)) {
+            return defaultValue;
+        }
+        return CalculationTargetQueueType.valueOf(prop.getProperty(key).toUpperCase(Locale.JAPAN));
+    }
+
+    /**
+     * 料金計算の方式を取得する
+     *
+     * @param key プロパティ名
+     * @param defaultValue プロパティが存在しない時のデフォルト値
+     * @return
+     */
+    private BillingEngine getBillingEngine(String key, BillingEngine defaultValue) {
+        if (!prop.containsKey(key)) {
+            return defaultValue;
+        }
+        return BillingEngine.valueOf(prop.getProperty(key).toUpperCase(Locale.JAPAN));
+    }
+
+    /**
+     * トランザクションの到着間隔の分布を取得する
+     *
+     * @param key プロパティ名
+     * @param defaultValue プロパティが存在しない時のデフォルト値
+     * @return
+     */
+    private ArrivalDistribution getArrivalDistribution(String key, ArrivalDistribution defaultValue) {
+        if (!prop.containsKey(key)) {
+            return defaultValue;
+        }
+        return ArrivalDistribution.valueOf(prop.getProperty(key).toUpperCase(Locale.JAPAN));
+    }
+
+    /**
+     * オンラインアプリケーションがキーを選択するときの分布を取得する
+     *
+     * @param key プロパティ名
+     * @param defaultValue プロパティが存在しない時のデフォルト値
+     * @return
+     */
+    private KeyDistribution getKeyDistribution(String key, KeyDistribution defaultValue) {
+        if (!prop.containsKey(key)) {
+            return defaultValue;
+        }
+        return KeyDistribution.valueOf(prop.getProperty(key).toUpperCase(Locale.JAPAN));
+    }
+
+    /**
+     * オンラインアプリケーションの負荷プロファイルの種類を取得する
+     *
+     * @param key プロパティ名
+     * @param defaultValue プロパティが存在しない時のデフォルト値
+     * @return
+     */
+    private LoadProfileType getLoadProfileType(String key, LoadProfileType defaultValue) {
+        if (!prop.containsKey(key)) {
+            return defaultValue;
+        }
+        return LoadProfileType.valueOf(prop.getProperty(key).toUpperCase(Locale.JAPAN));
+    }
+
 
 
     /**
@@ -853,6 +1272,24 @@ public class Config implements Cloneable {
 
         sb.append(String.format(commentFormat, "料金計算に関するパラメータ"));
         sb.append(String.format(format, TARGET_MONTH, targetMonth));
+        sb.append(String.format(format, CALCULATION_TARGET_QUEUE_TYPE, calculationTargetQueueType));
+        sb.append(String.format(format, PARTITIONS_PER_THREAD, partitionsPerThread));
+        sb.append(String.format(format, BILLING_ENGINE, billingEngine));
+        sb.append(String.format(format, HISTORY_SCAN_BATCH_SIZE, historyScanBatchSize));
+        sb.append(String.format(format, PREFETCH_DEPTH, prefetchDepth));
+        sb.append(String.format(format, ENABLE_DELTA_BILLING, enableDeltaBilling));
+        sb.append(String.format(format, ENABLE_COLUMNAR_FETCH, enableColumnarFetch));
+        sb.append(String.format(format, SKIP_UNCHANGED_CHARGE, skipUnchangedCharge));
+        sb.append(String.format(format, ENABLE_RESUME, enableResume));
+        sb.append(String.format(format, ENABLE_RETRY_SCHEDULER, enableRetryScheduler));
+        sb.append(String.format(format, RETRY_BACKOFF_BASE_MILLIS, retryBackoffBaseMillis));
+        sb.append(String.format(format, RETRY_BACKOFF_MAX_MILLIS, retryBackoffMaxMillis));
+        sb.append(String.format(format, RETRY_FINAL_PHASE_THRESHOLD, retryFinalPhaseThreshold));
+        sb.append(String.format(format, ENABLE_LARGEST_FIRST, enableLargestFirst));
+        sb.append(String.format(format, TARGET_MONTH_COUNT, targetMonthCount));
+        sb.append(String.format(format, CONTRACT_LOAD_PAGE_SIZE, contractLoadPageSize));
+        sb.append(String.format(format, CONTRACT_LOAD_QUEUE_CAPACITY, contractLoadQueueCapacity));
+        sb.append(String.format(format, ENABLE_COMMIT_OVERLAP, enableCommitOverlap));
         sb.append(System.lineSeparator());
         sb.append(String.format(commentFormat, "契約マスタ生成に関するパラメータ"));
         sb.append(String.format(format, NUMBER_OF_CONTRACTS_RECORDS, numberOfContractsRecords));
@@ -901,6 +1338,32 @@ public class Config implements Cloneable {
         sb.append(String.format(format, SKIP_DATABASE_ACCESS, skipDatabaseAccess));
         sb.append(String.format(format, ONLINE_APP_RANDOM_COVER_RATE, onlineAppRandomCoverRate));
         sb.append(String.format(format, ONLINE_APP_RANDOM_AT_LEAST_ONCE_RATE, onlineAppRandomAtLeastOnceRate));
+        sb.append(String.format(format, ONLINE_APP_OPEN_LOOP, onlineAppOpenLoop));
+        sb.append(String.format(format, ONLINE_APP_ARRIVAL_DISTRIBUTION, onlineAppArrivalDistribution));
+        sb.append(String.format(format, ONLINE_APP_KEY_SELECTOR_SHARDS, onlineAppKeySelectorShards));
+        sb.append(String.format(format, MASTER_UPDATE_KEY_DISTRIBUTION, masterUpdateKeyDistribution));
+        sb.append(String.format(format, MASTER_DELETE_INSERT_KEY_DISTRIBUTION, masterDeleteInsertKeyDistribution));
+        sb.append(String.format(format, HISTORY_UPDATE_KEY_DISTRIBUTION, historyUpdateKeyDistribution));
+        sb.append(String.format(format, ONLINE_APP_ZIPFIAN_THETA, onlineAppZipfianTheta));
+        sb.append(String.format(format, ONLINE_APP_HOTSPOT_ACCESS_RATE, onlineAppHotspotAccessRate));
+        sb.append(String.format(format, ONLINE_APP_HOTSPOT_KEY_RATE, onlineAppHotspotKeyRate));
+        sb.append(String.format(format, MASTER_UPDATE_LOAD_PROFILE, masterUpdateLoadProfile));
+        sb.append(String.format(format, MASTER_DELETE_INSERT_LOAD_PROFILE, masterDeleteInsertLoadProfile));
+        sb.append(String.format(format, HISTORY_UPDATE_LOAD_PROFILE, historyUpdateLoadProfile));
+        sb.append(String.format(format, HISTORY_INSERT_LOAD_PROFILE, historyInsertLoadProfile));
+        sb.append(String.format(format, ONLINE_APP_LOAD_PROFILE_PERIOD_SECS, onlineAppLoadProfilePeriodSecs));
+        sb.append(String.format(format, ONLINE_APP_LOAD_PROFILE_MIN_RATE, onlineAppLoadProfileMinRate));
+        sb.append(String.format(format, ONLINE_APP_LOAD_PROFILE_MAX_RATE, onlineAppLoadProfileMaxRate));
+        sb.append(String.format(format, ONLINE_APP_LOAD_PROFILE_STEPS, onlineAppLoadProfileSteps));
+        sb.append(String.format(format, ONLINE_APP_LOAD_PROFILE_SPIKE_SECS, onlineAppLoadProfileSpikeSecs));
+        sb.append(String.format(format, HISTORY_UPDATE_KEY_CACHE_SIZE, historyUpdateKeyCacheSize));
+        sb.append(System.lineSeparator());
+        sb.append(String.format(commentFormat, "飽和点探索に関するパラメータ"));
+        sb.append(String.format(format, SATURATION_SEARCH_STEP_SECS, saturationSearchStepSecs));
+        sb.append(String.format(format, SATURATION_SEARCH_RATE_FACTOR, saturationSearchRateFactor));
+        sb.append(String.format(format, SATURATION_SEARCH_MAX_STEPS, saturationSearchMaxSteps));
+        sb.append(String.format(format, SATURATION_SEARCH_P99_SLO_MILLIS, saturationSearchP99SloMillis));
+        sb.append(String.format(format, SATURATION_SEARCH_MIN_THROUGHPUT_GAIN, saturationSearchMinThroughputGain));
         sb.append(System.lineSeparator());
         sb.append(String.format(commentFormat, "スレッドに関するパラメータ"));
         sb.append(String.format(format, THREAD_COUNT, threadCount));
@@ -922,11 +1385,16 @@ public class Config implements Cloneable {
         sb.append(String.format(commentFormat, "その他のパラメータ"));
         sb.append(String.format(format, RANDOM_SEED, randomSeed));
         sb.append(String.format(format, TRANSACTION_SCOPE, transactionScope));
+        sb.append(String.format(format, ADAPTIVE_SCOPE_INITIAL_SIZE, adaptiveScopeInitialSize));
+        sb.append(String.format(format, ADAPTIVE_SCOPE_MAX_SIZE, adaptiveScopeMaxSize));
+        sb.append(String.format(format, ADAPTIVE_SCOPE_TARGET_LATENCY_MILLIS, adaptiveScopeTargetLatencyMillis));
         sb.append(String.format(format, LISTEN_PORT, listenPort));
         sb.append(String.format(format, ONLINE_ONLY, onlineOnly));
         sb.append(String.format(format, EXEC_TIME_LIMIT_SECS, execTimeLimitSecs));
         sb.append(String.format(format, REPORT_DIR, reportDir));
         sb.append(String.format(format, ENABLE_TSURUGI_WATCHER , enableTsurugiWatcher));
+        sb.append(String.format(format, METRICS_PORT, metricsPort));
+        sb.append(String.format(format, METRICS_BIND_ADDRESS, metricsBindAddress));
         return sb.toString();
     }
 
@@ -943,7 +1411,122 @@ public class Config implements Cloneable {
         /**
          * 1契約の処理を1トランザクションとする
          */
-        CONTRACT
+        CONTRACT,
+
+        /**
+         * K契約の処理を1トランザクションとし、Kをabortの発生状況とトランザクションの処理時間に応じて調整する
+         */
+        ADAPTIVE
+    }
+
+    /**
+     * 料金計算の処理対象を格納するキューの種類
+     */
+    public static enum CalculationTargetQueueType {
+        /**
+         * 全スレッドで一つのキューを共有する
+         */
+        SIMPLE,
+
+        /**
+         * スレッドごとにキューを持ち、空になったスレッドは他のスレッドのキューから処理対象を取り出す
+         */
+        WORK_STEALING,
+
+        /**
+         * 契約を電話番号の連続した範囲に分割して各スレッドに割り当て、空になったスレッドは他のスレッドから範囲を取り出す
+         */
+        PARTITIONED
+    }
+
+    /**
+     * 料金計算の方式
+     */
+    public static enum BillingEngine {
+        /**
+         * 契約ごとに通話履歴を検索して料金を計算する
+         */
+        PER_CONTRACT,
+
+        /**
+         * 計算対象月の通話履歴を通話開始時刻の範囲で走査し、電話番号ごとに集計して料金を計算する
+         */
+        HISTORY_SCAN,
+
+        /**
+         * 通話履歴の料金の更新と請求情報の作成を集合指向のSQLで行い、料金計算をDBに任せる
+         */
+        SQL_PUSHDOWN
+    }
+
+    /**
+     * オープンループで実行するオンラインアプリケーションのトランザクションの到着間隔の分布
+     */
+    public static enum ArrivalDistribution {
+        /**
+         * 一定の間隔で到着する
+         */
+        UNIFORM,
+
+        /**
+         * 指数分布に従う間隔で到着する(ポアソン到着)
+         */
+        POISSON
+    }
+
+    /**
+     * オンラインアプリケーションがキーを選択するときの分布
+     */
+    public static enum KeyDistribution {
+        /**
+         * 一様分布
+         */
+        UNIFORM,
+
+        /**
+         * Zipf分布、一部のキーに選択が集中する
+         */
+        ZIPFIAN,
+
+        /**
+         * 一部のキー(ホットスポット)に指定の割合の選択が集中する
+         */
+        HOTSPOT,
+
+        /**
+         * 最近追加したキーほど選択されやすいZipf分布
+         */
+        LATEST
+    }
+
+    /**
+     * オンラインアプリケーションの負荷プロファイルの種類
+     */
+    public static enum LoadProfileType {
+        /**
+         * 倍率は常に1
+         */
+        CONSTANT,
+
+        /**
+         * 周期をセグメント数の段に分け、最小値から最大値まで段階的に倍率を上げる
+         */
+        STEP,
+
+        /**
+         * 周期の間に最小値から最大値まで直線的に倍率を上げる
+         */
+        RAMP,
+
+        /**
+         * 周期の先頭と最後で最小値、中央で最大値となるように倍率を正弦波状に変化させる(日内変動)
+         */
+        SINE,
+
+        /**
+         * 倍率は最小値で、周期の最後の一定時間のみ最大値とする
+         */
+        SPIKE
     }
 
     /**
@@ -15,6 +15,7 @@
  */
 package com.tsurugidb.benchmark.phonebill.app;
 
+import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -51,6 +52,8 @@ public class Main {
                 ArgType.MULTI_CONFIG);
         addCommand("OnlineAppBench", "Execute PhonBill with and without online applications.", OnlineAppBench.class,
                 ArgType.CONFIG);
+        addCommand("SaturationSearch", "Search the maximum throughput of each online application.",
+                SaturationSearch.class, ArgType.CONFIG);
         addCommand("TestDataStatistics", "Create test data statistics without test data.", TestDataStatistics.class,
                 ArgType.CONFIG);
         addCommand("CreateTestDataCsv", "Create test data to csv files.", CreateTestDataCsv.class, ArgType.CONFIG);
@@ -129,6 +132,7 @@ public class Main {
                 System.exit(1);
             }
             List<ConfigInfo> configInfos = ExecutableCommand.createConfigInfos(args, 1);
+            startMetricsServer(configInfos.get(0).config);
             executableCommand.execute(configInfos);
             break;
         case HOST_AND_PORT:
@@ -152,9 +156,22 @@ public class Main {
         }
 
         Config config = Config.getConfig(args[1]);
+        startMetricsServer(config);
         executableCommand.execute(config);
     }
 
+    /**
+     * Configでポート番号が指定されている場合、メトリクスの公開を開始する
+     *
+     * @param config
+     * @throws IOException
+     */
+    private static void startMetricsServer(Config config) throws IOException {
+        if (config.metricsPort > 0) {
+            MetricsServer.start(config.metricsBindAddress, config.metricsPort);
+        }
+    }
+
 
     private static void usage() {
         System.err.println();
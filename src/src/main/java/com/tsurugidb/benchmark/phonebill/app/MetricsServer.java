@@ -0,0 +1,261 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tsurugidb.benchmark.phonebill.app.billing.PhoneBill;
+import com.tsurugidb.benchmark.phonebill.db.PhoneBillDbManager;
+import com.tsurugidb.benchmark.phonebill.db.PhoneBillDbManager.CounterKey;
+import com.tsurugidb.benchmark.phonebill.db.PhoneBillDbManager.CounterName;
+import com.tsurugidb.benchmark.phonebill.db.TxLabel;
+import com.tsurugidb.benchmark.phonebill.online.TxStatistics;
+
+/**
+ * 実行中のベンチマークのメトリクスを、Prometheusのテキスト形式でHTTPで公開する.
+ * <p>
+ * GET /metrics に対して以下のメトリクスを返す。
+ * <ul>
+ *   <li> オンラインアプリのTXの遅延のパーセンタイルと、直近のスループット(TxStatistics)
+ *   <li> TXのラベルごとのコミット、abortなどのカウンタ(PhoneBillDbManager)
+ *   <li> 料金計算バッチの試行回数、abort回数と、計算対象のキューの状態
+ *   <li> tsurugidbのメモリ使用量(TsurugidbWatcher)
+ * </ul>
+ * リクエストは1つのデーモンスレッドで順に処理するので、本クラスがJVMの終了を妨げることはない。
+ * 認証を行わないので、デフォルトではループバックアドレスにのみバインドする。
+ */
+public class MetricsServer implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(MetricsServer.class);
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final int SO_TIMEOUT_MILLS = 5000;
+
+    /**
+     * 接続要求のキューの長さ
+     */
+    private static final int BACKLOG = 50;
+
+    private static MetricsServer instance;
+
+    private static volatile PhoneBill phoneBill;
+
+    private static volatile TsurugidbWatcher tsurugidbWatcher;
+
+    private final ServerSocket serverSocket;
+
+    /**
+     * 指定のアドレスとポートでメトリクスの公開を開始する。既に開始している場合は何もしない。
+     *
+     * @param bindAddress バインドするアドレス
+     * @param port ポート番号
+     * @throws IOException
+     */
+    public static synchronized void start(String bindAddress, int port) throws IOException {
+        if (instance == null) {
+            instance = new MetricsServer(InetAddress.getByName(bindAddress), port);
+        }
+    }
+
+    /**
+     * メトリクスを取得するPhoneBillを登録する
+     *
+     * @param phoneBill
+     */
+    public static void setPhoneBill(PhoneBill phoneBill) {
+        MetricsServer.phoneBill = phoneBill;
+    }
+
+    /**
+     * メトリクスを取得するTsurugidbWatcherを登録する
+     *
+     * @param tsurugidbWatcher
+     */
+    public static void setTsurugidbWatcher(TsurugidbWatcher tsurugidbWatcher) {
+        MetricsServer.tsurugidbWatcher = tsurugidbWatcher;
+    }
+
+    /**
+     * ループバックアドレスにバインドする
+     *
+     * @param port ポート番号、0の場合は空いているポートを使用する
+     * @throws IOException
+     */
+    MetricsServer(int port) throws IOException {
+        this(InetAddress.getLoopbackAddress(), port);
+    }
+
+    /**
+     * @param bindAddress バインドするアドレス
+     * @param port ポート番号、0の場合は空いているポートを使用する
+     * @throws IOException
+     */
+    MetricsServer(InetAddress bindAddress, int port) throws IOException {
+        serverSocket = new ServerSocket(port, BACKLOG, bindAddress);
+        Thread thread = new Thread(this::serve, "MetricsServer");
+        thread.setDaemon(true);
+        thread.start();
+        LOG.info("Serving metrics on {}:{}.", bindAddress.getHostAddress(), serverSocket.getLocalPort());
+    }
+
+    /**
+     * @return 使用しているポート番号
+     */
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return バインドしているアドレス
+     */
+    InetAddress getBindAddress() {
+        return serverSocket.getInetAddress();
+    }
+
+    private void serve() {
+        while (!serverSocket.isClosed()) {
+            try (Socket socket = serverSocket.accept()) {
+                handle(socket);
+            } catch (IOException e) {
+                if (serverSocket.isClosed()) {
+                    break;
+                }
+                LOG.warn("Failed to serve metrics.", e);
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to create metrics.", e);
+            }
+        }
+    }
+
+    private static void handle(Socket socket) throws IOException {
+        socket.setSoTimeout(SO_TIMEOUT_MILLS);
+        BufferedReader reader = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+        String requestLine = reader.readLine();
+        // ヘッダは使用しないので読み捨てる
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            // do nothing
+        }
+        String[] parts = requestLine == null ? new String[0] : requestLine.split(" ");
+        String status;
+        String body;
+        if (parts.length >= 2 && parts[0].equals("GET")
+                && (parts[1].equals("/metrics") || parts[1].startsWith("/metrics?"))) {
+            status = "200 OK";
+            body = createReport();
+        } else {
+            status = "404 Not Found";
+            body = "Not Found\n";
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        String header = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: " + CONTENT_TYPE + "\r\n"
+                + "Content-Length: " + bytes.length + "\r\n"
+                + "Connection: close\r\n\r\n";
+        OutputStream os = socket.getOutputStream();
+        os.write(header.getBytes(StandardCharsets.US_ASCII));
+        os.write(bytes);
+        os.flush();
+    }
+
+    /**
+     * 公開するメトリクスの文字列を作成する
+     *
+     * @return Prometheusのテキスト形式の文字列
+     */
+    static String createReport() {
+        StringBuilder sb = new StringBuilder(TxStatistics.getPrometheusReport());
+        appendCounters(sb);
+        PhoneBill pb = phoneBill;
+        if (pb != null) {
+            appendBatchMetrics(sb, pb.getTryCount(), pb.getAbortCount(), pb.getNumberOfQueuedTargets(),
+                    pb.getNumberOfRunningTargets(), pb.getNumberOfFinishedTargets());
+        }
+        TsurugidbWatcher watcher = tsurugidbWatcher;
+        if (watcher != null && watcher.getRss() >= 0) {
+            String name = "phonebill_server_memory_bytes";
+            sb.append("# HELP " + name + " Memory usage of tsurugidb.\n");
+            sb.append("# TYPE " + name + " gauge\n");
+            sb.append(name + "{type=\"rss\"} " + watcher.getRss() + "\n");
+            sb.append(name + "{type=\"vsz\"} " + watcher.getVsz() + "\n");
+        }
+        return sb.toString();
+    }
+
+    private static void appendCounters(StringBuilder sb) {
+        StringBuilder values = new StringBuilder();
+        String name = "phonebill_tx_counter_total";
+        for (TxLabel label : TxLabel.values()) {
+            for (CounterName counterName : CounterName.values()) {
+                int count = PhoneBillDbManager.getCounter(CounterKey.of(label, counterName));
+                if (count != 0) {
+                    values.append(name + "{label=\"" + label + "\",counter=\"" + counterName + "\"} " + count
+                            + "\n");
+                }
+            }
+        }
+        if (values.length() > 0) {
+            sb.append("# HELP " + name + " Transaction counters by tx label.\n");
+            sb.append("# TYPE " + name + " counter\n");
+            sb.append(values);
+        }
+    }
+
+    /**
+     * 料金計算バッチのメトリクスを追加する
+     *
+     * @param sb
+     * @param tryCount 試行回数
+     * @param abortCount abort回数
+     * @param queued キューで処理を待っている処理対象の数、キューを使用していない場合負の値
+     * @param running 処理中の処理対象の数
+     * @param finished 処理に成功した処理対象の数
+     */
+    static void appendBatchMetrics(StringBuilder sb, int tryCount, int abortCount, int queued, int running,
+            int finished) {
+        sb.append("# HELP phonebill_batch_tries_total Number of tries of billing transactions.\n");
+        sb.append("# TYPE phonebill_batch_tries_total counter\n");
+        sb.append("phonebill_batch_tries_total " + tryCount + "\n");
+        sb.append("# HELP phonebill_batch_aborts_total Number of aborts of billing transactions.\n");
+        sb.append("# TYPE phonebill_batch_aborts_total counter\n");
+        sb.append("phonebill_batch_aborts_total " + abortCount + "\n");
+        if (queued < 0) {
+            return;
+        }
+        sb.append("# HELP phonebill_batch_queue_targets Progress of the calculation target queue.\n");
+        sb.append("# TYPE phonebill_batch_queue_targets gauge\n");
+        sb.append("phonebill_batch_queue_targets{state=\"queued\"} " + queued + "\n");
+        sb.append("phonebill_batch_queue_targets{state=\"running\"} " + running + "\n");
+        sb.append("phonebill_batch_queue_targets{state=\"finished\"} " + finished + "\n");
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
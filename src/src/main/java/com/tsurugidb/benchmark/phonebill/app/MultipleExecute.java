@@ -62,12 +62,19 @@ import com.tsurugidb.benchmark.phonebill.testdata.CreateTestData;
 public class MultipleExecute extends ExecutableCommand {
     private static final String ENV_NAME = "DB_INIT_CMD";
 
+    /**
+     * オンラインアプリの統計情報の時系列を取得する間隔(ミリ秒)
+     */
+    private static final long TIME_SERIES_INTERVAL_MILLS = 1000;
+
     private static final Logger LOG = LoggerFactory.getLogger(MultipleExecute.class);
     private List<Record> records = new ArrayList<>();
     private Set<History> expectedHistories;
     private Set<Billing> expectedBillings;
     private String onlineAppReport = "# Online Application Report \n\n";
-    private String onlineAppCsvReport = "title,tx label,tx option,dedicated time[ms],numbers of txs,latency<br>avg[ms],latency<br>min[ms],latency<br>max[ms],committed tx through put[task/s]\n";
+    private String batchReport = "# Batch Report \n\n";
+    private String onlineAppCsvReport = "title,tx label,tx option,dedicated time[ms],numbers of txs,latency<br>avg[ms],latency<br>min[ms],latency<br>max[ms],latency<br>p50[ms],latency<br>p99[ms],latency<br>p99.9[ms],committed tx through put[task/s]\n";
+    private String onlineAppTimeSeriesCsvReport = "title,elapsed time[ms],tx label,numbers of txs,committed tx through put[task/s],latency avg[ms],latency p50[ms],latency p99[ms],latency p99.9[ms],latency max[ms]\n";
 
     public static void main(String[] args) throws Exception {
         MultipleExecute threadBench = new MultipleExecute();
@@ -93,6 +100,7 @@ public class MultipleExecute extends ExecutableCommand {
                 if (config.dbmsType.isTsurugi() && config.enableTsurugiWatcher) {
                     dbiInit();
                     task = new TsurugidbWatcher();
+                    MetricsServer.setTsurugidbWatcher(task);
                     future = service.submit(task);
                 }
                 initTestData(config, prevConfigHasOnlineApp);
@@ -100,8 +108,15 @@ public class MultipleExecute extends ExecutableCommand {
                 Record record = new Record(config);
                 records.add(record);
                 record.start();
+                if (config.hasOnlineApp()) {
+                    TxStatistics.startIntervalSnapshot(TIME_SERIES_INTERVAL_MILLS);
+                }
                 PhoneBill phoneBill = new PhoneBill();
-                phoneBill.execute(config);
+                try {
+                    phoneBill.execute(config);
+                } finally {
+                    TxStatistics.stopIntervalSnapshot();
+                }
                 record.finish(config, phoneBill.getTryCount(), phoneBill.getAbortCount());
                 if (!config.hasOnlineApp()) {
                     record.setNumberOfDiffrence(checkResult(config));
@@ -114,9 +129,11 @@ public class MultipleExecute extends ExecutableCommand {
                     record.setMemInfo(task.getVsz(), task.getRss());
                 }
                 writeResult(config);
+                writeBatchReport(config, phoneBill);
                 if (config.hasOnlineApp()) {
                     writeOnlineAppReport(config);
                     writeOnlineAppCsvReport(config);
+                    writeOnlineAppTimeSeriesCsvReport(config);
                 }
 
                 prevConfigHasOnlineApp = config.hasOnlineApp();
@@ -231,6 +248,30 @@ public class MultipleExecute extends ExecutableCommand {
         }
     }
 
+    /**
+     * バッチのレポートを出力する.
+     * <p>
+     * 現在はトランザクションスコープADAPTIVEで、1トランザクションで処理した契約数の推移を出力する。
+     *
+     * @param config
+     * @param phoneBill
+     */
+    private void writeBatchReport(Config config, PhoneBill phoneBill) {
+        String report = phoneBill.getAdaptiveTransactionScopeReport();
+        if (report == null) {
+            return;
+        }
+        String title = createTitile(config);
+        Path outputPath = Paths.get(config.reportDir).resolve("batch-report.md");
+        try {
+            batchReport = batchReport + "## " + title + "\n\n" + report + "\n";
+            LOG.debug("Writing batch reports to {}", outputPath.toAbsolutePath().toString());
+            Files.writeString(outputPath, batchReport);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     /**
      * オンラインアプリのレポートを出力する
      *
@@ -253,6 +294,23 @@ public class MultipleExecute extends ExecutableCommand {
         }
     }
 
+    /**
+     * オンラインアプリの統計情報の時系列をCSVに出力する
+     *
+     * @param config
+     */
+    private void writeOnlineAppTimeSeriesCsvReport(Config config) {
+        String title = createTitile(config);
+        Path outputPath = Paths.get(config.reportDir).resolve("online-app-timeseries.csv");
+        try {
+            onlineAppTimeSeriesCsvReport = onlineAppTimeSeriesCsvReport + TxStatistics.getTimeSeriesCsvReport(title);
+            LOG.debug("Writing online application time series to {}", outputPath.toAbsolutePath().toString());
+            Files.writeString(outputPath, onlineAppTimeSeriesCsvReport);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
     private void writeOnlineAppCsvReport(Config config) {
         String title = createTitile(config);
         Path outputPath = Paths.get(config.reportDir).resolve("online-app.csv");
@@ -378,6 +436,18 @@ public class MultipleExecute extends ExecutableCommand {
         sb.append("\n\n");
         sb.append(TxStatistics.getReport(baseline));
         sb.append("\n");
+        String intendedLatencyReport = TxStatistics.getIntendedLatencyReport();
+        if (!intendedLatencyReport.isEmpty()) {
+            sb.append("\n");
+            sb.append(intendedLatencyReport);
+            sb.append("\n");
+        }
+        String loadProfileReport = TxStatistics.getLoadProfileReport();
+        if (!loadProfileReport.isEmpty()) {
+            sb.append("\n");
+            sb.append(loadProfileReport);
+            sb.append("\n");
+        }
 
         return sb.toString();
     }
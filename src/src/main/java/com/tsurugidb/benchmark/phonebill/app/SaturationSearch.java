@@ -0,0 +1,293 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ToIntFunction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tsurugidb.benchmark.phonebill.app.billing.PhoneBill;
+import com.tsurugidb.benchmark.phonebill.db.TxLabel;
+import com.tsurugidb.benchmark.phonebill.online.AbstractOnlineApp;
+import com.tsurugidb.benchmark.phonebill.online.TxStatistics;
+import com.tsurugidb.benchmark.phonebill.testdata.ContractBlockInfoAccessor;
+import com.tsurugidb.benchmark.phonebill.testdata.DbContractBlockInfoInitializer;
+import com.tsurugidb.benchmark.phonebill.testdata.SingleProcessContractBlockManager;
+
+/**
+ * オンラインアプリケーションごとに、1分間の実行回数を段階的に増やしながら単独で実行し、
+ * 各ステップのスループットとp99の遅延を測定して、スループットが飽和する点(knee)を求める.
+ * <p>
+ * Configで1分間の実行回数に正の値が指定されたオンラインアプリケーションを対象とし、指定の値を初期値とする。
+ * 以下のいずれかの条件を満たすと、そのオンラインアプリケーションの探索を終了する。
+ * <ul>
+ *   <li> p99の遅延がSLOを超えた
+ *   <li> スループットの増加率が指定の値未満になった
+ *   <li> 最大ステップ数に達した
+ * </ul>
+ * SLOを満たすステップのうち、スループットが増加した最後のステップをkneeとする。
+ * 各ステップの測定結果はreportDirのsaturation-search.csvに出力する。
+ */
+public class SaturationSearch extends ExecutableCommand {
+    private static final Logger LOG = LoggerFactory.getLogger(SaturationSearch.class);
+
+    private static final String CSV_HEADER = "app,step,records per min,thread count,elapsed time[ms],numbers of txs,committed tx through put[task/s],latency p99[ms],result,knee\n";
+
+    private String csvReport = CSV_HEADER;
+
+    public static void main(String[] args) throws Exception {
+        SaturationSearch saturationSearch = new SaturationSearch();
+        Config config = Config.getConfig(args);
+        CrashDumper.enable();
+        saturationSearch.execute(config);
+        CrashDumper.disable();
+    }
+
+    @Override
+    public void execute(Config config) throws Exception {
+        if (config.saturationSearchRateFactor <= 1d) {
+            throw new IllegalArgumentException("Invalid saturation.search.rate.factor: "
+                    + config.saturationSearchRateFactor + ", it should be greater than 1.");
+        }
+        DbContractBlockInfoInitializer initializer = new DbContractBlockInfoInitializer(config);
+        ContractBlockInfoAccessor accessor = new SingleProcessContractBlockManager(initializer);
+
+        boolean searched = false;
+        for (Target target : Target.values()) {
+            int recordsPerMin = target.getRecordsPerMin(config);
+            if (target.getThreadCount(config) <= 0 || recordsPerMin == 0) {
+                continue;
+            }
+            if (recordsPerMin < 0) {
+                LOG.info("Skipping {}, records per min is negative (continuous execution).", target);
+                continue;
+            }
+            List<Step> steps = search(config, accessor, target);
+            Step knee = steps.stream().filter(s -> s.knee).findFirst().orElse(null);
+            if (knee == null) {
+                LOG.warn("{}: no knee found, the first step breached the latency SLO.", target);
+            } else {
+                LOG.info("{}: knee at {} records per min per thread, {} tx/s, p99 = {} ms", target,
+                        knee.recordsPerMin, String.format("%.3f", knee.throughput),
+                        String.format("%.3f", knee.p99Millis));
+            }
+            writeCsvReport(config, target, steps);
+            searched = true;
+        }
+        if (!searched) {
+            LOG.warn("No online application to search, exiting.");
+        }
+    }
+
+    /**
+     * 指定のオンラインアプリケーションの飽和点を探索する
+     *
+     * @param config
+     * @param accessor
+     * @param target
+     * @return 実行した各ステップの測定結果
+     * @throws Exception
+     */
+    private List<Step> search(Config config, ContractBlockInfoAccessor accessor, Target target) throws Exception {
+        List<Step> steps = new ArrayList<>();
+        Step knee = null;
+        int recordsPerMin = target.getRecordsPerMin(config);
+        for (int i = 1; i <= config.saturationSearchMaxSteps; i++) {
+            if (i > 1) {
+                recordsPerMin = Math.max(recordsPerMin + 1,
+                        (int) Math.round(recordsPerMin * config.saturationSearchRateFactor));
+            }
+            Step step = execStep(config, accessor, target, i, recordsPerMin);
+            step.result = judge(knee == null ? 0d : knee.throughput, step.throughput, step.p99Millis, config);
+            steps.add(step);
+            LOG.info("{}: step {}, {} records per min per thread, {} tx/s, p99 = {} ms, {}", target, i,
+                    recordsPerMin, String.format("%.3f", step.throughput), String.format("%.3f", step.p99Millis),
+                    step.result);
+            if (step.result != StepResult.CONTINUE) {
+                break;
+            }
+            knee = step;
+        }
+        if (knee != null) {
+            knee.knee = true;
+        }
+        return steps;
+    }
+
+    /**
+     * 指定のオンラインアプリケーションのみを、指定の1分間の実行回数で一定時間実行し、測定結果を返す
+     *
+     * @param config
+     * @param accessor
+     * @param target
+     * @param stepNumber
+     * @param recordsPerMin
+     * @return
+     * @throws Exception
+     */
+    private Step execStep(Config config, ContractBlockInfoAccessor accessor, Target target, int stepNumber,
+            int recordsPerMin) throws Exception {
+        Config stepConfig = config.clone();
+        for (Target t : Target.values()) {
+            t.setRecordsPerMin(stepConfig, 0);
+        }
+        target.setRecordsPerMin(stepConfig, recordsPerMin);
+
+        TxStatistics.clear();
+        List<AbstractOnlineApp> list = PhoneBill.createOnlineApps(stepConfig, accessor);
+        ExecutorService service = Executors.newFixedThreadPool(list.size());
+        long start = System.nanoTime();
+        try {
+            list.stream().forEach(task -> service.submit(task));
+            service.shutdown();
+            Thread.sleep(config.saturationSearchStepSecs * 1000L);
+        } finally {
+            list.stream().forEach(task -> task.terminate());
+            service.awaitTermination(5, TimeUnit.MINUTES);
+        }
+        long elapsedNanos = System.nanoTime() - start;
+        if (!list.stream().allMatch(task -> task.getTerminated())) {
+            throw new IllegalStateException("Online applications did not terminate: " + target);
+        }
+
+        // オープンループの場合はスケジュールした時刻から計測した遅延を使用する
+        boolean intended = stepConfig.onlineAppOpenLoop;
+        Step step = new Step();
+        step.stepNumber = stepNumber;
+        step.recordsPerMin = recordsPerMin;
+        step.threadCount = target.getThreadCount(stepConfig);
+        step.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        step.count = TxStatistics.getCount(false, target.labels);
+        step.throughput = step.count * 1e9d / elapsedNanos;
+        step.p99Millis = TxStatistics.getLatencyAtPercentile(99d, intended, target.labels);
+        return step;
+    }
+
+    /**
+     * ステップの測定結果から探索を続けるかを判定する
+     *
+     * @param bestThroughput それまでのステップの最大のスループット、最初のステップでは0
+     * @param throughput スループット
+     * @param p99Millis p99の遅延(ミリ秒)
+     * @param config
+     * @return
+     */
+    static StepResult judge(double bestThroughput, double throughput, double p99Millis, Config config) {
+        if (p99Millis > config.saturationSearchP99SloMillis) {
+            return StepResult.SLO_BREACHED;
+        }
+        if (bestThroughput > 0 && throughput < bestThroughput * (1d + config.saturationSearchMinThroughputGain)) {
+            return StepResult.SATURATED;
+        }
+        return StepResult.CONTINUE;
+    }
+
+    private void writeCsvReport(Config config, Target target, List<Step> steps) throws IOException {
+        StringBuilder sb = new StringBuilder(csvReport);
+        for (Step step : steps) {
+            sb.append(String.format("%s,%d,%d,%d,%d,%d,%.3f,%.3f,%s,%s%n", target, step.stepNumber,
+                    step.recordsPerMin, step.threadCount, step.elapsedMillis, step.count, step.throughput,
+                    step.p99Millis, step.result, step.knee));
+        }
+        csvReport = sb.toString();
+        Path outputPath = Paths.get(config.reportDir).resolve("saturation-search.csv");
+        LOG.debug("Writing saturation search results to {}", outputPath.toAbsolutePath().toString());
+        Files.writeString(outputPath, csvReport);
+    }
+
+    /**
+     * ステップの判定結果
+     */
+    static enum StepResult {
+        /**
+         * 探索を続ける
+         */
+        CONTINUE,
+        /**
+         * p99の遅延がSLOを超えた
+         */
+        SLO_BREACHED,
+        /**
+         * スループットが増加しなかった
+         */
+        SATURATED,
+    }
+
+    /**
+     * 1ステップの測定結果
+     */
+    private static class Step {
+        int stepNumber;
+        int recordsPerMin;
+        int threadCount;
+        long elapsedMillis;
+        long count;
+        double throughput;
+        double p99Millis;
+        StepResult result;
+        boolean knee = false;
+    }
+
+    /**
+     * 探索対象のオンラインアプリケーション
+     */
+    private static enum Target {
+        HISTORY_INSERT(c -> c.historyInsertTransactionPerMin, (c, v) -> c.historyInsertTransactionPerMin = v,
+                c -> c.historyInsertThreadCount, TxLabel.ONLINE_HISTORY_INSERT),
+        HISTORY_UPDATE(c -> c.historyUpdateRecordsPerMin, (c, v) -> c.historyUpdateRecordsPerMin = v,
+                c -> c.historyUpdateThreadCount, TxLabel.ONLINE_HISTORY_UPDATE),
+        MASTER_DELETE_INSERT(c -> c.masterDeleteInsertRecordsPerMin, (c, v) -> c.masterDeleteInsertRecordsPerMin = v,
+                c -> c.masterDeleteInsertThreadCount, TxLabel.ONLINE_MASTER_DELETE, TxLabel.ONLINE_MASTER_INSERT),
+        MASTER_UPDATE(c -> c.masterUpdateRecordsPerMin, (c, v) -> c.masterUpdateRecordsPerMin = v,
+                c -> c.masterUpdateThreadCount, TxLabel.ONLINE_MASTER_UPDATE);
+
+        private final ToIntFunction<Config> recordsPerMinGetter;
+        private final ObjIntConsumer<Config> recordsPerMinSetter;
+        private final ToIntFunction<Config> threadCountGetter;
+        private final TxLabel[] labels;
+
+        private Target(ToIntFunction<Config> recordsPerMinGetter, ObjIntConsumer<Config> recordsPerMinSetter,
+                ToIntFunction<Config> threadCountGetter, TxLabel... labels) {
+            this.recordsPerMinGetter = recordsPerMinGetter;
+            this.recordsPerMinSetter = recordsPerMinSetter;
+            this.threadCountGetter = threadCountGetter;
+            this.labels = labels;
+        }
+
+        int getRecordsPerMin(Config config) {
+            return recordsPerMinGetter.applyAsInt(config);
+        }
+
+        void setRecordsPerMin(Config config, int recordsPerMin) {
+            recordsPerMinSetter.accept(config, recordsPerMin);
+        }
+
+        int getThreadCount(Config config) {
+            return threadCountGetter.applyAsInt(config);
+        }
+    }
+}
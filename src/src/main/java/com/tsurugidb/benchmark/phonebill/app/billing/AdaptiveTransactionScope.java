@@ -0,0 +1,202 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongSupplier;
+
+import com.tsurugidb.benchmark.phonebill.app.Config;
+
+/**
+ * トランザクションスコープADAPTIVEで、1トランザクションで処理する契約数Kを決定するクラス.
+ * <p>
+ * AIMD(Additive Increase / Multiplicative Decrease)によりKを調整する。
+ * <ul>
+ * <li>コミットに成功し、トランザクションの処理時間が目標値以下の場合、Kを1増やす
+ * <li>トランザクションがabortした場合、または処理時間が目標値を超えた場合、Kを半分にする
+ * </ul>
+ * 複数の料金計算スレッドで共有して使用する。同時に実行していた複数のトランザクションの結果でKが過剰に変化しないよう、
+ * Kを増やすのはトランザクション開始時に取得したKが現在のKと等しい場合、Kを減らすのはトランザクション開始時に
+ * 取得したKが現在のK以下の場合(Kを減らす前に開始したトランザクションでない場合)に限る。
+ * <p>
+ * Kの推移は経過秒数ごとに記録し、{@link #getReport()}で出力する。
+ */
+public class AdaptiveTransactionScope {
+    /**
+     * Kの最小値
+     */
+    static final int MIN_SIZE = 1;
+
+    /**
+     * Kの最大値
+     */
+    private final int maxSize;
+
+    /**
+     * トランザクションの処理時間の目標値(ナノ秒)
+     */
+    private final long targetLatencyNanos;
+
+    /**
+     * 現在のK
+     */
+    private int size;
+
+    /**
+     * 経過時間を取得するためのクロック(ナノ秒)
+     */
+    private final LongSupplier clock;
+
+    /**
+     * 計測開始時刻(ナノ秒)
+     */
+    private final long startNanos;
+
+    /**
+     * 経過秒数ごとの統計情報
+     */
+    private final Map<Long, Interval> intervals = new TreeMap<>();
+
+
+    /**
+     * コンストラクタ
+     *
+     * @param config
+     */
+    public AdaptiveTransactionScope(Config config) {
+        this(config.adaptiveScopeInitialSize, config.adaptiveScopeMaxSize,
+                config.adaptiveScopeTargetLatencyMillis, System::nanoTime);
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param initialSize Kの初期値
+     * @param maxSize Kの最大値
+     * @param targetLatencyMillis トランザクションの処理時間の目標値(ミリ秒)
+     * @param clock 経過時間を取得するためのクロック(ナノ秒)
+     */
+    AdaptiveTransactionScope(int initialSize, int maxSize, long targetLatencyMillis, LongSupplier clock) {
+        if (maxSize < MIN_SIZE) {
+            throw new IllegalArgumentException("maxSize must be greater than 0: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.size = Math.max(MIN_SIZE, Math.min(maxSize, initialSize));
+        this.targetLatencyNanos = targetLatencyMillis * 1000 * 1000;
+        this.clock = clock;
+        this.startNanos = clock.getAsLong();
+    }
+
+    /**
+     * 次のトランザクションで処理する契約数Kを返す
+     *
+     * @return
+     */
+    public synchronized int getSize() {
+        return size;
+    }
+
+    /**
+     * トランザクションがコミットしたことを通知する
+     *
+     * @param plannedSize トランザクション開始時に取得したK
+     * @param contracts トランザクションで処理した契約数
+     * @param latencyNanos トランザクションの処理時間(ナノ秒)
+     */
+    public synchronized void onCommit(int plannedSize, int contracts, long latencyNanos) {
+        Interval interval = getInterval();
+        interval.commits++;
+        interval.contracts += contracts;
+        if (latencyNanos > targetLatencyNanos) {
+            decrease(plannedSize);
+        } else if (plannedSize == size && contracts >= plannedSize) {
+            // 処理対象が不足してK件に満たなかった場合はKを増やさない
+            size = Math.min(maxSize, size + 1);
+        }
+        interval.update(size);
+    }
+
+    /**
+     * トランザクションがabortしたことを通知する
+     *
+     * @param plannedSize トランザクション開始時に取得したK
+     */
+    public synchronized void onAbort(int plannedSize) {
+        Interval interval = getInterval();
+        interval.aborts++;
+        decrease(plannedSize);
+        interval.update(size);
+    }
+
+    private void decrease(int plannedSize) {
+        if (plannedSize <= size) {
+            size = Math.max(MIN_SIZE, size / 2);
+        }
+    }
+
+    private Interval getInterval() {
+        long sec = (clock.getAsLong() - startNanos) / (1000L * 1000 * 1000);
+        return intervals.computeIfAbsent(sec, k -> new Interval(size));
+    }
+
+    /**
+     * 経過秒数ごとのKの推移のレポートを作成する
+     *
+     * @return
+     */
+    public synchronized String getReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("| elapsed[s] | K(min) | K(max) | K(last) | commits | aborts | abort rate | contracts/tx |");
+        sb.append("\n");
+        sb.append("|-----------:|-------:|-------:|--------:|--------:|-------:|-----------:|-------------:|");
+        sb.append("\n");
+        for (Map.Entry<Long, Interval> entry : intervals.entrySet()) {
+            Interval i = entry.getValue();
+            int txs = i.commits + i.aborts;
+            sb.append(String.format("|%d|%d|%d|%d|%,d|%,d|%.3f|%.1f|", entry.getKey(), i.minSize, i.maxSize,
+                    i.lastSize, i.commits, i.aborts, txs == 0 ? 0d : (double) i.aborts / txs,
+                    i.commits == 0 ? 0d : (double) i.contracts / i.commits));
+            sb.append("\n");
+        }
+        return sb.toString();
+    }
+
+
+    /**
+     * 1秒間の統計情報
+     */
+    private static class Interval {
+        int minSize;
+        int maxSize;
+        int lastSize;
+        int commits = 0;
+        int aborts = 0;
+        long contracts = 0;
+
+        Interval(int size) {
+            minSize = size;
+            maxSize = size;
+            lastSize = size;
+        }
+
+        void update(int size) {
+            minSize = Math.min(minSize, size);
+            maxSize = Math.max(maxSize, size);
+            lastSize = size;
+        }
+    }
+}
@@ -23,6 +23,17 @@ public interface BillingCalculator {
 	 */
 	public void addCallCharge(int callCharge);
 
+	/**
+	 * 通話料金の配列の通話料金をすべて追加する
+	 *
+	 * @param callCharges
+	 */
+	public default void addCallCharges(int[] callCharges) {
+		for (int callCharge : callCharges) {
+			addCallCharge(callCharge);
+		}
+	}
+
 	/**
 	 * 基本料金を返す
 	 */
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import java.sql.Date;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+import com.tsurugidb.benchmark.phonebill.util.DateUtils;
+
+/**
+ * 複数月の料金計算を1回のバッチで行うときの、計算対象月の一覧.
+ * <p>
+ * 複数月の料金計算では、計算対象期間のいずれかの月に有効な契約を1回で読み込み、契約ごとに計算対象期間全体の
+ * 通話履歴を1回で読み込む。読み込んだ通話履歴は通話開始時刻で月ごとに振り分け、契約が有効な月ごとに請求情報を作成する。
+ * 契約が有効でない月の通話履歴は、月ごとに料金計算を行う場合と同様に計算の対象としない。
+ */
+public class BillingMonths {
+    /**
+     * 各計算対象月の初日
+     */
+    private final List<LocalDate> months;
+
+    /**
+     * コンストラクタ
+     *
+     * @param start 計算対象期間の最初の日
+     * @param end 計算対象期間の最後の日
+     */
+    public BillingMonths(Date start, Date end) {
+        LocalDate first = start.toLocalDate().withDayOfMonth(1);
+        LocalDate last = end.toLocalDate();
+        if (last.isBefore(first)) {
+            throw new IllegalArgumentException("Illegal duration: start = " + start + ", end = " + end);
+        }
+        List<LocalDate> list = new ArrayList<>();
+        for (LocalDate month = first; !month.isAfter(last); month = month.plusMonths(1)) {
+            list.add(month);
+        }
+        months = Collections.unmodifiableList(list);
+    }
+
+    /**
+     * 計算対象期間が複数の月にまたがるかを判定する
+     *
+     * @param start 計算対象期間の最初の日、nullの場合はfalseを返す
+     * @param end 計算対象期間の最後の日、nullの場合はfalseを返す
+     * @return
+     */
+    public static boolean isMultiMonth(Date start, Date end) {
+        if (start == null || end == null) {
+            return false;
+        }
+        LocalDate s = start.toLocalDate();
+        LocalDate e = end.toLocalDate();
+        return s.getYear() != e.getYear() || s.getMonth() != e.getMonth();
+    }
+
+    /**
+     * @return 計算対象月の数
+     */
+    public int size() {
+        return months.size();
+    }
+
+    /**
+     * @param index
+     * @return 指定の計算対象月の初日
+     */
+    public Date getMonth(int index) {
+        return Date.valueOf(months.get(index));
+    }
+
+    /**
+     * @return 全計算対象月の初日
+     */
+    public List<Date> getMonths() {
+        List<Date> list = new ArrayList<>(months.size());
+        for (LocalDate month : months) {
+            list.add(Date.valueOf(month));
+        }
+        return list;
+    }
+
+    /**
+     * 指定の時刻を含む計算対象月を返す
+     *
+     * @param time Epocミリ秒
+     * @return 計算対象月のインデックス、計算対象期間外の場合は-1
+     */
+    public int indexOf(long time) {
+        LocalDate date = DateUtils.toLocalDate(time);
+        LocalDate first = months.get(0);
+        int index = (date.getYear() - first.getYear()) * 12 + date.getMonthValue() - first.getMonthValue();
+        return index < 0 || index >= months.size() ? -1 : index;
+    }
+
+    /**
+     * 契約が指定の計算対象月に有効かを判定する
+     *
+     * @param contract
+     * @param index 計算対象月のインデックス
+     * @return
+     */
+    public boolean isValid(Contract contract, int index) {
+        LocalDate month = months.get(index);
+        LocalDate lastDay = month.plusMonths(1).minusDays(1);
+        LocalDate endDate = contract.getEndDateAsLocalDate();
+        return !contract.getStartDateAsLocalDate().isAfter(lastDay) && (endDate == null || !endDate.isBefore(month));
+    }
+
+    @Override
+    public String toString() {
+        return months.toString();
+    }
+}
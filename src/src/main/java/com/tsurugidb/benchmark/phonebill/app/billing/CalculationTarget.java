@@ -16,8 +16,10 @@
 package com.tsurugidb.benchmark.phonebill.app.billing;
 
 import java.sql.Date;
+import java.util.List;
 
 import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+import com.tsurugidb.benchmark.phonebill.db.entity.History;
 
 /**
  * 料金計算対象の契約と、計算ロジックを格納するクラス
@@ -48,6 +50,16 @@ public class CalculationTarget {
 	 */
 	private Long end;
 
+	/**
+	 * 先読みした通話履歴、先読みしていない場合はnull
+	 */
+	private volatile List<History> prefetchedHistories;
+
+	/**
+	 * abortを繰り返したため、再処理の最終フェーズで処理する場合true
+	 */
+	private volatile boolean finalPhase = false;
+
 	/**
 	 * @param contract
 	 * @param billingCalculator
@@ -109,6 +121,40 @@ public class CalculationTarget {
 		return end == null ? null : new Date(end);
 	}
 
+	/**
+	 * 先読みした通話履歴をセットする
+	 *
+	 * @param histories
+	 */
+	public void setPrefetchedHistories(List<History> histories) {
+		this.prefetchedHistories = histories;
+	}
+
+	/**
+	 * 先読みした通話履歴を取り出す。取り出した通話履歴は破棄され、次回の呼び出しではnullを返す。
+	 *
+	 * @return 先読みした通話履歴、先読みしていない場合はnull
+	 */
+	public List<History> takePrefetchedHistories() {
+		List<History> histories = prefetchedHistories;
+		prefetchedHistories = null;
+		return histories;
+	}
+
+	/**
+	 * @return 再処理の最終フェーズで処理する場合true
+	 */
+	public boolean isFinalPhase() {
+		return finalPhase;
+	}
+
+	/**
+	 * @param finalPhase 再処理の最終フェーズで処理する場合true
+	 */
+	public void setFinalPhase(boolean finalPhase) {
+		this.finalPhase = finalPhase;
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
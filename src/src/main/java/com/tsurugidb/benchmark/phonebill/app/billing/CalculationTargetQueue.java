@@ -66,6 +66,14 @@ public class CalculationTargetQueue {
 	}
 
 
+	/**
+	 * サブクラス用のコンストラクタ。サブクラスは本クラスのpublicメソッドをすべてオーバーライドすること。
+	 */
+	protected CalculationTargetQueue() {
+		queue = null;
+		finished = false;
+	}
+
 
 	private void updateSatus() {
 		status = "Contracts queue status: total size = " + numberOfTargts + ", in queue = "
@@ -73,6 +81,19 @@ public class CalculationTargetQueue {
 	}
 
 
+	/**
+	 * 呼び出したスレッドを指定の番号のワーカとして登録する. ワーカごとに処理対象を割り当てるQueueは、
+	 * 登録したスレッドにそのワーカの処理対象を渡す。本クラスはワーカを区別しないので何もしない。
+	 * <p>
+	 * CalculationTaskのスレッドが処理対象を取り出す前に呼び出す。
+	 *
+	 * @param index ワーカの番号(0以上ワーカ数未満)
+	 */
+	public void registerWorker(int index) {
+		// Nothing to do
+	}
+
+
 	/**
 	 * キューの状態を表す文字列を返す
 	 */
@@ -81,6 +102,36 @@ public class CalculationTargetQueue {
 	}
 
 
+	/**
+	 * Queue内で処理を待っている処理対象の数を返す
+	 *
+	 * @return
+	 */
+	public synchronized int getNumberOfQueuedTargets() {
+		return queue.size();
+	}
+
+
+	/**
+	 * 処理中の処理対象の数を返す
+	 *
+	 * @return
+	 */
+	public synchronized int getNumberOfRunningTargets() {
+		return numberOfRunningTargets;
+	}
+
+
+	/**
+	 * 処理に成功した処理対象の数を返す
+	 *
+	 * @return
+	 */
+	public synchronized int getNumberOfFinishedTargets() {
+		return numberOfTargts - queue.size() - numberOfRunningTargets;
+	}
+
+
 	/**
 	 * Queueから処理対象を取り出す。queueが空で処理中が0の場合はnullを返す。
 	 * 処理対象を取得できるかnullを返す状況になるまでこのメソッドはブロックする。
@@ -24,8 +24,15 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
@@ -43,6 +50,7 @@ import com.tsurugidb.benchmark.phonebill.db.dao.HistoryDao;
 import com.tsurugidb.benchmark.phonebill.db.entity.Billing;
 import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
 import com.tsurugidb.benchmark.phonebill.db.entity.History;
+import com.tsurugidb.benchmark.phonebill.db.entity.HistoryColumns;
 
 public class CalculationTask implements Callable<Exception> {
     private static final Logger LOG = LoggerFactory.getLogger(CalculationTask.class);
@@ -52,21 +60,41 @@ public class CalculationTask implements Callable<Exception> {
     private AtomicBoolean abortRequested;
     private AtomicInteger tryCounter;
     private AtomicInteger abortCounter;
-    private int nCalculated = 0;
+    private AtomicLong skippedWriteCounter;
+    private AtomicInteger nCalculated = new AtomicInteger(0);
     private TxOption txOption = null;
 
+    /**
+     * 再処理の最終フェーズの処理対象に使用するTxOption
+     */
+    private TxOption finalPhaseTxOption = TxOption.ofLTX(0, TxLabel.BATCH_MAIN, Table.HISTORY, Table.BILLING);
+
     Calculator calculator;
 
+    /**
+     * コミットを重ねて実行するときに、2つ目のセッションで使用するCalculator、重ねない場合はnull
+     */
+    Calculator overlapCalculator;
+
+    /**
+     * トランザクションスコープがADAPTIVEのときに1トランザクションで処理する契約数を決定するオブジェクト、
+     * ADAPTIVE以外のときはnull
+     */
+    private AdaptiveTransactionScope adaptiveScope;
+
 
     /**
      * 計算対象が格納されているQueue
      */
     private CalculationTargetQueue queue;
 
-    // DBManagerとDAO
+    // DBManager
     private PhoneBillDbManager manager;
-    private BillingDao billingDao;
-    private HistoryDao historyDao;
+
+    /**
+     * コミットを重ねて実行するときに使用する2つ目のDBManager、重ねない場合はnull
+     */
+    private PhoneBillDbManager overlapManager;
 
     /**
      * コンストラクタ
@@ -76,16 +104,64 @@ public class CalculationTask implements Callable<Exception> {
      */
     public CalculationTask(CalculationTargetQueue queue, PhoneBillDbManager manager,  Config config, String batchExecId,
             AtomicBoolean abortRequested, AtomicInteger tryCounter, AtomicInteger abortCounter) {
+        this(queue, manager, config, batchExecId, abortRequested, tryCounter, abortCounter, null, new AtomicLong(0));
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param queue
+     * @param manager
+     * @param config
+     * @param batchExecId
+     * @param abortRequested
+     * @param tryCounter
+     * @param abortCounter
+     * @param adaptiveScope 複数のタスクで共有するAdaptiveTransactionScope、nullの場合でトランザクションスコープが
+     *            ADAPTIVEのときはタスク専用のAdaptiveTransactionScopeを使用する
+     * @param skippedWriteCounter 料金が変化しないため更新しなかった通話履歴の数(コミットしたトランザクションの分のみ)
+     */
+    public CalculationTask(CalculationTargetQueue queue, PhoneBillDbManager manager, Config config,
+            String batchExecId, AtomicBoolean abortRequested, AtomicInteger tryCounter, AtomicInteger abortCounter,
+            AdaptiveTransactionScope adaptiveScope, AtomicLong skippedWriteCounter) {
+        this(queue, manager, config, batchExecId, abortRequested, tryCounter, abortCounter, adaptiveScope,
+                skippedWriteCounter, null);
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param queue
+     * @param manager
+     * @param config
+     * @param batchExecId
+     * @param abortRequested
+     * @param tryCounter
+     * @param abortCounter
+     * @param adaptiveScope
+     * @param skippedWriteCounter
+     * @param overlapManager コミットを重ねて実行するときに使用する、managerとは別のセッションのDBManager、
+     *            nullの場合やトランザクションスコープがCONTRACTでない場合はコミットを重ねない
+     */
+    public CalculationTask(CalculationTargetQueue queue, PhoneBillDbManager manager, Config config,
+            String batchExecId, AtomicBoolean abortRequested, AtomicInteger tryCounter, AtomicInteger abortCounter,
+            AdaptiveTransactionScope adaptiveScope, AtomicLong skippedWriteCounter, PhoneBillDbManager overlapManager) {
         this.queue = queue;
         this.config = config;
         this.batchExecId = batchExecId;
         this.abortRequested = abortRequested;
         this.tryCounter = tryCounter;
         this.abortCounter = abortCounter;
+        this.skippedWriteCounter = skippedWriteCounter;
         this.manager = manager;
-        billingDao = manager.getBillingDao();
-        historyDao = manager.getHistoryDao();
-        calculator = new CalculatorImpl();
+        calculator = new CalculatorImpl(manager);
+        if (overlapManager != null && config.transactionScope == TransactionScope.CONTRACT) {
+            this.overlapManager = overlapManager;
+            overlapCalculator = new CalculatorImpl(overlapManager);
+        }
+        if (config.transactionScope == TransactionScope.ADAPTIVE) {
+            this.adaptiveScope = adaptiveScope == null ? new AdaptiveTransactionScope(config) : adaptiveScope;
+        }
         switch (config.transactionOption) {
         case OCC:
             txOption = TxOption.ofOCC(0, TxLabel.BATCH_MAIN);
@@ -101,7 +177,9 @@ public class CalculationTask implements Callable<Exception> {
         LOG.info("Calculation task started.");
         Timer timer = new Timer(txOption);
 
-        if (config.transactionScope == TransactionScope.CONTRACT) {
+        if (overlapManager != null) {
+            return callOverlapped();
+        } else if (config.transactionScope == TransactionScope.CONTRACT) {
             while (continueLoop()) {
                 CalculationTarget target = queue.take();
                 if (target == null) {
@@ -111,17 +189,20 @@ public class CalculationTask implements Callable<Exception> {
                 LOG.debug(queue.getStatus());
                 TransactionId tid = new TransactionId();
                 AtomicInteger records = new AtomicInteger(0);
+                TxOption option = target.isFinalPhase() ? finalPhaseTxOption : txOption;
                 try {
-                    manager.execute(txOption, () -> {
+                    manager.execute(option, () -> {
                         tryCounter.incrementAndGet();
+                        calculator.resetSkippedWrites();
                         tid.set(manager.getTransactionId());
                         timer.setStartTx(tid, phoneNumber);
                         records.addAndGet(calculator.doCalc(target));
                         timer.setStartCommit(phoneNumber);
                     });
                     queue.success(target);
+                    skippedWriteCounter.addAndGet(calculator.getSkippedWrites());
                     timer.setEndCommit(phoneNumber, records.get());
-                    nCalculated++;
+                    nCalculated.incrementAndGet();
                 } catch (RuntimeException e) {
                     abortCounter.incrementAndGet();
                     queue.revert(target);
@@ -135,6 +216,7 @@ public class CalculationTask implements Callable<Exception> {
             }
         } else {
             while (continueLoop()) {
+                int plannedSize = adaptiveScope == null ? Integer.MAX_VALUE : adaptiveScope.getSize();
                 List<CalculationTarget> list = new ArrayList<>();
                 CalculationTarget firstTarget = queue.take();
                 if (firstTarget == null) {
@@ -143,14 +225,20 @@ public class CalculationTask implements Callable<Exception> {
                 LOG.debug(queue.getStatus());
                 list.add(firstTarget);
                 TransactionId tid = new TransactionId();
+                long startNanos = System.nanoTime();
+                // 再処理の最終フェーズの処理対象はLTXで単独で処理する
+                boolean finalPhase = firstTarget.isFinalPhase();
+                TxOption option = finalPhase ? finalPhaseTxOption : txOption;
                 try {
                     AtomicInteger records = new AtomicInteger(0);
-                    manager.execute(txOption, () -> {
+                    manager.execute(option, () -> {
                         tid.set(manager.getTransactionId());
                         timer.setStartTx(tid, "-");
                         tryCounter.incrementAndGet();
+                        calculator.resetSkippedWrites();
                         calculator.doCalc(firstTarget);
-                        while (abortRequested.get() == false) {
+                        // トランザクションスコープがADAPTIVEの場合はK件まで、WHOLEの場合はキューが空になるまで処理する
+                        while (abortRequested.get() == false && !finalPhase && list.size() < plannedSize) {
                             CalculationTarget target;
                             target = queue.poll();
                             if (target == null) {
@@ -163,15 +251,22 @@ public class CalculationTask implements Callable<Exception> {
                         }
                         timer.setStartCommit("-");
                     });
-                    nCalculated += list.size();
+                    nCalculated.addAndGet(list.size());
+                    skippedWriteCounter.addAndGet(calculator.getSkippedWrites());
                     timer.setEndCommit("-", records.get());
                     queue.success(list);
+                    if (adaptiveScope != null && !finalPhase) {
+                        adaptiveScope.onCommit(plannedSize, list.size(), System.nanoTime() - startNanos);
+                    }
                 } catch (RuntimeException e) {
                     abortCounter.incrementAndGet();
                     PhoneBillDbManager.addRetringExceptions(e);
                     // 処理対象をキューに戻す
                     queue.revert(list);
                     timer.setAbort("-", e);
+                    if (adaptiveScope != null && !finalPhase) {
+                        adaptiveScope.onAbort(plannedSize);
+                    }
                     if (!(e instanceof RetryOverRuntimeException)) {
                         LOG.error("Calculation task aborting by exception.", e);
                         return e;
@@ -182,6 +277,153 @@ public class CalculationTask implements Callable<Exception> {
         return null;
     }
 
+    /**
+     * 2つのセッションを交互に使用し、一方のセッションのトランザクションのコミット中に、もう一方のセッションで
+     * 次の契約の料金計算を行う.
+     * <p>
+     * 料金計算はこのタスクのスレッドで行い、コミットはタスクごとに1つ用意したコミット用のスレッドで行う
+     * (PhoneBillDbManager.executeWithAsyncCommit())。処理対象のsuccessとrevertはコミットの終了時に
+     * コミット用のスレッドで行う。同じセッションの次のトランザクションは、前のトランザクションのコミットが
+     * 終了してから開始するので、1つのタスクで同時に存在するトランザクションは料金計算中とコミット中の最大2つになる。
+     *
+     * @return 処理を中断した例外、正常終了時はnull
+     * @throws InterruptedException
+     */
+    private Exception callOverlapped() throws InterruptedException {
+        String threadName = Thread.currentThread().getName();
+        ExecutorService committer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, threadName + "-commit");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicReference<Exception> cause = new AtomicReference<>();
+        List<Lane> lanes = new ArrayList<>(2);
+        lanes.add(new Lane(manager, calculator, committer, cause));
+        lanes.add(new Lane(overlapManager, overlapCalculator, committer, cause));
+        try {
+            for (int i = 0; cause.get() == null && continueLoop();) {
+                Lane lane = lanes.get(i);
+                // 前回このセッションで開始したトランザクションのコミットの終了を待つ
+                lane.awaitCommit();
+                if (cause.get() != null) {
+                    break;
+                }
+                // コミット中の処理対象はコミット用のスレッドでsuccessまたはrevertされるので、take()で待ってよい
+                CalculationTarget target = queue.take();
+                if (target == null) {
+                    continue;
+                }
+                LOG.debug(queue.getStatus());
+                lane.start(target);
+                i = 1 - i;
+            }
+        } finally {
+            for (Lane lane : lanes) {
+                lane.awaitCommit();
+            }
+            committer.shutdown();
+        }
+        if (cause.get() != null) {
+            LOG.error("Calculation task aborting by exception.", cause.get());
+        }
+        return cause.get();
+    }
+
+    /**
+     * コミットを重ねて実行するときの、1つのセッションとそのセッションでコミット中のトランザクション
+     */
+    private class Lane {
+        private final PhoneBillDbManager laneManager;
+        private final Calculator laneCalculator;
+        private final Timer timer = new Timer(txOption);
+        private final Executor committer;
+
+        /**
+         * リトライできない例外でトランザクションが失敗した場合に、その例外を格納する
+         */
+        private final AtomicReference<Exception> cause;
+
+        /**
+         * コミット中のトランザクションのコミットの終了、コミット中でない場合null
+         */
+        private CompletableFuture<Void> committed = null;
+
+        Lane(PhoneBillDbManager laneManager, Calculator laneCalculator, Executor committer,
+                AtomicReference<Exception> cause) {
+            this.laneManager = laneManager;
+            this.laneCalculator = laneCalculator;
+            this.committer = committer;
+            this.cause = cause;
+        }
+
+        /**
+         * 処理対象の料金計算を行い、コミットをコミット用のスレッドに依頼する
+         *
+         * @param target
+         */
+        void start(CalculationTarget target) {
+            String phoneNumber = target.getContract().getPhoneNumber();
+            TransactionId tid = new TransactionId();
+            AtomicInteger records = new AtomicInteger(0);
+            TxOption option = target.isFinalPhase() ? finalPhaseTxOption : txOption;
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            try {
+                laneManager.executeWithAsyncCommit(option, () -> {
+                    tryCounter.incrementAndGet();
+                    laneCalculator.resetSkippedWrites();
+                    tid.set(laneManager.getTransactionId());
+                    timer.setStartTx(tid, phoneNumber);
+                    records.addAndGet(laneCalculator.doCalc(target));
+                    timer.setStartCommit(phoneNumber);
+                }, committer, e -> {
+                    // コミットの終了時に、コミット用のスレッドで処理対象の成功または失敗を記録する
+                    if (e == null) {
+                        queue.success(target);
+                        skippedWriteCounter.addAndGet(laneCalculator.getSkippedWrites());
+                        timer.setEndCommit(phoneNumber, records.get());
+                        nCalculated.incrementAndGet();
+                    } else {
+                        abort(target, e);
+                    }
+                    future.complete(null);
+                });
+                committed = future;
+            } catch (RuntimeException e) {
+                abort(target, e);
+            }
+        }
+
+        /**
+         * コミット中のトランザクションがあれば、コミットの終了を待つ
+         *
+         * @throws InterruptedException
+         */
+        void awaitCommit() throws InterruptedException {
+            if (committed == null) {
+                return;
+            }
+            try {
+                committed.get();
+            } catch (ExecutionException e) {
+                // コミットの終了時にcompleteするだけなので発生しない
+                throw new IllegalStateException(e);
+            } finally {
+                committed = null;
+            }
+        }
+
+        private void abort(CalculationTarget target, RuntimeException e) {
+            abortCounter.incrementAndGet();
+            queue.revert(target);
+            PhoneBillDbManager.addRetringExceptions(e);
+            timer.setAbort(target.getContract().getPhoneNumber(), e);
+            if (!(e instanceof RetryOverRuntimeException)) {
+                LOG.debug("Calculation task aborted.", e);
+                cause.compareAndSet(null, e);
+            }
+        }
+    }
+
     private boolean continueLoop() {
         if (abortRequested.get() == true) {
             LOG.info("Calculation task finished by abort rquest, number of calculated contracts = {}.", nCalculated);
@@ -199,30 +441,6 @@ public class CalculationTask implements Callable<Exception> {
     }
 
 
-    /**
-     * Billingテーブルを更新する
-     *
-     * @param contract
-     * @param billingCalculator
-     * @param targetMonth
-     */
-    private void updateBilling(Contract contract, BillingCalculator billingCalculator, Date targetMonth) {
-        LOG.debug(
-                "Inserting to billing table: phone_number = {}, target_month = {}"
-                        + ", basic_charge = {}, metered_charge = {}, billing_amount = {}, batch_exec_id = {} ",
-                contract.getPhoneNumber(), targetMonth, billingCalculator.getBasicCharge(),
-                billingCalculator.getMeteredCharge(), billingCalculator.getBillingAmount(), batchExecId);
-        Billing billing = new Billing();
-        billing.setPhoneNumber(contract.getPhoneNumber());
-        billing.setTargetMonth(targetMonth);
-        billing.setBasicCharge(billingCalculator.getBasicCharge());
-        billing.setMeteredCharge(billingCalculator.getMeteredCharge());
-        billing.setBillingAmount(billingCalculator.getBillingAmount());
-        billing.setBatchExecId(batchExecId);
-        billingDao.insert(billing);
-    }
-
-
     // call()のUTのために、doCalcメソッドを置き換え可能にする。
 
     protected void setCalculator(Calculator calculator) {
@@ -238,32 +456,253 @@ public class CalculationTask implements Callable<Exception> {
          * @return 更新したレコード数
          */
         int doCalc(CalculationTarget target);
+
+        /**
+         * 料金が変化しないため更新しなかった通話履歴の数を0にする
+         */
+        default void resetSkippedWrites() {
+        }
+
+        /**
+         * @return 前回resetSkippedWrites()を呼び出してから、料金が変化しないため更新しなかった通話履歴の数
+         */
+        default int getSkippedWrites() {
+            return 0;
+        }
     }
 
     protected class CalculatorImpl implements Calculator {
+        private final BillingDao billingDao;
+        private final HistoryDao historyDao;
+
+        /**
+         * 実行中のトランザクションで、料金が変化しないため更新しなかった通話履歴の数
+         */
+        private int skippedWrites = 0;
+
+        /**
+         * @param manager 料金計算に使用するDBManager
+         */
+        CalculatorImpl(PhoneBillDbManager manager) {
+            billingDao = manager.getBillingDao();
+            historyDao = manager.getHistoryDao();
+        }
+
+        @Override
+        public void resetSkippedWrites() {
+            skippedWrites = 0;
+        }
+
+        @Override
+        public int getSkippedWrites() {
+            return skippedWrites;
+        }
+
         @Override
         public int doCalc(CalculationTarget target) {
             LOG.debug("Start calculation for  contract: {}.", target.getContract());
 
             Contract contract = target.getContract();
 
-            List<History> histories = historyDao.getHistories(target);
+            // 計算対象期間が複数の月にまたがる場合は、月ごとに請求情報を作成する
+            boolean multiMonth = BillingMonths.isMultiMonth(target.getStart(), target.getEnd());
+
+            // 先読み済みの通話履歴があればそれを使用する
+            List<History> histories = target.takePrefetchedHistories();
+            if (histories == null && config.enableColumnarFetch && !multiMonth) {
+                return doCalcColumnar(target);
+            }
+            if (histories == null) {
+                histories = historyDao.getHistories(target);
+            }
             LOG.info("calculation: phone_number = {}, count = {}", target.getContract().getPhoneNumber(), histories.size());
+            if (multiMonth) {
+                return doCalcMultiMonth(target, new BillingMonths(target.getStart(), target.getEnd()), histories);
+            }
 
             CallChargeCalculator callChargeCalculator = target.getCallChargeCalculator();
             BillingCalculator billingCalculator = target.getBillingCalculator();
             billingCalculator.init();
+            List<History> changed = config.skipUnchangedCharge ? new ArrayList<>() : null;
             for (History h : histories) {
                 if (h.getTimeSecs() < 0) {
                     throw new RuntimeException("Negative time: " + h.getTimeSecs());
                 }
-                h.setCharge(callChargeCalculator.calc(h.getTimeSecs()));
+                int charge = callChargeCalculator.calc(h.getTimeSecs());
+                if (changed != null && isChargeChanged(h.getCharge(), charge)) {
+                    changed.add(h);
+                }
+                h.setCharge(charge);
                 billingCalculator.addCallCharge(h.getCharge());
             }
-            historyDao.batchUpdateNonKeyFields(histories);
+            int updated;
+            if (changed == null) {
+                historyDao.batchUpdateNonKeyFields(histories);
+                updated = histories.size();
+            } else {
+                updated = updateCharges(changed, histories.size());
+            }
             updateBilling(contract, billingCalculator, target.getStart());
-            return histories.size() + 1; // +1はupdateBillingの分
+            return updated + 1; // +1はupdateBillingの分
         }
+
+        /**
+         * 複数月の料金計算を行う. 通話履歴を通話開始時刻で月ごとに振り分け、契約が有効な月ごとに請求情報を作成する。
+         *
+         * @param target
+         * @param months 計算対象月
+         * @param histories 計算対象期間全体の通話履歴
+         * @return 更新したレコード数
+         */
+        private int doCalcMultiMonth(CalculationTarget target, BillingMonths months, List<History> histories) {
+            Contract contract = target.getContract();
+            CallChargeCalculator callChargeCalculator = target.getCallChargeCalculator();
+            List<List<History>> monthlyHistories = new ArrayList<>(months.size());
+            for (int i = 0; i < months.size(); i++) {
+                monthlyHistories.add(new ArrayList<>());
+            }
+            List<History> calculated = new ArrayList<>(histories.size());
+            List<History> changed = config.skipUnchangedCharge ? new ArrayList<>() : null;
+            for (History h : histories) {
+                int i = months.indexOf(h.getStartTime().getTime());
+                if (i < 0 || !months.isValid(contract, i)) {
+                    // 契約が有効でない月の通話履歴は計算しない
+                    continue;
+                }
+                if (h.getTimeSecs() < 0) {
+                    throw new RuntimeException("Negative time: " + h.getTimeSecs());
+                }
+                int charge = callChargeCalculator.calc(h.getTimeSecs());
+                if (changed != null && isChargeChanged(h.getCharge(), charge)) {
+                    changed.add(h);
+                }
+                h.setCharge(charge);
+                monthlyHistories.get(i).add(h);
+                calculated.add(h);
+            }
+            int updated;
+            if (changed == null) {
+                historyDao.batchUpdateNonKeyFields(calculated);
+                updated = calculated.size();
+            } else {
+                updated = updateCharges(changed, calculated.size());
+            }
+
+            // 同じトランザクションで、契約が有効な月ごとに請求情報を作成する
+            BillingCalculator billingCalculator = target.getBillingCalculator();
+            int billings = 0;
+            for (int i = 0; i < months.size(); i++) {
+                if (!months.isValid(contract, i)) {
+                    continue;
+                }
+                billingCalculator.init();
+                for (History h : monthlyHistories.get(i)) {
+                    billingCalculator.addCallCharge(h.getCharge());
+                }
+                updateBilling(contract, billingCalculator, months.getMonth(i));
+                billings++;
+            }
+            return updated + billings;
+        }
+
+        /**
+         * 通話履歴を列ごとの配列で読み込み、料金計算を行う
+         *
+         * @param target
+         * @return 更新したレコード数
+         */
+        private int doCalcColumnar(CalculationTarget target) {
+            Contract contract = target.getContract();
+            HistoryColumns columns = historyDao.getHistoryColumns(target);
+            int n = columns.size();
+            LOG.info("calculation: phone_number = {}, count = {}", contract.getPhoneNumber(), n);
+
+            int[] timeSecs = columns.getTimeSecs();
+            for (int i = 0; i < n; i++) {
+                if (timeSecs[i] < 0) {
+                    throw new RuntimeException("Negative time: " + timeSecs[i]);
+                }
+            }
+            CallChargeCalculator callChargeCalculator = target.getCallChargeCalculator();
+            BillingCalculator billingCalculator = target.getBillingCalculator();
+            billingCalculator.init();
+            int[] charges = new int[n];
+            callChargeCalculator.calc(timeSecs, charges);
+            billingCalculator.addCallCharges(charges);
+            int updated;
+            if (config.skipUnchangedCharge) {
+                // 料金が変化したレコードのみHistoryに変換して更新する
+                List<History> changed = new ArrayList<>();
+                for (int i = 0; i < n; i++) {
+                    if (isChargeChanged(columns.getCharge(i), charges[i])) {
+                        History h = columns.toHistory(i);
+                        h.setCharge(charges[i]);
+                        changed.add(h);
+                    }
+                }
+                updated = updateCharges(changed, n);
+            } else {
+                columns.setCharges(charges);
+                historyDao.batchUpdateNonKeyFields(columns);
+                updated = n;
+            }
+            updateBilling(contract, billingCalculator, target.getStart());
+            return updated + 1; // +1はupdateBillingの分
+        }
+
+        /**
+         * 料金が変化した通話履歴の料金を更新する
+         *
+         * @param changed 料金が変化した通話履歴
+         * @param total 料金計算を行った通話履歴の数
+         * @return 更新したレコード数
+         */
+        private int updateCharges(List<History> changed, int total) {
+            skippedWrites += total - changed.size();
+            if (!changed.isEmpty()) {
+                historyDao.batchUpdateCharge(changed);
+            }
+            return changed.size();
+        }
+
+        /**
+         * Billingテーブルを更新する
+         *
+         * @param contract
+         * @param billingCalculator
+         * @param targetMonth
+         */
+        private void updateBilling(Contract contract, BillingCalculator billingCalculator, Date targetMonth) {
+            LOG.debug(
+                    "Inserting to billing table: phone_number = {}, target_month = {}"
+                            + ", basic_charge = {}, metered_charge = {}, billing_amount = {}, batch_exec_id = {} ",
+                    contract.getPhoneNumber(), targetMonth, billingCalculator.getBasicCharge(),
+                    billingCalculator.getMeteredCharge(), billingCalculator.getBillingAmount(), batchExecId);
+            Billing billing = new Billing();
+            billing.setPhoneNumber(contract.getPhoneNumber());
+            billing.setTargetMonth(targetMonth);
+            billing.setBasicCharge(billingCalculator.getBasicCharge());
+            billing.setMeteredCharge(billingCalculator.getMeteredCharge());
+            billing.setBillingAmount(billingCalculator.getBillingAmount());
+            billing.setBatchExecId(batchExecId);
+            if (config.enableDeltaBilling) {
+                // 差分料金計算では、既存の請求情報を置き換える
+                billingDao.upsert(billing);
+            } else {
+                billingDao.insert(billing);
+            }
+        }
+    }
+
+    /**
+     * 再計算した料金が既存の料金と異なるかを判定する
+     *
+     * @param oldCharge 既存の料金、未計算の場合null
+     * @param newCharge 再計算した料金
+     * @return
+     */
+    static boolean isChargeChanged(Integer oldCharge, int newCharge) {
+        return oldCharge == null || oldCharge.intValue() != newCharge;
     }
 
     static class TransactionId {
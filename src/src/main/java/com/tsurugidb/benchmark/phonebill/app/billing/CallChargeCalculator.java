@@ -23,4 +23,16 @@ public interface CallChargeCalculator {
 	 * @return 通話料金
 	 */
 	int calc(int time);
+
+	/**
+	 * 通話時間の配列から通話料金を計算する
+	 *
+	 * @param timeSecs 通話時間(秒)の配列
+	 * @param chargesOut 通話料金を格納する配列、timeSecsと同じ添字の位置に格納する
+	 */
+	default void calc(int[] timeSecs, int[] chargesOut) {
+		for (int i = 0; i < timeSecs.length; i++) {
+			chargesOut[i] = calc(timeSecs[i]);
+		}
+	}
 }
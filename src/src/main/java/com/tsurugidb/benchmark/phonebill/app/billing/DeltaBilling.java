@@ -0,0 +1,205 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tsurugidb.benchmark.phonebill.db.PhoneBillDbManager;
+import com.tsurugidb.benchmark.phonebill.db.TxLabel;
+import com.tsurugidb.benchmark.phonebill.db.TxOption;
+import com.tsurugidb.benchmark.phonebill.db.TxOption.Table;
+import com.tsurugidb.benchmark.phonebill.db.dao.BillingDao;
+import com.tsurugidb.benchmark.phonebill.db.dao.HistoryDao;
+import com.tsurugidb.benchmark.phonebill.db.entity.Billing;
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+import com.tsurugidb.benchmark.phonebill.db.entity.History;
+import com.tsurugidb.benchmark.phonebill.util.DateUtils;
+
+/**
+ * 差分料金計算で、料金計算が必要な契約を選択するクラス.
+ * <p>
+ * オンラインアプリは更新、挿入した通話履歴の料金をnullにする。差分料金計算では、計算対象月に料金がnullの
+ * 通話履歴を持つ契約と、計算対象月の請求情報が存在しない契約のみを料金計算の対象とする。
+ * <p>
+ * 料金がnullの通話履歴の検出と、当該契約の請求情報の削除、論理削除された通話履歴の料金の更新(0にする)は
+ * 1つのトランザクションで行う。これにより、料金計算前にバッチが異常終了しても、次回の差分料金計算で請求情報が
+ * 存在しない契約として料金計算の対象になる。
+ * <p>
+ * 契約マスタの更新は検出しないので、契約マスタを更新した場合は全件の料金計算を行う必要がある。
+ */
+public class DeltaBilling {
+    private static final Logger LOG = LoggerFactory.getLogger(DeltaBilling.class);
+
+    /**
+     * 計算対象月の最初の日
+     */
+    private final Date start;
+
+    /**
+     * 計算対象月の最後の日
+     */
+    private final Date end;
+
+    // 統計情報
+    private int dirtyContracts = 0;
+    private int unbilledContracts = 0;
+    private int orphanBillings = 0;
+    private int deletedHistories = 0;
+    private int totalContracts = 0;
+
+
+    /**
+     * コンストラクタ
+     *
+     * @param start 計算対象月の最初の日
+     * @param end 計算対象月の最後の日
+     */
+    public DeltaBilling(Date start, Date end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * 料金計算が必要な契約を選択する
+     *
+     * @param manager
+     * @param contracts 計算対象月に有効な契約
+     * @return
+     */
+    public List<Contract> selectContracts(PhoneBillDbManager manager, List<Contract> contracts) {
+        HistoryDao historyDao = manager.getHistoryDao();
+        BillingDao billingDao = manager.getBillingDao();
+        Timestamp startTime = new Timestamp(start.getTime());
+        Timestamp endTime = new Timestamp(DateUtils.nextDate(end).getTime());
+
+        // 料金がnullの通話履歴を持つ契約の請求情報を削除し、論理削除された通話履歴の料金を0にする
+        Set<String> dirtyPhoneNumbers = manager.execute(
+                TxOption.ofLTX(0, TxLabel.BATCH_INITIALIZE, Table.HISTORY, Table.BILLING), () -> {
+                    Set<String> set = getBilledPhoneNumbers(historyDao.getNullChargeHistories(startTime, endTime));
+                    for (String phoneNumber : set) {
+                        billingDao.delete(start, phoneNumber);
+                    }
+                    deletedHistories = historyDao.updateChargeOfDeletedHistories(startTime, endTime);
+                    return set;
+                });
+
+        // 計算対象月の請求情報を読み込み、請求情報の無い契約を料金計算の対象に加える
+        List<Billing> billings = manager.execute(TxOption.ofRTX(Integer.MAX_VALUE, TxLabel.BATCH_INITIALIZE), () -> {
+            return billingDao.getBillings(start);
+        });
+        List<Contract> list = selectContracts(contracts, dirtyPhoneNumbers, billings);
+
+        // 契約の無い請求情報を削除する
+        Set<String> orphans = getOrphanPhoneNumbers(contracts, billings);
+        if (!orphans.isEmpty()) {
+            manager.execute(TxOption.ofLTX(0, TxLabel.BATCH_INITIALIZE, Table.BILLING), () -> {
+                for (String phoneNumber : orphans) {
+                    billingDao.delete(start, phoneNumber);
+                }
+            });
+        }
+
+        totalContracts = contracts.size();
+        orphanBillings = orphans.size();
+        LOG.info("Delta billing: {}", getReport());
+        return list;
+    }
+
+    /**
+     * 通話履歴の料金を請求する電話番号のセットを返す
+     *
+     * @param histories
+     * @return
+     */
+    static Set<String> getBilledPhoneNumbers(Collection<History> histories) {
+        Set<String> set = new HashSet<>();
+        for (History h : histories) {
+            // 支払区分が'C'なら発信者、'R'なら受信者に課金する
+            set.add(h.getPaymentCategorty().equals("R") ? h.getRecipientPhoneNumber() : h.getCallerPhoneNumber());
+        }
+        return set;
+    }
+
+    /**
+     * 料金計算が必要な契約を選択する
+     *
+     * @param contracts 計算対象月に有効な契約
+     * @param dirtyPhoneNumbers 料金がnullの通話履歴を持つ電話番号
+     * @param billings 計算対象月の請求情報
+     * @return
+     */
+    List<Contract> selectContracts(List<Contract> contracts, Set<String> dirtyPhoneNumbers,
+            Collection<Billing> billings) {
+        Set<String> billedPhoneNumbers = new HashSet<>();
+        for (Billing b : billings) {
+            billedPhoneNumbers.add(b.getPhoneNumber());
+        }
+        List<Contract> list = new ArrayList<>();
+        dirtyContracts = 0;
+        unbilledContracts = 0;
+        for (Contract c : contracts) {
+            if (dirtyPhoneNumbers.contains(c.getPhoneNumber())) {
+                dirtyContracts++;
+                list.add(c);
+            } else if (!billedPhoneNumbers.contains(c.getPhoneNumber())) {
+                unbilledContracts++;
+                list.add(c);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 契約の無い請求情報の電話番号のセットを返す
+     *
+     * @param contracts 計算対象月に有効な契約
+     * @param billings 計算対象月の請求情報
+     * @return
+     */
+    static Set<String> getOrphanPhoneNumbers(Collection<Contract> contracts, Collection<Billing> billings) {
+        Set<String> phoneNumbers = new HashSet<>();
+        for (Contract c : contracts) {
+            phoneNumbers.add(c.getPhoneNumber());
+        }
+        Set<String> set = new HashSet<>();
+        for (Billing b : billings) {
+            if (!phoneNumbers.contains(b.getPhoneNumber())) {
+                set.add(b.getPhoneNumber());
+            }
+        }
+        return set;
+    }
+
+    /**
+     * 差分料金計算の統計情報を返す
+     *
+     * @return
+     */
+    public String getReport() {
+        return String.format(
+                "total contracts = %d, dirty contracts = %d, unbilled contracts = %d, orphan billings = %d, deleted histories = %d",
+                totalContracts, dirtyContracts, unbilledContracts, orphanBillings, deletedHistories);
+    }
+}
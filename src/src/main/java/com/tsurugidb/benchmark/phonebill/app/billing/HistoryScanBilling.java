@@ -0,0 +1,519 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tsurugidb.benchmark.phonebill.app.Config;
+import com.tsurugidb.benchmark.phonebill.db.PhoneBillDbManager;
+import com.tsurugidb.benchmark.phonebill.db.RetryOverRuntimeException;
+import com.tsurugidb.benchmark.phonebill.db.TxLabel;
+import com.tsurugidb.benchmark.phonebill.db.TxOption;
+import com.tsurugidb.benchmark.phonebill.db.TxOption.Table;
+import com.tsurugidb.benchmark.phonebill.db.dao.BillingDao;
+import com.tsurugidb.benchmark.phonebill.db.dao.HistoryDao;
+import com.tsurugidb.benchmark.phonebill.db.entity.Billing;
+import com.tsurugidb.benchmark.phonebill.db.entity.History;
+import com.tsurugidb.benchmark.phonebill.util.DateUtils;
+
+/**
+ * 通話履歴を通話開始時刻の範囲で走査して料金計算を行う.
+ * <p>
+ * 計算対象月を通話開始時刻で複数のサブレンジに分割し、サブレンジごとに1回のQueryで通話履歴を読み込む。
+ * 読み込んだ通話履歴は課金対象の電話番号(支払区分が'C'の場合は発信者、'R'の場合は受信者)ごとに
+ * 通話料金を集計しながら、通話料金を設定した通話履歴をまとめて更新する。全サブレンジの処理が終わったら、
+ * 集計結果から請求情報を作成してまとめて挿入する。
+ * <p>
+ * サブレンジの処理は1サブレンジ1トランザクションで行い、リトライ可能な例外でabortしたサブレンジは再度処理する。
+ * 契約ごとに通話履歴を検索する方式との比較のため、DBへのラウンドトリップ数を記録しログに出力する。
+ * <p>
+ * 請求情報は電話番号ごとに全サブレンジの集計結果から作成するため、通話履歴の更新と同じトランザクションでは
+ * 挿入できない。全サブレンジのコミット後から請求情報の挿入が終わるまでの間は、通話料金を更新した通話履歴に
+ * 対応する請求情報が存在しない状態になる。この間にバッチが中断した場合も、通話料金は通話時間から決まるので
+ * 再実行(請求情報の無い契約のみを計算する再開を含む)で通話履歴を再度更新しても結果は変わらない。
+ * 請求情報の挿入はバッチ単位のトランザクションで行い、リトライ時は前回の試行でコミットされた可能性のある
+ * 請求情報を削除してから挿入し直すので、何度実行しても同じ結果になる。
+ */
+public class HistoryScanBilling {
+    private static final Logger LOG = LoggerFactory.getLogger(HistoryScanBilling.class);
+
+    private final Config config;
+    private final String batchExecId;
+    private final AtomicBoolean abortRequested;
+    private final AtomicInteger tryCounter;
+    private final AtomicInteger abortCounter;
+    private final TxOption scanTxOption;
+    private final TxOption insertTxOption;
+
+    /**
+     * 課金対象の電話番号と計算対象の対応
+     */
+    private final Map<String, CalculationTarget> targetMap;
+
+    /**
+     * 未処理のサブレンジ
+     */
+    private final Queue<SubRange> subRanges;
+
+    /**
+     * サブレンジの数
+     */
+    private final int numberOfSubRanges;
+
+    // 処理状況とDBへのラウンドトリップ数
+    private final AtomicInteger completedSubRanges = new AtomicInteger(0);
+    private final AtomicLong scannedHistories = new AtomicLong(0);
+    private final AtomicLong updatedHistories = new AtomicLong(0);
+    private final AtomicLong skippedHistories = new AtomicLong(0);
+    private final AtomicLong insertedBillings = new AtomicLong(0);
+    private final AtomicLong scanQueries = new AtomicLong(0);
+    private final AtomicLong updateBatches = new AtomicLong(0);
+    private final AtomicLong insertBatches = new AtomicLong(0);
+    private final AtomicLong transactions = new AtomicLong(0);
+
+    /**
+     * コンストラクタ
+     *
+     * @param config
+     * @param targets 計算対象
+     * @param start 計算対象月の初日
+     * @param end 計算対象月の最終日
+     * @param numberOfSubRanges 計算対象月を分割するサブレンジの数
+     * @param batchExecId
+     * @param abortRequested
+     * @param tryCounter
+     * @param abortCounter
+     */
+    public HistoryScanBilling(Config config, Collection<CalculationTarget> targets, Date start, Date end,
+            int numberOfSubRanges, String batchExecId, AtomicBoolean abortRequested, AtomicInteger tryCounter,
+            AtomicInteger abortCounter) {
+        this.config = config;
+        this.batchExecId = batchExecId;
+        this.abortRequested = abortRequested;
+        this.tryCounter = tryCounter;
+        this.abortCounter = abortCounter;
+        targetMap = new LinkedHashMap<>(targets.size() * 2);
+        for (CalculationTarget target : targets) {
+            String phoneNumber = target.getContract().getPhoneNumber();
+            if (targetMap.putIfAbsent(phoneNumber, target) != null) {
+                LOG.warn("Multiple contracts found for phone number {}, the contract {} is ignored.", phoneNumber,
+                        target.getContract());
+                continue;
+            }
+            target.getBillingCalculator().init();
+        }
+        List<SubRange> list = createSubRanges(start, end, numberOfSubRanges);
+        this.numberOfSubRanges = list.size();
+        subRanges = new ConcurrentLinkedQueue<>(list);
+        switch (config.transactionOption) {
+        case LTX:
+            scanTxOption = TxOption.ofLTX(0, TxLabel.BATCH_MAIN, Table.HISTORY);
+            insertTxOption = TxOption.ofLTX(3, TxLabel.BATCH_MAIN, Table.BILLING);
+            break;
+        case OCC:
+        default:
+            scanTxOption = TxOption.ofOCC(0, TxLabel.BATCH_MAIN);
+            insertTxOption = TxOption.ofOCC(3, TxLabel.BATCH_MAIN);
+            break;
+        }
+    }
+
+    /**
+     * 計算対象月を通話開始時刻で指定の数のサブレンジに分割する
+     *
+     * @param start 計算対象月の初日
+     * @param end 計算対象月の最終日
+     * @param n サブレンジの数
+     * @return
+     */
+    static List<SubRange> createSubRanges(Date start, Date end, int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Number of sub ranges must be greater than 0: " + n);
+        }
+        long s = start.getTime();
+        long e = DateUtils.nextDate(end).getTime();
+        List<SubRange> list = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            long rangeStart = s + (e - s) * i / n;
+            long rangeEnd = s + (e - s) * (i + 1) / n;
+            list.add(new SubRange(i, new Timestamp(rangeStart), new Timestamp(rangeEnd)));
+        }
+        return list;
+    }
+
+    /**
+     * 料金計算を実行する
+     *
+     * @param managers サブレンジを処理するスレッドが使用するPhoneBillDbManager、要素数がスレッド数になる
+     * @throws Exception
+     */
+    public void execute(List<PhoneBillDbManager> managers) throws Exception {
+        ExecutorService service = Executors.newFixedThreadPool(managers.size());
+        Exception cause = null;
+        try {
+            List<Future<Exception>> futures = new ArrayList<>(managers.size());
+            for (PhoneBillDbManager manager : managers) {
+                futures.add(service.submit(new ScanTask(manager)));
+            }
+            for (Future<Exception> future : futures) {
+                Exception e = future.get();
+                if (e != null && cause == null) {
+                    cause = e;
+                    abortRequested.set(true);
+                }
+            }
+        } finally {
+            service.shutdown();
+        }
+        if (cause != null) {
+            throw cause;
+        }
+        if (abortRequested.get()) {
+            LOG.info("History scan billing finished by abort request, completed sub ranges = {}/{}.",
+                    completedSubRanges.get(), numberOfSubRanges);
+            return;
+        }
+        insertBillings(managers.get(0));
+        LOG.info("History scan billing finished: {}", getReport());
+    }
+
+    /**
+     * 集計結果から請求情報を作成し、まとめて挿入する. リトライ可能な例外でabortしたバッチは再度挿入する。
+     *
+     * @param manager
+     */
+    private void insertBillings(PhoneBillDbManager manager) {
+        BillingDao billingDao = manager.getBillingDao();
+        List<Billing> batch = new ArrayList<>(config.historyScanBatchSize);
+        for (CalculationTarget target : targetMap.values()) {
+            batch.add(createBilling(target));
+            if (batch.size() >= config.historyScanBatchSize) {
+                insertBillings(manager, billingDao, batch);
+                batch = new ArrayList<>(config.historyScanBatchSize);
+            }
+        }
+        if (!batch.isEmpty()) {
+            insertBillings(manager, billingDao, batch);
+        }
+    }
+
+    private void insertBillings(PhoneBillDbManager manager, BillingDao billingDao, List<Billing> batch) {
+        AtomicInteger attempts = new AtomicInteger(0);
+        for (;;) {
+            try {
+                manager.execute(insertTxOption, () -> {
+                    if (attempts.getAndIncrement() > 0) {
+                        // 前回の試行がコミットされている可能性があるので、挿入済みの請求情報を削除してから挿入する
+                        for (Billing billing : batch) {
+                            billingDao.delete(billing.getTargetMonth(), billing.getPhoneNumber());
+                        }
+                    }
+                    billingDao.batchInsert(batch);
+                });
+                break;
+            } catch (RetryOverRuntimeException e) {
+                abortCounter.incrementAndGet();
+                PhoneBillDbManager.addRetringExceptions(e);
+                if (abortRequested.get()) {
+                    throw e;
+                }
+                LOG.warn("Retrying billing insert batch, attempts = {}.", attempts.get());
+            }
+        }
+        insertBatches.incrementAndGet();
+        transactions.incrementAndGet();
+        insertedBillings.addAndGet(batch.size());
+    }
+
+    private Billing createBilling(CalculationTarget target) {
+        BillingCalculator billingCalculator = target.getBillingCalculator();
+        Billing billing = new Billing();
+        billing.setPhoneNumber(target.getContract().getPhoneNumber());
+        billing.setTargetMonth(target.getStart());
+        billing.setBasicCharge(billingCalculator.getBasicCharge());
+        billing.setMeteredCharge(billingCalculator.getMeteredCharge());
+        billing.setBillingAmount(billingCalculator.getBillingAmount());
+        billing.setBatchExecId(batchExecId);
+        return billing;
+    }
+
+    /**
+     * コミットしたサブレンジの集計結果を計算対象のBillingCalculatorに加算する.
+     * <p>
+     * BillingCalculatorは通話料金の合計のみを使用するため、サブレンジごとの通話料金の合計を加算する。
+     *
+     * @param aggregator
+     */
+    private synchronized void merge(ChargeAggregator aggregator) {
+        for (Map.Entry<String, int[]> entry : aggregator.getTotalCharges().entrySet()) {
+            targetMap.get(entry.getKey()).getBillingCalculator().addCallCharge(entry.getValue()[0]);
+        }
+        scannedHistories.addAndGet(aggregator.getScannedHistories());
+        updatedHistories.addAndGet(aggregator.getUpdatedHistories());
+        skippedHistories.addAndGet(aggregator.getSkippedHistories());
+        completedSubRanges.incrementAndGet();
+    }
+
+    /**
+     * 処理状況を返す
+     *
+     * @return
+     */
+    public String getStatus() {
+        return "History scan status: sub ranges = " + numberOfSubRanges + ", completed = " + completedSubRanges.get()
+                + ", scanned histories = " + scannedHistories.get();
+    }
+
+    /**
+     * 処理件数とDBへのラウンドトリップ数を表す文字列を返す
+     *
+     * @return
+     */
+    public String getReport() {
+        long roundTrips = scanQueries.get() + updateBatches.get() + insertBatches.get() + transactions.get();
+        return String.format("sub ranges = %d, scanned histories = %,d, updated histories = %,d, "
+                + "skipped histories = %,d, billings = %,d, "
+                + "round trips = %,d (scan queries = %,d, history update batches = %,d, "
+                + "billing insert batches = %,d, commits = %,d)", numberOfSubRanges, scannedHistories.get(),
+                updatedHistories.get(), skippedHistories.get(), insertedBillings.get(), roundTrips, scanQueries.get(),
+                updateBatches.get(), insertBatches.get(), transactions.get());
+    }
+
+
+    /**
+     * サブレンジを処理するスレッド
+     */
+    private class ScanTask implements Callable<Exception> {
+        private final PhoneBillDbManager manager;
+        private final HistoryDao historyDao;
+
+        ScanTask(PhoneBillDbManager manager) {
+            this.manager = manager;
+            historyDao = manager.getHistoryDao();
+        }
+
+        @Override
+        public Exception call() {
+            for (SubRange range = subRanges.poll(); range != null; range = subRanges.poll()) {
+                if (abortRequested.get()) {
+                    return null;
+                }
+                LOG.debug("Scanning histories: {}", range);
+                ChargeAggregator aggregator = new ChargeAggregator(targetMap, config.historyScanBatchSize,
+                        config.skipUnchangedCharge, list -> {
+                            if (config.skipUnchangedCharge) {
+                                historyDao.batchUpdateCharge(list);
+                            } else {
+                                historyDao.batchUpdateNonKeyFields(list);
+                            }
+                            updateBatches.incrementAndGet();
+                        });
+                try {
+                    manager.execute(scanTxOption, () -> {
+                        tryCounter.incrementAndGet();
+                        aggregator.init();
+                        scanQueries.incrementAndGet();
+                        historyDao.scanHistories(range.start, range.end, aggregator);
+                        aggregator.flush();
+                    });
+                    transactions.incrementAndGet();
+                    merge(aggregator);
+                } catch (RuntimeException e) {
+                    abortCounter.incrementAndGet();
+                    PhoneBillDbManager.addRetringExceptions(e);
+                    if (!(e instanceof RetryOverRuntimeException)) {
+                        LOG.error("History scan task aborting by exception.", e);
+                        return e;
+                    }
+                    // リトライ可能な例外の場合はサブレンジを戻して再処理する
+                    subRanges.add(range);
+                }
+            }
+            return null;
+        }
+    }
+
+
+    /**
+     * 通話履歴を受け取り、通話料金を設定して課金対象の電話番号ごとに集計する.
+     * <p>
+     * 通話料金を設定した通話履歴は、指定のバッチサイズごとにwriterに渡す。skipUnchangedにtrueを指定した場合は、
+     * 料金が変化しなかった通話履歴をwriterに渡さない。
+     */
+    static class ChargeAggregator implements Consumer<History> {
+        private final Map<String, CalculationTarget> targetMap;
+        private final int batchSize;
+        private final boolean skipUnchanged;
+        private final Consumer<List<History>> writer;
+
+        /**
+         * 課金対象の電話番号ごとの通話料金の合計
+         */
+        private Map<String, int[]> totalCharges;
+
+        /**
+         * writerに渡していない通話履歴
+         */
+        private List<History> buffer;
+
+        private long scannedHistories;
+        private long updatedHistories;
+        private long skippedHistories;
+
+        ChargeAggregator(Map<String, CalculationTarget> targetMap, int batchSize, Consumer<List<History>> writer) {
+            this(targetMap, batchSize, false, writer);
+        }
+
+        ChargeAggregator(Map<String, CalculationTarget> targetMap, int batchSize, boolean skipUnchanged,
+                Consumer<List<History>> writer) {
+            this.targetMap = targetMap;
+            this.batchSize = batchSize;
+            this.skipUnchanged = skipUnchanged;
+            this.writer = writer;
+            init();
+        }
+
+        /**
+         * 集計結果を破棄する(トランザクションのリトライ時に使用する)
+         */
+        void init() {
+            totalCharges = new HashMap<>();
+            buffer = new ArrayList<>(batchSize);
+            scannedHistories = 0;
+            updatedHistories = 0;
+            skippedHistories = 0;
+        }
+
+        @Override
+        public void accept(History h) {
+            scannedHistories++;
+            CalculationTarget target = targetMap.get(getBilledPhoneNumber(h));
+            if (target == null) {
+                // 計算対象月に有効な契約がない通話履歴
+                return;
+            }
+            if (h.getTimeSecs() < 0) {
+                throw new RuntimeException("Negative time: " + h.getTimeSecs());
+            }
+            int charge = target.getCallChargeCalculator().calc(h.getTimeSecs());
+            boolean changed = CalculationTask.isChargeChanged(h.getCharge(), charge);
+            h.setCharge(charge);
+            totalCharges.computeIfAbsent(target.getContract().getPhoneNumber(), k -> new int[1])[0] += charge;
+            if (skipUnchanged && !changed) {
+                skippedHistories++;
+                return;
+            }
+            buffer.add(h);
+            if (buffer.size() >= batchSize) {
+                flush();
+            }
+        }
+
+        /**
+         * writerに渡していない通話履歴をwriterに渡す
+         */
+        void flush() {
+            if (buffer.isEmpty()) {
+                return;
+            }
+            writer.accept(buffer);
+            updatedHistories += buffer.size();
+            buffer = new ArrayList<>(batchSize);
+        }
+
+        /**
+         * 課金対象の電話番号を返す
+         *
+         * @param h
+         * @return
+         */
+        static String getBilledPhoneNumber(History h) {
+            switch (h.getPaymentCategorty()) {
+            case "C":
+                return h.getCallerPhoneNumber();
+            case "R":
+                return h.getRecipientPhoneNumber();
+            default:
+                return null;
+            }
+        }
+
+        Map<String, int[]> getTotalCharges() {
+            return totalCharges;
+        }
+
+        long getScannedHistories() {
+            return scannedHistories;
+        }
+
+        long getUpdatedHistories() {
+            return updatedHistories;
+        }
+
+        long getSkippedHistories() {
+            return skippedHistories;
+        }
+    }
+
+
+    /**
+     * 通話開始時刻の範囲
+     */
+    static class SubRange {
+        final int id;
+
+        /**
+         * 通話開始時刻の下限(この値を含む)
+         */
+        final Timestamp start;
+
+        /**
+         * 通話開始時刻の上限(この値を含まない)
+         */
+        final Timestamp end;
+
+        SubRange(int id, Timestamp start, Timestamp end) {
+            this.id = id;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public String toString() {
+            return "SubRange [id=" + id + ", start=" + start + ", end=" + end + "]";
+        }
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tsurugidb.benchmark.phonebill.db.PhoneBillDbManager;
+import com.tsurugidb.benchmark.phonebill.db.TxLabel;
+import com.tsurugidb.benchmark.phonebill.db.TxOption;
+import com.tsurugidb.benchmark.phonebill.util.DateUtils;
+
+/**
+ * 通話履歴の件数から見積もった処理量の多い契約から順に料金計算を行うための並べ替えを行うクラス.
+ * <p>
+ * 処理量の多い契約を最後に取り出したスレッドだけが遅れて終了すること(ストラグラー)を防ぐため、
+ * 計算対象月の通話履歴の件数を課金対象の電話番号ごとに数え、件数の多い契約から順に処理対象を並べる。
+ * 件数が同じ契約は元の順序を保つ。
+ * <p>
+ * WorkStealingCalculationTargetQueueは処理対象を連続した範囲ごとにワーカに割り当てるので、
+ * 各ワーカのDequeの先頭に処理量の多い契約が来るように、処理量の順に各ワーカへ振り分けた並びにする。
+ * PartitionedCalculationTargetQueueは処理対象を電話番号順に並べ替えるので、この並べ替えは効果がなく、
+ * PhoneBillは件数を数えずに並べ替えを行わない。
+ */
+public class LargestFirstScheduling {
+    private static final Logger LOG = LoggerFactory.getLogger(LargestFirstScheduling.class);
+
+    /**
+     * 計算対象月の最初の日
+     */
+    private final Date start;
+
+    /**
+     * 計算対象月の最後の日
+     */
+    private final Date end;
+
+    // 統計情報
+    private int targets = 0;
+    private long totalHistories = 0;
+    private long maxHistories = 0;
+    private long minHistories = 0;
+
+
+    /**
+     * コンストラクタ
+     *
+     * @param start 計算対象月の最初の日
+     * @param end 計算対象月の最後の日
+     */
+    public LargestFirstScheduling(Date start, Date end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * 処理対象を処理量の多い順に並べ替える
+     *
+     * @param manager
+     * @param targets 処理対象
+     * @return 並べ替えた処理対象
+     */
+    public List<CalculationTarget> sort(PhoneBillDbManager manager, List<CalculationTarget> targets) {
+        Timestamp s = new Timestamp(start.getTime());
+        Timestamp e = new Timestamp(DateUtils.nextDate(end).getTime());
+        Map<String, Long> counts = manager.execute(TxOption.ofRTX(Integer.MAX_VALUE, TxLabel.BATCH_INITIALIZE), () -> {
+            return manager.getHistoryDao().countHistoriesByBilledPhoneNumber(s, e);
+        });
+        List<CalculationTarget> list = sort(targets, counts);
+        LOG.info("Largest first scheduling: {}", getReport());
+        return list;
+    }
+
+    /**
+     * 処理対象を通話履歴の件数の多い順に並べ替える. 件数が同じ処理対象は元の順序を保つ。
+     *
+     * @param targets 処理対象
+     * @param counts 課金対象の電話番号と通話履歴の件数のMap、含まれない電話番号の件数は0とみなす
+     * @return 並べ替えた処理対象
+     */
+    List<CalculationTarget> sort(List<CalculationTarget> targets, Map<String, Long> counts) {
+        List<CalculationTarget> list = new ArrayList<>(targets);
+        list.sort(Comparator.comparingLong((CalculationTarget t) -> getCount(t, counts)).reversed());
+
+        this.targets = list.size();
+        totalHistories = 0;
+        for (CalculationTarget target : list) {
+            totalHistories += getCount(target, counts);
+        }
+        maxHistories = list.isEmpty() ? 0 : getCount(list.get(0), counts);
+        minHistories = list.isEmpty() ? 0 : getCount(list.get(list.size() - 1), counts);
+        return list;
+    }
+
+    private static long getCount(CalculationTarget target, Map<String, Long> counts) {
+        return counts.getOrDefault(target.getContract().getPhoneNumber(), 0L);
+    }
+
+    /**
+     * 処理量の順に並んだ処理対象を、WorkStealingCalculationTargetQueueの各ワーカのDequeに処理量の順に
+     * 振り分けられるように並べ替える.
+     * <p>
+     * WorkStealingCalculationTargetQueueはi番目の処理対象をi * numberOfWorkers / 処理対象数番目のワーカに
+     * 割り当てるので、各ワーカに割り当てられる位置に、先頭から順にワーカを巡回しながら処理対象を配置する。
+     *
+     * @param sorted 処理量の多い順に並んだ処理対象
+     * @param numberOfWorkers ワーカ数
+     * @return 並べ替えた処理対象
+     */
+    static List<CalculationTarget> interleave(List<CalculationTarget> sorted, int numberOfWorkers) {
+        int size = sorted.size();
+        List<List<Integer>> positions = new ArrayList<>(numberOfWorkers);
+        for (int i = 0; i < numberOfWorkers; i++) {
+            positions.add(new ArrayList<>());
+        }
+        for (int i = 0; i < size; i++) {
+            positions.get((int) ((long) i * numberOfWorkers / size)).add(i);
+        }
+        CalculationTarget[] array = new CalculationTarget[size];
+        int j = 0;
+        for (int round = 0; j < size; round++) {
+            for (List<Integer> list : positions) {
+                if (round < list.size()) {
+                    array[list.get(round)] = sorted.get(j++);
+                }
+            }
+        }
+        return Arrays.asList(array);
+    }
+
+    /**
+     * ストラグラー時間を返す. ストラグラー時間は最後に終了したスレッドの終了時刻と、
+     * スレッドの終了時刻の中央値の差とする。
+     *
+     * @param finishTimes 各スレッドの終了時刻(ミリ秒)
+     * @return ストラグラー時間(ミリ秒)、終了時刻が無い場合は0
+     */
+    static long getStragglerMills(List<Long> finishTimes) {
+        if (finishTimes.isEmpty()) {
+            return 0;
+        }
+        List<Long> list = new ArrayList<>(finishTimes);
+        Collections.sort(list);
+        int n = list.size();
+        long median = n % 2 == 1 ? list.get(n / 2) : (list.get(n / 2 - 1) + list.get(n / 2)) / 2;
+        return list.get(n - 1) - median;
+    }
+
+    /**
+     * 並べ替えの統計情報を返す
+     *
+     * @return
+     */
+    public String getReport() {
+        return String.format("targets = %d, estimated histories = %d, max histories per target = %d, "
+                + "min histories per target = %d", targets, totalHistories, maxHistories, minHistories);
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 契約を電話番号の連続した範囲(パーティション)に分割して各ワーカに割り当てるCalculationTargetQueue.
+ * <p>
+ * 処理対象を電話番号順に並べ、ワーカ数 x partitionsPerWorker 個のパーティションに分割する。各ワーカには
+ * 連続したパーティションを割り当て、ワーカは自分のパーティションを電話番号順に処理する。自分のパーティションを
+ * 処理し終えたワーカは、未処理のパーティションが最も多いワーカから、未着手のパーティションを末尾から丸ごと盗む。
+ * <p>
+ * 失敗して戻された処理対象は、{@link WorkStealingCalculationTargetQueue}の全ワーカで共有するDequeに入り、
+ * パーティションより優先して処理される。
+ * <p>
+ * パーティションごとに試行回数とabort回数を記録し、{@link #getPartitionReport()}で出力する。
+ *
+ */
+public class PartitionedCalculationTargetQueue extends WorkStealingCalculationTargetQueue {
+	/**
+	 * ワーカごとのパーティションのDeque、Dequeへのアクセスと、Deque内のパーティションへのアクセスは
+	 * Dequeをロックして行う
+	 */
+	private final List<Deque<Partition>> partitionDeques;
+
+	/**
+	 * すべてのパーティション
+	 */
+	private final List<Partition> partitions;
+
+	/**
+	 * 処理対象とパーティションの対応
+	 */
+	private final Map<CalculationTarget, Partition> partitionMap;
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param targets 処理対象
+	 * @param numberOfWorkers ワーカ数
+	 * @param partitionsPerWorker 1ワーカあたりのパーティション数
+	 */
+	public PartitionedCalculationTargetQueue(Collection<CalculationTarget> targets, int numberOfWorkers,
+			int partitionsPerWorker) {
+		super(targets.size(), numberOfWorkers);
+		if (partitionsPerWorker < 1) {
+			throw new IllegalArgumentException("partitionsPerWorker must be greater than 0: " + partitionsPerWorker);
+		}
+		List<CalculationTarget> sorted = new ArrayList<>(targets);
+		sorted.sort(Comparator.comparing(t -> t.getContract().getPhoneNumber()));
+		partitions = createPartitions(sorted, numberOfWorkers * partitionsPerWorker);
+
+		partitionMap = new IdentityHashMap<>(sorted.size());
+		for (Partition p : partitions) {
+			for (CalculationTarget target : p.targets) {
+				partitionMap.put(target, p);
+			}
+		}
+
+		partitionDeques = new ArrayList<>(numberOfWorkers);
+		for (int i = 0; i < numberOfWorkers; i++) {
+			partitionDeques.add(new ArrayDeque<>());
+		}
+		int n = partitions.size();
+		for (int i = 0; i < n; i++) {
+			partitionDeques.get((int) ((long) i * numberOfWorkers / n)).addLast(partitions.get(i));
+		}
+	}
+
+	/**
+	 * 電話番号順に並んだ処理対象を、指定の数以下のパーティションに分割する。同一の電話番号の契約は
+	 * 同じパーティションに入れる。
+	 *
+	 * @param sorted 電話番号順に並んだ処理対象
+	 * @param numberOfPartitions パーティション数
+	 * @return パーティションのリスト
+	 */
+	static List<Partition> createPartitions(List<CalculationTarget> sorted, int numberOfPartitions) {
+		List<Partition> list = new ArrayList<>(numberOfPartitions);
+		int size = sorted.size();
+		int start = 0;
+		for (int i = 1; i <= numberOfPartitions && start < size; i++) {
+			int end = (int) ((long) i * size / numberOfPartitions);
+			while (end < size && end > 0 && samePhoneNumber(sorted.get(end - 1), sorted.get(end))) {
+				end++;
+			}
+			if (end <= start) {
+				continue;
+			}
+			list.add(new Partition(list.size(), sorted.subList(start, end)));
+			start = end;
+		}
+		return list;
+	}
+
+	private static boolean samePhoneNumber(CalculationTarget t1, CalculationTarget t2) {
+		return t1.getContract().getPhoneNumber().equals(t2.getContract().getPhoneNumber());
+	}
+
+
+	@Override
+	protected CalculationTarget pollTarget(int index) {
+		// 失敗して戻された処理対象を優先する
+		CalculationTarget target = pollReverted();
+		if (target == null && index == NON_WORKER) {
+			// ワーカ以外のスレッドはパーティションを持たないので、パーティションの末尾から取り出す
+			target = pollPartitionTail();
+		}
+		if (target == null && index != NON_WORKER) {
+			target = pollPartition(index);
+			if (target == null && stealPartition(index)) {
+				target = pollPartition(index);
+			}
+		}
+		if (target != null) {
+			partitionMap.get(target).tryCount.incrementAndGet();
+		}
+		return target;
+	}
+
+	/**
+	 * 自分のパーティションから電話番号順に処理対象を取り出す
+	 *
+	 * @param index ワーカの番号
+	 * @return 取り出した処理対象、自分のパーティションが空の場合null
+	 */
+	private CalculationTarget pollPartition(int index) {
+		Deque<Partition> deque = partitionDeques.get(index);
+		synchronized (deque) {
+			for (Partition p = deque.peekFirst(); p != null; p = deque.peekFirst()) {
+				CalculationTarget target = p.targets.pollFirst();
+				if (target != null) {
+					p.started = true;
+					return target;
+				}
+				deque.pollFirst();
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * 未処理のパーティションが最も多いワーカの最後のパーティションの末尾から処理対象を取り出す.
+	 * ワーカが処理中のパーティションの先頭を取り合わないように、末尾から取り出す。
+	 *
+	 * @return 取り出した処理対象、すべてのパーティションが空の場合null
+	 */
+	private CalculationTarget pollPartitionTail() {
+		for (int retry = 0; retry < partitionDeques.size(); retry++) {
+			Deque<Partition> victim = null;
+			int max = 0;
+			for (Deque<Partition> deque : partitionDeques) {
+				int size;
+				synchronized (deque) {
+					size = deque.size();
+				}
+				if (size > max) {
+					max = size;
+					victim = deque;
+				}
+			}
+			if (victim == null) {
+				return null;
+			}
+			synchronized (victim) {
+				for (Partition p = victim.peekLast(); p != null; p = victim.peekLast()) {
+					CalculationTarget target = p.targets.pollLast();
+					if (target != null) {
+						return target;
+					}
+					victim.pollLast();
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * 未着手のパーティションが最も多いワーカから、未着手のパーティションを一つ盗み自分のDequeに入れる
+	 *
+	 * @param index ワーカの番号
+	 * @return パーティションを盗めたときtrue
+	 */
+	private boolean stealPartition(int index) {
+		for (int retry = 0; retry < partitionDeques.size(); retry++) {
+			int victim = -1;
+			int max = 0;
+			for (int i = 0; i < partitionDeques.size(); i++) {
+				if (i == index) {
+					continue;
+				}
+				Deque<Partition> deque = partitionDeques.get(i);
+				int size;
+				synchronized (deque) {
+					size = deque.size();
+				}
+				if (size > max) {
+					max = size;
+					victim = i;
+				}
+			}
+			if (victim < 0) {
+				return false;
+			}
+			Partition stolen = null;
+			Deque<Partition> victimDeque = partitionDeques.get(victim);
+			synchronized (victimDeque) {
+				Partition last = victimDeque.peekLast();
+				if (last != null && !last.started) {
+					stolen = victimDeque.pollLast();
+				}
+			}
+			if (stolen != null) {
+				Deque<Partition> deque = partitionDeques.get(index);
+				synchronized (deque) {
+					deque.addLast(stolen);
+				}
+				stolen.stolenCount.incrementAndGet();
+				return true;
+			}
+			if (max <= 1) {
+				// 処理中のパーティションしか残っていない
+				return false;
+			}
+		}
+		return false;
+	}
+
+
+	@Override
+	public void revert(Collection<CalculationTarget> targets) {
+		for (CalculationTarget target : targets) {
+			partitionMap.get(target).abortCount.incrementAndGet();
+		}
+		super.revert(targets);
+	}
+
+	@Override
+	public void revert(CalculationTarget target) {
+		partitionMap.get(target).abortCount.incrementAndGet();
+		super.revert(target);
+	}
+
+
+	/**
+	 * パーティションごとの試行回数、abort回数のレポートを作成する
+	 *
+	 * @return
+	 */
+	public String getPartitionReport() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("| partition | first phone number | last phone number | contracts | tries | aborts | retries | stolen |");
+		sb.append("\n");
+		sb.append("|----------:|-------------------|-------------------|----------:|------:|-------:|--------:|-------:|");
+		sb.append("\n");
+		for (Partition p : partitions) {
+			int tries = p.tryCount.get();
+			sb.append(String.format("|%d|%s|%s|%,d|%,d|%,d|%,d|%d|", p.id, p.firstPhoneNumber, p.lastPhoneNumber,
+					p.size, tries, p.abortCount.get(), Math.max(0, tries - p.size), p.stolenCount.get()));
+			sb.append("\n");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * パーティションのリストを返す(UT用)
+	 *
+	 * @return
+	 */
+	List<Partition> getPartitions() {
+		return Collections.unmodifiableList(partitions);
+	}
+
+
+	/**
+	 * 電話番号の連続した範囲の処理対象を保持するパーティション
+	 */
+	static class Partition {
+		final int id;
+		final String firstPhoneNumber;
+		final String lastPhoneNumber;
+		final int size;
+
+		/**
+		 * 未処理の処理対象、パーティションを保持するDequeのロックを取ってアクセスする
+		 */
+		final Deque<CalculationTarget> targets;
+
+		/**
+		 * パーティションの処理を開始したことを示すフラグ、パーティションを保持するDequeのロックを取ってアクセスする
+		 */
+		boolean started = false;
+
+		final AtomicInteger tryCount = new AtomicInteger(0);
+		final AtomicInteger abortCount = new AtomicInteger(0);
+		final AtomicInteger stolenCount = new AtomicInteger(0);
+
+		Partition(int id, List<CalculationTarget> targets) {
+			this.id = id;
+			this.targets = new ArrayDeque<>(targets);
+			this.size = targets.size();
+			firstPhoneNumber = targets.get(0).getContract().getPhoneNumber();
+			lastPhoneNumber = targets.get(size - 1).getContract().getPhoneNumber();
+		}
+	}
+}
@@ -37,13 +37,18 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.tsurugidb.benchmark.phonebill.app.Config;
+import com.tsurugidb.benchmark.phonebill.app.Config.BillingEngine;
+import com.tsurugidb.benchmark.phonebill.app.Config.CalculationTargetQueueType;
+import com.tsurugidb.benchmark.phonebill.app.Config.TransactionScope;
 import com.tsurugidb.benchmark.phonebill.app.CrashDumper;
 import com.tsurugidb.benchmark.phonebill.app.ExecutableCommand;
+import com.tsurugidb.benchmark.phonebill.app.MetricsServer;
 import com.tsurugidb.benchmark.phonebill.db.PhoneBillDbManager;
 import com.tsurugidb.benchmark.phonebill.db.PhoneBillDbManager.SessionHoldingType;
 import com.tsurugidb.benchmark.phonebill.db.TxLabel;
@@ -56,10 +61,11 @@ import com.tsurugidb.benchmark.phonebill.db.entity.Contract.Key;
 import com.tsurugidb.benchmark.phonebill.db.jdbc.Duration;
 import com.tsurugidb.benchmark.phonebill.online.AbstractOnlineApp;
 import com.tsurugidb.benchmark.phonebill.online.HistoryInsertApp;
+import com.tsurugidb.benchmark.phonebill.online.HistoryKeyCache;
 import com.tsurugidb.benchmark.phonebill.online.HistoryUpdateApp;
+import com.tsurugidb.benchmark.phonebill.online.KeySelector;
 import com.tsurugidb.benchmark.phonebill.online.MasterDeleteInsertApp;
 import com.tsurugidb.benchmark.phonebill.online.MasterUpdateApp;
-import com.tsurugidb.benchmark.phonebill.online.RandomKeySelector;
 import com.tsurugidb.benchmark.phonebill.testdata.ActiveBlockNumberHolder;
 import com.tsurugidb.benchmark.phonebill.testdata.ContractBlockInfoAccessor;
 import com.tsurugidb.benchmark.phonebill.testdata.DbContractBlockInfoInitializer;
@@ -72,10 +78,19 @@ public class PhoneBill extends ExecutableCommand {
 
     private long elapsedTime = 0; // バッチの処理時間
     private CalculationTargetQueue queue;
+    private HistoryScanBilling historyScanBilling;
+    private SqlPushdownBilling sqlPushdownBilling;
+    private AdaptiveTransactionScope adaptiveScope;
+    private List<PrefetchingCalculationTargetQueue> prefetchQueues = new ArrayList<>();
+    private RetrySchedulingCalculationTargetQueue retryScheduler;
+    private StreamingCalculationTargetQueue streamingQueue;
     private String finalMessage;
     private AtomicBoolean abortRequested = new AtomicBoolean(false);
     private AtomicInteger tryCounter = new AtomicInteger(0);
     private AtomicInteger abortCounter = new AtomicInteger(0);
+    private AtomicLong skippedWriteCounter = new AtomicLong(0);
+    private List<Long> taskFinishTimes = Collections.synchronizedList(new ArrayList<>());
+    private long stragglerMills = 0;
 
     Config config; // UTからConfigを書き換え可能にするためにパッケージプライベートにしている
 
@@ -90,6 +105,7 @@ public class PhoneBill extends ExecutableCommand {
     @Override
     public void execute(Config config) throws Exception {
         this.config = config.clone();
+        MetricsServer.setPhoneBill(this);
         DbContractBlockInfoInitializer initializer = new DbContractBlockInfoInitializer(config);
         ContractBlockInfoAccessor accessor = new SingleProcessContractBlockManager(initializer);
 
@@ -138,7 +154,11 @@ public class PhoneBill extends ExecutableCommand {
             } else {
                 // バッチの実行
                 Duration d = toDuration(config.targetMonth);
-                doCalc(d.getStatDate(), d.getEndDate());
+                if (config.targetMonthCount <= 1) {
+                    doCalc(d.getStatDate(), d.getEndDate());
+                } else {
+                    doCalcMonths(d.getStatDate(), config.targetMonthCount);
+                }
             }
         } finally {
             timer.cancel();
@@ -175,23 +195,26 @@ public class PhoneBill extends ExecutableCommand {
             throw new IllegalStateException("Insufficient test data, create test data first.");
         }
 
-        RandomKeySelector<Key> keySelector;
+        KeySelector<Key> keySelector;
         try (PhoneBillDbManager manager = PhoneBillDbManager.createPhoneBillDbManager(config)) {
             List<Key> keys = manager.execute(TxOption.ofRTX(3, TxLabel.BATCH_INITIALIZE), () -> {
                 return manager.getContractDao().getAllPrimaryKeys();
             });
-            keySelector = new RandomKeySelector<>(keys, random, config.onlineAppRandomAtLeastOnceRate,
-                    config.onlineAppRandomCoverRate);
+            keySelector = KeySelector.createForContracts(keys, random, config);
         }
 
+        // 履歴追加アプリと履歴更新アプリで通話履歴の主キーのキャッシュを共有する
+        HistoryKeyCache historyKeyCache = HistoryKeyCache.create(config);
+
         List<AbstractOnlineApp> list = new ArrayList<AbstractOnlineApp>();
         if (config.historyInsertThreadCount > 0 && config.historyInsertTransactionPerMin != 0) {
             list.addAll(HistoryInsertApp.createHistoryInsertApps(config, new Random(random.nextInt()), accessor,
-                    config.historyInsertThreadCount));
+                    config.historyInsertThreadCount, historyKeyCache));
         }
         if (config.historyUpdateThreadCount > 0 && config.historyUpdateRecordsPerMin != 0) {
             for (int i = 0; i < config.historyUpdateThreadCount; i++) {
-                AbstractOnlineApp task = new HistoryUpdateApp(config, new Random(random.nextInt()), keySelector);
+                AbstractOnlineApp task = new HistoryUpdateApp(config, new Random(random.nextInt()), keySelector,
+                        historyKeyCache);
                 task.setName(i);
                 list.add(task);
             }
@@ -213,6 +236,50 @@ public class PhoneBill extends ExecutableCommand {
         return list;
     }
 
+    /**
+     * 複数月の料金計算を行う.
+     * <p>
+     * 料金計算の方式がPER_CONTRACTの場合は、全計算対象月の料金計算を1回のバッチで行う。それ以外の方式や、
+     * 差分料金計算、中断したバッチの再開を行う場合は、月ごとにバッチを実行する。
+     *
+     * @param start 最初の計算対象月の初日
+     * @param count 月数
+     * @throws Exception
+     */
+    void doCalcMonths(Date start, int count) throws Exception {
+        LocalDate first = start.toLocalDate();
+        if (isMultiMonthPassEnabled()) {
+            Date end = Date.valueOf(first.plusMonths(count).minusDays(1));
+            doCalc(start, end);
+            return;
+        }
+        long totalElapsedTime = 0;
+        for (int i = 0; i < count && !abortRequested.get(); i++) {
+            Duration d = toDuration(Date.valueOf(first.plusMonths(i)));
+            doCalc(d.getStatDate(), d.getEndDate());
+            totalElapsedTime += elapsedTime;
+        }
+        elapsedTime = totalElapsedTime;
+    }
+
+    /**
+     * 複数月の料金計算を1回のバッチで行うかを判定する
+     *
+     * @return
+     */
+    private boolean isMultiMonthPassEnabled() {
+        if (config.billingEngine != BillingEngine.PER_CONTRACT) {
+            LOG.warn("Billing months are calculated one by one because billing engine {} "
+                    + "does not support multi-month billing.", config.billingEngine);
+            return false;
+        }
+        if (config.enableDeltaBilling || config.enableResume) {
+            LOG.warn("Billing months are calculated one by one because delta billing or resume is enabled.");
+            return false;
+        }
+        return true;
+    }
+
     /**
      * 指定の日付の一日から月の最終日までのDurationを作成する
      *
@@ -236,6 +303,15 @@ public class PhoneBill extends ExecutableCommand {
      */
     void doCalc(Date start, Date end) throws Exception {
         abortRequested.set(false);
+        historyScanBilling = null;
+        sqlPushdownBilling = null;
+        adaptiveScope = null;
+        prefetchQueues.clear();
+        retryScheduler = null;
+        streamingQueue = null;
+        skippedWriteCounter.set(0);
+        taskFinishTimes.clear();
+        stragglerMills = 0;
         LOG.info("Phone bill batch started.");
         String batchExecId = UUID.randomUUID().toString();
         int threadCount = config.threadCount;
@@ -252,41 +328,144 @@ public class PhoneBill extends ExecutableCommand {
             BillingDao billingDao = manager.getBillingDao();
             ContractDao contractDao = manager.getContractDao();
 
-            // Billingテーブルの計算対象月のレコードを削除する
-            manager.execute(TxOption.ofLTX(0, TxLabel.BATCH_INITIALIZE, Table.BILLING), () -> {
-                billingDao.delete(start);
-            });
+            boolean delta = isDeltaBillingEnabled();
+            boolean resume = isResumeEnabled(delta);
+            boolean streaming = isStreamingContractLoadEnabled(delta, resume);
+            BillingMonths months = new BillingMonths(start, end);
+            if (months.size() > 1) {
+                LOG.info("Multi-month billing: months = {}", months);
+            }
+            if (!delta && !resume) {
+                // Billingテーブルの計算対象月のレコードを削除する
+                manager.execute(TxOption.ofLTX(0, TxLabel.BATCH_INITIALIZE, Table.BILLING), () -> {
+                    for (Date month : months.getMonths()) {
+                        billingDao.delete(month);
+                    }
+                });
+            }
 
-            // 計算対象の契約を取りだし、キューに入れる
-            List<Contract> list = manager.execute(TxOption.ofRTX(Integer.MAX_VALUE, TxLabel.BATCH_INITIALIZE), () -> {
-                return contractDao.getContracts(start, end);
-            });
-            ArrayList<CalculationTarget> targets = new ArrayList<>(list.size());
+            // 計算対象の契約を取りだし、キューに入れる(契約を読み込みながら処理する場合はキューが読み込む)
+            List<Contract> list = streaming ? Collections.emptyList()
+                    : manager.execute(TxOption.ofRTX(Integer.MAX_VALUE, TxLabel.BATCH_INITIALIZE), () -> {
+                        return contractDao.getContracts(start, end);
+                    });
+            if (delta) {
+                // 差分料金計算では料金計算が必要な契約のみを計算対象とする
+                list = new DeltaBilling(start, end).selectContracts(manager, list);
+            } else if (resume) {
+                // 再開時は請求情報の無い契約のみを計算対象とし、中断したバッチのバッチ実行IDを引き継ぐ
+                ResumeBilling resumeBilling = new ResumeBilling(start);
+                list = resumeBilling.selectContracts(manager, list);
+                if (resumeBilling.getBatchExecId() != null) {
+                    batchExecId = resumeBilling.getBatchExecId();
+                }
+            }
+            List<CalculationTarget> targets = new ArrayList<>(list.size());
             for (Contract contract : list) {
-                LOG.debug(contract.toString());
-
-                CallChargeCalculator callChargeCalculator = new SimpleCallChargeCalculator();
-                BillingCalculator billingCalculator = new SimpleBillingCalculator();
-                CalculationTarget target = new CalculationTarget(contract, billingCalculator, callChargeCalculator,
-                        start, end, false);
-                targets.add(target);
+                targets.add(createCalculationTarget(contract, start, end));
             }
-            queue = new CalculationTargetQueue(targets);
-
-            // 契約毎の計算を行うスレッドを生成する
-            service = Executors.newFixedThreadPool(threadCount);
-            for (int i = 0; i < threadCount; i++) {
-                PhoneBillDbManager managerForTask;
-                if (config.sharedConnection) {
-                    managerForTask = manager;
-                } else {
-                    managerForTask = PhoneBillDbManager.createPhoneBillDbManager(config,
-                            SessionHoldingType.INSTANCE_FIELD);
-                    managers.add(managerForTask);
+            if (config.billingEngine == BillingEngine.HISTORY_SCAN) {
+                // 通話履歴を走査して料金計算を行う
+                List<PhoneBillDbManager> managersForTask = new ArrayList<>(threadCount);
+                for (int i = 0; i < threadCount; i++) {
+                    managersForTask.add(getManagerForTask(manager, managers));
+                }
+                historyScanBilling = new HistoryScanBilling(config, targets, start, end, threadCount, batchExecId,
+                        abortRequested, tryCounter, abortCounter);
+                historyScanBilling.execute(managersForTask);
+            } else if (config.billingEngine == BillingEngine.SQL_PUSHDOWN) {
+                // 料金計算をSQLでDBに任せる
+                List<PhoneBillDbManager> managersForTask = new ArrayList<>(threadCount);
+                for (int i = 0; i < threadCount; i++) {
+                    managersForTask.add(getManagerForTask(manager, managers));
+                }
+                sqlPushdownBilling = new SqlPushdownBilling(config, targets, start, end, threadCount, batchExecId,
+                        abortRequested, tryCounter, abortCounter);
+                sqlPushdownBilling.execute(managersForTask);
+            } else {
+                if (isLargestFirstEnabled()) {
+                    // 通話履歴の件数が多い契約から順に処理する
+                    targets = new LargestFirstScheduling(start, end).sort(manager, targets);
+                    if (config.calculationTargetQueueType == CalculationTargetQueueType.WORK_STEALING) {
+                        targets = LargestFirstScheduling.interleave(targets, threadCount);
+                    }
+                }
+                switch (config.calculationTargetQueueType) {
+                case WORK_STEALING:
+                    queue = new WorkStealingCalculationTargetQueue(targets, threadCount);
+                    break;
+                case PARTITIONED:
+                    queue = new PartitionedCalculationTargetQueue(targets, threadCount, config.partitionsPerThread);
+                    break;
+                case SIMPLE:
+                default:
+                    if (streaming) {
+                        // 契約を電話番号の範囲ごとに読み込みながら処理する、読み込みはCalculationTaskとは別のセッションで行う
+                        PhoneBillDbManager managerForLoader = PhoneBillDbManager.createPhoneBillDbManager(config,
+                                SessionHoldingType.INSTANCE_FIELD);
+                        managers.add(managerForLoader);
+                        streamingQueue = new StreamingCalculationTargetQueue(managerForLoader, start, end,
+                                config.contractLoadPageSize, config.contractLoadQueueCapacity,
+                                contract -> createCalculationTarget(contract, start, end), abortRequested);
+                        queue = streamingQueue;
+                    } else {
+                        queue = new CalculationTargetQueue(targets);
+                    }
+                    break;
+                }
+
+                // 処理に失敗した契約の再処理をスケジューラで制御する
+                CalculationTargetQueue sharedQueue = queue;
+                if (config.enableRetryScheduler) {
+                    retryScheduler = new RetrySchedulingCalculationTargetQueue(queue, config.retryBackoffBaseMillis,
+                            config.retryBackoffMaxMillis, config.retryFinalPhaseThreshold);
+                    sharedQueue = retryScheduler;
+                }
+
+                // トランザクションスコープがADAPTIVEの場合は、1トランザクションで処理する契約数を全スレッドで共有する
+                if (config.transactionScope == TransactionScope.ADAPTIVE) {
+                    adaptiveScope = new AdaptiveTransactionScope(config);
+                }
+
+                // 契約毎の計算を行うスレッドを生成する
+                boolean prefetch = isPrefetchEnabled();
+                boolean overlap = isCommitOverlapEnabled();
+                service = Executors.newFixedThreadPool(threadCount);
+                for (int i = 0; i < threadCount; i++) {
+                    PhoneBillDbManager managerForTask = getManagerForTask(manager, managers);
+                    CalculationTargetQueue queueForTask = sharedQueue;
+                    if (prefetch) {
+                        // 先読みはCalculationTaskとは別のセッションで行う
+                        PhoneBillDbManager managerForPrefetch = PhoneBillDbManager.createPhoneBillDbManager(config,
+                                SessionHoldingType.INSTANCE_FIELD);
+                        managers.add(managerForPrefetch);
+                        PrefetchingCalculationTargetQueue prefetchQueue = new PrefetchingCalculationTargetQueue(
+                                sharedQueue, managerForPrefetch, config.prefetchDepth, i, abortRequested);
+                        prefetchQueues.add(prefetchQueue);
+                        queueForTask = prefetchQueue;
+                    }
+                    PhoneBillDbManager managerForOverlap = null;
+                    if (overlap) {
+                        // コミット中に次の契約の料金計算を行うための2つ目のセッション
+                        managerForOverlap = PhoneBillDbManager.createPhoneBillDbManager(config,
+                                SessionHoldingType.INSTANCE_FIELD);
+                        managers.add(managerForOverlap);
+                    }
+                    CalculationTask task = new CalculationTask(queueForTask, managerForTask, config, batchExecId,
+                            abortRequested, tryCounter, abortCounter, adaptiveScope, skippedWriteCounter,
+                            managerForOverlap);
+                    // CalculationTaskのスレッドをi番目のワーカとしてQueueに登録する
+                    CalculationTargetQueue workerQueue = queueForTask;
+                    int workerIndex = i;
+                    futures.add(service.submit(() -> {
+                        try {
+                            workerQueue.registerWorker(workerIndex);
+                            return task.call();
+                        } finally {
+                            taskFinishTimes.add(System.currentTimeMillis());
+                        }
+                    }));
                 }
-                CalculationTask task = new CalculationTask(queue, managerForTask, config, batchExecId, abortRequested,
-                        tryCounter, abortCounter);
-                futures.add(service.submit(task));
             }
         } catch (RuntimeException e) {
             abortRequested.set(true);
@@ -302,12 +481,251 @@ public class PhoneBill extends ExecutableCommand {
         String format = "Billings calculated in %,.3f sec ";
         finalMessage = String.format(format, elapsedTime / 1000d);
         LOG.info(finalMessage);
+        if (queue instanceof PartitionedCalculationTargetQueue) {
+            LOG.info("Partition report: \n---\n{}---",
+                    ((PartitionedCalculationTargetQueue) queue).getPartitionReport());
+        }
+        if (adaptiveScope != null) {
+            LOG.info("Adaptive transaction scope report: \n---\n{}---", adaptiveScope.getReport());
+        }
+        for (PrefetchingCalculationTargetQueue prefetchQueue : prefetchQueues) {
+            LOG.info("Prefetch report: {}", prefetchQueue.getReport());
+        }
+        if (streamingQueue != null) {
+            LOG.info("Contract loader report: {}", streamingQueue.getReport());
+        }
+        if (retryScheduler != null) {
+            LOG.info("Retry scheduler report: {}", retryScheduler.getReport());
+        }
+        if (config.skipUnchangedCharge && config.billingEngine == BillingEngine.PER_CONTRACT) {
+            LOG.info("Skipped history writes: {}", skippedWriteCounter.get());
+        }
+        if (!taskFinishTimes.isEmpty()) {
+            stragglerMills = LargestFirstScheduling.getStragglerMills(taskFinishTimes);
+            LOG.info("Straggler time (last thread finish - median thread finish): {} ms", stragglerMills);
+        }
+    }
+
+    /**
+     * 通話履歴の件数が多い契約から順に処理するかを判定する
+     *
+     * @return
+     */
+    private boolean isLargestFirstEnabled() {
+        if (!config.enableLargestFirst) {
+            return false;
+        }
+        if (config.calculationTargetQueueType == CalculationTargetQueueType.PARTITIONED) {
+            LOG.warn("Largest-first scheduling is disabled because calculation target queue type {} "
+                    + "sorts contracts by phone number.", config.calculationTargetQueueType);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 差分料金計算を行うかを判定する
+     *
+     * @return
+     */
+    private boolean isDeltaBillingEnabled() {
+        if (!config.enableDeltaBilling) {
+            return false;
+        }
+        if (config.billingEngine != BillingEngine.PER_CONTRACT) {
+            LOG.warn("Delta billing is disabled because billing engine {} recalculates all contracts.",
+                    config.billingEngine);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 中断したバッチの再開を行うかを判定する
+     *
+     * @param delta 差分料金計算を行う場合true
+     * @return
+     */
+    private boolean isResumeEnabled(boolean delta) {
+        if (!config.enableResume) {
+            return false;
+        }
+        if (delta) {
+            LOG.info("Resume is ignored because delta billing also recalculates unbilled contracts.");
+            return false;
+        }
+        if (config.billingEngine == BillingEngine.SQL_PUSHDOWN) {
+            LOG.warn("Resume is disabled because billing engine SQL_PUSHDOWN inserts billings of all contracts.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 計算対象の契約を電話番号の範囲ごとに読み込みながら料金計算を行うかを判定する
+     * <p>
+     * 処理対象の並べ替えや選択には全契約が必要なので、これらを行う場合は全契約を一度に読み込む。
+     *
+     * @param delta 差分料金計算を行う場合true
+     * @param resume 中断したバッチの再開を行う場合true
+     * @return
+     */
+    private boolean isStreamingContractLoadEnabled(boolean delta, boolean resume) {
+        if (config.contractLoadPageSize <= 0) {
+            return false;
+        }
+        if (config.billingEngine != BillingEngine.PER_CONTRACT) {
+            LOG.warn("Streaming contract load is disabled because billing engine {} requires all contracts.",
+                    config.billingEngine);
+            return false;
+        }
+        if (config.calculationTargetQueueType != CalculationTargetQueueType.SIMPLE) {
+            LOG.warn("Streaming contract load is disabled because calculation target queue type {} "
+                    + "requires all contracts.", config.calculationTargetQueueType);
+            return false;
+        }
+        if (delta || resume || config.enableLargestFirst) {
+            LOG.warn("Streaming contract load is disabled because delta billing, resume or largest first scheduling "
+                    + "requires all contracts.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 契約から処理対象を作成する
+     *
+     * @param contract
+     * @param start 計算対象期間の最初の日
+     * @param end 計算対象期間の最後の日
+     * @return
+     */
+    private static CalculationTarget createCalculationTarget(Contract contract, Date start, Date end) {
+        LOG.debug(contract.toString());
+        CallChargeCalculator callChargeCalculator = new SimpleCallChargeCalculator();
+        BillingCalculator billingCalculator = new SimpleBillingCalculator();
+        return new CalculationTarget(contract, billingCalculator, callChargeCalculator, start, end, false);
+    }
+
+    /**
+     * 通話履歴の先読みを行うかを判定する
+     * <p>
+     * 先読みした通話履歴はRTXのスナップショットなので、通話履歴を更新するオンラインアプリと同時に実行すると
+     * オンラインアプリの更新を上書きする可能性がある。このため通話履歴を更新するオンラインアプリが有効な場合は先読みしない。
+     *
+     * @return
+     */
+    private boolean isPrefetchEnabled() {
+        if (config.prefetchDepth <= 0) {
+            return false;
+        }
+        if ((config.historyInsertThreadCount > 0 && config.historyInsertTransactionPerMin != 0)
+                || (config.historyUpdateThreadCount > 0 && config.historyUpdateRecordsPerMin != 0)) {
+            LOG.warn("Prefetch is disabled because online applications updating histories are enabled.");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * コミット中に次の契約の料金計算を行うかを判定する
+     * <p>
+     * 1トランザクションで複数の契約を処理する場合は、次の契約の処理が同じトランザクションで行われるので重ねない。
+     * コミットを非同期に要求できるのはTsurugiのみで、JDBCではコミットが完了するまで戻らないので重ねない。
+     *
+     * @return
+     */
+    private boolean isCommitOverlapEnabled() {
+        if (!config.enableCommitOverlap) {
+            return false;
+        }
+        if (!config.dbmsType.isTsurugi()) {
+            LOG.warn("Commit overlap is disabled because dbms type {} does not support asynchronous commit.",
+                    config.dbmsType);
+            return false;
+        }
+        if (config.transactionScope != TransactionScope.CONTRACT) {
+            LOG.warn("Commit overlap is disabled because transaction scope {} commits multiple contracts at once.",
+                    config.transactionScope);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 料金計算のスレッドが使用するPhoneBillDbManagerを取得する
+     *
+     * @param manager 共有するPhoneBillDbManager
+     * @param managers 終了時にクローズするPhoneBillDbManagerのリスト
+     * @return
+     */
+    private PhoneBillDbManager getManagerForTask(PhoneBillDbManager manager, List<PhoneBillDbManager> managers) {
+        if (config.sharedConnection) {
+            return manager;
+        }
+        PhoneBillDbManager managerForTask = PhoneBillDbManager.createPhoneBillDbManager(config,
+                SessionHoldingType.INSTANCE_FIELD);
+        managers.add(managerForTask);
+        return managerForTask;
     }
 
     public String getStatus() {
+        if (historyScanBilling != null) {
+            return historyScanBilling.getStatus();
+        }
+        if (sqlPushdownBilling != null) {
+            return sqlPushdownBilling.getStatus();
+        }
+        if (retryScheduler != null) {
+            return retryScheduler.getStatus();
+        }
         return queue == null ? "Initializing" : queue.getStatus();
     }
 
+    /**
+     * 計算対象のキューで処理を待っている処理対象の数を返す
+     *
+     * @return 処理対象の数、計算対象のキューを使用していない場合-1
+     */
+    public int getNumberOfQueuedTargets() {
+        CalculationTargetQueue q = getQueueForMetrics();
+        return q == null ? -1 : q.getNumberOfQueuedTargets();
+    }
+
+    /**
+     * 計算対象のキューで処理中の処理対象の数を返す
+     *
+     * @return 処理対象の数、計算対象のキューを使用していない場合-1
+     */
+    public int getNumberOfRunningTargets() {
+        CalculationTargetQueue q = getQueueForMetrics();
+        return q == null ? -1 : q.getNumberOfRunningTargets();
+    }
+
+    /**
+     * 計算対象のキューで処理に成功した処理対象の数を返す
+     *
+     * @return 処理対象の数、計算対象のキューを使用していない場合-1
+     */
+    public int getNumberOfFinishedTargets() {
+        CalculationTargetQueue q = getQueueForMetrics();
+        return q == null ? -1 : q.getNumberOfFinishedTargets();
+    }
+
+    /**
+     * 処理対象の数を取得するキューを返す。再処理のスケジューリングが有効な場合は、バックオフ中の処理対象を
+     * 含めるためにラップしたキューを返す。
+     *
+     * @return 計算対象のキュー、計算対象のキューを使用していないか初期化中の場合null
+     */
+    private CalculationTargetQueue getQueueForMetrics() {
+        if (historyScanBilling != null || sqlPushdownBilling != null) {
+            return null;
+        }
+        RetrySchedulingCalculationTargetQueue scheduler = retryScheduler;
+        return scheduler != null ? scheduler : queue;
+    }
+
     /**
      * @param conn
      * @param futures
@@ -349,6 +767,10 @@ public class PhoneBill extends ExecutableCommand {
                 }
             }
         }
+        prefetchQueues.stream().forEach(q -> q.close());
+        if (streamingQueue != null) {
+            streamingQueue.close();
+        }
         managers.stream().forEach(m -> m.close());
         if (cause != null) {
             LOG.error("Phone bill batch aborting by exception.");
@@ -365,6 +787,15 @@ public class PhoneBill extends ExecutableCommand {
         return elapsedTime;
     }
 
+    /**
+     * トランザクションスコープADAPTIVEで、1トランザクションで処理した契約数の推移のレポートを返す
+     *
+     * @return レポート、トランザクションスコープがADAPTIVEでない場合null
+     */
+    public String getAdaptiveTransactionScopeReport() {
+        return adaptiveScope == null ? null : adaptiveScope.getReport();
+    }
+
     /**
      * 終了時のメッセージを返す
      *
@@ -393,6 +824,24 @@ public class PhoneBill extends ExecutableCommand {
         return tryCounter.get();
     }
 
+    /**
+     * 料金が変化しないため更新しなかった通話履歴の数を返す
+     *
+     * @return
+     */
+    public long getSkippedWriteCount() {
+        return skippedWriteCounter.get();
+    }
+
+    /**
+     * 最後に終了したスレッドの終了時刻と、スレッドの終了時刻の中央値の差(ミリ秒)を返す
+     *
+     * @return
+     */
+    public long getStragglerMills() {
+        return stragglerMills;
+    }
+
     /**
      * トランザクションがabortした回数を返します。
      * <p>
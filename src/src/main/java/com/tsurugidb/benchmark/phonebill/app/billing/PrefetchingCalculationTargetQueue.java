@@ -0,0 +1,354 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import java.io.Closeable;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tsurugidb.benchmark.phonebill.db.PhoneBillDbManager;
+import com.tsurugidb.benchmark.phonebill.db.TxLabel;
+import com.tsurugidb.benchmark.phonebill.db.TxOption;
+import com.tsurugidb.benchmark.phonebill.db.entity.History;
+
+/**
+ * 処理対象の通話履歴を先読みするCalculationTargetQueue.
+ * <p>
+ * CalculationTaskごとに生成し、複数のCalculationTaskで共有するCalculationTargetQueueから処理対象を取り出す。
+ * 先読み用のスレッドが、CalculationTaskとは別のセッションを使用してRTXで処理対象の通話履歴を読み込み、
+ * 指定の数まで処理対象をバッファに格納する。これによりCalculationTaskがトランザクションをコミットしている間に、
+ * 次の処理対象の通話履歴の読み込みが行われる。
+ * <p>
+ * 処理に失敗して戻された処理対象の先読みした通話履歴は破棄し、再度処理するときに読み込み直す。
+ * 先読みした通話履歴はRTXのスナップショットなので、通話履歴を更新するオンラインアプリと同時に使用してはならない。
+ * <p>
+ * 先読み用のスレッドとCalculationTaskはバッファのput/takeでブロックし、先読み用のスレッドは終了時にバッファに
+ * 終了マーカを入れる。先読み用のスレッドはCalculationTaskと同じワーカ番号でラップしたQueueに登録するので、
+ * ワーカごとに処理対象を割り当てるQueueで別のワーカの枠を使用しない。
+ */
+public class PrefetchingCalculationTargetQueue extends CalculationTargetQueue implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(PrefetchingCalculationTargetQueue.class);
+
+	/**
+	 * 先読み用のスレッドが終了したことを表すバッファの終了マーカ
+	 */
+	private static final CalculationTarget END_OF_STREAM = CalculationTarget.getEndOfTask();
+
+	/**
+	 * 処理対象を取り出すCalculationTargetQueue
+	 */
+	private final CalculationTargetQueue queue;
+
+	/**
+	 * 通話履歴を先読みした処理対象を格納するバッファ
+	 */
+	private final BlockingQueue<CalculationTarget> buffer;
+
+	/**
+	 * 通話履歴を読み込む関数
+	 */
+	private final Function<CalculationTarget, List<History>> reader;
+
+	private final AtomicBoolean abortRequested;
+
+	/**
+	 * 先読み用のスレッドがラップしたQueueに登録するワーカ番号
+	 */
+	private final int workerIndex;
+
+	/**
+	 * 先読み用のスレッド
+	 */
+	private final Thread thread;
+
+	/**
+	 * 先読み用のスレッドが終了したことを示すフラグ
+	 */
+	private volatile boolean prefetcherFinished = false;
+
+	/**
+	 * close()が呼ばれたことを示すフラグ
+	 */
+	private volatile boolean closed = false;
+
+	// 統計情報
+	private final AtomicInteger prefetchCount = new AtomicInteger(0);
+	private final AtomicInteger failCount = new AtomicInteger(0);
+	private final AtomicInteger discardCount = new AtomicInteger(0);
+	private final AtomicInteger bypassCount = new AtomicInteger(0);
+
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param queue 処理対象を取り出すCalculationTargetQueue
+	 * @param manager 先読みに使用するPhoneBillDbManager、CalculationTaskとは別のインスタンスを指定する
+	 * @param depth 先読みする処理対象の数
+	 * @param workerIndex 本Queueを使用するCalculationTaskのワーカ番号
+	 * @param abortRequested
+	 */
+	public PrefetchingCalculationTargetQueue(CalculationTargetQueue queue, PhoneBillDbManager manager, int depth,
+			int workerIndex, AtomicBoolean abortRequested) {
+		this(queue, createReader(manager), depth, workerIndex, abortRequested);
+	}
+
+	/**
+	 * コンストラクタ(UT用)
+	 *
+	 * @param queue 処理対象を取り出すCalculationTargetQueue
+	 * @param reader 通話履歴を読み込む関数
+	 * @param depth 先読みする処理対象の数
+	 * @param workerIndex 本Queueを使用するCalculationTaskのワーカ番号
+	 * @param abortRequested
+	 */
+	PrefetchingCalculationTargetQueue(CalculationTargetQueue queue, Function<CalculationTarget, List<History>> reader,
+			int depth, int workerIndex, AtomicBoolean abortRequested) {
+		super();
+		if (depth < 1) {
+			throw new IllegalArgumentException("depth must be greater than 0: " + depth);
+		}
+		this.queue = queue;
+		this.reader = reader;
+		this.abortRequested = abortRequested;
+		this.workerIndex = workerIndex;
+		buffer = new ArrayBlockingQueue<>(depth);
+		thread = new Thread(this::prefetch, "prefetcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static Function<CalculationTarget, List<History>> createReader(PhoneBillDbManager manager) {
+		TxOption txOption = TxOption.ofRTX(0, TxLabel.BATCH_PREFETCH);
+		return target -> manager.execute(txOption, () -> {
+			return manager.getHistoryDao().getHistories(target);
+		});
+	}
+
+	/**
+	 * 先読み用のスレッドの処理
+	 */
+	private void prefetch() {
+		try {
+			queue.registerWorker(workerIndex);
+			while (!closed && !abortRequested.get()) {
+				CalculationTarget target = queue.take();
+				if (target == null) {
+					// ラップしたQueueの処理対象がすべて処理された
+					break;
+				}
+				try {
+					target.setPrefetchedHistories(reader.apply(target));
+					prefetchCount.incrementAndGet();
+				} catch (RuntimeException e) {
+					// 先読みに失敗した場合は、CalculationTaskのトランザクション内で読み込む
+					failCount.incrementAndGet();
+					LOG.debug("Failed to prefetch histories, phone_number = {}.", target.getContract().getPhoneNumber(),
+							e);
+				}
+				try {
+					buffer.put(target);
+				} catch (InterruptedException e) {
+					// バッファに入れられなかった処理対象はラップしたQueueに戻す
+					discard(target);
+					queue.revert(target);
+					throw e;
+				}
+			}
+		} catch (InterruptedException e) {
+			LOG.debug("Prefetcher interrupted.");
+		} finally {
+			prefetcherFinished = true;
+			// 終了マーカを入れる。abortやclose()でバッファが一杯のまま終了する場合は、先読みした処理対象を
+			// ラップしたQueueに戻して空きを作る。
+			while (!buffer.offer(END_OF_STREAM)) {
+				CalculationTarget target = buffer.poll();
+				if (target != null && target != END_OF_STREAM) {
+					discard(target);
+					queue.revert(target);
+				}
+			}
+		}
+	}
+
+
+	@Override
+	public void registerWorker(int index) {
+		queue.registerWorker(index);
+	}
+
+
+	@Override
+	public String getStatus() {
+		return queue.getStatus() + ", prefetched = " + getNumberOfPrefetchedTargets();
+	}
+
+	/**
+	 * バッファ内の先読みした処理対象の数を返す
+	 *
+	 * @return
+	 */
+	private int getNumberOfPrefetchedTargets() {
+		int size = buffer.size();
+		return buffer.contains(END_OF_STREAM) ? size - 1 : size;
+	}
+
+
+	/**
+	 * ラップしたQueueで処理を待っている処理対象と、バッファ内の先読みした処理対象の数を返す
+	 */
+	@Override
+	public int getNumberOfQueuedTargets() {
+		return queue.getNumberOfQueuedTargets() + getNumberOfPrefetchedTargets();
+	}
+
+
+	/**
+	 * ラップしたQueueで処理中の処理対象の数を返す. バッファ内の先読みした処理対象は、ラップしたQueueでは処理中
+	 * なので除く。
+	 */
+	@Override
+	public int getNumberOfRunningTargets() {
+		return Math.max(queue.getNumberOfRunningTargets() - getNumberOfPrefetchedTargets(), 0);
+	}
+
+
+	@Override
+	public int getNumberOfFinishedTargets() {
+		return queue.getNumberOfFinishedTargets();
+	}
+
+
+	@Override
+	public CalculationTarget take() throws InterruptedException {
+		CalculationTarget target = buffer.take();
+		if (target != END_OF_STREAM) {
+			return target;
+		}
+		// 後続の呼び出しのために終了マーカを戻す
+		buffer.offer(END_OF_STREAM);
+		if (queue.finished()) {
+			return null;
+		}
+		// 先読み用のスレッドがabortにより終了した場合
+		return queue.poll();
+	}
+
+
+	/**
+	 * バッファから処理対象を取り出す。バッファが空の場合は、先読みせずに処理対象を取り出す。
+	 */
+	@Override
+	public CalculationTarget poll() {
+		CalculationTarget target = buffer.poll();
+		if (target == END_OF_STREAM) {
+			buffer.offer(END_OF_STREAM);
+			target = null;
+		}
+		if (target == null) {
+			target = queue.poll();
+			if (target != null) {
+				bypassCount.incrementAndGet();
+			}
+		}
+		return target;
+	}
+
+
+	@Override
+	public void revert(Collection<CalculationTarget> targets) {
+		for (CalculationTarget target : targets) {
+			discard(target);
+		}
+		queue.revert(targets);
+	}
+
+
+	@Override
+	public void revert(CalculationTarget target) {
+		discard(target);
+		queue.revert(target);
+	}
+
+	/**
+	 * 先読みした通話履歴を破棄する
+	 *
+	 * @param target
+	 */
+	private void discard(CalculationTarget target) {
+		if (target.takePrefetchedHistories() != null) {
+			discardCount.incrementAndGet();
+		}
+	}
+
+
+	@Override
+	public void success(Collection<CalculationTarget> targets) {
+		queue.success(targets);
+	}
+
+
+	@Override
+	public void success(CalculationTarget target) {
+		queue.success(target);
+	}
+
+
+	@Override
+	public boolean finished() {
+		return prefetcherFinished && getNumberOfPrefetchedTargets() == 0 && queue.finished();
+	}
+
+
+	@Override
+	public int size() {
+		return queue.size() + getNumberOfPrefetchedTargets();
+	}
+
+
+	/**
+	 * 先読みの統計情報を返す
+	 *
+	 * @return
+	 */
+	public String getReport() {
+		return String.format("prefetched = %d, failed = %d, discarded = %d, bypassed = %d", prefetchCount.get(),
+				failCount.get(), discardCount.get(), bypassCount.get());
+	}
+
+
+	/**
+	 * 先読み用のスレッドを停止する
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		LOG.debug("Prefetcher finished: {}", getReport());
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tsurugidb.benchmark.phonebill.db.PhoneBillDbManager;
+import com.tsurugidb.benchmark.phonebill.db.TxLabel;
+import com.tsurugidb.benchmark.phonebill.db.TxOption;
+import com.tsurugidb.benchmark.phonebill.db.entity.Billing;
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+
+/**
+ * 中断したバッチを再開する際に、料金計算が必要な契約を選択するクラス.
+ * <p>
+ * 請求情報の挿入は、その契約の通話履歴の更新と同じトランザクションで行われるので、請求情報が存在する契約は
+ * 料金計算が完了している。再開時は計算対象月の請求情報を削除せず、請求情報が存在しない契約のみを料金計算の対象とする。
+ * <p>
+ * 計算対象月の請求情報は中断したバッチが作成したものであることを前提とする。中断したバッチのバッチ実行IDが
+ * 1つに特定できる場合は、再開したバッチも同じバッチ実行IDを使用する。
+ */
+public class ResumeBilling {
+    private static final Logger LOG = LoggerFactory.getLogger(ResumeBilling.class);
+
+    /**
+     * 計算対象月の最初の日
+     */
+    private final Date start;
+
+    /**
+     * 中断したバッチのバッチ実行ID、特定できない場合はnull
+     */
+    private String batchExecId = null;
+
+    // 統計情報
+    private int totalContracts = 0;
+    private int billedContracts = 0;
+
+
+    /**
+     * コンストラクタ
+     *
+     * @param start 計算対象月の最初の日
+     */
+    public ResumeBilling(Date start) {
+        this.start = start;
+    }
+
+    /**
+     * 料金計算が必要な契約を選択する
+     *
+     * @param manager
+     * @param contracts 計算対象月に有効な契約
+     * @return
+     */
+    public List<Contract> selectContracts(PhoneBillDbManager manager, List<Contract> contracts) {
+        List<Billing> billings = manager.execute(TxOption.ofRTX(Integer.MAX_VALUE, TxLabel.BATCH_INITIALIZE), () -> {
+            return manager.getBillingDao().getBillings(start);
+        });
+        List<Contract> list = selectContracts(contracts, billings);
+        LOG.info("Resume billing: {}", getReport());
+        return list;
+    }
+
+    /**
+     * 請求情報が存在しない契約を選択する
+     *
+     * @param contracts 計算対象月に有効な契約
+     * @param billings 計算対象月の請求情報
+     * @return
+     */
+    List<Contract> selectContracts(List<Contract> contracts, Collection<Billing> billings) {
+        Set<String> billedPhoneNumbers = new HashSet<>();
+        Set<String> batchExecIds = new HashSet<>();
+        for (Billing b : billings) {
+            billedPhoneNumbers.add(b.getPhoneNumber());
+            batchExecIds.add(b.getBatchExecId());
+        }
+        batchExecId = batchExecIds.size() == 1 ? batchExecIds.iterator().next() : null;
+
+        List<Contract> list = new ArrayList<>();
+        for (Contract c : contracts) {
+            if (!billedPhoneNumbers.contains(c.getPhoneNumber())) {
+                list.add(c);
+            }
+        }
+        totalContracts = contracts.size();
+        billedContracts = totalContracts - list.size();
+        return list;
+    }
+
+    /**
+     * 中断したバッチのバッチ実行IDを返す
+     *
+     * @return バッチ実行ID、請求情報が存在しないか、複数のバッチ実行IDが混在する場合はnull
+     */
+    public String getBatchExecId() {
+        return batchExecId;
+    }
+
+    /**
+     * 再開時の統計情報を返す
+     *
+     * @return
+     */
+    public String getReport() {
+        return String.format("total contracts = %d, billed contracts = %d, remaining contracts = %d, "
+                + "batch exec id = %s", totalContracts, billedContracts, totalContracts - billedContracts,
+                batchExecId);
+    }
+}
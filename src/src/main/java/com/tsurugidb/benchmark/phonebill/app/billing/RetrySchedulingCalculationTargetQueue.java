@@ -0,0 +1,512 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 処理に失敗した処理対象の再処理の順序を制御するCalculationTargetQueue.
+ * <p>
+ * 複数のCalculationTaskで共有するCalculationTargetQueueをラップし、処理に失敗して戻された処理対象を
+ * ラップしたQueueに戻さずに保持する。戻された処理対象は、abort回数に応じた指数バックオフ(ジッタ付き)の間は
+ * 取り出されない。abort回数が閾値に達した処理対象は最終フェーズに回し、通常の処理対象とバックオフ中の
+ * 処理対象がすべて取り出された後に、1つずつ取り出す。最終フェーズの処理対象には
+ * {@link CalculationTarget#isFinalPhase()}が設定され、CalculationTaskはLTXで処理する。
+ * <p>
+ * バックオフ中と最終フェーズの処理対象は、ラップしたQueueからは処理中に見えるので、
+ * すべての処理対象の処理が成功するまでラップしたQueueは終了しない。
+ * <p>
+ * ロックを取るのはバックオフ中と最終フェーズの処理対象の管理のみで、ラップしたQueueの操作はロックの外で行う。
+ * 取り出せる処理対象が無いときの{@link #take()}はスリープせずに、次のバックオフが終了するか、処理対象が
+ * 戻されるか成功するまで待ち、ラップしたQueueの{@link CalculationTargetQueue#poll()}で再確認する。
+ * ラップしたQueueの{@link CalculationTargetQueue#take()}では待たないので、待っている間に戻された処理対象も
+ * 取り出せる。
+ */
+public class RetrySchedulingCalculationTargetQueue extends CalculationTargetQueue {
+	private static final Logger LOG = LoggerFactory.getLogger(RetrySchedulingCalculationTargetQueue.class);
+
+	/**
+	 * レポートに出力するabort回数が多い処理対象の数
+	 */
+	private static final int HOT_TARGETS_IN_REPORT = 10;
+
+	/**
+	 * 処理対象を取り出すCalculationTargetQueue
+	 */
+	private final CalculationTargetQueue queue;
+
+	/**
+	 * 1回目のabort後のバックオフ時間(ミリ秒)
+	 */
+	private final long baseBackoffMills;
+
+	/**
+	 * バックオフ時間の上限(ミリ秒)
+	 */
+	private final long maxBackoffMills;
+
+	/**
+	 * 最終フェーズに回すabort回数
+	 */
+	private final int finalPhaseThreshold;
+
+	/**
+	 * 現在時刻(ミリ秒)を返す関数
+	 */
+	private final LongSupplier clock;
+
+	private final Random random;
+
+	/**
+	 * 処理対象ごとのabort回数
+	 */
+	private final Map<CalculationTarget, Integer> abortCounts = new IdentityHashMap<>();
+
+	/**
+	 * バックオフ中の処理対象、再処理可能になる時刻順
+	 */
+	private final PriorityQueue<DelayedTarget> delayedTargets = new PriorityQueue<>();
+
+	/**
+	 * 最終フェーズで処理する処理対象
+	 */
+	private final Deque<CalculationTarget> finalPhaseTargets = new ArrayDeque<>();
+
+	/**
+	 * 最終フェーズで処理中の処理対象の数
+	 */
+	private int runningFinalPhaseTargets = 0;
+
+	/**
+	 * 処理に成功した処理対象のabort回数のヒストグラム
+	 */
+	private final Map<Integer, Integer> histogram = new TreeMap<>();
+
+	/**
+	 * 同じ時刻に再処理可能になる処理対象を、戻された順に取り出すための連番
+	 */
+	private long sequence = 0;
+
+	// 統計情報
+	private int backoffCount = 0;
+	private int finalPhaseCount = 0;
+
+	/**
+	 * バックオフ中と最終フェーズの処理対象、統計情報を保護するロックと、take()で待機しているスレッドを起こす条件
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+
+	/**
+	 * 処理対象が戻されるか成功するたびにインクリメントされるカウンタ
+	 */
+	private long changeCount = 0;
+
+	/**
+	 * take()が待つ時間の上限(ミリ秒). ラップしたQueueに処理対象が追加されても通知されないので、少なくとも
+	 * この間隔でラップしたQueueを確認する。
+	 */
+	static final long MAX_WAIT_MILLS = 100;
+
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param queue 処理対象を取り出すCalculationTargetQueue
+	 * @param baseBackoffMills 1回目のabort後のバックオフ時間(ミリ秒)
+	 * @param maxBackoffMills バックオフ時間の上限(ミリ秒)
+	 * @param finalPhaseThreshold 最終フェーズに回すabort回数
+	 */
+	public RetrySchedulingCalculationTargetQueue(CalculationTargetQueue queue, long baseBackoffMills,
+			long maxBackoffMills, int finalPhaseThreshold) {
+		this(queue, baseBackoffMills, maxBackoffMills, finalPhaseThreshold, System::currentTimeMillis, new Random());
+	}
+
+	/**
+	 * コンストラクタ(UT用)
+	 *
+	 * @param queue 処理対象を取り出すCalculationTargetQueue
+	 * @param baseBackoffMills 1回目のabort後のバックオフ時間(ミリ秒)
+	 * @param maxBackoffMills バックオフ時間の上限(ミリ秒)
+	 * @param finalPhaseThreshold 最終フェーズに回すabort回数
+	 * @param clock 現在時刻(ミリ秒)を返す関数
+	 * @param random ジッタに使用する乱数生成器
+	 */
+	RetrySchedulingCalculationTargetQueue(CalculationTargetQueue queue, long baseBackoffMills, long maxBackoffMills,
+			int finalPhaseThreshold, LongSupplier clock, Random random) {
+		super();
+		if (baseBackoffMills < 0 || maxBackoffMills < baseBackoffMills) {
+			throw new IllegalArgumentException(
+					"Illegal backoff: base = " + baseBackoffMills + ", max = " + maxBackoffMills);
+		}
+		if (finalPhaseThreshold < 1) {
+			throw new IllegalArgumentException("finalPhaseThreshold must be greater than 0: " + finalPhaseThreshold);
+		}
+		this.queue = queue;
+		this.baseBackoffMills = baseBackoffMills;
+		this.maxBackoffMills = maxBackoffMills;
+		this.finalPhaseThreshold = finalPhaseThreshold;
+		this.clock = clock;
+		this.random = random;
+	}
+
+
+	@Override
+	public void registerWorker(int index) {
+		queue.registerWorker(index);
+	}
+
+
+	@Override
+	public String getStatus() {
+		String status = queue.getStatus();
+		lock.lock();
+		try {
+			return status + ", backoff = " + delayedTargets.size() + ", final phase = "
+					+ (finalPhaseTargets.size() + runningFinalPhaseTargets);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	/**
+	 * 処理対象を取り出す。通常の処理対象とバックオフ中の処理対象が残っていない場合は、最終フェーズの処理対象を取り出す。
+	 */
+	/**
+	 * ラップしたQueueで処理を待っている処理対象と、バックオフ中と最終フェーズの処理対象の数を返す
+	 */
+	@Override
+	public int getNumberOfQueuedTargets() {
+		return size();
+	}
+
+
+	/**
+	 * ラップしたQueueで処理中の処理対象の数を返す. 本クラスで保持している戻された処理対象は、ラップしたQueueでは
+	 * 処理中のままなので除く。
+	 */
+	@Override
+	public int getNumberOfRunningTargets() {
+		int running = queue.getNumberOfRunningTargets();
+		lock.lock();
+		try {
+			return Math.max(running - delayedTargets.size() - finalPhaseTargets.size(), 0);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	@Override
+	public int getNumberOfFinishedTargets() {
+		return queue.getNumberOfFinishedTargets();
+	}
+
+
+	@Override
+	public CalculationTarget take() throws InterruptedException {
+		for (;;) {
+			long count = getChangeCount();
+			CalculationTarget target = poll();
+			if (target == null) {
+				target = pollFinalPhase();
+			}
+			if (target != null || finished()) {
+				return target;
+			}
+			awaitChange(count);
+		}
+	}
+
+	private long getChangeCount() {
+		lock.lock();
+		try {
+			return changeCount;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 次のバックオフが終了するか、処理対象が戻されるか成功するまで待つ. 待つ時間の上限は{@link #MAX_WAIT_MILLS}。
+	 *
+	 * @param count 処理対象を取り出す前のchangeCountの値
+	 * @throws InterruptedException
+	 */
+	private void awaitChange(long count) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			if (changeCount != count) {
+				return;
+			}
+			long wait = MAX_WAIT_MILLS;
+			DelayedTarget head = delayedTargets.peek();
+			if (head != null) {
+				wait = Math.min(wait, head.eligibleTime - clock.getAsLong());
+			}
+			if (wait > 0) {
+				changed.await(wait, TimeUnit.MILLISECONDS);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * take()で待機しているスレッドを起こす、ロックを取った状態で呼び出すこと
+	 */
+	private void signalWaiters() {
+		changeCount++;
+		changed.signalAll();
+	}
+
+
+	/**
+	 * バックオフが終了した処理対象か、通常の処理対象を取り出す。最終フェーズの処理対象は取り出さない。
+	 */
+	@Override
+	public CalculationTarget poll() {
+		lock.lock();
+		try {
+			DelayedTarget head = delayedTargets.peek();
+			if (head != null && head.eligibleTime <= clock.getAsLong()) {
+				delayedTargets.poll();
+				return head.target;
+			}
+		} finally {
+			lock.unlock();
+		}
+		return queue.poll();
+	}
+
+	/**
+	 * 最終フェーズの処理対象を取り出す. 最終フェーズの処理対象は同時に1つしか処理しない。
+	 * <p>
+	 * {@link #poll()}がnullを返した直後、つまりラップしたQueueから処理対象を取り出せなかった直後に呼び出すこと。
+	 * ストリーミングのQueueはsize()がロード済みの処理対象しか数えないので、ラップしたQueueのsize()では判断しない。
+	 *
+	 * @return 最終フェーズの処理対象、取り出せない場合はnull
+	 */
+	private CalculationTarget pollFinalPhase() {
+		lock.lock();
+		try {
+			if (finalPhaseTargets.isEmpty() || runningFinalPhaseTargets > 0) {
+				return null;
+			}
+			if (!delayedTargets.isEmpty()) {
+				return null;
+			}
+			CalculationTarget target = finalPhaseTargets.poll();
+			target.setFinalPhase(true);
+			runningFinalPhaseTargets++;
+			return target;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	@Override
+	public void revert(Collection<CalculationTarget> targets) {
+		lock.lock();
+		try {
+			for (CalculationTarget target : targets) {
+				addRevertedTarget(target);
+			}
+			signalWaiters();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	@Override
+	public void revert(CalculationTarget target) {
+		lock.lock();
+		try {
+			addRevertedTarget(target);
+			signalWaiters();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * 戻された処理対象を、abort回数に応じてバックオフ中か最終フェーズの処理対象にする、ロックを取った状態で呼び出すこと
+	 *
+	 * @param target
+	 */
+	private void addRevertedTarget(CalculationTarget target) {
+		int count = abortCounts.merge(target, 1, Integer::sum);
+		if (target.isFinalPhase()) {
+			runningFinalPhaseTargets--;
+			finalPhaseTargets.addFirst(target);
+		} else if (count >= finalPhaseThreshold) {
+			finalPhaseCount++;
+			finalPhaseTargets.addLast(target);
+			LOG.debug("Moved to final phase: phone_number = {}, aborts = {}", target.getContract().getPhoneNumber(),
+					count);
+		} else {
+			backoffCount++;
+			delayedTargets.add(new DelayedTarget(target, clock.getAsLong() + getBackoffMills(count), sequence++));
+		}
+	}
+
+	/**
+	 * バックオフ時間を返す.
+	 * <p>
+	 * バックオフ時間はabortごとに倍にし、上限で打ち切る。同時にabortした処理対象が同時に再処理されないように、
+	 * バックオフ時間の後半の半分をランダムにする。
+	 *
+	 * @param abortCount abort回数
+	 * @return バックオフ時間(ミリ秒)
+	 */
+	long getBackoffMills(int abortCount) {
+		long backoff = Math.min(baseBackoffMills << Math.min(abortCount - 1, 30), maxBackoffMills);
+		long half = backoff / 2;
+		return half + (long) (random.nextDouble() * (backoff - half));
+	}
+
+
+	@Override
+	public void success(Collection<CalculationTarget> targets) {
+		lock.lock();
+		try {
+			for (CalculationTarget target : targets) {
+				addSucceededTarget(target);
+			}
+		} finally {
+			lock.unlock();
+		}
+		queue.success(targets);
+		signalWaitersWithLock();
+	}
+
+
+	@Override
+	public void success(CalculationTarget target) {
+		lock.lock();
+		try {
+			addSucceededTarget(target);
+		} finally {
+			lock.unlock();
+		}
+		queue.success(target);
+		signalWaitersWithLock();
+	}
+
+	/**
+	 * 成功した処理対象を統計情報に反映する、ロックを取った状態で呼び出すこと
+	 *
+	 * @param target
+	 */
+	private void addSucceededTarget(CalculationTarget target) {
+		Integer count = abortCounts.get(target);
+		histogram.merge(count == null ? 0 : count, 1, Integer::sum);
+		if (target.isFinalPhase()) {
+			runningFinalPhaseTargets--;
+		}
+	}
+
+	/**
+	 * ラップしたQueueの状態の変化をtake()で待機しているスレッドに伝える
+	 */
+	private void signalWaitersWithLock() {
+		lock.lock();
+		try {
+			signalWaiters();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	@Override
+	public boolean finished() {
+		return queue.finished();
+	}
+
+
+	@Override
+	public int size() {
+		int size = queue.size();
+		lock.lock();
+		try {
+			return size + delayedTargets.size() + finalPhaseTargets.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	/**
+	 * 再処理の統計情報を返す. 処理に成功した処理対象のabort回数のヒストグラムと、abort回数が多い処理対象を含む。
+	 *
+	 * @return
+	 */
+	public String getReport() {
+		lock.lock();
+		try {
+			String hotTargets = abortCounts.entrySet().stream()
+					.sorted(Map.Entry.<CalculationTarget, Integer>comparingByValue().reversed())
+					.limit(HOT_TARGETS_IN_REPORT)
+					.map(e -> e.getKey().getContract().getPhoneNumber() + "=" + e.getValue())
+					.collect(Collectors.joining(", "));
+			return String.format("backoffs = %d, final phase targets = %d, aborts per target histogram = %s, "
+					+ "hot targets = [%s]", backoffCount, finalPhaseCount, histogram, hotTargets);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+
+	/**
+	 * バックオフ中の処理対象
+	 */
+	private static class DelayedTarget implements Comparable<DelayedTarget> {
+		final CalculationTarget target;
+		final long eligibleTime;
+		final long sequence;
+
+		DelayedTarget(CalculationTarget target, long eligibleTime, long sequence) {
+			this.target = target;
+			this.eligibleTime = eligibleTime;
+			this.sequence = sequence;
+		}
+
+		@Override
+		public int compareTo(DelayedTarget o) {
+			int c = Long.compare(eligibleTime, o.eligibleTime);
+			return c != 0 ? c : Long.compare(sequence, o.sequence);
+		}
+	}
+}
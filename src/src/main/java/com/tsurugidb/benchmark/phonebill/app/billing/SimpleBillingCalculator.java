@@ -29,6 +29,15 @@ public class SimpleBillingCalculator implements BillingCalculator {
 		totalCallCharge += callCharge;
 	}
 
+	@Override
+	public void addCallCharges(int[] callCharges) {
+		int sum = 0;
+		for (int i = 0; i < callCharges.length; i++) {
+			sum += callCharges[i];
+		}
+		totalCallCharge += sum;
+	}
+
 	@Override
 	public int getBasicCharge() {
 		return 3000;
@@ -32,4 +32,12 @@ public class SimpleCallChargeCalculator implements CallChargeCalculator {
 		return ((time - 1) / 60 + 1) * 10;
 	}
 
+	@Override
+	public void calc(int[] timeSecs, int[] chargesOut) {
+		for (int i = 0; i < timeSecs.length; i++) {
+			int time = timeSecs[i];
+			chargesOut[i] = time < 60 ? 10 : ((time - 1) / 60 + 1) * 10;
+		}
+	}
+
 }
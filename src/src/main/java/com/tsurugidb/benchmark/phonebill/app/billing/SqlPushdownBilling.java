@@ -0,0 +1,391 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tsurugidb.benchmark.phonebill.app.Config;
+import com.tsurugidb.benchmark.phonebill.app.billing.HistoryScanBilling.SubRange;
+import com.tsurugidb.benchmark.phonebill.db.PhoneBillDbManager;
+import com.tsurugidb.benchmark.phonebill.db.RetryOverRuntimeException;
+import com.tsurugidb.benchmark.phonebill.db.TxLabel;
+import com.tsurugidb.benchmark.phonebill.db.TxOption;
+import com.tsurugidb.benchmark.phonebill.db.TxOption.Table;
+import com.tsurugidb.benchmark.phonebill.db.dao.BillingDao;
+import com.tsurugidb.benchmark.phonebill.db.dao.HistoryDao;
+import com.tsurugidb.benchmark.phonebill.util.DateUtils;
+
+/**
+ * 料金計算を集合指向のSQLでDBに任せる.
+ * <p>
+ * 計算対象月を通話開始時刻で複数のサブレンジに分割し、サブレンジごとに1つのupdate文で通話履歴の料金を更新する。
+ * 全サブレンジの処理が終わったら、計算対象の電話番号を連続した範囲(パーティション)に分割し、パーティションごとに
+ * 1トランザクションで、insert ... select ... group by文で課金対象の電話番号ごとに料金を集計して請求情報を挿入し、
+ * insert ... select ... where not exists文で通話履歴の無い契約の請求情報を挿入する。パーティションは
+ * 複数のスレッドで並列に処理する。通話履歴も請求情報もクライアントに読み込まないので、クライアントで料金計算を
+ * 行う方式との比較のため、実行したSQLの数を記録しログに出力する。
+ * <p>
+ * 料金体系はSimpleCallChargeCalculatorとSimpleBillingCalculatorと同じものをSQLで表したものを使用するので、
+ * 計算対象のCalculatorがこれら以外の場合は例外をスローする。通話履歴の課金対象の電話番号には計算対象月に
+ * 有効な契約が存在することを前提とし、契約との突き合わせは行わない。
+ */
+public class SqlPushdownBilling {
+    private static final Logger LOG = LoggerFactory.getLogger(SqlPushdownBilling.class);
+
+    private final Config config;
+    private final Date start;
+    private final Date end;
+    private final String batchExecId;
+    private final AtomicBoolean abortRequested;
+    private final AtomicInteger tryCounter;
+    private final AtomicInteger abortCounter;
+    private final TxOption updateTxOption;
+    private final TxOption insertTxOption;
+
+    /**
+     * 未処理のサブレンジ
+     */
+    private final Queue<SubRange> subRanges;
+
+    /**
+     * サブレンジの数
+     */
+    private final int numberOfSubRanges;
+
+    /**
+     * 請求情報を挿入していないパーティション
+     */
+    private final Queue<PhoneNumberRange> partitions;
+
+    /**
+     * パーティションの数
+     */
+    private final int numberOfPartitions;
+
+    // 処理状況と実行したSQLの数
+    private final AtomicInteger completedSubRanges = new AtomicInteger(0);
+    private final AtomicInteger completedPartitions = new AtomicInteger(0);
+    private final AtomicLong updatedHistories = new AtomicLong(0);
+    private final AtomicLong aggregatedBillings = new AtomicLong(0);
+    private final AtomicLong basicOnlyBillings = new AtomicLong(0);
+    private final AtomicLong updateStatements = new AtomicLong(0);
+    private final AtomicLong insertStatements = new AtomicLong(0);
+    private final AtomicLong transactions = new AtomicLong(0);
+
+    /**
+     * コンストラクタ
+     *
+     * @param config
+     * @param targets 計算対象
+     * @param start 計算対象月の初日
+     * @param end 計算対象月の最終日
+     * @param numberOfSubRanges 計算対象月を分割するサブレンジの数、計算対象の電話番号を分割するパーティションの数
+     * @param batchExecId
+     * @param abortRequested
+     * @param tryCounter
+     * @param abortCounter
+     * @throws IllegalArgumentException 計算対象のCalculatorがSQLで表した料金体系と異なる場合
+     */
+    public SqlPushdownBilling(Config config, Collection<CalculationTarget> targets, Date start, Date end,
+            int numberOfSubRanges, String batchExecId, AtomicBoolean abortRequested, AtomicInteger tryCounter,
+            AtomicInteger abortCounter) {
+        for (CalculationTarget target : targets) {
+            if (!(target.getCallChargeCalculator() instanceof SimpleCallChargeCalculator)
+                    || !(target.getBillingCalculator() instanceof SimpleBillingCalculator)) {
+                throw new IllegalArgumentException("Billing engine SQL_PUSHDOWN supports only "
+                        + "SimpleCallChargeCalculator and SimpleBillingCalculator: " + target.getContract());
+            }
+        }
+        this.config = config;
+        this.start = start;
+        this.end = end;
+        this.batchExecId = batchExecId;
+        this.abortRequested = abortRequested;
+        this.tryCounter = tryCounter;
+        this.abortCounter = abortCounter;
+        List<SubRange> list = HistoryScanBilling.createSubRanges(start, end, numberOfSubRanges);
+        this.numberOfSubRanges = list.size();
+        subRanges = new ConcurrentLinkedQueue<>(list);
+        List<PhoneNumberRange> ranges = createPhoneNumberRanges(targets, numberOfSubRanges);
+        numberOfPartitions = ranges.size();
+        partitions = new ConcurrentLinkedQueue<>(ranges);
+        switch (config.transactionOption) {
+        case LTX:
+            updateTxOption = TxOption.ofLTX(0, TxLabel.BATCH_MAIN, Table.HISTORY);
+            insertTxOption = TxOption.ofLTX(3, TxLabel.BATCH_MAIN, Table.BILLING);
+            break;
+        case OCC:
+        default:
+            updateTxOption = TxOption.ofOCC(0, TxLabel.BATCH_MAIN);
+            insertTxOption = TxOption.ofOCC(3, TxLabel.BATCH_MAIN);
+            break;
+        }
+    }
+
+    /**
+     * 料金計算を実行する
+     *
+     * @param managers サブレンジを処理するスレッドが使用するPhoneBillDbManager、要素数がスレッド数になる
+     * @throws Exception
+     */
+    public void execute(List<PhoneBillDbManager> managers) throws Exception {
+        runTasks(managers, UpdateTask::new);
+        if (abortRequested.get()) {
+            LOG.info("SQL pushdown billing finished by abort request, completed sub ranges = {}/{}.",
+                    completedSubRanges.get(), numberOfSubRanges);
+            return;
+        }
+        runTasks(managers, InsertTask::new);
+        if (abortRequested.get()) {
+            LOG.info("SQL pushdown billing finished by abort request, completed partitions = {}/{}.",
+                    completedPartitions.get(), numberOfPartitions);
+            return;
+        }
+        LOG.info("SQL pushdown billing finished: {}", getReport());
+    }
+
+    /**
+     * PhoneBillDbManagerごとにタスクを生成して並列に実行し、すべてのタスクの終了を待つ
+     *
+     * @param managers
+     * @param factory タスクを生成する関数
+     * @throws Exception タスクが例外で終了した場合
+     */
+    private void runTasks(List<PhoneBillDbManager> managers,
+            Function<PhoneBillDbManager, Callable<Exception>> factory) throws Exception {
+        ExecutorService service = Executors.newFixedThreadPool(managers.size());
+        Exception cause = null;
+        try {
+            List<Future<Exception>> futures = new ArrayList<>(managers.size());
+            for (PhoneBillDbManager manager : managers) {
+                futures.add(service.submit(factory.apply(manager)));
+            }
+            for (Future<Exception> future : futures) {
+                Exception e = future.get();
+                if (e != null && cause == null) {
+                    cause = e;
+                    abortRequested.set(true);
+                }
+            }
+        } finally {
+            service.shutdown();
+        }
+        if (cause != null) {
+            throw cause;
+        }
+    }
+
+    /**
+     * 計算対象の電話番号を、含まれる電話番号の数がほぼ等しい連続した範囲に分割する.
+     * <p>
+     * 最初の範囲は下限なし、最後の範囲は上限なしとし、計算対象に含まれない電話番号の通話履歴も
+     * いずれかの範囲で集計されるようにする。
+     *
+     * @param targets 計算対象
+     * @param n 範囲の数の上限
+     * @return
+     */
+    static List<PhoneNumberRange> createPhoneNumberRanges(Collection<CalculationTarget> targets, int n) {
+        if (n < 1) {
+            throw new IllegalArgumentException("Number of partitions must be greater than 0: " + n);
+        }
+        TreeSet<String> set = new TreeSet<>();
+        for (CalculationTarget target : targets) {
+            set.add(target.getContract().getPhoneNumber());
+        }
+        List<String> phoneNumbers = new ArrayList<>(set);
+        List<PhoneNumberRange> list = new ArrayList<>(n);
+        String from = null;
+        for (int i = 1; i < n; i++) {
+            String to = phoneNumbers.isEmpty() ? null : phoneNumbers.get(phoneNumbers.size() * i / n);
+            if (to == null || to.equals(from) || (from == null && to.equals(phoneNumbers.get(0)))) {
+                continue;
+            }
+            list.add(new PhoneNumberRange(from, to));
+            from = to;
+        }
+        list.add(new PhoneNumberRange(from, null));
+        return list;
+    }
+
+    /**
+     * 処理状況を返す
+     *
+     * @return
+     */
+    public String getStatus() {
+        return "SQL pushdown status: sub ranges = " + numberOfSubRanges + ", completed = "
+                + completedSubRanges.get() + ", updated histories = " + updatedHistories.get() + ", partitions = "
+                + numberOfPartitions + ", inserted partitions = " + completedPartitions.get();
+    }
+
+    /**
+     * 処理件数と実行したSQLの数を表す文字列を返す
+     *
+     * @return
+     */
+    public String getReport() {
+        long roundTrips = updateStatements.get() + insertStatements.get() + transactions.get();
+        return String.format("sub ranges = %d, partitions = %d, updated histories = %,d, billings = %,d "
+                + "(aggregated = %,d, without histories = %,d), "
+                + "round trips = %,d (history update statements = %,d, billing insert statements = %,d, "
+                + "commits = %,d)", numberOfSubRanges, numberOfPartitions, updatedHistories.get(),
+                aggregatedBillings.get() + basicOnlyBillings.get(), aggregatedBillings.get(),
+                basicOnlyBillings.get(), roundTrips, updateStatements.get(), insertStatements.get(),
+                transactions.get());
+    }
+
+
+    /**
+     * サブレンジの通話履歴の料金を更新するスレッド
+     */
+    private class UpdateTask implements Callable<Exception> {
+        private final PhoneBillDbManager manager;
+        private final HistoryDao historyDao;
+
+        UpdateTask(PhoneBillDbManager manager) {
+            this.manager = manager;
+            historyDao = manager.getHistoryDao();
+        }
+
+        @Override
+        public Exception call() {
+            for (SubRange range = subRanges.poll(); range != null; range = subRanges.poll()) {
+                if (abortRequested.get()) {
+                    return null;
+                }
+                LOG.debug("Updating histories: {}", range);
+                SubRange r = range;
+                try {
+                    int count = manager.execute(updateTxOption, () -> {
+                        tryCounter.incrementAndGet();
+                        return historyDao.updateChargesBySql(r.start, r.end, config.skipUnchangedCharge);
+                    });
+                    updateStatements.incrementAndGet();
+                    transactions.incrementAndGet();
+                    updatedHistories.addAndGet(count);
+                    completedSubRanges.incrementAndGet();
+                } catch (RuntimeException e) {
+                    abortCounter.incrementAndGet();
+                    PhoneBillDbManager.addRetringExceptions(e);
+                    if (!(e instanceof RetryOverRuntimeException)) {
+                        LOG.error("SQL pushdown task aborting by exception.", e);
+                        return e;
+                    }
+                    // リトライ可能な例外の場合はサブレンジを戻して再処理する
+                    subRanges.add(range);
+                }
+            }
+            return null;
+        }
+    }
+
+
+    /**
+     * パーティションの請求情報を挿入するスレッド
+     */
+    private class InsertTask implements Callable<Exception> {
+        private final PhoneBillDbManager manager;
+        private final BillingDao billingDao;
+
+        InsertTask(PhoneBillDbManager manager) {
+            this.manager = manager;
+            billingDao = manager.getBillingDao();
+        }
+
+        @Override
+        public Exception call() {
+            Timestamp s = new Timestamp(start.getTime());
+            Timestamp e = new Timestamp(DateUtils.nextDate(end).getTime());
+            for (PhoneNumberRange range = partitions.poll(); range != null; range = partitions.poll()) {
+                if (abortRequested.get()) {
+                    return null;
+                }
+                LOG.debug("Inserting billings: {}", range);
+                PhoneNumberRange r = range;
+                try {
+                    // 通話履歴の無い契約の請求情報は、集計した請求情報の挿入後に同じトランザクションで挿入する
+                    int[] counts = manager.execute(insertTxOption, () -> {
+                        tryCounter.incrementAndGet();
+                        int aggregated = billingDao.insertBillingsBySql(start, s, e, r.from, r.to, batchExecId);
+                        int basicOnly = billingDao.insertBasicOnlyBillingsBySql(start, start, end, r.from, r.to,
+                                batchExecId);
+                        return new int[] {aggregated, basicOnly};
+                    });
+                    insertStatements.addAndGet(2);
+                    transactions.incrementAndGet();
+                    aggregatedBillings.addAndGet(counts[0]);
+                    basicOnlyBillings.addAndGet(counts[1]);
+                    completedPartitions.incrementAndGet();
+                } catch (RuntimeException ex) {
+                    abortCounter.incrementAndGet();
+                    PhoneBillDbManager.addRetringExceptions(ex);
+                    if (!(ex instanceof RetryOverRuntimeException)) {
+                        LOG.error("SQL pushdown task aborting by exception.", ex);
+                        return ex;
+                    }
+                    // リトライ可能な例外の場合はパーティションを戻して再処理する
+                    partitions.add(range);
+                }
+            }
+            return null;
+        }
+    }
+
+
+    /**
+     * 電話番号の範囲
+     */
+    static class PhoneNumberRange {
+        /**
+         * 電話番号の下限(この値を含む)、nullの場合は下限なし
+         */
+        final String from;
+
+        /**
+         * 電話番号の上限(この値を含まない)、nullの場合は上限なし
+         */
+        final String to;
+
+        PhoneNumberRange(String from, String to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public String toString() {
+            return "PhoneNumberRange [from=" + from + ", to=" + to + "]";
+        }
+    }
+}
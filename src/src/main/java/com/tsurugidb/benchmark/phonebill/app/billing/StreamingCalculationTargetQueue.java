@@ -0,0 +1,467 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import java.io.Closeable;
+import java.sql.Date;
+import java.util.Collection;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tsurugidb.benchmark.phonebill.db.PhoneBillDbManager;
+import com.tsurugidb.benchmark.phonebill.db.TxLabel;
+import com.tsurugidb.benchmark.phonebill.db.TxOption;
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+
+/**
+ * 計算対象の契約を電話番号の範囲ごとに読み込みながら処理対象を配布するCalculationTargetQueue.
+ * <p>
+ * 読み込み用のスレッドが、電話番号の範囲ごとに別々のRTXで計算対象の契約を読み込み、容量に上限のあるバッファに
+ * 処理対象を格納する。バッファが一杯の場合は、CalculationTaskが処理対象を取り出すまで読み込みを待つ。
+ * これによりCalculationTaskは最初の範囲の読み込みが終わった時点で処理を開始でき、メモリ上に保持する処理対象の数は
+ * 契約数によらずバッファの容量程度に抑えられる。
+ * <p>
+ * 電話番号は0パディングされた11桁の数字を前提とし、数値として指定の幅ごとの範囲に分割する。最初の範囲は下限なし、
+ * 最大の電話番号を含む範囲は上限なしとするので、前提と異なる電話番号の契約も読み込まれる。範囲ごとに別のRTXで
+ * 読み込むので、全契約を一度に読み込む場合と異なり、読み込んだ契約は同一時点のスナップショットにはならない。
+ * <p>
+ * 処理に失敗して戻された処理対象は、バッファの先頭に入れて優先して配布する。バッファが一杯の場合は
+ * バッファとは別のキューに格納し、バッファより優先して配布する。
+ * <p>
+ * 処理対象の取り出しと読み込みはバッファの操作でブロックし、スリープによるポーリングは行わない。読み込みの終了と
+ * 全処理対象の処理の終了は、終了を表す番兵をバッファに入れて待機中のスレッドに通知する。処理中と
+ * バッファ内の処理対象の数はアトミック変数で管理し、モニタによるロックは取らない。
+ */
+public class StreamingCalculationTargetQueue extends CalculationTargetQueue implements Closeable {
+	private static final Logger LOG = LoggerFactory.getLogger(StreamingCalculationTargetQueue.class);
+
+	/**
+	 * 11桁の電話番号を数値で表したときの最大値
+	 */
+	private static final long MAX_PHONE_NUMBER = 99999999999L;
+
+	/**
+	 * 読み込みの終了または全処理対象の処理の終了を、バッファで待機しているスレッドに通知する番兵
+	 */
+	private static final CalculationTarget END_OF_STREAM = CalculationTarget.getEndOfTask();
+
+	/**
+	 * 最大の電話番号を読み込む関数
+	 */
+	private final Supplier<String> maxPhoneNumberReader;
+
+	/**
+	 * 電話番号の範囲を指定して契約を読み込む関数
+	 */
+	private final BiFunction<String, String, List<Contract>> pageReader;
+
+	/**
+	 * 契約から処理対象を作成する関数
+	 */
+	private final Function<Contract, CalculationTarget> targetFactory;
+
+	/**
+	 * 1回に読み込む電話番号の範囲の幅
+	 */
+	private final long pageSize;
+
+	/**
+	 * 読み込んだ処理対象と戻された処理対象を格納するバッファ
+	 */
+	private final BlockingDeque<CalculationTarget> buffer;
+
+	/**
+	 * 処理に失敗して戻された処理対象のうち、バッファが一杯で格納できなかったもの
+	 */
+	private final Queue<CalculationTarget> reverted = new ConcurrentLinkedQueue<>();
+
+	private final AtomicBoolean abortRequested;
+
+	/**
+	 * 読み込み用のスレッド
+	 */
+	private final Thread thread;
+
+	/**
+	 * 処理中の数
+	 */
+	private final AtomicInteger numberOfRunningTargets = new AtomicInteger(0);
+
+	/**
+	 * バッファと戻された処理対象のキューにある処理対象の数(番兵を含まない)
+	 */
+	private final AtomicInteger numberOfQueuedTargets = new AtomicInteger(0);
+
+	/**
+	 * 読み込み用のスレッドが終了したことを示すフラグ
+	 */
+	private volatile boolean loaderFinished = false;
+
+	/**
+	 * 読み込み用のスレッドで発生した例外
+	 */
+	private volatile RuntimeException loaderException = null;
+
+	/**
+	 * close()が呼ばれたことを示すフラグ
+	 */
+	private volatile boolean closed = false;
+
+	// 統計情報
+	private final AtomicInteger pageCount = new AtomicInteger(0);
+	private final AtomicLong loadedCount = new AtomicLong(0);
+	private final AtomicLong blockedMills = new AtomicLong(0);
+	private final long startTime = System.currentTimeMillis();
+	private volatile long firstTargetMills = -1;
+
+
+	/**
+	 * コンストラクタ
+	 *
+	 * @param manager 契約の読み込みに使用するPhoneBillDbManager、CalculationTaskとは別のインスタンスを指定する
+	 * @param start 計算対象期間の最初の日
+	 * @param end 計算対象期間の最後の日
+	 * @param pageSize 1回に読み込む電話番号の範囲の幅
+	 * @param capacity バッファの容量
+	 * @param targetFactory 契約から処理対象を作成する関数
+	 * @param abortRequested
+	 */
+	public StreamingCalculationTargetQueue(PhoneBillDbManager manager, Date start, Date end, int pageSize,
+			int capacity, Function<Contract, CalculationTarget> targetFactory, AtomicBoolean abortRequested) {
+		this(createMaxPhoneNumberReader(manager), createPageReader(manager, start, end), pageSize, capacity,
+				targetFactory, abortRequested);
+	}
+
+	/**
+	 * コンストラクタ(UT用)
+	 *
+	 * @param maxPhoneNumberReader 最大の電話番号を読み込む関数
+	 * @param pageReader 電話番号の範囲を指定して契約を読み込む関数
+	 * @param pageSize 1回に読み込む電話番号の範囲の幅
+	 * @param capacity バッファの容量
+	 * @param targetFactory 契約から処理対象を作成する関数
+	 * @param abortRequested
+	 */
+	StreamingCalculationTargetQueue(Supplier<String> maxPhoneNumberReader,
+			BiFunction<String, String, List<Contract>> pageReader, int pageSize, int capacity,
+			Function<Contract, CalculationTarget> targetFactory, AtomicBoolean abortRequested) {
+		super();
+		if (pageSize < 1) {
+			throw new IllegalArgumentException("pageSize must be greater than 0: " + pageSize);
+		}
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be greater than 0: " + capacity);
+		}
+		this.maxPhoneNumberReader = maxPhoneNumberReader;
+		this.pageReader = pageReader;
+		this.pageSize = pageSize;
+		this.targetFactory = targetFactory;
+		this.abortRequested = abortRequested;
+		buffer = new LinkedBlockingDeque<>(capacity);
+		thread = new Thread(this::load, "contract-loader");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private static Supplier<String> createMaxPhoneNumberReader(PhoneBillDbManager manager) {
+		TxOption txOption = TxOption.ofRTX(Integer.MAX_VALUE, TxLabel.BATCH_INITIALIZE);
+		return () -> manager.execute(txOption, () -> {
+			return manager.getContractDao().getMaxPhoneNumber();
+		});
+	}
+
+	private static BiFunction<String, String, List<Contract>> createPageReader(PhoneBillDbManager manager,
+			Date start, Date end) {
+		TxOption txOption = TxOption.ofRTX(Integer.MAX_VALUE, TxLabel.BATCH_INITIALIZE);
+		return (from, to) -> manager.execute(txOption, () -> {
+			return manager.getContractDao().getContracts(start, end, from, to);
+		});
+	}
+
+	/**
+	 * 数値を0パディングされた11桁の電話番号に変換する
+	 *
+	 * @param n
+	 * @return
+	 */
+	static String toPhoneNumber(long n) {
+		return String.format("%011d", n);
+	}
+
+	/**
+	 * 読み込み用のスレッドの処理
+	 */
+	private void load() {
+		try {
+			String maxPhoneNumber = maxPhoneNumberReader.get();
+			String from = null;
+			for (long n = pageSize; !closed && !abortRequested.get(); n += pageSize) {
+				String to = n > MAX_PHONE_NUMBER ? null : toPhoneNumber(n);
+				if (to != null && (maxPhoneNumber == null || to.compareTo(maxPhoneNumber) > 0)) {
+					// 最大の電話番号を含む範囲は上限なしとする
+					to = null;
+				}
+				List<Contract> contracts = pageReader.apply(from, to);
+				pageCount.incrementAndGet();
+				LOG.debug("Contracts loaded: from = {}, to = {}, size = {}", from, to, contracts.size());
+				for (Contract contract : contracts) {
+					if (closed || abortRequested.get()) {
+						return;
+					}
+					put(targetFactory.apply(contract));
+				}
+				if (to == null) {
+					break;
+				}
+				from = to;
+			}
+		} catch (InterruptedException e) {
+			LOG.debug("Contract loader interrupted.");
+		} catch (RuntimeException e) {
+			LOG.error("Contract loader aborting by exception.", e);
+			loaderException = e;
+		} finally {
+			loaderFinished = true;
+			LOG.debug("Contract loader finished: {}", getReport());
+			// 待機中のスレッドに読み込みの終了を通知する、close()で中断された場合は取り出すスレッドがいないので通知しない
+			if (!closed) {
+				try {
+					buffer.putLast(END_OF_STREAM);
+				} catch (InterruptedException e) {
+					LOG.debug("Contract loader interrupted.");
+				}
+			}
+		}
+	}
+
+	/**
+	 * 処理対象をバッファに格納する。バッファが一杯の場合は空きができるまで待つ。
+	 *
+	 * @param target
+	 * @throws InterruptedException close()により中断された場合
+	 */
+	private void put(CalculationTarget target) throws InterruptedException {
+		if (!buffer.offerLast(target)) {
+			long blockStart = System.currentTimeMillis();
+			try {
+				buffer.putLast(target);
+			} finally {
+				blockedMills.addAndGet(System.currentTimeMillis() - blockStart);
+			}
+		}
+		// 格納した処理対象が先に取り出されて一時的に負になることがあるが、読み込み中はfinished()にならない
+		numberOfQueuedTargets.incrementAndGet();
+		if (loadedCount.incrementAndGet() == 1) {
+			firstTargetMills = System.currentTimeMillis() - startTime;
+		}
+	}
+
+
+	@Override
+	public String getStatus() {
+		return "Contracts queue status: loaded = " + loadedCount.get() + ", in queue = " + size() + ", running = "
+				+ numberOfRunningTargets.get() + ", loading " + (loaderFinished ? "finished" : "in progress");
+	}
+
+
+	/**
+	 * 読み込み済みの処理対象のうち、処理を待っている処理対象の数を返す
+	 */
+	@Override
+	public int getNumberOfQueuedTargets() {
+		return size();
+	}
+
+
+	@Override
+	public int getNumberOfRunningTargets() {
+		return Math.max(numberOfRunningTargets.get(), 0);
+	}
+
+
+	@Override
+	public int getNumberOfFinishedTargets() {
+		return (int) Math.max(loadedCount.get() - numberOfQueuedTargets.get() - numberOfRunningTargets.get(), 0);
+	}
+
+
+	/**
+	 * 処理対象を取り出す。処理対象が無い場合は、処理対象が読み込まれるか戻されるか、全処理対象の処理が終わるまで
+	 * バッファでブロックする。
+	 *
+	 * @throws IllegalStateException 契約の読み込みに失敗した場合
+	 */
+	@Override
+	public CalculationTarget take() throws InterruptedException {
+		for (;;) {
+			checkLoaderException();
+			CalculationTarget target = reverted.poll();
+			if (target == null) {
+				if (finished()) {
+					return null;
+				}
+				target = buffer.takeFirst();
+			}
+			if (target == END_OF_STREAM) {
+				if (finished() || loaderException != null) {
+					// 他の待機中のスレッドにも通知する
+					buffer.offerLast(END_OF_STREAM);
+				}
+				continue;
+			}
+			return running(target);
+		}
+	}
+
+
+	/**
+	 * 戻された処理対象、バッファの順に処理対象を取り出す。
+	 *
+	 * @throws IllegalStateException 契約の読み込みに失敗した場合
+	 */
+	@Override
+	public CalculationTarget poll() {
+		checkLoaderException();
+		CalculationTarget target = reverted.poll();
+		if (target == null) {
+			target = buffer.pollFirst();
+		}
+		if (target == END_OF_STREAM) {
+			// 番兵はtake()で待機しているスレッドのために残す
+			buffer.offerLast(END_OF_STREAM);
+			return null;
+		}
+		return target == null ? null : running(target);
+	}
+
+	private void checkLoaderException() {
+		if (loaderException != null) {
+			throw new IllegalStateException("Failed to load contracts.", loaderException);
+		}
+	}
+
+	/**
+	 * 取り出した処理対象を処理中にする。処理中と待機中の数の合計が一時的に0にならないよう、処理中を先に増やす。
+	 *
+	 * @param target
+	 * @return target
+	 */
+	private CalculationTarget running(CalculationTarget target) {
+		numberOfRunningTargets.incrementAndGet();
+		numberOfQueuedTargets.decrementAndGet();
+		return target;
+	}
+
+
+	@Override
+	public void revert(Collection<CalculationTarget> targets) {
+		for (CalculationTarget target : targets) {
+			revert(target);
+		}
+	}
+
+
+	@Override
+	public void revert(CalculationTarget target) {
+		numberOfQueuedTargets.incrementAndGet();
+		// バッファの先頭に入れることで優先して取り出され、待機中のスレッドも起こす
+		if (!buffer.offerFirst(target)) {
+			// バッファが一杯のときは待機中のスレッドはいない
+			reverted.add(target);
+		}
+		numberOfRunningTargets.decrementAndGet();
+	}
+
+
+	@Override
+	public void success(Collection<CalculationTarget> targets) {
+		if (numberOfRunningTargets.addAndGet(-targets.size()) <= 0) {
+			signalIfFinished();
+		}
+	}
+
+
+	@Override
+	public void success(CalculationTarget target) {
+		if (numberOfRunningTargets.decrementAndGet() <= 0) {
+			signalIfFinished();
+		}
+	}
+
+	/**
+	 * 全処理対象の処理が終わった場合に、take()で待機しているスレッドに通知する
+	 */
+	private void signalIfFinished() {
+		if (finished()) {
+			buffer.offerLast(END_OF_STREAM);
+		}
+	}
+
+
+	/**
+	 * 読み込みが正常に終了し、すべての処理対象の処理が終わったかを調べる
+	 */
+	@Override
+	public boolean finished() {
+		return loaderFinished && loaderException == null && numberOfQueuedTargets.get() <= 0
+				&& numberOfRunningTargets.get() <= 0;
+	}
+
+
+	@Override
+	public int size() {
+		return Math.max(numberOfQueuedTargets.get(), 0);
+	}
+
+
+	/**
+	 * 契約の読み込みの統計情報を返す
+	 *
+	 * @return
+	 */
+	public String getReport() {
+		return String.format("pages = %d, loaded contracts = %d, first target after = %d ms, "
+				+ "blocked by back-pressure = %d ms", pageCount.get(), loadedCount.get(), firstTargetMills,
+				blockedMills.get());
+	}
+
+
+	/**
+	 * 読み込み用のスレッドを停止する
+	 */
+	@Override
+	public void close() {
+		closed = true;
+		thread.interrupt();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * ワーカ(CalculationTaskのスレッド)ごとにDequeを持つCalculationTargetQueue.
+ * <p>
+ * 各ワーカは自分のDequeの先頭から処理対象を取り出し、自分のDequeが空の場合は他のワーカのDequeの末尾から
+ * 処理対象を盗む(work stealing)。取り出し、成功、失敗の各操作はロックを取らずに行い、キューの状態を表す文字列は
+ * {@link #getStatus()}の呼び出し時に生成する。処理対象が無いときの{@link #take()}はスリープせずに、
+ * 処理対象が戻されるか全処理対象の処理が終了するまでブロックする。
+ * <p>
+ * ワーカとDequeの対応は、ワーカのスレッドが{@link #registerWorker(int)}で明示的に登録する。登録していない
+ * スレッドはDequeを持たず、取り出すときは戻された処理対象か他のワーカのDequeの末尾から盗む。失敗して戻された
+ * 処理対象は、戻したスレッドに関係なく全ワーカで共有するDequeに入れる。ワーカ以外のスレッド(コミット待ちの
+ * スレッドなど)が戻した処理対象が、他のワーカのDequeに紛れ込まないようにするためである。
+ *
+ */
+public class WorkStealingCalculationTargetQueue extends CalculationTargetQueue {
+	/**
+	 * ワーカごとのDeque
+	 */
+	private final List<ConcurrentLinkedDeque<CalculationTarget>> deques;
+
+	/**
+	 * 失敗して戻された処理対象を入れる、全ワーカで共有するDeque
+	 */
+	private final ConcurrentLinkedDeque<CalculationTarget> revertedTargets = new ConcurrentLinkedDeque<>();
+
+	/**
+	 * 処理対象の数
+	 */
+	private final int numberOfTargets;
+
+	/**
+	 * 処理が完了していない処理対象の数(Queue内の数 + 処理中の数)
+	 */
+	private final AtomicInteger numberOfRemainingTargets;
+
+	/**
+	 * Queue内の処理対象の数
+	 */
+	private final AtomicInteger numberOfQueuedTargets;
+
+	/**
+	 * ワーカとして登録していないスレッドのワーカ番号
+	 */
+	protected static final int NON_WORKER = -1;
+
+	/**
+	 * スレッドが使用するDequeの番号、ワーカとして登録していないスレッドはNON_WORKER
+	 */
+	private final ThreadLocal<Integer> workerIndex = ThreadLocal.withInitial(() -> NON_WORKER);
+
+	/**
+	 * 処理終了を表すフラグ
+	 */
+	private volatile boolean finished;
+
+	/**
+	 * take()で待機しているスレッドを起こすためのロックと条件
+	 */
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition changed = lock.newCondition();
+
+	/**
+	 * take()で待機しているスレッドの数
+	 */
+	private final AtomicInteger numberOfWaiters = new AtomicInteger(0);
+
+	/**
+	 * 処理対象が戻されるか、全処理対象の処理が終了するたびにインクリメントされるカウンタ
+	 */
+	private final AtomicLong changeCount = new AtomicLong(0);
+
+
+	/**
+	 * コンストラクタ.
+	 * <p>
+	 * targetsを先頭から順にnumberOfWorkers個に分割し、各ワーカのDequeに格納する。
+	 *
+	 * @param targets 処理対象
+	 * @param numberOfWorkers ワーカ数
+	 */
+	public WorkStealingCalculationTargetQueue(Collection<CalculationTarget> targets, int numberOfWorkers) {
+		this(targets.size(), numberOfWorkers);
+		int i = 0;
+		for (CalculationTarget target : targets) {
+			deques.get((int) ((long) i * numberOfWorkers / numberOfTargets)).addLast(target);
+			i++;
+		}
+	}
+
+	/**
+	 * サブクラス用のコンストラクタ. ワーカごとのDequeは空の状態で初期化される。
+	 *
+	 * @param numberOfTargets 処理対象の数
+	 * @param numberOfWorkers ワーカ数
+	 */
+	protected WorkStealingCalculationTargetQueue(int numberOfTargets, int numberOfWorkers) {
+		if (numberOfWorkers < 1) {
+			throw new IllegalArgumentException("numberOfWorkers must be greater than 0: " + numberOfWorkers);
+		}
+		deques = new ArrayList<>(numberOfWorkers);
+		for (int i = 0; i < numberOfWorkers; i++) {
+			deques.add(new ConcurrentLinkedDeque<>());
+		}
+		this.numberOfTargets = numberOfTargets;
+		numberOfRemainingTargets = new AtomicInteger(numberOfTargets);
+		numberOfQueuedTargets = new AtomicInteger(numberOfTargets);
+		finished = false;
+	}
+
+
+	/**
+	 * 呼び出したスレッドを指定の番号のワーカとして登録し、そのワーカのDequeを使用するようにする
+	 */
+	@Override
+	public void registerWorker(int index) {
+		if (index < 0 || index >= deques.size()) {
+			throw new IllegalArgumentException("Illegal worker index: " + index + ", number of workers = "
+					+ deques.size());
+		}
+		workerIndex.set(index);
+	}
+
+
+	@Override
+	public String getStatus() {
+		int queued = numberOfQueuedTargets.get();
+		int running = numberOfRemainingTargets.get() - queued;
+		return "Contracts queue status: total size = " + numberOfTargets + ", in queue = " + queued
+				+ ", running = " + running;
+	}
+
+
+	@Override
+	public int getNumberOfQueuedTargets() {
+		return numberOfQueuedTargets.get();
+	}
+
+
+	@Override
+	public int getNumberOfRunningTargets() {
+		return numberOfRemainingTargets.get() - numberOfQueuedTargets.get();
+	}
+
+
+	@Override
+	public int getNumberOfFinishedTargets() {
+		return numberOfTargets - numberOfRemainingTargets.get();
+	}
+
+
+	@Override
+	public CalculationTarget take() throws InterruptedException {
+		for (;;) {
+			long count = changeCount.get();
+			CalculationTarget target = poll();
+			if (target != null || finished) {
+				return target;
+			}
+			awaitChange(count);
+		}
+	}
+
+	/**
+	 * 処理対象が戻されるか、全処理対象の処理が終了するまで待つ
+	 *
+	 * @param count poll()を呼び出す前のchangeCountの値
+	 * @throws InterruptedException
+	 */
+	private void awaitChange(long count) throws InterruptedException {
+		lock.lockInterruptibly();
+		try {
+			// 待機スレッド数を増やしてから状態を確認することで、通知の取りこぼしを防ぐ
+			numberOfWaiters.incrementAndGet();
+			try {
+				if (changeCount.get() != count || numberOfRemainingTargets.get() <= 0) {
+					return;
+				}
+				changed.await();
+			} finally {
+				numberOfWaiters.decrementAndGet();
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * take()で待機しているスレッドがあれば起こす
+	 */
+	private void signalWaiters() {
+		changeCount.incrementAndGet();
+		if (numberOfWaiters.get() > 0) {
+			lock.lock();
+			try {
+				changed.signalAll();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+
+	@Override
+	public CalculationTarget poll() {
+		CalculationTarget target = pollTarget(workerIndex.get());
+		if (target != null) {
+			numberOfQueuedTargets.decrementAndGet();
+		} else if (numberOfRemainingTargets.get() <= 0) {
+			finished = true;
+		}
+		return target;
+	}
+
+	/**
+	 * 指定のワーカが処理する処理対象を取り出す. 自分のDeque、戻された処理対象のDequeの順に取り出し、
+	 * どちらも空のときは他のワーカのDequeから盗む。
+	 *
+	 * @param index ワーカの番号、ワーカとして登録していないスレッドの場合NON_WORKER
+	 * @return 取り出した処理対象、すべてのDequeが空の場合null
+	 */
+	protected CalculationTarget pollTarget(int index) {
+		CalculationTarget target = index == NON_WORKER ? null : pollOwn(index);
+		if (target == null) {
+			target = pollReverted();
+		}
+		if (target == null) {
+			target = steal(index);
+		}
+		return target;
+	}
+
+	/**
+	 * 自分のDequeの先頭から処理対象を取り出す
+	 *
+	 * @param index 自分のDequeの番号
+	 * @return 取り出した処理対象、Dequeが空の場合null
+	 */
+	protected final CalculationTarget pollOwn(int index) {
+		return deques.get(index).pollFirst();
+	}
+
+	/**
+	 * 失敗して戻された処理対象を、戻された順に取り出す
+	 *
+	 * @return 取り出した処理対象、戻された処理対象が無い場合null
+	 */
+	protected final CalculationTarget pollReverted() {
+		return revertedTargets.pollFirst();
+	}
+
+	/**
+	 * 他のワーカのDequeの末尾から処理対象を取り出す
+	 *
+	 * @param index 自分のDequeの番号、ワーカとして登録していないスレッドの場合NON_WORKER
+	 * @return 取り出した処理対象、すべてのDequeが空の場合null
+	 */
+	protected final CalculationTarget steal(int index) {
+		int n = deques.size();
+		int from = index == NON_WORKER ? 0 : 1;
+		int base = index == NON_WORKER ? 0 : index;
+		for (int i = from; i < n; i++) {
+			CalculationTarget target = deques.get((base + i) % n).pollLast();
+			if (target != null) {
+				return target;
+			}
+		}
+		return null;
+	}
+
+
+	@Override
+	public void revert(Collection<CalculationTarget> targets) {
+		revertedTargets.addAll(targets);
+		numberOfQueuedTargets.addAndGet(targets.size());
+		signalWaiters();
+	}
+
+
+	@Override
+	public void revert(CalculationTarget target) {
+		revertedTargets.addLast(target);
+		numberOfQueuedTargets.incrementAndGet();
+		signalWaiters();
+	}
+
+
+	@Override
+	public void success(Collection<CalculationTarget> targets) {
+		if (numberOfRemainingTargets.addAndGet(-targets.size()) <= 0) {
+			signalWaiters();
+		}
+	}
+
+	@Override
+	public void success(CalculationTarget target) {
+		if (numberOfRemainingTargets.decrementAndGet() <= 0) {
+			signalWaiters();
+		}
+	}
+
+
+	/**
+	 * ワーカ数を返す
+	 *
+	 * @return
+	 */
+	protected final int getNumberOfWorkers() {
+		return deques.size();
+	}
+
+	/**
+	 * 呼び出したスレッドのワーカ番号を返す
+	 *
+	 * @return ワーカ番号、ワーカとして登録していないスレッドの場合NON_WORKER
+	 */
+	protected final int getWorkerIndex() {
+		return workerIndex.get();
+	}
+
+
+	@Override
+	public boolean finished() {
+		return finished;
+	}
+
+	@Override
+	public int size() {
+		return numberOfQueuedTargets.get();
+	}
+}
@@ -36,6 +36,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiFunction;
@@ -140,6 +141,27 @@ public abstract class PhoneBillDbManager implements Closeable {
      */
     public abstract void rollback(Consumer<TsurugiTransaction> listener);
 
+    /**
+     * トランザクションを実行し、コミットは指定のExecutorのスレッドで行う.
+     * <p>
+     * runnableは呼び出したスレッドで実行し、コミットをexecutorに依頼してコミットの完了を待たずに戻る。
+     * コミットが終了するとexecutorのスレッドでlistenerを呼び出す。listenerにはコミットに成功した場合null、
+     * 失敗した場合は失敗の原因を表す例外(リトライ可能な場合はRetryOverRuntimeException)を渡す。
+     * リトライは行わないので、リトライ回数が0のTxOptionのみ指定できる。コミットを別のスレッドで行えないDBMSでは、
+     * コミットとlistenerの呼び出しも呼び出したスレッドで行う。
+     *
+     * @param setting リトライ回数が0のTxOption
+     * @param runnable
+     * @param executor コミットを行うExecutor
+     * @param listener コミットの終了時に呼び出すリスナ
+     * @throws RetryOverRuntimeException runnableの実行中にリトライ可能な例外が発生した場合、listenerは呼び出さない
+     */
+    public void executeWithAsyncCommit(TxOption setting, Runnable runnable, Executor executor,
+            Consumer<RuntimeException> listener) {
+        execute(setting, runnable);
+        listener.accept(null);
+    }
+
 
     /**
      * 管理しているすべてのコネクションをクローズする
@@ -17,6 +17,7 @@ package com.tsurugidb.benchmark.phonebill.db;
 
 public enum TxLabel {
     BATCH_MAIN,
+    BATCH_PREFETCH,
     ONLINE_MASTER_DELETE,
     ONLINE_MASTER_INSERT,
     ONLINE_MASTER_UPDATE,
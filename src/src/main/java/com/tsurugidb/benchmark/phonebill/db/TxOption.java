@@ -146,6 +146,13 @@ public class TxOption {
 		return setting;
 	}
 
+	/**
+	 * @return Iceaxeのトランザクションオプション
+	 */
+	public TgTxOption getTgTxOptionIceaxe() {
+		return tgTxOption;
+	}
+
 	/**
 	 * 指定の名称のgetCounterKeyを取得する
 	 *
@@ -16,6 +16,8 @@
 package com.tsurugidb.benchmark.phonebill.db.dao;
 
 import java.sql.Date;
+import java.sql.Timestamp;
+import java.util.Collection;
 import java.util.List;
 
 import com.tsurugidb.benchmark.phonebill.db.entity.Billing;
@@ -23,10 +25,69 @@ import com.tsurugidb.benchmark.phonebill.db.entity.Billing;
 public interface BillingDao {
 	static final String TABLE_NAME = "billing";
 
+	/**
+	 * 通話料金の合計から月額料金を計算するSQLの式(SimpleBillingCalculatorと同じ料金体系)
+	 */
+	static final String BILLING_AMOUNT_EXPRESSION = "case when sum(charge) < 2000 then 3000"
+			+ " else sum(charge) + 1000 end";
+
 	public int insert(Billing billing);
+	public int[] batchInsert(Collection<Billing> billings);
 	public int delete(Date targetMonth);
+	public int delete(Date targetMonth, String phoneNumber);
 	public int delete();
 	public List<Billing> getBillings();
+	public List<Billing> getBillings(Date targetMonth);
+
+	/**
+	 * 通話開始時刻がstart以上end未満で、論理削除されていない通話履歴の料金を課金対象の電話番号ごとに集計し、
+	 * 集計結果から作成した請求情報をSQL(insert ... select ... group by)で挿入する.
+	 * <p>
+	 * 電話番号の範囲の条件は料金区分ごとに課金対象の電話番号の列(料金区分'C'はcaller_phone_number、
+	 * 'R'はrecipient_phone_number)に適用し、履歴のスキャン範囲を限定する。1つのSQLで料金区分ごとの
+	 * 結果をマージできないDBMSでは、料金区分ごとに集計してアプリ側でマージした結果を挿入する。
+	 * <p>
+	 * 月額料金の計算式はSimpleBillingCalculatorと同じ料金体系をSQLで表したもの。通話履歴の無い電話番号の
+	 * 請求情報は挿入しない。
+	 *
+	 * @param targetMonth 計算対象月
+	 * @param start
+	 * @param end
+	 * @param fromPhoneNumber 課金対象の電話番号の下限(この値を含む)、nullの場合は下限なし
+	 * @param toPhoneNumber 課金対象の電話番号の上限(この値を含まない)、nullの場合は上限なし
+	 * @param batchExecId
+	 * @return 挿入したレコード数
+	 */
+	public int insertBillingsBySql(Date targetMonth, Timestamp start, Timestamp end, String fromPhoneNumber,
+			String toPhoneNumber, String batchExecId);
+
+	/**
+	 * 計算対象月に有効な契約のうち、計算対象月の請求情報が存在しない電話番号の請求情報を1つのSQL
+	 * (insert ... select ... where not exists)で挿入する.
+	 * <p>
+	 * 通話履歴の無い契約の請求情報を作成するために使用する。料金はSimpleBillingCalculatorで通話料金が0の場合と同じ。
+	 *
+	 * @param targetMonth 計算対象月
+	 * @param start 計算対象月の初日
+	 * @param end 計算対象月の最終日
+	 * @param fromPhoneNumber 電話番号の下限(この値を含む)、nullの場合は下限なし
+	 * @param toPhoneNumber 電話番号の上限(この値を含まない)、nullの場合は上限なし
+	 * @param batchExecId
+	 * @return 挿入したレコード数
+	 */
+	public int insertBasicOnlyBillingsBySql(Date targetMonth, Date start, Date end, String fromPhoneNumber,
+			String toPhoneNumber, String batchExecId);
+
+	/**
+	 * 指定の請求情報と対象年月、電話番号が同じ請求情報を削除してから、指定の請求情報を挿入する
+	 *
+	 * @param billing
+	 * @return 挿入したレコード数
+	 */
+	public default int upsert(Billing billing) {
+		delete(billing.getTargetMonth(), billing.getPhoneNumber());
+		return insert(billing);
+	}
 
 
 }
@@ -32,6 +32,22 @@ public interface ContractDao {
     long count();
     List<Contract> getContracts(String phoneNumber);
     List<Contract> getContracts(Date start, Date end);
+
+    /**
+     * 指定の期間に有効な契約のうち、電話番号が指定の範囲にある契約を電話番号順に取得する
+     *
+     * @param start 期間の最初の日
+     * @param end 期間の最後の日
+     * @param fromPhoneNumber 電話番号の下限(この値を含む)、nullの場合は下限なし
+     * @param toPhoneNumber 電話番号の上限(この値を含まない)、nullの場合は上限なし
+     * @return
+     */
+    List<Contract> getContracts(Date start, Date end, String fromPhoneNumber, String toPhoneNumber);
+
+    /**
+     * @return 最大の電話番号、契約が存在しない場合はnull
+     */
+    String getMaxPhoneNumber();
     List<Contract> getContracts();
     List<String> getAllPhoneNumbers();
     List<Key> getAllPrimaryKeys();
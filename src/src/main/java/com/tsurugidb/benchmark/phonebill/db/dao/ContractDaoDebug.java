@@ -58,6 +58,16 @@ public class ContractDaoDebug implements ContractDao {
         return dao.getContracts(start, end);
     }
 
+    @Override
+    public List<Contract> getContracts(Date start, Date end, String fromPhoneNumber, String toPhoneNumber) {
+        return dao.getContracts(start, end, fromPhoneNumber, toPhoneNumber);
+    }
+
+    @Override
+    public String getMaxPhoneNumber() {
+        return dao.getMaxPhoneNumber();
+    }
+
     @Override
     public List<Contract> getContracts() {
         return dao.getContracts();
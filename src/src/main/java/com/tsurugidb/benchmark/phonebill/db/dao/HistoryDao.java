@@ -15,12 +15,16 @@
  */
 package com.tsurugidb.benchmark.phonebill.db.dao;
 
+import java.sql.Timestamp;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import com.tsurugidb.benchmark.phonebill.app.billing.CalculationTarget;
 import com.tsurugidb.benchmark.phonebill.db.entity.Contract.Key;
 import com.tsurugidb.benchmark.phonebill.db.entity.History;
+import com.tsurugidb.benchmark.phonebill.db.entity.HistoryColumns;
 
 public interface HistoryDao {
 	static final String TABLE_NAME = "history";
@@ -39,12 +43,95 @@ public interface HistoryDao {
 
     int batchUpdateNonKeyFields(List<History> histories);
 
+	/**
+	 * 通話履歴の料金のみを更新する
+	 *
+	 * @param histories
+	 * @return 更新したレコード数
+	 */
+	int batchUpdateCharge(List<History> histories);
+
 	List<History> getHistories(Key key);
 
+	/**
+	 * 主キー(発信者電話番号、料金区分、通話開始時刻)を指定して通話履歴を1件取得する
+	 *
+	 * @param key 主キーの値を保持するHistory、主キー以外の項目は参照しない
+	 * @return 通話履歴、存在しない場合はnull
+	 */
+	History getHistory(History key);
+
 	List<History> getHistories(CalculationTarget target);
 
+	/**
+	 * 指定の計算対象の料金計算に使用する通話履歴を列ごとの配列で取得する。
+	 * 取得する通話履歴は{@link #getHistories(CalculationTarget)}と同じ。
+	 *
+	 * @param target
+	 * @return
+	 */
+	HistoryColumns getHistoryColumns(CalculationTarget target);
+
+	/**
+	 * 列ごとの配列で保持する通話履歴の非キー項目(通話時間、料金、削除フラグ)を更新する
+	 *
+	 * @param columns
+	 * @return 更新したレコード数
+	 */
+	int batchUpdateNonKeyFields(HistoryColumns columns);
+
 	List<History> getHistories();
 
+	/**
+	 * 通話開始時刻がstart以上end未満で、論理削除されていない通話履歴の件数を課金対象の電話番号ごとに返す.
+	 * <p>
+	 * 料金区分が発信者負担の場合は発信者、受信者負担の場合は受信者の電話番号で集計する。
+	 *
+	 * @param start
+	 * @param end
+	 * @return 課金対象の電話番号と通話履歴の件数のMap
+	 */
+	Map<String, Long> countHistoriesByBilledPhoneNumber(Timestamp start, Timestamp end);
+
+	/**
+	 * 通話開始時刻がstart以上end未満で、論理削除されていない通話履歴を読み込みながら1件ずつconsumerに渡す
+	 *
+	 * @param start
+	 * @param end
+	 * @param consumer
+	 */
+	void scanHistories(Timestamp start, Timestamp end, Consumer<History> consumer);
+
+	/**
+	 * 通話開始時刻がstart以上end未満で、料金がnullの通話履歴を返す(論理削除された通話履歴を含む)
+	 *
+	 * @param start
+	 * @param end
+	 * @return
+	 */
+	List<History> getNullChargeHistories(Timestamp start, Timestamp end);
+
+	/**
+	 * 通話開始時刻がstart以上end未満で、論理削除されていて料金がnullの通話履歴の料金を0にする
+	 *
+	 * @param start
+	 * @param end
+	 * @return 更新したレコード数
+	 */
+	int updateChargeOfDeletedHistories(Timestamp start, Timestamp end);
+
+	/**
+	 * 通話開始時刻がstart以上end未満で、論理削除されていない通話履歴の料金を、SQLの式で計算した料金に更新する.
+	 * <p>
+	 * 料金の計算式はSimpleCallChargeCalculatorと同じ料金体系をSQLで表したもの。
+	 *
+	 * @param start
+	 * @param end
+	 * @param skipUnchanged trueの場合、料金が変化しない通話履歴を更新しない
+	 * @return 更新したレコード数
+	 */
+	int updateChargesBySql(Timestamp start, Timestamp end, boolean skipUnchanged);
+
 	int updateChargeNull();
 
 	int delete(String phoneNumber);
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.db.entity;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+
+/**
+ * 通話履歴を列ごとの配列で保持するクラス.
+ * <p>
+ * 料金計算で1契約分の通話履歴を読み込む際に、1レコードごとにHistoryオブジェクトを生成しないために使用する。
+ * 通話履歴の更新に必要なキー項目と、料金計算に必要な項目のみを保持する。
+ */
+public class HistoryColumns {
+    /**
+     * 配列の初期サイズ
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * 保持しているレコード数
+     */
+    private int size = 0;
+
+    /**
+     * SID サロゲートキーを使用しない場合は常に0が入る。
+     */
+    private long[] sids;
+
+    /**
+     * 発信者電話番号
+     */
+    private String[] callerPhoneNumbers;
+
+    /**
+     * 料金区分(発信者負担(C)、受信社負担(R))
+     */
+    private String[] paymentCategories;
+
+    /**
+     * 通話開始時刻
+     */
+    private long[] startTimes;
+
+    /**
+     * 通話時間(秒)
+     */
+    private int[] timeSecs;
+
+    /**
+     * 料金、料金がnullのレコードは0
+     */
+    private int[] charges;
+
+    /**
+     * 料金がnullのときtrue
+     */
+    private boolean[] chargeNulls;
+
+    /**
+     * 削除フラグ
+     */
+    private int[] dfs;
+
+
+    public HistoryColumns() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public HistoryColumns(int capacity) {
+        sids = new long[capacity];
+        callerPhoneNumbers = new String[capacity];
+        paymentCategories = new String[capacity];
+        startTimes = new long[capacity];
+        timeSecs = new int[capacity];
+        charges = new int[capacity];
+        chargeNulls = new boolean[capacity];
+        dfs = new int[capacity];
+    }
+
+    /**
+     * レコードを追加する
+     *
+     * @param sid
+     * @param callerPhoneNumber
+     * @param paymentCategory
+     * @param startTime
+     * @param timeSec
+     * @param charge
+     * @param df
+     */
+    public void add(long sid, String callerPhoneNumber, String paymentCategory, long startTime, int timeSec,
+            Integer charge, int df) {
+        if (size == timeSecs.length) {
+            resize(Math.max(INITIAL_CAPACITY, size * 2));
+        }
+        sids[size] = sid;
+        callerPhoneNumbers[size] = callerPhoneNumber;
+        paymentCategories[size] = paymentCategory;
+        startTimes[size] = startTime;
+        timeSecs[size] = timeSec;
+        charges[size] = charge == null ? 0 : charge;
+        chargeNulls[size] = charge == null;
+        dfs[size] = df;
+        size++;
+    }
+
+    /**
+     * 配列の長さをレコード数に合わせる。料金計算の配列APIは配列の長さをレコード数として扱うので、
+     * 全レコードを追加した後に呼び出す。
+     */
+    public void trim() {
+        if (size != timeSecs.length) {
+            resize(size);
+        }
+    }
+
+    private void resize(int capacity) {
+        sids = Arrays.copyOf(sids, capacity);
+        callerPhoneNumbers = Arrays.copyOf(callerPhoneNumbers, capacity);
+        paymentCategories = Arrays.copyOf(paymentCategories, capacity);
+        startTimes = Arrays.copyOf(startTimes, capacity);
+        timeSecs = Arrays.copyOf(timeSecs, capacity);
+        charges = Arrays.copyOf(charges, capacity);
+        chargeNulls = Arrays.copyOf(chargeNulls, capacity);
+        dfs = Arrays.copyOf(dfs, capacity);
+    }
+
+    /**
+     * 料金をセットする
+     *
+     * @param newCharges 各レコードの料金
+     */
+    public void setCharges(int[] newCharges) {
+        if (newCharges.length < size) {
+            throw new IllegalArgumentException("Too few charges: " + newCharges.length + ", size = " + size);
+        }
+        System.arraycopy(newCharges, 0, charges, 0, size);
+        Arrays.fill(chargeNulls, 0, size, false);
+    }
+
+    /**
+     * 指定のレコードをHistoryに変換する
+     *
+     * @param i
+     * @return
+     */
+    public History toHistory(int i) {
+        History h = new History();
+        h.setSid(sids[i]);
+        h.setCallerPhoneNumber(callerPhoneNumbers[i]);
+        h.setPaymentCategorty(paymentCategories[i]);
+        h.setStartTime(new Timestamp(startTimes[i]));
+        h.setTimeSecs(timeSecs[i]);
+        h.setCharge(chargeNulls[i] ? null : charges[i]);
+        h.setDf(dfs[i]);
+        return h;
+    }
+
+    /**
+     * @return size
+     */
+    public int size() {
+        return size;
+    }
+
+    public long getSid(int i) {
+        return sids[i];
+    }
+
+    public String getCallerPhoneNumber(int i) {
+        return callerPhoneNumbers[i];
+    }
+
+    public String getPaymentCategory(int i) {
+        return paymentCategories[i];
+    }
+
+    public long getStartTime(int i) {
+        return startTimes[i];
+    }
+
+    public int getTimeSec(int i) {
+        return timeSecs[i];
+    }
+
+    /**
+     * @return 料金、料金がnullの場合はnull
+     */
+    public Integer getCharge(int i) {
+        return chargeNulls[i] ? null : charges[i];
+    }
+
+    public int getDf(int i) {
+        return dfs[i];
+    }
+
+    /**
+     * 通話時間の配列を返す。配列の長さがレコード数と一致するのは{@link #trim()}を呼び出した後。
+     *
+     * @return
+     */
+    public int[] getTimeSecs() {
+        return timeSecs;
+    }
+}
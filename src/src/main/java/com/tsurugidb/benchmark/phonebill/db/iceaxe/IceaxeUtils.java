@@ -19,6 +19,8 @@ import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.Collection;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
 
 import com.tsurugidb.iceaxe.session.TsurugiSession;
 import com.tsurugidb.iceaxe.sql.TsurugiSqlPreparedQuery;
@@ -27,6 +29,7 @@ import com.tsurugidb.iceaxe.sql.TsurugiSqlQuery;
 import com.tsurugidb.iceaxe.sql.TsurugiSqlStatement;
 import com.tsurugidb.iceaxe.sql.parameter.TgBindParameters;
 import com.tsurugidb.iceaxe.sql.parameter.TgParameterMapping;
+import com.tsurugidb.iceaxe.sql.result.TgResultMapping;
 import com.tsurugidb.iceaxe.sql.result.TsurugiResultEntity;
 import com.tsurugidb.iceaxe.sql.result.mapping.TgEntityResultMapping;
 import com.tsurugidb.iceaxe.transaction.exception.TsurugiTransactionException;
@@ -81,7 +84,7 @@ public class IceaxeUtils {
 	}
 
 	public <T> TsurugiSqlPreparedQuery<TgBindParameters, T> createPreparedQuery(String sql,
-			TgParameterMapping<TgBindParameters> parameterMapping, TgEntityResultMapping<T> resultMapping) {
+			TgParameterMapping<TgBindParameters> parameterMapping, TgResultMapping<T> resultMapping) {
 		try {
 			return session.createQuery(sql, parameterMapping, resultMapping);
 		} catch (IOException e) {
@@ -143,6 +146,35 @@ public class IceaxeUtils {
 		}
 	}
 
+	/**
+	 * パラメータを書き換えながらステートメントをcount回実行する.
+	 * <p>
+	 * i回目(0から数える)の実行の前にmoveTo.accept(i)を呼び出すので、レコードごとにパラメータのオブジェクトを
+	 * 生成せず、1つのカーソルで複数のレコードを渡すことができる。
+	 *
+	 * @param ps
+	 * @param cursor パラメータとして渡すオブジェクト
+	 * @param count 実行回数
+	 * @param moveTo カーソルをi番目のレコードに移動する処理
+	 * @return 実行ごとの更新件数
+	 */
+	public <T> int[] executeAndGetCount(TsurugiSqlPreparedStatement<T> ps, T cursor, int count, IntConsumer moveTo) {
+		int[] ret = new int[count];
+		try (ps) {
+			for (int i = 0; i < count; i++) {
+				moveTo.accept(i);
+				ret[i] = manager.getCurrentTransaction().executeAndGetCount(ps, cursor);
+			}
+			return ret;
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (TsurugiTransactionException e) {
+			throw new TsurugiTransactionRuntimeException(e);
+		}
+	}
+
 	public <T> List<T> execute(TsurugiSqlQuery<T> ps) {
 		try (ps) {
 			return manager.getCurrentTransaction().executeAndGetList(ps);
@@ -166,4 +198,17 @@ public class IceaxeUtils {
 			throw new TsurugiTransactionRuntimeException(e);
 		}
 	}
+
+	public <T> void executeAndForEach(TsurugiSqlPreparedQuery<TgBindParameters, T> ps, TgBindParameters parameter,
+			Consumer<T> action) {
+		try (ps) {
+			manager.getCurrentTransaction().executeAndForEach(ps, parameter, action::accept);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (InterruptedException e) {
+			throw new RuntimeException(e);
+		} catch (TsurugiTransactionException e) {
+			throw new TsurugiTransactionRuntimeException(e);
+		}
+	}
 }
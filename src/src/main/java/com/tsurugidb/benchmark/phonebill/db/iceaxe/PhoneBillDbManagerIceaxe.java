@@ -18,10 +18,14 @@ package com.tsurugidb.benchmark.phonebill.db.iceaxe;
 import java.io.IOException;
 import java.io.UncheckedIOException;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.tsurugidb.benchmark.phonebill.app.Config;
 import com.tsurugidb.benchmark.phonebill.db.PhoneBillDbManager;
 import com.tsurugidb.benchmark.phonebill.db.RetryOverRuntimeException;
@@ -38,6 +42,7 @@ import com.tsurugidb.iceaxe.TsurugiConnector;
 import com.tsurugidb.iceaxe.session.TgSessionOption;
 import com.tsurugidb.iceaxe.session.TsurugiSession;
 import com.tsurugidb.iceaxe.transaction.TgCommitOption;
+import com.tsurugidb.iceaxe.transaction.TgCommitType;
 import com.tsurugidb.iceaxe.transaction.TsurugiTransaction;
 import com.tsurugidb.iceaxe.transaction.event.TsurugiTransactionEventListener;
 import com.tsurugidb.iceaxe.transaction.exception.TsurugiTransactionException;
@@ -48,6 +53,8 @@ import com.tsurugidb.iceaxe.transaction.manager.exception.TsurugiTmRetryOverIOEx
 import com.tsurugidb.tsubakuro.sql.SqlServiceException;
 
 public class PhoneBillDbManagerIceaxe extends PhoneBillDbManager {
+    private static final Logger LOG = LoggerFactory.getLogger(PhoneBillDbManagerIceaxe.class);
+
     private final TsurugiSession session;
     private final TsurugiTransactionManager transactionManager;
     private final ThreadLocal<TsurugiTransaction> transactionThreadLocal = new ThreadLocal<>();
@@ -183,6 +190,107 @@ public class PhoneBillDbManagerIceaxe extends PhoneBillDbManager {
         }
     }
 
+    /**
+     * トランザクションを実行し、コミットは指定のExecutorのスレッドで行う.
+     * <p>
+     * TsurugiTransactionManagerはコミットの完了まで戻らないので、トランザクションを直接生成してrunnableを実行し、
+     * TsurugiTransactionのコミットとクローズをexecutorのスレッドで行う。TxOptionはコミット種別を指定しないので、
+     * TsurugiTransactionManagerと同じくTgCommitType.DEFAULTでコミットする。
+     */
+    @Override
+    public void executeWithAsyncCommit(TxOption txOption, Runnable runnable, Executor executor,
+            Consumer<RuntimeException> listener) {
+        if (txOption.getRetryCountLimit() != 0) {
+            throw new IllegalArgumentException("Retry is not supported: retry count limit = "
+                    + txOption.getRetryCountLimit());
+        }
+        TsurugiTransaction transaction;
+        try {
+            transaction = session.createTransaction(txOption.getTgTxOptionIceaxe());
+        } catch (IOException e) {
+            countup(txOption, CounterName.ABORTED);
+            throw toRuntimeException(e);
+        } catch (InterruptedException e) {
+            countup(txOption, CounterName.ABORTED);
+            throw new RuntimeException(e);
+        }
+        try {
+            transactionThreadLocal.set(transaction);
+            try {
+                countup(txOption, CounterName.BEGIN_TX);
+                runnable.run();
+                countup(txOption, CounterName.TRY_COMMIT);
+            } finally {
+                transactionThreadLocal.remove();
+            }
+        } catch (RuntimeException e) {
+            countup(txOption, CounterName.ABORTED);
+            rollbackAndClose(transaction);
+            throw isRetriable(e) ? new RetryOverRuntimeException(e) : e;
+        }
+        executor.execute(() -> listener.accept(commitAndClose(txOption, transaction)));
+    }
+
+    /**
+     * トランザクションをコミットしてクローズする
+     *
+     * @return コミットに成功した場合null、失敗した場合は失敗の原因を表す例外
+     */
+    private RuntimeException commitAndClose(TxOption txOption, TsurugiTransaction transaction) {
+        try {
+            transaction.commit(TgCommitType.DEFAULT);
+        } catch (IOException | TsurugiTransactionException e) {
+            countup(txOption, CounterName.ABORTED);
+            closeTransaction(transaction);
+            return toRuntimeException(e);
+        } catch (InterruptedException e) {
+            countup(txOption, CounterName.ABORTED);
+            closeTransaction(transaction);
+            return new RuntimeException(e);
+        } catch (RuntimeException e) {
+            countup(txOption, CounterName.ABORTED);
+            closeTransaction(transaction);
+            return isRetriable(e) ? new RetryOverRuntimeException(e) : e;
+        }
+        countup(txOption, CounterName.SUCCESS);
+        closeTransaction(transaction);
+        return null;
+    }
+
+    private RuntimeException toRuntimeException(Exception e) {
+        if (isRetriable(e)) {
+            return new RetryOverRuntimeException(e);
+        }
+        return e instanceof IOException ? new UncheckedIOException((IOException) e) : new RuntimeException(e);
+    }
+
+    /**
+     * コミットしていないトランザクションをロールバックしてクローズする
+     */
+    private static void rollbackAndClose(TsurugiTransaction transaction) {
+        try {
+            transaction.rollback();
+        } catch (IOException | TsurugiTransactionException | RuntimeException e) {
+            LOG.warn("Failed to rollback transaction.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeTransaction(transaction);
+    }
+
+    /**
+     * トランザクションをクローズする。トランザクションの結果を表す例外を隠さないよう、クローズの失敗はログに出力する。
+     */
+    private static void closeTransaction(TsurugiTransaction transaction) {
+        try {
+            transaction.close();
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("Failed to close transaction.", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     public TsurugiTransaction getCurrentTransaction() {
         return transactionThreadLocal.get();
     }
@@ -16,8 +16,15 @@
 package com.tsurugidb.benchmark.phonebill.db.iceaxe.dao;
 
 import java.sql.Date;
+import java.sql.Timestamp;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
 
 import com.tsurugidb.benchmark.phonebill.db.dao.BillingDao;
 import com.tsurugidb.benchmark.phonebill.db.entity.Billing;
@@ -25,12 +32,21 @@ import com.tsurugidb.benchmark.phonebill.db.iceaxe.IceaxeUtils;
 import com.tsurugidb.benchmark.phonebill.db.iceaxe.PhoneBillDbManagerIceaxe;
 import com.tsurugidb.benchmark.phonebill.db.iceaxe.PhoneBillDbManagerIceaxe.InsertType;
 import com.tsurugidb.iceaxe.sql.TgDataType;
+import com.tsurugidb.iceaxe.sql.TsurugiSqlPreparedStatement;
 import com.tsurugidb.iceaxe.sql.parameter.TgBindParameters;
 import com.tsurugidb.iceaxe.sql.parameter.TgBindVariables;
 import com.tsurugidb.iceaxe.sql.parameter.TgParameterMapping;
 import com.tsurugidb.iceaxe.sql.result.TgResultMapping;
+import com.tsurugidb.iceaxe.sql.result.mapping.TgEntityResultMapping;
 
 public class BillingDaoIceaxe implements BillingDao {
+    private static final TgEntityResultMapping<Billing> RESULT_MAPPING =
+            TgResultMapping.of(Billing::new)
+            .addString("phone_number", Billing::setPhoneNumber)
+            .addDate("target_month", Billing::setTargetMonth).addInt("basic_charge", Billing::setBasicCharge)
+            .addInt("metered_charge", Billing::setMeteredCharge).addInt("billing_amount", Billing::setBillingAmount)
+            .addString("batch_exec_id", Billing::setBatchExecId);
+
     private final IceaxeUtils utils;
     private final InsertType insertType;
 
@@ -41,6 +57,17 @@ public class BillingDaoIceaxe implements BillingDao {
 
     @Override
     public int insert(Billing billing) {
+        var ps = createInsertPs();
+        return utils.executeAndGetCount(ps, billing);
+    }
+
+    @Override
+    public int[] batchInsert(Collection<Billing> billings) {
+        var ps = createInsertPs();
+        return utils.executeAndGetCount(ps, billings);
+    }
+
+    private TsurugiSqlPreparedStatement<Billing> createInsertPs() {
         String sql = insertType.getSqlInsertMethod() + " into billing("
                 + "phone_number, "
                 + "target_month, "
@@ -62,8 +89,7 @@ public class BillingDaoIceaxe implements BillingDao {
                 .add("metered_charge", TgDataType.INT, Billing::getMeteredCharge)
                 .add("billing_amount", TgDataType.INT, Billing::getBillingAmount)
                 .add("batch_exec_id", TgDataType.STRING, Billing::getBatchExecId);
-        var ps = utils.createPreparedStatement(sql, parameterMapping);
-        return utils.executeAndGetCount(ps, billing);
+        return utils.createPreparedStatement(sql, parameterMapping);
     }
 
     @Override
@@ -77,17 +103,138 @@ public class BillingDaoIceaxe implements BillingDao {
         return utils.executeAndGetCount(ps, parameter);
     }
 
+    @Override
+    public int delete(Date targetMonth, String phoneNumber) {
+        String sql = "delete from billing where target_month = :target_month and phone_number = :phone_number";
+        var variables = TgBindVariables.of().addDate("target_month").addString("phone_number");
+        var ps = utils.createPreparedStatement(sql, TgParameterMapping.of(variables));
+        var parameter = TgBindParameters.of()
+                .add("target_month", targetMonth.toLocalDate())
+                .add("phone_number", phoneNumber);
+        return utils.executeAndGetCount(ps, parameter);
+    }
+
     @Override
     public List<Billing> getBillings() {
-        var resultMapping = TgResultMapping.of(Billing::new).addString("phone_number", Billing::setPhoneNumber)
-                .addDate("target_month", Billing::setTargetMonth).addInt("basic_charge", Billing::setBasicCharge)
-                .addInt("metered_charge", Billing::setMeteredCharge).addInt("billing_amount", Billing::setBillingAmount)
-                .addString("batch_exec_id", Billing::setBatchExecId);
         String sql = "select phone_number, target_month, basic_charge, metered_charge, billing_amount, batch_exec_id from billing";
-        var ps = utils.createPreparedQuery(sql, resultMapping);
+        var ps = utils.createPreparedQuery(sql, RESULT_MAPPING);
         return utils.execute(ps);
     }
 
+    @Override
+    public List<Billing> getBillings(Date targetMonth) {
+        String sql = "select phone_number, target_month, basic_charge, metered_charge, billing_amount, batch_exec_id"
+                + " from billing where target_month = :target_month";
+        var variables = TgBindVariables.of().addDate("target_month");
+        var ps = utils.createPreparedQuery(sql, TgParameterMapping.of(variables), RESULT_MAPPING);
+        var parameter = TgBindParameters.of().add("target_month", targetMonth.toLocalDate());
+        return utils.execute(ps, parameter);
+    }
+
+    @Override
+    public int insertBillingsBySql(Date targetMonth, Timestamp start, Timestamp end, String fromPhoneNumber,
+            String toPhoneNumber, String batchExecId) {
+        // 料金区分により課金対象の電話番号の列が異なるので、料金区分ごとに電話番号の範囲で絞り込んだQueryを実行し、
+        // 集計結果をマージしてから請求情報を挿入する
+        Map<String, Long> map = new TreeMap<>();
+        sumChargesByCategory("caller_phone_number", "C", start, end, fromPhoneNumber, toPhoneNumber, map);
+        sumChargesByCategory("recipient_phone_number", "R", start, end, fromPhoneNumber, toPhoneNumber, map);
+        if (map.isEmpty()) {
+            return 0;
+        }
+        List<Billing> billings = new ArrayList<>(map.size());
+        for (Entry<String, Long> entry : map.entrySet()) {
+            int meteredCharge = entry.getValue().intValue();
+            Billing billing = new Billing();
+            billing.setPhoneNumber(entry.getKey());
+            billing.setTargetMonth(targetMonth);
+            billing.setBasicCharge(3000);
+            billing.setMeteredCharge(meteredCharge);
+            billing.setBillingAmount(meteredCharge < 2000 ? 3000 : meteredCharge + 1000);
+            billing.setBatchExecId(batchExecId);
+            billings.add(billing);
+        }
+        return Arrays.stream(batchInsert(billings)).sum();
+    }
+
+    /**
+     * 指定の料金区分の通話履歴の料金を、課金対象の電話番号ごとに集計してmapにマージする.
+     * <p>
+     * 電話番号の範囲の条件は課金対象の電話番号の列に直接適用するので、履歴のスキャン範囲が電話番号の範囲に限定される。
+     *
+     * @param column 課金対象の電話番号の列名
+     * @param paymentCategory 料金区分
+     * @param start
+     * @param end
+     * @param fromPhoneNumber 電話番号の下限(この値を含む)、nullの場合は下限なし
+     * @param toPhoneNumber 電話番号の上限(この値を含まない)、nullの場合は上限なし
+     * @param map 電話番号をキー、通話料金の合計を値とするmap
+     */
+    private void sumChargesByCategory(String column, String paymentCategory, Timestamp start, Timestamp end,
+            String fromPhoneNumber, String toPhoneNumber, Map<String, Long> map) {
+        var variables = TgBindVariables.of().addDateTime("start").addDateTime("end");
+        var parameter = TgBindParameters.of()
+                .add("start", start.toLocalDateTime())
+                .add("end", end.toLocalDateTime());
+        String range = createPhoneNumberRange(column, fromPhoneNumber, toPhoneNumber, variables, parameter);
+        String sql = "select " + column + " as phone_number, sum(charge) as charge from history "
+                + "where start_time >= :start and start_time < :end and payment_category = '" + paymentCategory
+                + "' and df = 0" + range + " group by " + column;
+        var ps = utils.createPreparedQuery(sql, TgParameterMapping.of(variables));
+        utils.executeAndForEach(ps, parameter, r -> {
+            Long charge = r.getLongOrNull("charge");
+            map.merge(r.getString("phone_number"), charge == null ? 0L : charge, Long::sum);
+        });
+    }
+
+    @Override
+    public int insertBasicOnlyBillingsBySql(Date targetMonth, Date start, Date end, String fromPhoneNumber,
+            String toPhoneNumber, String batchExecId) {
+        var variables = TgBindVariables.of().addDate("target_month").addString("batch_exec_id")
+                .addDate("month_start").addDate("month_end");
+        var parameter = TgBindParameters.of()
+                .add("target_month", targetMonth.toLocalDate())
+                .add("batch_exec_id", batchExecId)
+                .add("month_start", start.toLocalDate())
+                .add("month_end", end.toLocalDate());
+        String range = createPhoneNumberRange("phone_number", fromPhoneNumber, toPhoneNumber, variables, parameter);
+        String sql = insertType.getSqlInsertMethod() + " into billing("
+                + "phone_number, target_month, basic_charge, metered_charge, billing_amount, batch_exec_id) "
+                + "select phone_number, :target_month, 3000, 0, 3000, :batch_exec_id from contracts c "
+                + "where start_date <= :month_end and (end_date is null or end_date >= :month_start)" + range
+                + " and not exists (select 1 from billing b "
+                + "where b.phone_number = c.phone_number and b.target_month = :target_month) "
+                + "group by phone_number";
+        var ps = utils.createPreparedStatement(sql, TgParameterMapping.of(variables));
+        return utils.executeAndGetCount(ps, parameter);
+    }
+
+    /**
+     * 電話番号の範囲の条件を作成し、バインド変数とパラメータを追加する
+     *
+     * @param column 条件を適用する電話番号の列名
+     * @param fromPhoneNumber 電話番号の下限(この値を含む)、nullの場合は下限なし
+     * @param toPhoneNumber 電話番号の上限(この値を含まない)、nullの場合は上限なし
+     * @param variables
+     * @param parameter
+     * @return 条件を表す文字列
+     */
+    private static String createPhoneNumberRange(String column, String fromPhoneNumber, String toPhoneNumber,
+            TgBindVariables variables, TgBindParameters parameter) {
+        String range = "";
+        if (fromPhoneNumber != null) {
+            range += " and " + column + " >= :from_phone_number";
+            variables.addString("from_phone_number");
+            parameter.add("from_phone_number", fromPhoneNumber);
+        }
+        if (toPhoneNumber != null) {
+            range += " and " + column + " < :to_phone_number";
+            variables.addString("to_phone_number");
+            parameter.add("to_phone_number", toPhoneNumber);
+        }
+        return range;
+    }
+
     @Override
     public int delete() {
         String sql = "delete from billing";
@@ -144,6 +144,41 @@ public class ContractDaoIceaxe implements ContractDao {
         return utils.execute(ps, parameter);
     }
 
+    @Override
+    public List<Contract> getContracts(Date start, Date end, String fromPhoneNumber, String toPhoneNumber) {
+        // getContracts(Date, Date)と同様にorを使わずunion allを使い、それぞれに電話番号の範囲の条件を付ける
+        String range = "";
+        var variables = TgBindVariables.of().addDate("start_date").addDate("end_date");
+        var parameter = TgBindParameters.of().add("end_date", start.toLocalDate()).add("start_date", end.toLocalDate());
+        if (fromPhoneNumber != null) {
+            range += " and phone_number >= :from_phone_number";
+            variables.addString("from_phone_number");
+            parameter.add("from_phone_number", fromPhoneNumber);
+        }
+        if (toPhoneNumber != null) {
+            range += " and phone_number < :to_phone_number";
+            variables.addString("to_phone_number");
+            parameter.add("to_phone_number", toPhoneNumber);
+        }
+        String sql = "select phone_number, start_date, end_date, charge_rule "
+                + "from contracts "
+                + "where start_date <= :start_date and end_date is null" + range + " "
+                + "union all "
+                + "select phone_number, start_date, end_date, charge_rule "
+                + "from contracts "
+                + "where start_date <= :start_date and end_date >= :end_date" + range + " "
+                + "order by phone_number";
+        var ps = utils.createPreparedQuery(sql, TgParameterMapping.of(variables), RESULT_MAPPING);
+        return utils.execute(ps, parameter);
+    }
+
+    @Override
+    public String getMaxPhoneNumber() {
+        var ps = utils.createPreparedQuery("select max(phone_number) as max_phone_number from contracts");
+        List<TsurugiResultEntity> list = utils.execute(ps);
+        return list.isEmpty() ? null : list.get(0).getStringOrNull("max_phone_number");
+    }
+
     @Override
     public List<Contract> getContracts() {
         String sql = "select phone_number, start_date, end_date, charge_rule from contracts";
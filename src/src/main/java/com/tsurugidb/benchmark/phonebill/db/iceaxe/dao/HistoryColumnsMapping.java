@@ -0,0 +1,92 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.db.iceaxe.dao;
+
+import com.tsurugidb.benchmark.phonebill.db.entity.HistoryColumns;
+import com.tsurugidb.benchmark.phonebill.util.DateUtils;
+import com.tsurugidb.iceaxe.sql.result.TgResultMapping;
+
+/**
+ * HistoryColumnsとIceaxeの間でレコードを受け渡すためのマッピング.
+ * <p>
+ * 検索結果はレコードごとのTsurugiResultEntityを生成せずにHistoryColumnsの配列に直接書き込み、
+ * 更新のパラメータはレコードのインデックスを保持する1つのカーソルで渡す。
+ */
+final class HistoryColumnsMapping {
+    private HistoryColumnsMapping() {
+    }
+
+    /**
+     * caller_phone_number, payment_category, start_time, time_secs, charge, dfの順に選択した検索結果を
+     * columnsに追加する結果マッピングを返す
+     *
+     * @param columns
+     * @param withSid 先頭の列にsidを選択している場合true
+     * @return 結果マッピング
+     */
+    static TgResultMapping<HistoryColumns> resultMapping(HistoryColumns columns, boolean withSid) {
+        return TgResultMapping.of(record -> {
+            long sid = withSid ? record.nextLong() : 0;
+            columns.add(sid, record.nextString(), record.nextString(), DateUtils.toEpocMills(record.nextDateTime()),
+                    record.nextInt(), record.nextIntOrNull(), record.nextInt());
+            return columns;
+        });
+    }
+
+    /**
+     * HistoryColumnsの1レコードを指すカーソル
+     */
+    static final class Cursor {
+        private final HistoryColumns columns;
+        private int index;
+
+        Cursor(HistoryColumns columns) {
+            this.columns = columns;
+        }
+
+        void moveTo(int i) {
+            index = i;
+        }
+
+        long getSid() {
+            return columns.getSid(index);
+        }
+
+        String getCallerPhoneNumber() {
+            return columns.getCallerPhoneNumber(index);
+        }
+
+        String getPaymentCategory() {
+            return columns.getPaymentCategory(index);
+        }
+
+        long getStartTime() {
+            return columns.getStartTime(index);
+        }
+
+        int getTimeSec() {
+            return columns.getTimeSec(index);
+        }
+
+        Integer getCharge() {
+            return columns.getCharge(index);
+        }
+
+        int getDf() {
+            return columns.getDf(index);
+        }
+    }
+}
@@ -15,12 +15,17 @@
  */
 package com.tsurugidb.benchmark.phonebill.db.iceaxe.dao;
 
+import java.sql.Timestamp;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import com.tsurugidb.benchmark.phonebill.app.billing.CalculationTarget;
@@ -28,6 +33,7 @@ import com.tsurugidb.benchmark.phonebill.db.dao.HistoryDao;
 import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
 import com.tsurugidb.benchmark.phonebill.db.entity.Contract.Key;
 import com.tsurugidb.benchmark.phonebill.db.entity.History;
+import com.tsurugidb.benchmark.phonebill.db.entity.HistoryColumns;
 import com.tsurugidb.benchmark.phonebill.db.iceaxe.IceaxeUtils;
 import com.tsurugidb.benchmark.phonebill.db.iceaxe.PhoneBillDbManagerIceaxe;
 import com.tsurugidb.benchmark.phonebill.db.iceaxe.PhoneBillDbManagerIceaxe.InsertType;
@@ -46,6 +52,11 @@ public class HistoryDaoIceaxe implements HistoryDao {
     private final IceaxeUtils utils;
     private final InsertType insertType;
 
+    /**
+     * 通話時間から料金を計算するSQLの式(SimpleCallChargeCalculatorと同じ料金体系)
+     */
+    static final String CHARGE_EXPRESSION = "case when time_secs < 60 then 10 else ((time_secs - 1) / 60 + 1) * 10 end";
+
     private static final TgEntityResultMapping<History> RESULT_MAPPING =
             TgResultMapping.of(History::new)
             .addString("caller_phone_number", History::setCallerPhoneNumber)
@@ -71,6 +82,12 @@ public class HistoryDaoIceaxe implements HistoryDao {
             .add("time_secs", TgDataType.INT, History::getTimeSecs)
             .add("charge", TgDataType.INT, History::getCharge).add("df", TgDataType.INT, History::getDf);
 
+    private static final TgParameterMapping<History> PARAMETER_MAPPING_UPDATE_CHARGE = TgParameterMapping.of(History.class)
+            .add("caller_phone_number", TgDataType.STRING, History::getCallerPhoneNumber)
+            .add("payment_category", TgDataType.STRING, History::getPaymentCategorty)
+            .add("start_time", TgDataType.DATE_TIME, History::getStartTimeAsLocalDateTime)
+            .add("charge", TgDataType.INT, History::getCharge);
+
 
 
     public HistoryDaoIceaxe(PhoneBillDbManagerIceaxe manager) {
@@ -157,6 +174,16 @@ public class HistoryDaoIceaxe implements HistoryDao {
         return rets.length;
     }
 
+    @Override
+    public int batchUpdateCharge(List<History> histories) {
+        String sql = "update history"
+                + " set charge = :charge"
+                + " where caller_phone_number = :caller_phone_number and payment_category = :payment_category and start_time = :start_time";
+        var ps = utils.createPreparedStatement(sql, PARAMETER_MAPPING_UPDATE_CHARGE);
+        int[] rets = utils.executeAndGetCount(ps, histories);
+        return rets.length;
+    }
+
     /**
      * 指定の契約に紐付く通話履歴を取得する
      *
@@ -194,6 +221,22 @@ public class HistoryDaoIceaxe implements HistoryDao {
         return utils.execute(ps, param2);
     }
 
+    @Override
+    public History getHistory(History key) {
+        String sql = "select caller_phone_number, recipient_phone_number, payment_category, start_time,"
+                + " time_secs, charge, df from history where caller_phone_number = :caller_phone_number"
+                + " and payment_category = :payment_category and start_time = :start_time";
+        var variables = TgBindVariables.of().addString("caller_phone_number").addString("payment_category")
+                .addDateTime("start_time");
+        var ps = utils.createPreparedQuery(sql, TgParameterMapping.of(variables), RESULT_MAPPING);
+        var parameter = TgBindParameters.of()
+                .add("caller_phone_number", key.getCallerPhoneNumber())
+                .add("payment_category", key.getPaymentCategorty())
+                .add("start_time", key.getStartTimeAsLocalDateTime());
+        var list = utils.execute(ps, parameter);
+        return list.isEmpty() ? null : list.get(0);
+    }
+
     /**
      * getHistories(Key key)のオリジナルコード、今は想定通りの動作をしない。
      *
@@ -260,6 +303,139 @@ public class HistoryDaoIceaxe implements HistoryDao {
         return list;
     }
 
+    @Override
+    public HistoryColumns getHistoryColumns(CalculationTarget target) {
+        Contract contract = target.getContract();
+        LocalDateTime start = LocalDateTime.of(target.getStart().toLocalDate(), LocalTime.MIDNIGHT);
+        LocalDateTime end = LocalDateTime.of(target.getEnd().toLocalDate(), LocalTime.MIDNIGHT);
+
+        // getHistories(CalculationTarget)と同じ理由で or を使わず union all を使用する
+        String sql = "select caller_phone_number, payment_category, start_time, time_secs, charge, df "
+                + "from history "
+                + "where start_time >= :start and start_time < :end "
+                + "and caller_phone_number = :caller_phone_number "
+                + "and payment_category = 'C' "
+                + "and df = 0 "
+                + "union all "
+                + "select caller_phone_number, payment_category, start_time, time_secs, charge, df "
+                + "from history "
+                + "where start_time >= :start and start_time < :end "
+                + "and recipient_phone_number = :recipient_phone_number "
+                + "and payment_category = 'R' "
+                + "and df = 0";
+        var variable = TgBindVariables.of().addDateTime("start").addDateTime("end").addString("recipient_phone_number")
+                .addString("caller_phone_number");
+        HistoryColumns columns = new HistoryColumns();
+        var ps = utils.createPreparedQuery(sql, TgParameterMapping.of(variable),
+                HistoryColumnsMapping.resultMapping(columns, false));
+        var param = TgBindParameters.of()
+                .add("start", start)
+                .add("end", end.plusDays(1))
+                .add("recipient_phone_number", contract.getPhoneNumber())
+                .add("caller_phone_number", contract.getPhoneNumber());
+        utils.executeAndForEach(ps, param, c -> {
+            // 結果マッピングがcolumnsにレコードを追加する
+        });
+        columns.trim();
+        return columns;
+    }
+
+    @Override
+    public Map<String, Long> countHistoriesByBilledPhoneNumber(Timestamp start, Timestamp end) {
+        // 料金区分により課金対象の電話番号の列が異なるので、料金区分ごとにQueryを実行する
+        String sql1 = "select caller_phone_number as phone_number, count(*) as cnt from history "
+                + "where start_time >= :start and start_time < :end and payment_category = 'C' and df = 0 "
+                + "group by caller_phone_number";
+        String sql2 = "select recipient_phone_number as phone_number, count(*) as cnt from history "
+                + "where start_time >= :start and start_time < :end and payment_category = 'R' and df = 0 "
+                + "group by recipient_phone_number";
+        var variable = TgBindVariables.of().addDateTime("start").addDateTime("end");
+        var param = TgBindParameters.of()
+                .add("start", start.toLocalDateTime())
+                .add("end", end.toLocalDateTime());
+        Map<String, Long> map = new HashMap<>();
+        for (String sql : Arrays.asList(sql1, sql2)) {
+            var ps = utils.createPreparedQuery(sql, TgParameterMapping.of(variable));
+            utils.executeAndForEach(ps, param, r -> map.merge(r.getString("phone_number"), r.getLong("cnt"), Long::sum));
+        }
+        return map;
+    }
+
+    @Override
+    public void scanHistories(Timestamp start, Timestamp end, Consumer<History> consumer) {
+        String sql = "select caller_phone_number, recipient_phone_number, payment_category, start_time, time_secs, "
+                + "charge, df "
+                + "from history "
+                + "where start_time >= :start and start_time < :end "
+                + "and df = 0";
+        var variable = TgBindVariables.of().addDateTime("start").addDateTime("end");
+        var ps = utils.createPreparedQuery(sql, TgParameterMapping.of(variable), RESULT_MAPPING);
+        var param = TgBindParameters.of()
+                .add("start", start.toLocalDateTime())
+                .add("end", end.toLocalDateTime());
+        utils.executeAndForEach(ps, param, consumer);
+    }
+
+    @Override
+    public int batchUpdateNonKeyFields(HistoryColumns columns) {
+        String sql = "update history"
+                + " set time_secs = :time_secs, charge = :charge, df = :df"
+                + " where caller_phone_number = :caller_phone_number and payment_category = :payment_category and start_time = :start_time";
+        var cursor = new HistoryColumnsMapping.Cursor(columns);
+        TgParameterMapping<HistoryColumnsMapping.Cursor> parameterMapping = TgParameterMapping
+                .of(HistoryColumnsMapping.Cursor.class)
+                .add("caller_phone_number", TgDataType.STRING, c -> c.getCallerPhoneNumber())
+                .add("payment_category", TgDataType.STRING, c -> c.getPaymentCategory())
+                .add("start_time", TgDataType.DATE_TIME, c -> DateUtils.toLocalDateTime(c.getStartTime()))
+                .add("time_secs", TgDataType.INT, c -> c.getTimeSec())
+                .add("charge", TgDataType.INT, c -> c.getCharge())
+                .add("df", TgDataType.INT, c -> c.getDf());
+        var ps = utils.createPreparedStatement(sql, parameterMapping);
+        int[] rets = utils.executeAndGetCount(ps, cursor, columns.size(), cursor::moveTo);
+        return rets.length;
+    }
+
+    @Override
+    public List<History> getNullChargeHistories(Timestamp start, Timestamp end) {
+        String sql = "select caller_phone_number, recipient_phone_number, payment_category, start_time, time_secs, "
+                + "charge, df "
+                + "from history "
+                + "where start_time >= :start and start_time < :end "
+                + "and charge is null";
+        var variable = TgBindVariables.of().addDateTime("start").addDateTime("end");
+        var ps = utils.createPreparedQuery(sql, TgParameterMapping.of(variable), RESULT_MAPPING);
+        var param = TgBindParameters.of()
+                .add("start", start.toLocalDateTime())
+                .add("end", end.toLocalDateTime());
+        return utils.execute(ps, param);
+    }
+
+    @Override
+    public int updateChargeOfDeletedHistories(Timestamp start, Timestamp end) {
+        String sql = "update history set charge = 0 "
+                + "where start_time >= :start and start_time < :end "
+                + "and df = 1 and charge is null";
+        var variable = TgBindVariables.of().addDateTime("start").addDateTime("end");
+        var ps = utils.createPreparedStatement(sql, TgParameterMapping.of(variable));
+        var param = TgBindParameters.of()
+                .add("start", start.toLocalDateTime())
+                .add("end", end.toLocalDateTime());
+        return utils.executeAndGetCount(ps, param);
+    }
+
+    @Override
+    public int updateChargesBySql(Timestamp start, Timestamp end, boolean skipUnchanged) {
+        String sql = "update history set charge = " + CHARGE_EXPRESSION + " "
+                + "where start_time >= :start and start_time < :end and df = 0"
+                + (skipUnchanged ? " and (charge is null or charge <> " + CHARGE_EXPRESSION + ")" : "");
+        var variable = TgBindVariables.of().addDateTime("start").addDateTime("end");
+        var ps = utils.createPreparedStatement(sql, TgParameterMapping.of(variable));
+        var param = TgBindParameters.of()
+                .add("start", start.toLocalDateTime())
+                .add("end", end.toLocalDateTime());
+        return utils.executeAndGetCount(ps, param);
+    }
+
     @Override
     public List<History> getHistories() {
         String sql = "select caller_phone_number, recipient_phone_number, payment_category, start_time, time_secs, charge, df from history";
@@ -17,13 +17,18 @@ package com.tsurugidb.benchmark.phonebill.db.iceaxe.dao;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.sql.Timestamp;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.LocalTime;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 import com.tsurugidb.benchmark.phonebill.app.billing.CalculationTarget;
@@ -32,6 +37,7 @@ import com.tsurugidb.benchmark.phonebill.db.dao.HistoryDao;
 import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
 import com.tsurugidb.benchmark.phonebill.db.entity.Contract.Key;
 import com.tsurugidb.benchmark.phonebill.db.entity.History;
+import com.tsurugidb.benchmark.phonebill.db.entity.HistoryColumns;
 import com.tsurugidb.benchmark.phonebill.db.iceaxe.IceaxeUtils;
 import com.tsurugidb.benchmark.phonebill.db.iceaxe.PhoneBillDbManagerIceaxe;
 import com.tsurugidb.benchmark.phonebill.db.iceaxe.PhoneBillDbManagerIceaxe.InsertType;
@@ -196,6 +202,17 @@ public class HistoryDaoIceaxeSurrogateKey implements HistoryDao {
         return rets.length;
     }
 
+    @Override
+    public int batchUpdateCharge(List<History> histories) {
+        String sql = "update history set charge = :charge where sid = :sid";
+        TgParameterMapping<History> parameterMapping = TgParameterMapping.of(History.class)
+                .add("sid", TgDataType.LONG, History::getSid)
+                .add("charge", TgDataType.INT, History::getCharge);
+        var ps = utils.createPreparedStatement(sql, parameterMapping);
+        int[] rets = utils.executeAndGetCount(ps, histories);
+        return rets.length;
+    }
+
 
 
     /**
@@ -235,6 +252,22 @@ public class HistoryDaoIceaxeSurrogateKey implements HistoryDao {
         return utils.execute(ps, param2);
     }
 
+    @Override
+    public History getHistory(History key) {
+        String sql = "select sid, caller_phone_number, recipient_phone_number, payment_category, start_time,"
+                + " time_secs, charge, df from history where caller_phone_number = :caller_phone_number"
+                + " and payment_category = :payment_category and start_time = :start_time";
+        var variables = TgBindVariables.of().addString("caller_phone_number").addString("payment_category")
+                .addDateTime("start_time");
+        var ps = utils.createPreparedQuery(sql, TgParameterMapping.of(variables), RESULT_MAPPING);
+        var parameter = TgBindParameters.of()
+                .add("caller_phone_number", key.getCallerPhoneNumber())
+                .add("payment_category", key.getPaymentCategorty())
+                .add("start_time", key.getStartTimeAsLocalDateTime());
+        var list = utils.execute(ps, parameter);
+        return list.isEmpty() ? null : list.get(0);
+    }
+
     /**
      * getHistories(Key key)のオリジナルコード、今は想定通りの動作をしない。
      *
@@ -301,6 +334,138 @@ public class HistoryDaoIceaxeSurrogateKey implements HistoryDao {
         return list;
     }
 
+    @Override
+    public HistoryColumns getHistoryColumns(CalculationTarget target) {
+        Contract contract = target.getContract();
+        LocalDateTime start = LocalDateTime.of(target.getStart().toLocalDate(), LocalTime.MIDNIGHT);
+        LocalDateTime end = LocalDateTime.of(target.getEnd().toLocalDate(), LocalTime.MIDNIGHT);
+
+        // getHistories(CalculationTarget)と同じ理由で二つのQueryに分けて実行する
+        String sql1 = "select sid, caller_phone_number, payment_category, start_time, time_secs, charge, df"
+                + " from history "
+                + "where start_time >= :start and start_time < :end"
+                + " and recipient_phone_number = :recipient_phone_number and payment_category = 'R' and df = 0";
+        String sql2 = "select sid, caller_phone_number, payment_category, start_time, time_secs, charge, df"
+                + " from history "
+                + "where start_time >= :start and start_time < :end"
+                + " and caller_phone_number = :caller_phone_number  and payment_category = 'C' and df = 0";
+        var variable1 = TgBindVariables.of().addDateTime("start").addDateTime("end").addString("recipient_phone_number");
+        var variable2 = TgBindVariables.of().addDateTime("start").addDateTime("end").addString("caller_phone_number");
+        HistoryColumns columns = new HistoryColumns();
+        TgResultMapping<HistoryColumns> resultMapping = HistoryColumnsMapping.resultMapping(columns, true);
+        var ps1 = utils.createPreparedQuery(sql1, TgParameterMapping.of(variable1), resultMapping);
+        var ps2 = utils.createPreparedQuery(sql2, TgParameterMapping.of(variable2), resultMapping);
+        var param1 = TgBindParameters.of()
+                .add("start", start)
+                .add("end", end.plusDays(1))
+                .add("recipient_phone_number", contract.getPhoneNumber());
+        var param2 = TgBindParameters.of()
+                .add("start", start)
+                .add("end", end.plusDays(1))
+                .add("caller_phone_number", contract.getPhoneNumber());
+        Consumer<HistoryColumns> action = c -> {
+            // 結果マッピングがcolumnsにレコードを追加する
+        };
+        utils.executeAndForEach(ps1, param1, action);
+        utils.executeAndForEach(ps2, param2, action);
+        columns.trim();
+        return columns;
+    }
+
+    @Override
+    public Map<String, Long> countHistoriesByBilledPhoneNumber(Timestamp start, Timestamp end) {
+        // 料金区分により課金対象の電話番号の列が異なるので、料金区分ごとにQueryを実行する
+        String sql1 = "select caller_phone_number as phone_number, count(*) as cnt from history "
+                + "where start_time >= :start and start_time < :end and payment_category = 'C' and df = 0 "
+                + "group by caller_phone_number";
+        String sql2 = "select recipient_phone_number as phone_number, count(*) as cnt from history "
+                + "where start_time >= :start and start_time < :end and payment_category = 'R' and df = 0 "
+                + "group by recipient_phone_number";
+        var variable = TgBindVariables.of().addDateTime("start").addDateTime("end");
+        var param = TgBindParameters.of()
+                .add("start", start.toLocalDateTime())
+                .add("end", end.toLocalDateTime());
+        Map<String, Long> map = new HashMap<>();
+        for (String sql : Arrays.asList(sql1, sql2)) {
+            var ps = utils.createPreparedQuery(sql, TgParameterMapping.of(variable));
+            utils.executeAndForEach(ps, param, r -> map.merge(r.getString("phone_number"), r.getLong("cnt"), Long::sum));
+        }
+        return map;
+    }
+
+    @Override
+    public void scanHistories(Timestamp start, Timestamp end, Consumer<History> consumer) {
+        String sql = "select sid, caller_phone_number, recipient_phone_number, payment_category, start_time, time_secs, "
+                + "charge, df "
+                + "from history "
+                + "where start_time >= :start and start_time < :end "
+                + "and df = 0";
+        var variable = TgBindVariables.of().addDateTime("start").addDateTime("end");
+        var ps = utils.createPreparedQuery(sql, TgParameterMapping.of(variable), RESULT_MAPPING);
+        var param = TgBindParameters.of()
+                .add("start", start.toLocalDateTime())
+                .add("end", end.toLocalDateTime());
+        utils.executeAndForEach(ps, param, consumer);
+    }
+
+    @Override
+    public int batchUpdateNonKeyFields(HistoryColumns columns) {
+        String sql = "update history"
+                + " set time_secs = :time_secs, charge = :charge, df = :df"
+                + " where sid = :sid";
+        var cursor = new HistoryColumnsMapping.Cursor(columns);
+        TgParameterMapping<HistoryColumnsMapping.Cursor> parameterMapping = TgParameterMapping
+                .of(HistoryColumnsMapping.Cursor.class)
+                .add("sid", TgDataType.LONG, c -> c.getSid())
+                .add("time_secs", TgDataType.INT, c -> c.getTimeSec())
+                .add("charge", TgDataType.INT, c -> c.getCharge())
+                .add("df", TgDataType.INT, c -> c.getDf());
+        var ps = utils.createPreparedStatement(sql, parameterMapping);
+        int[] rets = utils.executeAndGetCount(ps, cursor, columns.size(), cursor::moveTo);
+        return rets.length;
+    }
+
+    @Override
+    public List<History> getNullChargeHistories(Timestamp start, Timestamp end) {
+        String sql = "select sid, caller_phone_number, recipient_phone_number, payment_category, start_time, time_secs, "
+                + "charge, df "
+                + "from history "
+                + "where start_time >= :start and start_time < :end "
+                + "and charge is null";
+        var variable = TgBindVariables.of().addDateTime("start").addDateTime("end");
+        var ps = utils.createPreparedQuery(sql, TgParameterMapping.of(variable), RESULT_MAPPING);
+        var param = TgBindParameters.of()
+                .add("start", start.toLocalDateTime())
+                .add("end", end.toLocalDateTime());
+        return utils.execute(ps, param);
+    }
+
+    @Override
+    public int updateChargeOfDeletedHistories(Timestamp start, Timestamp end) {
+        String sql = "update history set charge = 0 "
+                + "where start_time >= :start and start_time < :end "
+                + "and df = 1 and charge is null";
+        var variable = TgBindVariables.of().addDateTime("start").addDateTime("end");
+        var ps = utils.createPreparedStatement(sql, TgParameterMapping.of(variable));
+        var param = TgBindParameters.of()
+                .add("start", start.toLocalDateTime())
+                .add("end", end.toLocalDateTime());
+        return utils.executeAndGetCount(ps, param);
+    }
+
+    @Override
+    public int updateChargesBySql(Timestamp start, Timestamp end, boolean skipUnchanged) {
+        String sql = "update history set charge = " + HistoryDaoIceaxe.CHARGE_EXPRESSION + " "
+                + "where start_time >= :start and start_time < :end and df = 0"
+                + (skipUnchanged ? " and (charge is null or charge <> " + HistoryDaoIceaxe.CHARGE_EXPRESSION + ")" : "");
+        var variable = TgBindVariables.of().addDateTime("start").addDateTime("end");
+        var ps = utils.createPreparedStatement(sql, TgParameterMapping.of(variable));
+        var param = TgBindParameters.of()
+                .add("start", start.toLocalDateTime())
+                .add("end", end.toLocalDateTime());
+        return utils.executeAndGetCount(ps, param);
+    }
+
     @Override
     public List<History> getHistories() {
         String sql = "select sid, caller_phone_number, recipient_phone_number, payment_category, start_time, time_secs, charge, df from history";
@@ -20,7 +20,9 @@ import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 import com.tsurugidb.benchmark.phonebill.db.dao.BillingDao;
@@ -36,17 +38,50 @@ public class BillingDaoJdbc implements BillingDao {
 
 	@Override
 	public int insert(Billing billing) {
+		try (PreparedStatement ps = createInsertPs()) {
+			setBillingToInsertPs(ps, billing);
+			return ps.executeUpdate();
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public int[] batchInsert(Collection<Billing> billings) {
+		try (PreparedStatement ps = createInsertPs()) {
+			for (Billing billing : billings) {
+				setBillingToInsertPs(ps, billing);
+				ps.addBatch();
+			}
+			return ps.executeBatch();
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private PreparedStatement createInsertPs() throws SQLException {
 		Connection conn = manager.getConnection();
 		String sql = "insert into billing("
 				+ "phone_number, target_month, basic_charge, metered_charge, billing_amount, batch_exec_id)"
 				+ " values(?, ?, ?, ?, ?, ?)";
+		return conn.prepareStatement(sql);
+	}
+
+	private void setBillingToInsertPs(PreparedStatement ps, Billing billing) throws SQLException {
+		ps.setString(1, billing.getPhoneNumber());
+		ps.setDate(2, billing.getTargetMonth());
+		ps.setInt(3, billing.getBasicCharge());
+		ps.setInt(4, billing.getMeteredCharge());
+		ps.setInt(5, billing.getBillingAmount());
+		ps.setString(6, billing.getBatchExecId());
+	}
+
+	@Override
+	public int delete(Date targetMonth) {
+		Connection conn = manager.getConnection();
+		String sql = "delete from billing where target_month = ?";
 		try (PreparedStatement ps = conn.prepareStatement(sql)) {
-			ps.setString(1, billing.getPhoneNumber());
-			ps.setDate(2, billing.getTargetMonth());
-			ps.setInt(3, billing.getBasicCharge());
-			ps.setInt(4, billing.getMeteredCharge());
-			ps.setInt(5, billing.getBillingAmount());
-			ps.setString(6, billing.getBatchExecId());
+			ps.setDate(1, targetMonth);
 			return ps.executeUpdate();
 		} catch (SQLException e) {
 			throw new RuntimeException(e);
@@ -54,11 +89,12 @@ public class BillingDaoJdbc implements BillingDao {
 	}
 
 	@Override
-	public int delete(Date targetMonth) {
+	public int delete(Date targetMonth, String phoneNumber) {
 		Connection conn = manager.getConnection();
-		String sql = "delete from billing where target_month = ?";
+		String sql = "delete from billing where target_month = ? and phone_number = ?";
 		try (PreparedStatement ps = conn.prepareStatement(sql)) {
 			ps.setDate(1, targetMonth);
+			ps.setString(2, phoneNumber);
 			return ps.executeUpdate();
 		} catch (SQLException e) {
 			throw new RuntimeException(e);
@@ -67,26 +103,114 @@ public class BillingDaoJdbc implements BillingDao {
 
 	@Override
 	public List<Billing> getBillings() {
-		List<Billing> list = new ArrayList<>();
 		Connection conn = manager.getConnection();
 		String sql = "select phone_number, target_month, basic_charge, metered_charge, billing_amount, batch_exec_id from billing";
 		try (PreparedStatement ps = conn.prepareStatement(sql)) {
-			try (ResultSet rs = ps.executeQuery()) {
-				while (rs.next()) {
-					Billing b  = new Billing();
-					b.setPhoneNumber(rs.getString(1));
-					b.setTargetMonth(rs.getDate(2));
-					b.setBasicCharge(rs.getInt(3));
-					b.setMeteredCharge(rs.getInt(4));
-					b.setBillingAmount(rs.getInt(5));
-					b.setBatchExecId(rs.getString(6));
-					list.add(b);
+			return getBillings(ps);
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public List<Billing> getBillings(Date targetMonth) {
+		Connection conn = manager.getConnection();
+		String sql = "select phone_number, target_month, basic_charge, metered_charge, billing_amount, batch_exec_id"
+				+ " from billing where target_month = ?";
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+			ps.setDate(1, targetMonth);
+			return getBillings(ps);
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private List<Billing> getBillings(PreparedStatement ps) throws SQLException {
+		List<Billing> list = new ArrayList<>();
+		try (ResultSet rs = ps.executeQuery()) {
+			while (rs.next()) {
+				Billing b  = new Billing();
+				b.setPhoneNumber(rs.getString(1));
+				b.setTargetMonth(rs.getDate(2));
+				b.setBasicCharge(rs.getInt(3));
+				b.setMeteredCharge(rs.getInt(4));
+				b.setBillingAmount(rs.getInt(5));
+				b.setBatchExecId(rs.getString(6));
+				list.add(b);
+			}
+		}
+		return list;
+	}
+
+	@Override
+	public int insertBillingsBySql(Date targetMonth, Timestamp start, Timestamp end, String fromPhoneNumber,
+			String toPhoneNumber, String batchExecId) {
+		Connection conn = manager.getConnection();
+		// 料金区分により課金対象の電話番号の列が異なるので、電話番号の範囲の条件は料金区分ごとの
+		// スキャンに適用し、union allでマージしてから集計する
+		String sql = "insert into billing("
+				+ "phone_number, target_month, basic_charge, metered_charge, billing_amount, batch_exec_id)"
+				+ " select phone_number, ?, 3000, sum(charge), " + BILLING_AMOUNT_EXPRESSION + ", ? from ("
+				+ "select caller_phone_number as phone_number, charge from history"
+				+ " where start_time >= ? and start_time < ? and payment_category = 'C' and df = 0"
+				+ (fromPhoneNumber == null ? "" : " and caller_phone_number >= ?")
+				+ (toPhoneNumber == null ? "" : " and caller_phone_number < ?")
+				+ " union all "
+				+ "select recipient_phone_number as phone_number, charge from history"
+				+ " where start_time >= ? and start_time < ? and payment_category = 'R' and df = 0"
+				+ (fromPhoneNumber == null ? "" : " and recipient_phone_number >= ?")
+				+ (toPhoneNumber == null ? "" : " and recipient_phone_number < ?")
+				+ ") h group by phone_number";
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+			int i = 1;
+			ps.setDate(i++, targetMonth);
+			ps.setString(i++, batchExecId);
+			for (int n = 0; n < 2; n++) {
+				ps.setTimestamp(i++, start);
+				ps.setTimestamp(i++, end);
+				if (fromPhoneNumber != null) {
+					ps.setString(i++, fromPhoneNumber);
+				}
+				if (toPhoneNumber != null) {
+					ps.setString(i++, toPhoneNumber);
 				}
 			}
+			return ps.executeUpdate();
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public int insertBasicOnlyBillingsBySql(Date targetMonth, Date start, Date end, String fromPhoneNumber,
+			String toPhoneNumber, String batchExecId) {
+		Connection conn = manager.getConnection();
+		String sql = "insert into billing("
+				+ "phone_number, target_month, basic_charge, metered_charge, billing_amount, batch_exec_id)"
+				+ " select phone_number, ?, 3000, 0, 3000, ? from contracts c"
+				+ " where start_date <= ? and (end_date is null or end_date >= ?)"
+				+ (fromPhoneNumber == null ? "" : " and phone_number >= ?")
+				+ (toPhoneNumber == null ? "" : " and phone_number < ?")
+				+ " and not exists (select 1 from billing b"
+				+ " where b.phone_number = c.phone_number and b.target_month = ?)"
+				+ " group by phone_number";
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+			int i = 1;
+			ps.setDate(i++, targetMonth);
+			ps.setString(i++, batchExecId);
+			ps.setDate(i++, end);
+			ps.setDate(i++, start);
+			if (fromPhoneNumber != null) {
+				ps.setString(i++, fromPhoneNumber);
+			}
+			if (toPhoneNumber != null) {
+				ps.setString(i++, toPhoneNumber);
+			}
+			ps.setDate(i++, targetMonth);
+			return ps.executeUpdate();
 		} catch (SQLException e) {
 			throw new RuntimeException(e);
 		}
-		return list;
 	}
 
 	@Override
@@ -167,6 +167,45 @@ public class ContractDaoJdbc implements ContractDao {
         }
     }
 
+    @Override
+    public List<Contract> getContracts(Date start, Date end, String fromPhoneNumber, String toPhoneNumber) {
+        Connection conn = manager.getConnection();
+        String sql = "select phone_number, start_date, end_date, charge_rule"
+                + " from contracts where start_date <= ? and ( end_date is null or end_date >= ?)"
+                + (fromPhoneNumber == null ? "" : " and phone_number >= ?")
+                + (toPhoneNumber == null ? "" : " and phone_number < ?")
+                + " order by phone_number";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            int idx = 0;
+            ps.setDate(++idx, end);
+            ps.setDate(++idx, start);
+            if (fromPhoneNumber != null) {
+                ps.setString(++idx, fromPhoneNumber);
+            }
+            if (toPhoneNumber != null) {
+                ps.setString(++idx, toPhoneNumber);
+            }
+            try (ResultSet rs = ps.executeQuery()) {
+                return createContractList(rs);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public String getMaxPhoneNumber() {
+        Connection conn = manager.getConnection();
+        String sql = "select max(phone_number) from contracts";
+        try (PreparedStatement ps = conn.prepareStatement(sql)) {
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public List<Contract> getContracts() {
         Connection conn = manager.getConnection();
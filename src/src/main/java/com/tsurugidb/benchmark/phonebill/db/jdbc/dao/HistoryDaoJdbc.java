@@ -25,17 +25,33 @@ import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
 
 import com.tsurugidb.benchmark.phonebill.app.billing.CalculationTarget;
 import com.tsurugidb.benchmark.phonebill.db.dao.HistoryDao;
 import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
 import com.tsurugidb.benchmark.phonebill.db.entity.Contract.Key;
 import com.tsurugidb.benchmark.phonebill.db.entity.History;
+import com.tsurugidb.benchmark.phonebill.db.entity.HistoryColumns;
 import com.tsurugidb.benchmark.phonebill.db.jdbc.PhoneBillDbManagerJdbc;
 import com.tsurugidb.benchmark.phonebill.util.DateUtils;
 
 public class HistoryDaoJdbc implements HistoryDao {
+	/**
+	 * scanHistories()で一度にDBから取得するレコード数
+	 */
+	private static final int SCAN_FETCH_SIZE = 1000;
+
+	/**
+	 * 通話時間から料金を計算するSQLの式(SimpleCallChargeCalculatorと同じ料金体系)、
+	 * Oracleでは整数同士の除算の結果が整数にならないため、truncで切り捨てる
+	 */
+	private static final String CHARGE_EXPRESSION = "case when time_secs < 60 then 10"
+			+ " else (trunc((time_secs - 1) / 60) + 1) * 10 end";
+
 	private final PhoneBillDbManagerJdbc manager;
 
 
@@ -184,6 +200,44 @@ public class HistoryDaoJdbc implements HistoryDao {
 		}
 	}
 
+	@Override
+	public int batchUpdateCharge(List<History> list) {
+		try (PreparedStatement ps = createUpdateChargePs()) {
+			for (History h : list) {
+				setHistroryToUpdateChargePs(h, ps);
+				ps.addBatch();
+			}
+			int[] rets = ps.executeBatch();
+			for (int ret : rets) {
+				if (ret < 0 && ret != PreparedStatement.SUCCESS_NO_INFO) {
+					throw new RuntimeException("Fail to update history.");
+				}
+			}
+			return rets.length;
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public int batchUpdateNonKeyFields(HistoryColumns columns) {
+		try (PreparedStatement ps = createUpdateNonKeyFieldsPs()) {
+			for (int i = 0; i < columns.size(); i++) {
+				setColumnsToUpdateNonKeyFieldsPs(columns, i, ps);
+				ps.addBatch();
+			}
+			int[] rets = ps.executeBatch();
+			for (int ret : rets) {
+				if (ret < 0 && ret != PreparedStatement.SUCCESS_NO_INFO) {
+					throw new RuntimeException("Fail to update history.");
+				}
+			}
+			return rets.length;
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	/**
 	 * @param history
 	 * @param ps
@@ -229,6 +283,27 @@ public class HistoryDaoJdbc implements HistoryDao {
 		ps.setTimestamp(6, history.getStartTime());
 	}
 
+	/**
+	 * @param columns
+	 * @param i
+	 * @param ps
+	 * @throws SQLException
+	 */
+	protected void setColumnsToUpdateNonKeyFieldsPs(HistoryColumns columns, int i, PreparedStatement ps)
+			throws SQLException {
+		ps.setInt(1, columns.getTimeSec(i));
+		Integer charge = columns.getCharge(i);
+		if (charge == null) {
+			ps.setNull(2, Types.INTEGER);
+		} else {
+			ps.setInt(2, charge);
+		}
+		ps.setInt(3, columns.getDf(i));
+		ps.setString(4, columns.getCallerPhoneNumber(i));
+		ps.setString(5, columns.getPaymentCategory(i));
+		ps.setTimestamp(6, new Timestamp(columns.getStartTime(i)));
+	}
+
 	protected PreparedStatement createUpdateNonKeyFieldsPs() throws SQLException {
 		PreparedStatement ps = manager.getConnection().prepareStatement(
 				"update history"
@@ -237,6 +312,29 @@ public class HistoryDaoJdbc implements HistoryDao {
 		return ps;
 	}
 
+	/**
+	 * @param history
+	 * @param ps
+	 * @throws SQLException
+	 */
+	protected void setHistroryToUpdateChargePs(History history, PreparedStatement ps) throws SQLException {
+		if (history.getCharge() == null) {
+			ps.setNull(1, Types.INTEGER);
+		} else {
+			ps.setInt(1, history.getCharge());
+		}
+		ps.setString(2, history.getCallerPhoneNumber());
+		ps.setString(3, history.getPaymentCategorty());
+		ps.setTimestamp(4, history.getStartTime());
+	}
+
+	protected PreparedStatement createUpdateChargePs() throws SQLException {
+		PreparedStatement ps = manager.getConnection().prepareStatement(
+				"update history set charge = ?"
+				+ " where caller_phone_number = ? and payment_category = ?  and start_time = ?");
+		return ps;
+	}
+
 	@Override
 	public List<History> getHistories(Key key) {
 		Connection conn = manager.getConnection();
@@ -254,6 +352,23 @@ public class HistoryDaoJdbc implements HistoryDao {
 		}
 	}
 
+	@Override
+	public History getHistory(History key) {
+		Connection conn = manager.getConnection();
+		String sql = "select caller_phone_number, recipient_phone_number, payment_category, start_time, time_secs,"
+				+ " charge, df from history"
+				+ " where caller_phone_number = ? and payment_category = ? and start_time = ?";
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+			ps.setString(1, key.getCallerPhoneNumber());
+			ps.setString(2, key.getPaymentCategorty());
+			ps.setTimestamp(3, key.getStartTime());
+			List<History> list = createHistoriesLlist(ps);
+			return list.isEmpty() ? null : list.get(0);
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	public List<History> getHistories(CalculationTarget target) {
 		Connection conn = manager.getConnection();
 		Contract contract = target.getContract();
@@ -277,6 +392,41 @@ public class HistoryDaoJdbc implements HistoryDao {
 		}
 	}
 
+	@Override
+	public HistoryColumns getHistoryColumns(CalculationTarget target) {
+		Connection conn = manager.getConnection();
+		Contract contract = target.getContract();
+		Date start = target.getStart();
+		Date end = target.getEnd();
+		String sql = "select caller_phone_number, payment_category, start_time, time_secs, charge, df"
+				+ " from history "
+				+ "where start_time >= ? and start_time < ?"
+				+ " and ((caller_phone_number = ? and payment_category = 'C') "
+				+ "  or (recipient_phone_number = ? and payment_category = 'R'))"
+				+ " and df = 0";
+
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+			ps.setDate(1, start);
+			ps.setDate(2, DateUtils.nextDate(end));
+			ps.setString(3, contract.getPhoneNumber());
+			ps.setString(4, contract.getPhoneNumber());
+			HistoryColumns columns = new HistoryColumns();
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					int charge = rs.getInt("charge");
+					Integer nullableCharge = rs.wasNull() ? null : charge;
+					columns.add(0, rs.getString("caller_phone_number"), rs.getString("payment_category"),
+							rs.getTimestamp("start_time").getTime(), rs.getInt("time_secs"), nullableCharge,
+							rs.getInt("df"));
+				}
+			}
+			columns.trim();
+			return columns;
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	public List<History> getHistories() {
 		Connection conn = manager.getConnection();
 		String sql = "select caller_phone_number, recipient_phone_number, payment_category, start_time, time_secs,"
@@ -288,6 +438,98 @@ public class HistoryDaoJdbc implements HistoryDao {
 		}
 	}
 
+	@Override
+	public Map<String, Long> countHistoriesByBilledPhoneNumber(Timestamp start, Timestamp end) {
+		Connection conn = manager.getConnection();
+		String sql = "select phone_number, count(*) from ("
+				+ " select caller_phone_number as phone_number from history"
+				+ " where start_time >= ? and start_time < ? and payment_category = 'C' and df = 0"
+				+ " union all"
+				+ " select recipient_phone_number as phone_number from history"
+				+ " where start_time >= ? and start_time < ? and payment_category = 'R' and df = 0"
+				+ ") t group by phone_number";
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+			ps.setTimestamp(1, start);
+			ps.setTimestamp(2, end);
+			ps.setTimestamp(3, start);
+			ps.setTimestamp(4, end);
+			Map<String, Long> map = new HashMap<>();
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					map.put(rs.getString(1), rs.getLong(2));
+				}
+			}
+			return map;
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public void scanHistories(Timestamp start, Timestamp end, Consumer<History> consumer) {
+		Connection conn = manager.getConnection();
+		String sql = "select caller_phone_number, recipient_phone_number, payment_category, start_time, time_secs,"
+				+ " charge, df" + " from history "
+				+ "where start_time >= ? and start_time < ? and df = 0";
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+			ps.setFetchSize(SCAN_FETCH_SIZE);
+			ps.setTimestamp(1, start);
+			ps.setTimestamp(2, end);
+			try (ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					consumer.accept(toHistory(rs));
+				}
+			}
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public List<History> getNullChargeHistories(Timestamp start, Timestamp end) {
+		Connection conn = manager.getConnection();
+		String sql = "select caller_phone_number, recipient_phone_number, payment_category, start_time, time_secs,"
+				+ " charge, df" + " from history "
+				+ "where start_time >= ? and start_time < ? and charge is null";
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+			ps.setFetchSize(SCAN_FETCH_SIZE);
+			ps.setTimestamp(1, start);
+			ps.setTimestamp(2, end);
+			return createHistoriesLlist(ps);
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public int updateChargeOfDeletedHistories(Timestamp start, Timestamp end) {
+		Connection conn = manager.getConnection();
+		String sql = "update history set charge = 0 "
+				+ "where start_time >= ? and start_time < ? and df = 1 and charge is null";
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+			ps.setTimestamp(1, start);
+			ps.setTimestamp(2, end);
+			return ps.executeUpdate();
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public int updateChargesBySql(Timestamp start, Timestamp end, boolean skipUnchanged) {
+		Connection conn = manager.getConnection();
+		String sql = "update history set charge = " + CHARGE_EXPRESSION
+				+ " where start_time >= ? and start_time < ? and df = 0"
+				+ (skipUnchanged ? " and (charge is null or charge <> " + CHARGE_EXPRESSION + ")" : "");
+		try (PreparedStatement ps = conn.prepareStatement(sql)) {
+			ps.setTimestamp(1, start);
+			ps.setTimestamp(2, end);
+			return ps.executeUpdate();
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	/**
 	 * @param list
 	 * @param psSelect
@@ -297,23 +539,34 @@ public class HistoryDaoJdbc implements HistoryDao {
 		List<History> list = new ArrayList<History>();
 		try (ResultSet rs = psSelect.executeQuery()) {
 			while (rs.next()) {
-				History h = new History();
-				h.setCallerPhoneNumber(rs.getString(1));
-				h.setRecipientPhoneNumber(rs.getString(2));
-				h.setPaymentCategorty(rs.getString(3));
-				h.setStartTime(rs.getTimestamp(4));
-				h.setTimeSecs(rs.getInt(5));
-				h.setCharge(rs.getInt(6));
-				if (rs.wasNull()) {
-					h.setCharge(null);
-				}
-				h.setDf(rs.getInt(7));
-				list.add(h);
+				list.add(toHistory(rs));
 			}
 		}
 		return list;
 	}
 
+	/**
+	 * ResultSetの現在の行からHistoryを作成する
+	 *
+	 * @param rs
+	 * @return
+	 * @throws SQLException
+	 */
+	private History toHistory(ResultSet rs) throws SQLException {
+		History h = new History();
+		h.setCallerPhoneNumber(rs.getString(1));
+		h.setRecipientPhoneNumber(rs.getString(2));
+		h.setPaymentCategorty(rs.getString(3));
+		h.setStartTime(rs.getTimestamp(4));
+		h.setTimeSecs(rs.getInt(5));
+		h.setCharge(rs.getInt(6));
+		if (rs.wasNull()) {
+			h.setCharge(null);
+		}
+		h.setDf(rs.getInt(7));
+		return h;
+	}
+
 	@Override
 	public int delete(String phoneNumber) {
 		Connection conn = manager.getConnection();
@@ -60,6 +60,22 @@ public class HistoryDaoJdbcNoBatchUpdate extends HistoryDaoJdbc {
 		}
 	}
 
+	@Override
+	public int batchUpdateCharge(List<History> list) {
+		try (PreparedStatement ps = createUpdateChargePs()) {
+			for(History h: list) {
+				setHistroryToUpdateChargePs(h, ps);
+				int ret = ps.executeUpdate();
+				if (ret < 0) {
+					throw new RuntimeException("Fail to update history.");
+				}
+			}
+			return list.size();
+		} catch (SQLException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 
 
 
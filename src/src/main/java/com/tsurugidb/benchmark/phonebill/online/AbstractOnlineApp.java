@@ -17,10 +17,18 @@ package com.tsurugidb.benchmark.phonebill.online;
 
 import java.io.IOException;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -28,6 +36,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.tsurugidb.benchmark.phonebill.app.Config;
+import com.tsurugidb.benchmark.phonebill.app.Config.ArrivalDistribution;
 import com.tsurugidb.benchmark.phonebill.db.PhoneBillDbManager;
 import com.tsurugidb.benchmark.phonebill.db.PhoneBillDbManager.CounterName;
 import com.tsurugidb.benchmark.phonebill.db.RetryOverRuntimeException;
@@ -45,8 +54,18 @@ public abstract class AbstractOnlineApp implements Runnable{
      */
     protected static final int CREATE_SCHEDULE_INTERVAL_MILLS  = 60 * 1000;
 
+    /**
+     * オープンループで実行するときに、終了リクエストを確認する間隔(ミリ秒)
+     */
+    private static final long OPEN_LOOP_POLL_INTERVAL_MILLS = 100;
+
     private static final Logger LOG = LoggerFactory.getLogger(AbstractOnlineApp.class);
 
+    /**
+     * オープンループで実行する全てのオンラインアプリが共有する、トランザクションを投入するタイマ
+     */
+    private static ScheduledExecutorService sharedScheduler = null;
+
     /**
      * 実行回数
      */
@@ -87,6 +106,37 @@ public abstract class AbstractOnlineApp implements Runnable{
      */
     private List<Long> scheduleList = new LinkedList<Long>();
 
+    /**
+     * オープンループで実行することを示すフラグ
+     */
+    private final boolean openLoop;
+
+    /**
+     * オープンループで実行するときのトランザクションの到着間隔の分布
+     */
+    private final ArrivalDistribution arrivalDistribution;
+
+    /**
+     * 1分間の実行回数に乗じる倍率の時間による変化を表す負荷プロファイル
+     */
+    private final LoadProfile loadProfile;
+
+    /**
+     * 負荷プロファイルの基準となる時刻(System.nanoTime()の値)
+     */
+    private long loadProfileOriginNanos;
+
+    /**
+     * オープンループで実行するときに、スケジュールした時刻になったトランザクションの、スケジュールした
+     * 時刻(System.nanoTime()の値)を格納するキュー。DBの処理が遅延している間もタイマにより追加される。
+     */
+    private final BlockingQueue<Long> arrivals = new LinkedBlockingQueue<>();
+
+    /**
+     * オープンループで実行するときに、共有のタイマに登録したトランザクションの投入
+     */
+    private final List<ScheduledFuture<?>> scheduledArrivals = new ArrayList<>();
+
 
     /**
      * データベースアクセスをスキップすることを示すフラグ
@@ -110,10 +160,23 @@ public abstract class AbstractOnlineApp implements Runnable{
 
 
     public AbstractOnlineApp(int execPerMin, Config config, Random random) {
+        this(execPerMin, LoadProfile.CONSTANT, config, random);
+    }
+
+    /**
+     * @param execPerMin 1分間に実行する回数、負数の場合は連続で実行する
+     * @param loadProfile 1分間の実行回数に乗じる倍率の時間による変化を表す負荷プロファイル、連続実行の場合は使用しない
+     * @param config
+     * @param random
+     */
+    public AbstractOnlineApp(int execPerMin, LoadProfile loadProfile, Config config, Random random) {
         this.execPerMin = execPerMin;
+        this.loadProfile = loadProfile;
         this.random = random;
         this.config = config;
         skipDatabaseAccess = config.skipDatabaseAccess;
+        openLoop = config.onlineAppOpenLoop && execPerMin > 0;
+        arrivalDistribution = config.onlineAppArrivalDistribution;
         setName(0);
 
     }
@@ -142,6 +205,40 @@ public abstract class AbstractOnlineApp implements Runnable{
         exec(manager, label);
         long latency = System.nanoTime() - start;
         TxStatistics.addLatencyFotTxLabel(label, latency);
+        addLatencyForLoadProfile(label, start, latency);
+    }
+
+    /**
+     * スケジュールした時刻を指定してオンラインアプリの処理を実行する.
+     *
+     * exec()と同じ遅延に加えて、スケジュールした時刻からの遅延を記録する。
+     * @param manager
+     * @param intendedStartNanos スケジュールした時刻(System.nanoTime()の値)
+     */
+    final void execScheduled(PhoneBillDbManager manager, long intendedStartNanos) {
+        TxLabel label = getTxLabel();
+        long start = System.nanoTime();
+        execCount.incrementAndGet();
+        exec(manager, label);
+        long end = System.nanoTime();
+        TxStatistics.addLatencyFotTxLabel(label, end - start);
+        TxStatistics.addIntendedLatencyForTxLabel(label, end - intendedStartNanos);
+        addLatencyForLoadProfile(label, intendedStartNanos, end - start);
+    }
+
+    /**
+     * 負荷プロファイルを使用している場合は、TXを投入した時刻が属する負荷プロファイルのセグメントの遅延を登録する
+     *
+     * @param label
+     * @param issuedNanos TXを投入した時刻(System.nanoTime()の値)
+     * @param latencyNanos 遅延(単位はナノ秒)
+     */
+    private void addLatencyForLoadProfile(TxLabel label, long issuedNanos, long latencyNanos) {
+        if (loadProfile == LoadProfile.CONSTANT) {
+            return;
+        }
+        int segment = loadProfile.getSegmentAt(issuedNanos - loadProfileOriginNanos);
+        TxStatistics.addLatencyForLoadProfileSegment(label, loadProfile, segment, latencyNanos);
     }
 
     void exec(PhoneBillDbManager manager, TxLabel label) {
@@ -246,10 +343,15 @@ public abstract class AbstractOnlineApp implements Runnable{
                 Thread.sleep(delaySec * 1000);
             }
             LOG.info("{} started.", name);
-            startTime = System.currentTimeMillis();
-            scheduleList.add(startTime);
-            while (!terminationRequested.get()) {
-                schedule(manager);
+            loadProfileOriginNanos = System.nanoTime();
+            if (openLoop) {
+                runOpenLoop(manager);
+            } else {
+                startTime = System.currentTimeMillis();
+                scheduleList.add(startTime);
+                while (!terminationRequested.get()) {
+                    schedule(manager);
+                }
             }
             LOG.info("{} terminated.", name);
         } catch (RuntimeException | IOException | InterruptedException e) {
@@ -295,6 +397,84 @@ public abstract class AbstractOnlineApp implements Runnable{
     }
 
 
+    /**
+     * オープンループでexecScheduled()を呼び出す.
+     *
+     * トランザクションの投入は共有のタイマがスケジュールした時刻にキューに追加することで行い、
+     * 前のトランザクションの完了を待たない。DBの処理が遅延した場合はキューに待ちが溜まり、その待ち時間は
+     * スケジュールした時刻から計測する遅延に含まれる。
+     *
+     * @param manager
+     * @throws IOException
+     * @throws InterruptedException
+     */
+    private void runOpenLoop(PhoneBillDbManager manager) throws IOException, InterruptedException {
+        ScheduledExecutorService scheduler = getSharedScheduler();
+        long intervalNanos = TimeUnit.MILLISECONDS.toNanos(CREATE_SCHEDULE_INTERVAL_MILLS);
+        long base = loadProfileOriginNanos;
+        ArrivalGenerator generator = new ArrivalGenerator(arrivalDistribution, execPerMin, random, base, loadProfile);
+        long nextArrival = generator.next();
+        try {
+            while (!terminationRequested.get()) {
+                long now = System.nanoTime();
+                if (now - base >= 0) {
+                    // スケジュールを作成する時刻になったとき
+                    if (now - base > intervalNanos) {
+                        // 予定よりCREATE_SCHEDULE_INTERVAL_MILLSより遅れた場合は、警告のログを出力し、
+                        // スケジュールのベースとなる時刻を進める。
+                        LOG.warn("Detected a large delay in the schedule and reset the base time(delay = {} ms).",
+                                TimeUnit.NANOSECONDS.toMillis(now - base));
+                        base = now;
+                        generator.reset(base);
+                        nextArrival = generator.next();
+                    }
+                    scheduledArrivals.removeIf(Future::isDone);
+                    List<Long> list = new ArrayList<>();
+                    long nowMills = System.currentTimeMillis();
+                    for (; nextArrival - (base + intervalNanos) < 0; nextArrival = generator.next()) {
+                        long arrival = nextArrival;
+                        scheduledArrivals.add(scheduler.schedule(() -> arrivals.add(arrival), arrival - now,
+                                TimeUnit.NANOSECONDS));
+                        list.add(nowMills + TimeUnit.NANOSECONDS.toMillis(arrival - now));
+                    }
+                    // 次にスケジュールを作成する時刻
+                    base += intervalNanos;
+                    list.add(nowMills + TimeUnit.NANOSECONDS.toMillis(base - now));
+                    atScheduleListCreated(list);
+                    LOG.info("Exec Count: {}, Retry Count: {}, Pending: {}", getExecCount(), getRetryCount(),
+                            arrivals.size());
+                    continue;
+                }
+                long timeout = Math.min(base - now, TimeUnit.MILLISECONDS.toNanos(OPEN_LOOP_POLL_INTERVAL_MILLS));
+                Long intended = arrivals.poll(timeout, TimeUnit.NANOSECONDS);
+                if (intended != null) {
+                    execScheduled(manager, intended);
+                }
+            }
+        } finally {
+            scheduledArrivals.forEach(f -> f.cancel(false));
+            scheduledArrivals.clear();
+        }
+    }
+
+    /**
+     * オープンループで実行するオンラインアプリが共有するタイマを返す
+     *
+     * @return
+     */
+    private static synchronized ScheduledExecutorService getSharedScheduler() {
+        if (sharedScheduler == null) {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+                Thread thread = new Thread(r, "online-app-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.setRemoveOnCancelPolicy(true);
+            sharedScheduler = executor;
+        }
+        return sharedScheduler;
+    }
+
     /**
      * スケジュールを作成する
      *
@@ -310,9 +490,21 @@ public abstract class AbstractOnlineApp implements Runnable{
                     new Timestamp(base), new Timestamp(now));
             base = System.currentTimeMillis();
         }
-        for (int i = 0; i < execPerMin; i++) {
-            long schedule = base + random.nextInt(CREATE_SCHEDULE_INTERVAL_MILLS);
-            scheduleList.add(schedule);
+        if (loadProfile == LoadProfile.CONSTANT) {
+            for (int i = 0; i < execPerMin; i++) {
+                long schedule = base + random.nextInt(CREATE_SCHEDULE_INTERVAL_MILLS);
+                scheduleList.add(schedule);
+            }
+        } else {
+            // 倍率を積分した時間軸上で一様にスケジュールし、経過時間に変換する
+            long intervalNanos = TimeUnit.MILLISECONDS.toNanos(CREATE_SCHEDULE_INTERVAL_MILLS);
+            double from = loadProfile.toLoadNanos(TimeUnit.MILLISECONDS.toNanos(base - startTime));
+            double to = loadProfile.toLoadNanos(TimeUnit.MILLISECONDS.toNanos(base - startTime) + intervalNanos);
+            long n = Math.round(execPerMin * (to - from) / intervalNanos);
+            for (long i = 0; i < n; i++) {
+                double elapsedNanos = loadProfile.toElapsedNanos(from + random.nextDouble() * (to - from));
+                scheduleList.add(startTime + TimeUnit.NANOSECONDS.toMillis(Math.round(elapsedNanos)));
+            }
         }
         Collections.sort(scheduleList);
         // 次にスケジュールを作成する時刻
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.online;
+
+import java.util.Random;
+
+import com.tsurugidb.benchmark.phonebill.app.Config.ArrivalDistribution;
+
+/**
+ * オープンループで実行するオンラインアプリのトランザクションの到着時刻(System.nanoTime()の値)を生成する.
+ * <p>
+ * 到着時刻は直前の到着時刻に到着間隔を加えて求める。平均の到着間隔は1分間の実行回数から求め、
+ * UNIFORMの場合は常に平均の到着間隔を、POISSONの場合は指数分布に従う到着間隔を使用する。
+ * <p>
+ * 負荷プロファイルを指定した場合は、到着間隔を倍率を積分した時間軸上で求め、経過時間に変換する。
+ * 倍率が高い時間帯ほど到着間隔が短くなる。
+ */
+class ArrivalGenerator {
+    private static final long NANOS_PER_MINUTE = 60L * 1000 * 1000 * 1000;
+
+    private final ArrivalDistribution distribution;
+    private final Random random;
+    private final LoadProfile loadProfile;
+
+    /**
+     * 平均の到着間隔(ナノ秒)
+     */
+    private final double meanIntervalNanos;
+
+    /**
+     * 負荷プロファイルの基準となる時刻(最初の到着時刻の基準となる時刻)
+     */
+    private final long origin;
+
+    /**
+     * 基準となる時刻から直前の到着時刻までの、倍率を積分した時間(ナノ秒)、丸め誤差を累積させないためdoubleで保持する
+     */
+    private double offset = 0;
+
+    /**
+     * コンストラクタ
+     *
+     * @param distribution 到着間隔の分布
+     * @param execPerMin 1分間の実行回数、正の値であること
+     * @param random 乱数発生器
+     * @param startNanos 最初の到着時刻の基準となる時刻
+     */
+    ArrivalGenerator(ArrivalDistribution distribution, int execPerMin, Random random, long startNanos) {
+        this(distribution, execPerMin, random, startNanos, LoadProfile.CONSTANT);
+    }
+
+    /**
+     * コンストラクタ
+     *
+     * @param distribution 到着間隔の分布
+     * @param execPerMin 倍率が1のときの1分間の実行回数、正の値であること
+     * @param random 乱数発生器
+     * @param startNanos 最初の到着時刻と負荷プロファイルの基準となる時刻
+     * @param loadProfile 負荷プロファイル
+     */
+    ArrivalGenerator(ArrivalDistribution distribution, int execPerMin, Random random, long startNanos,
+            LoadProfile loadProfile) {
+        if (execPerMin <= 0) {
+            throw new IllegalArgumentException("execPerMin must be positive: " + execPerMin);
+        }
+        this.distribution = distribution;
+        this.random = random;
+        this.loadProfile = loadProfile;
+        meanIntervalNanos = (double) NANOS_PER_MINUTE / execPerMin;
+        origin = startNanos;
+    }
+
+    /**
+     * 次の到着時刻を返す
+     *
+     * @return
+     */
+    long next() {
+        double interval;
+        switch (distribution) {
+        case POISSON:
+            interval = -Math.log(1d - random.nextDouble()) * meanIntervalNanos;
+            break;
+        case UNIFORM:
+        default:
+            interval = meanIntervalNanos;
+            break;
+        }
+        offset += interval;
+        return origin + Math.round(loadProfile.toElapsedNanos(offset));
+    }
+
+    /**
+     * 指定の時刻から到着時刻を生成し直す。スケジュールの遅延をリセットするときに使用する。
+     * 負荷プロファイルの基準となる時刻は変わらない。
+     *
+     * @param nanos
+     */
+    void reset(long nanos) {
+        offset = loadProfile.toLoadNanos(nanos - origin);
+    }
+}
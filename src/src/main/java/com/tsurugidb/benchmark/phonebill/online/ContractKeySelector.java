@@ -0,0 +1,508 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.online;
+
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract.Key;
+
+/**
+ * 契約マスタのキー専用のRandomKeySelector.
+ * <p>
+ * 電話番号をlong、契約開始日をエポック日のintに変換し、プリミティブ型の配列で管理する。キーの位置は
+ * オープンアドレス法のハッシュ表で管理する。Keyオブジェクトはget(), getAndRemove()が返すときにのみ生成する。
+ * RandomKeySelectorがキーごとにKeyオブジェクト、HashMapのエントリ、KeyPositionsを保持するのに対し、
+ * キーあたり数十バイトのメモリで済む。
+ * <p>
+ * キーの選択方法と乱数の使い方はRandomKeySelectorと同じなので、同じ乱数生成器を使用すると同じキーを選択する。
+ * <p>
+ * 電話番号は全て同じ桁数の数字のみ(18桁まで)、契約開始日は日付の境界の時刻である必要がある。
+ * 条件を満たすかどうかはisPackable()で確認できる。
+ */
+public class ContractKeySelector implements KeySelector<Key> {
+    private static final Logger LOG = LoggerFactory.getLogger(ContractKeySelector.class);
+
+    static final String ERROR_NOT_PACKABLE = "Invalid argument: The key cannot be packed: ";
+
+    /**
+     * longで表せる電話番号の最大桁数
+     */
+    private static final int MAX_PHONE_NUMBER_LENGTH = 18;
+
+    /**
+     * 配列の初期容量
+     */
+    private static final int MIN_CAPACITY = 16;
+
+    /**
+     * 電話番号の桁数、最初のキーを追加したときに決まる
+     */
+    private int phoneNumberLength = 0;
+
+    /**
+     * keyListの各要素の電話番号
+     */
+    private long[] phoneNumbers;
+
+    /**
+     * keyListの各要素の契約開始日(エポック日)
+     */
+    private int[] startDays;
+
+    /**
+     * keyListの各要素のaloKeyList中の位置、aloKeyListに含まれない場合-1
+     */
+    private int[] aloKeyPositions;
+
+    /**
+     * keyListの要素数
+     */
+    private int size;
+
+    /**
+     * atLeastOnce用のKeyList、keyList中の位置を保持する
+     */
+    private int[] aloKeyList;
+
+    /**
+     * aloKeyListの要素数
+     */
+    private int aloSize;
+
+    /**
+     * キーからkeyList中の位置を求めるハッシュ表、keyList中の位置+1を保持し、0は空きを表す
+     */
+    private int[] table;
+
+    /**
+     * 使用する乱数生成器
+     */
+    private final Random random;
+
+    /**
+     * get(), getAndRemove()を用いてキーを選択する際にatLeastOnceのリストからキーを選択する割合.
+     */
+    private final double aloSelectRate;
+
+    /**
+     * @param keys ContractKeySelectorに管理させるKeyのコレクション
+     * @param random ContractKeySelectorが使用する乱数生成器
+     * @param aloSelectRate get(), getAndRemove()を用いてキーを選択する際にatLeastOnceのリストからキーを選択する割合。0d〜1dの範囲で指定する。
+     *
+     * @throws IllegalArgumentException keysがnullまたは変換できないキーを含む場合, aloSelectRateの範囲外の値が指定されたとき
+     */
+    public ContractKeySelector(@Nonnull Collection<Key> keys, @Nonnull Random random, double aloSelectRate)
+            throws IllegalArgumentException {
+        this(keys, random, aloSelectRate, 1d);
+    }
+
+    /**
+     * @param keys ContractKeySelectorに管理させるKeyのコレクション
+     * @param random ContractKeySelectorが使用する乱数生成器
+     * @param aloSelectRate get(), getAndRemove()を用いてキーを選択する際にatLeastOnceのリストからキーを選択する割合。0d〜1dの範囲で指定する。
+     * @param coverRate カーバ率。ContractKeySelectorはkeysのうちcoverRateで指定した割合の要素を管理する。0d〜1dの範囲で指定する。
+     *
+     * @throws IllegalArgumentException keysがnullまたは変換できないキーを含む場合, aloSelectRate,
+     *                                  coverRateに0d〜1dの範囲外の値が指定されたとき
+     */
+    public ContractKeySelector(@Nonnull Collection<Key> keys, @Nonnull Random random, double aloSelectRate,
+            double coverRate) throws IllegalArgumentException {
+        if (aloSelectRate < 0d || 1d < aloSelectRate) {
+            throw new IllegalArgumentException(RandomKeySelector.ERROR_RANGE);
+        }
+        if (coverRate < 0d || 1d < coverRate) {
+            throw new IllegalArgumentException(RandomKeySelector.ERROR_RANGE);
+        }
+        this.aloSelectRate = aloSelectRate;
+        this.random = random;
+        int myKeyListSize = (int) (keys.size() * coverRate);
+
+        int capacity = Math.max(myKeyListSize, MIN_CAPACITY);
+        phoneNumbers = new long[capacity];
+        startDays = new int[capacity];
+        aloKeyPositions = new int[capacity];
+        aloKeyList = new int[capacity];
+        table = new int[tableSizeFor(capacity)];
+        int c = 0;
+        for (Key key : keys) {
+            if (++c > myKeyListSize) {
+                break;
+            }
+            if (key == null) {
+                throw new IllegalArgumentException(RandomKeySelector.ERROR_NULL_ELEMENTS);
+            }
+            if (!append(key)) {
+                throw new IllegalArgumentException(RandomKeySelector.ERROR_DUPLICATE_ELEMENTS + key + ".");
+            }
+        }
+        initAloKeyList();
+        LOG.info("Initialized with {} keys, {} bytes per key.", keys.size(),
+                String.format("%.1f", getBytesPerKey()));
+    }
+
+    /**
+     * 指定のキーを全てContractKeySelectorで管理できるかを調べる
+     *
+     * @param keys
+     * @return 全てのキーが同じ桁数の数字のみの電話番号と、日付の境界の契約開始日を持つ場合true
+     */
+    public static boolean isPackable(@Nonnull Collection<Key> keys) {
+        int length = -1;
+        for (Key key : keys) {
+            if (key == null || key.getPhoneNumber() == null) {
+                return false;
+            }
+            if (length < 0) {
+                length = key.getPhoneNumber().length();
+            }
+            if (!isPackable(key, length)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 指定のキーを、指定の桁数の電話番号として変換できるかを調べる
+     *
+     * @param key
+     * @param length
+     * @return
+     */
+    private static boolean isPackable(Key key, int length) {
+        String phoneNumber = key.getPhoneNumber();
+        if (phoneNumber == null || phoneNumber.length() != length || length == 0
+                || length > MAX_PHONE_NUMBER_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            char ch = phoneNumber.charAt(i);
+            if (ch < '0' || '9' < ch) {
+                return false;
+            }
+        }
+        long startDate = key.getStartDateAsLong();
+        return toEpochMills(key.getStartDateAsLocalDate().toEpochDay()) == startDate;
+    }
+
+    /**
+     * エポック日を契約開始日のエポックミリ秒に変換する
+     *
+     * @param epochDay
+     * @return
+     */
+    private static long toEpochMills(long epochDay) {
+        Key key = new Key();
+        key.setStartDate(LocalDate.ofEpochDay(epochDay));
+        return key.getStartDateAsLong();
+    }
+
+    /**
+     * 指定の位置のキーからKeyオブジェクトを生成する
+     *
+     * @param idx keyList中の位置
+     * @return
+     */
+    private Key toKey(int idx) {
+        char[] buf = new char[phoneNumberLength];
+        long n = phoneNumbers[idx];
+        for (int i = phoneNumberLength - 1; i >= 0; i--) {
+            buf[i] = (char) ('0' + n % 10);
+            n /= 10;
+        }
+        return Contract.createKey(new String(buf), toEpochMills(startDays[idx]));
+    }
+
+    /**
+     * 電話番号と契約開始日からハッシュ表の開始位置を求める
+     *
+     * @param phoneNumber
+     * @param startDay
+     * @return
+     */
+    private int hash(long phoneNumber, int startDay) {
+        long h = phoneNumber * 0x9E3779B97F4A7C15L + startDay;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        return (int) h & (table.length - 1);
+    }
+
+    /**
+     * 指定のキーのkeyList中の位置を返す
+     *
+     * @param phoneNumber
+     * @param startDay
+     * @return keyList中の位置、存在しない場合-1
+     */
+    private int indexOf(long phoneNumber, int startDay) {
+        int mask = table.length - 1;
+        for (int slot = hash(phoneNumber, startDay);; slot = (slot + 1) & mask) {
+            int idx = table[slot] - 1;
+            if (idx < 0) {
+                return -1;
+            }
+            if (phoneNumbers[idx] == phoneNumber && startDays[idx] == startDay) {
+                return idx;
+            }
+        }
+    }
+
+    /**
+     * ハッシュ表の指定のキーを格納しているスロットを返す
+     *
+     * @param idx keyList中の位置
+     * @return
+     */
+    private int slotOf(int idx) {
+        int mask = table.length - 1;
+        int slot = hash(phoneNumbers[idx], startDays[idx]);
+        while (table[slot] != idx + 1) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * ハッシュ表の指定のスロットを空きにする。後続のスロットのキーは、探索できるように前に詰める。
+     *
+     * @param slot
+     */
+    private void deleteSlot(int slot) {
+        int mask = table.length - 1;
+        int hole = slot;
+        for (int s = (slot + 1) & mask; table[s] != 0; s = (s + 1) & mask) {
+            int idx = table[s] - 1;
+            int home = hash(phoneNumbers[idx], startDays[idx]);
+            // homeからsまでの間にholeがあれば、holeに移動しても探索できる
+            if (((s - home) & mask) >= ((s - hole) & mask)) {
+                table[hole] = table[s];
+                hole = s;
+            }
+        }
+        table[hole] = 0;
+    }
+
+    /**
+     * ハッシュ表に指定の位置のキーを格納する
+     *
+     * @param idx keyList中の位置
+     */
+    private void insertSlot(int idx) {
+        int mask = table.length - 1;
+        int slot = hash(phoneNumbers[idx], startDays[idx]);
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = idx + 1;
+    }
+
+    /**
+     * 指定の容量に対して、使用率が1/2以下になる2のべき乗のハッシュ表のサイズを返す
+     *
+     * @param capacity
+     * @return
+     */
+    private static int tableSizeFor(int capacity) {
+        return Integer.highestOneBit(Math.max(capacity, MIN_CAPACITY) - 1) << 2;
+    }
+
+    /**
+     * 配列とハッシュ表を拡張する
+     */
+    private void grow() {
+        int capacity = phoneNumbers.length + (phoneNumbers.length >> 1);
+        phoneNumbers = Arrays.copyOf(phoneNumbers, capacity);
+        startDays = Arrays.copyOf(startDays, capacity);
+        aloKeyPositions = Arrays.copyOf(aloKeyPositions, capacity);
+        aloKeyList = Arrays.copyOf(aloKeyList, capacity);
+        int tableSize = tableSizeFor(capacity);
+        if (tableSize > table.length) {
+            table = new int[tableSize];
+            for (int i = 0; i < size; i++) {
+                insertSlot(i);
+            }
+        }
+    }
+
+    /**
+     * keyListの最後にキーを追加する
+     *
+     * @param key
+     * @return 追加した場合true, 既に同じキーが存在する場合false
+     * @throws IllegalArgumentException キーを変換できない場合
+     */
+    private boolean append(Key key) {
+        if (phoneNumberLength == 0 && key.getPhoneNumber() != null) {
+            phoneNumberLength = key.getPhoneNumber().length();
+        }
+        if (!isPackable(key, phoneNumberLength)) {
+            throw new IllegalArgumentException(ERROR_NOT_PACKABLE + key + ".");
+        }
+        long phoneNumber = Long.parseLong(key.getPhoneNumber());
+        int startDay = (int) key.getStartDateAsLocalDate().toEpochDay();
+        if (indexOf(phoneNumber, startDay) >= 0) {
+            return false;
+        }
+        if (size == phoneNumbers.length) {
+            grow();
+        }
+        phoneNumbers[size] = phoneNumber;
+        startDays[size] = startDay;
+        aloKeyPositions[size] = -1;
+        insertSlot(size);
+        size++;
+        return true;
+    }
+
+    /**
+     * keyListからaloKeyListを生成する。
+     */
+    private void initAloKeyList() {
+        for (int i = 0; i < size; i++) {
+            aloKeyList[i] = i;
+        }
+        // RandomKeySelectorと同じ手順でシャッフルする
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i);
+            int tmp = aloKeyList[i];
+            aloKeyList[i] = aloKeyList[j];
+            aloKeyList[j] = tmp;
+        }
+        aloSize = size;
+        for (int i = 0; i < aloSize; i++) {
+            aloKeyPositions[aloKeyList[i]] = i;
+        }
+    }
+
+    /**
+     * keyList中の指定の位置のキーを削除する
+     *
+     * @param idx
+     */
+    private void removeAt(int idx) {
+        deleteSlot(slotOf(idx));
+        // aloKeyListリストの最後のKeyと指定のKeyを入れ換え、指定のkeyを削除する
+        int aloPos = aloKeyPositions[idx];
+        if (aloPos >= 0) {
+            int lastAloIdx = aloKeyList[--aloSize];
+            if (lastAloIdx != idx) {
+                aloKeyList[aloPos] = lastAloIdx;
+                aloKeyPositions[lastAloIdx] = aloPos;
+            }
+        }
+        // keyListリストの最後のKeyと指定のKeyを入れ換え、指定のkeyを削除する
+        int last = --size;
+        if (last != idx) {
+            int slot = slotOf(last);
+            phoneNumbers[idx] = phoneNumbers[last];
+            startDays[idx] = startDays[last];
+            aloKeyPositions[idx] = aloKeyPositions[last];
+            if (aloKeyPositions[idx] >= 0) {
+                aloKeyList[aloKeyPositions[idx]] = idx;
+            }
+            table[slot] = idx + 1;
+        }
+    }
+
+    /**
+     * ランダムに選択したキーのkeyList中の位置を返す
+     *
+     * @param sampler キーを選択する分布
+     * @return keyList中の位置、keyListが空の場合-1
+     */
+    private int select(KeyIndexSampler sampler) {
+        if (size == 0) {
+            return -1;
+        }
+        if (random.nextDouble() < aloSelectRate) {
+            if (aloSize == 0) {
+                // remove()によりaloKeyListが空になった場合
+                initAloKeyList();
+            }
+            int idx = aloKeyList[--aloSize];
+            aloKeyPositions[idx] = -1;
+            if (aloSize == 0) {
+                initAloKeyList();
+            }
+            return idx;
+        }
+        return sampler.nextIndex(random, size);
+    }
+
+    @Override
+    public synchronized Key get(KeyIndexSampler sampler) {
+        int idx = select(sampler);
+        return idx < 0 ? null : toKey(idx);
+    }
+
+    @Override
+    public synchronized Key getAndRemove(KeyIndexSampler sampler) {
+        int idx = select(sampler);
+        if (idx < 0) {
+            return null;
+        }
+        Key key = toKey(idx);
+        removeAt(idx);
+        return key;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @throws IllegalArgumentException キーを変換できない場合
+     */
+    @Override
+    public synchronized void add(@Nonnull Key key) {
+        append(key);
+    }
+
+    @Override
+    public synchronized boolean remove(@Nonnull Key key) {
+        if (!isPackable(key, phoneNumberLength)) {
+            return false;
+        }
+        int idx = indexOf(Long.parseLong(key.getPhoneNumber()), (int) key.getStartDateAsLocalDate().toEpochDay());
+        if (idx < 0) {
+            return false;
+        }
+        removeAt(idx);
+        return true;
+    }
+
+    @Override
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return 確保している配列とハッシュ表のキーあたりのバイト数、キーが存在しない場合は確保しているバイト数
+     */
+    synchronized double getBytesPerKey() {
+        long bytes = (long) phoneNumbers.length * Long.BYTES
+                + (long) (startDays.length + aloKeyPositions.length + aloKeyList.length + table.length) * Integer.BYTES;
+        return size == 0 ? bytes : (double) bytes / size;
+    }
+}
@@ -56,6 +56,11 @@ public class HistoryInsertApp extends AbstractOnlineApp {
     private List<History> histories = new ArrayList<>();
     private Random random;
 
+    /**
+     * 通話履歴の主キーのキャッシュ、キャッシュを使用しない場合null
+     */
+    private HistoryKeyCache historyKeyCache;
+
     /**
      * // 同一のPKのレコードを生成しないためにPK値を記録するためのセット
      */
@@ -72,12 +77,14 @@ public class HistoryInsertApp extends AbstractOnlineApp {
      * @throws IOException
      */
     private HistoryInsertApp(ContractBlockInfoAccessor accessor, Config config, Random random, long baseTime,
-            int duration) throws IOException {
-        super(config.historyInsertTransactionPerMin, config, random);
+            int duration, HistoryKeyCache historyKeyCache) throws IOException {
+        super(config.historyInsertTransactionPerMin,
+                LoadProfile.create(config.historyInsertLoadProfile, config), config, random);
         this.historyInsertRecordsPerTransaction = config.historyInsertRecordsPerTransaction;
         this.baseTime = baseTime;
         this.duration = duration;
         this.random = random;
+        this.historyKeyCache = historyKeyCache;
         TestDataGenerator testDataGenerator = new TestDataGenerator(config, random, accessor);
         generateHistoryTask = testDataGenerator.getGenerateHistoryTaskForOnlineApp();
     }
@@ -96,6 +103,23 @@ public class HistoryInsertApp extends AbstractOnlineApp {
      */
     public static List<AbstractOnlineApp> createHistoryInsertApps(Config config, Random random,
             ContractBlockInfoAccessor accessor, int num) throws IOException {
+        return createHistoryInsertApps(config, random, accessor, num, null);
+    }
+
+    /**
+     * 指定した数だけ、追加した通話履歴を指定のキャッシュに登録するHistoryInsertAppのインスタンスを作成し、
+     * リストで返す.
+     *
+     * @param config
+     * @param random
+     * @param accessor
+     * @param num
+     * @param historyKeyCache 通話履歴の主キーのキャッシュ、キャッシュを使用しない場合null
+     * @return
+     * @throws IOException
+     */
+    public static List<AbstractOnlineApp> createHistoryInsertApps(Config config, Random random,
+            ContractBlockInfoAccessor accessor, int num, HistoryKeyCache historyKeyCache) throws IOException {
         List<AbstractOnlineApp> list = new ArrayList<>();
         if (num > 0) {
             int duration = CREATE_SCHEDULE_INTERVAL_MILLS / num;
@@ -104,7 +128,8 @@ public class HistoryInsertApp extends AbstractOnlineApp {
                 if (i != 0) {
                     random = new Random(random.nextInt());
                 }
-                AbstractOnlineApp app = new HistoryInsertApp(accessor, config, random, baseTime, duration);
+                AbstractOnlineApp app = new HistoryInsertApp(accessor, config, random, baseTime, duration,
+                        historyKeyCache);
                 app.setName(i);
                 baseTime += duration;
                 list.add(app);
@@ -199,6 +224,9 @@ public class HistoryInsertApp extends AbstractOnlineApp {
 
     @Override
     protected void afterCommitSuccess() {
-        // Nothing to do
+        // 追加した通話履歴を履歴更新アプリが使用するキャッシュに反映する
+        if (historyKeyCache != null) {
+            histories.forEach(historyKeyCache::add);
+        }
     }
 }
@@ -0,0 +1,475 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.online;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.tsurugidb.benchmark.phonebill.app.Config;
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+import com.tsurugidb.benchmark.phonebill.db.entity.History;
+import com.tsurugidb.benchmark.phonebill.util.DateUtils;
+
+/**
+ * 契約ごとに、契約の有効期間内に契約の電話番号で発信した通話履歴の主キーを保持するキャッシュ.
+ * <p>
+ * 履歴更新アプリはキャッシュから選択した主キーで通話履歴を1件だけ読み込んで更新する。キャッシュに存在しない
+ * 契約は、最初に選択されたときに契約の全通話履歴を読み込んで登録する。同一プロセスの履歴追加アプリが追加した
+ * 通話履歴は、コミット後に登録済みの契約に追加する。登録した契約数が上限を超えた場合は、最も長い間
+ * 使用されていない契約を削除する(LRU)。
+ * <p>
+ * 全通話履歴の読み込み中に追加された通話履歴は読み込んだ結果に含まれないことがあるので、読み込みの前後を
+ * {@link #startLoading(String)}と{@link #endLoading(String)}で囲み、その間に追加された通話履歴を登録時に
+ * 加える。既に登録されている契約を登録する場合も、登録済みの主キーを引き継ぐ。
+ * <p>
+ * 他のプロセスが追加した通話履歴と、登録後の契約の有効期間の変更はキャッシュに反映しない。
+ * 全てのメソッドはスレッドセーフで、複数のオンラインアプリから共有できる。
+ * <p>
+ * 契約は電話番号ごとにセグメントに分割して保持し、ロックとLRUはセグメントごとに行う。同じ電話番号の
+ * 契約と読み込み中の状態は同じセグメントに入るので、電話番号をまたぐ操作は存在しない。
+ */
+public class HistoryKeyCache {
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * セグメント数の上限
+     */
+    private static final int MAX_SEGMENTS = 16;
+
+    /**
+     * 1セグメントに登録する契約数の下限、契約数の上限が小さい場合はセグメント数を減らす
+     */
+    private static final int MIN_SEGMENT_CAPACITY = 64;
+
+    /**
+     * 電話番号で分割したセグメント
+     */
+    private final Segment[] segments;
+
+    /**
+     * Configの値からHistoryKeyCacheを生成する
+     *
+     * @param config
+     * @return 生成したHistoryKeyCache、キャッシュを使用しない場合null
+     */
+    public static HistoryKeyCache create(Config config) {
+        return config.historyUpdateKeyCacheSize > 0 ? new HistoryKeyCache(config.historyUpdateKeyCacheSize) : null;
+    }
+
+    /**
+     * @param capacity 登録する契約数の上限、1以上
+     * @throws IllegalArgumentException capacityが1未満のとき
+     */
+    public HistoryKeyCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid argument: capacity should be positive: " + capacity);
+        }
+        int n = Math.max(1, Math.min(MAX_SEGMENTS, capacity / MIN_SEGMENT_CAPACITY));
+        segments = new Segment[n];
+        for (int i = 0; i < n; i++) {
+            // 各セグメントの上限の合計がcapacityになるように端数を割り振る
+            segments[i] = new Segment(capacity / n + (i < capacity % n ? 1 : 0));
+        }
+    }
+
+    /**
+     * 契約が登録されているかを返す
+     *
+     * @param key 契約のキー
+     * @return
+     */
+    public boolean contains(Contract.Key key) {
+        return segmentFor(key.getPhoneNumber()).contains(key);
+    }
+
+    /**
+     * 指定の電話番号の全通話履歴の読み込みを開始する。これ以降に追加された通話履歴は、endLoading()を
+     * 呼び出すまでの間のput()で登録する通話履歴に加える。
+     *
+     * @param phoneNumber 電話番号
+     */
+    public void startLoading(String phoneNumber) {
+        segmentFor(phoneNumber).startLoading(phoneNumber);
+    }
+
+    /**
+     * 指定の電話番号の全通話履歴の読み込みを終了する。読み込みに失敗した場合も呼び出す。
+     *
+     * @param phoneNumber 電話番号
+     */
+    public void endLoading(String phoneNumber) {
+        segmentFor(phoneNumber).endLoading(phoneNumber);
+    }
+
+    /**
+     * 契約と、契約の通話履歴を登録する. 既に登録されている場合は、登録済みの主キーと読み込み中に追加された
+     * 通話履歴のうち、契約の有効期間内のものを加えて置き換える。
+     *
+     * @param contract 契約
+     * @param histories 契約の有効期間内に契約の電話番号で発信した通話履歴
+     */
+    public void put(Contract contract, List<History> histories) {
+        segmentFor(contract.getPhoneNumber()).put(contract, histories);
+    }
+
+    /**
+     * 指定の契約の通話履歴からランダムに1件選択する
+     *
+     * @param key 契約のキー
+     * @param random 乱数生成器
+     * @return 主キーの値のみを保持するHistory、契約が登録されていないか通話履歴が存在しない場合null
+     */
+    public History select(Contract.Key key, Random random) {
+        return segmentFor(key.getPhoneNumber()).select(key, random);
+    }
+
+    /**
+     * 追加した通話履歴を、有効期間に通話開始時刻を含む登録済みの契約に追加する.
+     * <p>
+     * コミット済みの通話履歴の主キーは新しいので、登録済みの主キーとの重複は確認しない。読み込みと追加が
+     * 前後して重複した場合も、選択される確率が変わるだけで、{@link #remove(Contract.Key, History)}で全て削除される。
+     *
+     * @param history 追加した通話履歴
+     */
+    public void add(History history) {
+        segmentFor(history.getCallerPhoneNumber()).add(history);
+    }
+
+    /**
+     * 指定の契約から通話履歴を削除する。通話履歴が存在しなかった場合に使用する。
+     *
+     * @param key 契約のキー
+     * @param history 削除する通話履歴
+     */
+    public void remove(Contract.Key key, History history) {
+        segmentFor(key.getPhoneNumber()).remove(key, history);
+    }
+
+    /**
+     * @return 登録されている契約数
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    private Segment segmentFor(String phoneNumber) {
+        int h = phoneNumber.hashCode();
+        return segments[Math.floorMod(h ^ (h >>> 16), segments.length)];
+    }
+
+    /**
+     * 電話番号で分割したキャッシュの1区画、全てのメソッドはセグメントのロックを取得して実行する
+     */
+    private static class Segment {
+        /**
+         * 登録する契約数の上限
+         */
+        private final int capacity;
+
+        /**
+         * 契約のキーと通話履歴の主キー、アクセス順に保持する
+         */
+        private final LinkedHashMap<Contract.Key, Entry> map = new LinkedHashMap<>(INITIAL_CAPACITY, 0.75f, true);
+
+        /**
+         * 電話番号と、その電話番号の登録済みの契約。追加した通話履歴の契約を探すために使用する。
+         */
+        private final Map<String, List<Entry>> phoneNumberMap = new HashMap<>();
+
+        /**
+         * 全通話履歴を読み込み中の電話番号と、読み込み中に追加された通話履歴
+         */
+        private final Map<String, Loading> loadingMap = new HashMap<>();
+
+        Segment(int capacity) {
+            this.capacity = capacity;
+        }
+
+        synchronized boolean contains(Contract.Key key) {
+            return map.containsKey(key);
+        }
+
+        synchronized void startLoading(String phoneNumber) {
+            loadingMap.computeIfAbsent(phoneNumber, k -> new Loading()).count++;
+        }
+
+        synchronized void endLoading(String phoneNumber) {
+            Loading loading = loadingMap.get(phoneNumber);
+            if (loading != null && --loading.count <= 0) {
+                loadingMap.remove(phoneNumber);
+            }
+        }
+
+        synchronized void put(Contract contract, List<History> histories) {
+            Entry entry = new Entry(contract, histories.size());
+            for (History history : histories) {
+                entry.add(history);
+            }
+            Entry old = map.put(entry.key, entry);
+            if (old != null) {
+                for (int i = 0; i < old.size; i++) {
+                    entry.addIfAbsent(old.paymentCategories[i], old.startTimes[i]);
+                }
+                removeFromPhoneNumberMap(old);
+            }
+            Loading loading = loadingMap.get(entry.key.getPhoneNumber());
+            if (loading != null) {
+                for (History history : loading.histories) {
+                    entry.addIfAbsent(history.getPaymentCategorty(), history.getStartTime().getTime());
+                }
+            }
+            phoneNumberMap.computeIfAbsent(entry.key.getPhoneNumber(), k -> new ArrayList<>(1)).add(entry);
+            if (map.size() > capacity) {
+                Iterator<Entry> it = map.values().iterator();
+                Entry eldest = it.next();
+                it.remove();
+                removeFromPhoneNumberMap(eldest);
+            }
+        }
+
+        synchronized History select(Contract.Key key, Random random) {
+            Entry entry = map.get(key);
+            if (entry == null || entry.size == 0) {
+                return null;
+            }
+            int idx = random.nextInt(entry.size);
+            History history = new History();
+            history.setCallerPhoneNumber(key.getPhoneNumber());
+            history.setPaymentCategorty(entry.paymentCategories[idx]);
+            history.setStartTime(new Timestamp(entry.startTimes[idx]));
+            return history;
+        }
+
+        synchronized void add(History history) {
+            Loading loading = loadingMap.get(history.getCallerPhoneNumber());
+            if (loading != null) {
+                loading.histories.add(history);
+            }
+            List<Entry> entries = phoneNumberMap.get(history.getCallerPhoneNumber());
+            if (entries == null) {
+                return;
+            }
+            long startTime = history.getStartTime().getTime();
+            for (Entry entry : entries) {
+                if (entry.inPeriod(startTime)) {
+                    entry.add(history.getPaymentCategorty(), startTime);
+                }
+            }
+        }
+
+        synchronized void remove(Contract.Key key, History history) {
+            Entry entry = map.get(key);
+            if (entry == null) {
+                return;
+            }
+            int idx;
+            while ((idx = entry.indexOf(history.getPaymentCategorty(), history.getStartTime().getTime())) >= 0) {
+                entry.removeAt(idx);
+            }
+        }
+
+        synchronized int size() {
+            return map.size();
+        }
+
+        private void removeFromPhoneNumberMap(Entry entry) {
+            String phoneNumber = entry.key.getPhoneNumber();
+            List<Entry> entries = phoneNumberMap.get(phoneNumber);
+            if (entries != null) {
+                entries.remove(entry);
+                if (entries.isEmpty()) {
+                    phoneNumberMap.remove(phoneNumber);
+                }
+            }
+        }
+    }
+
+    /**
+     * 1契約分の通話履歴の主キー
+     */
+    private static class Entry {
+        final Contract.Key key;
+
+        /**
+         * 契約の有効期間の開始時刻
+         */
+        final long startDate;
+
+        /**
+         * 契約の有効期間の終了時刻(この時刻を含まない)、終了日がない場合Long.MAX_VALUE
+         */
+        final long endTime;
+
+        /**
+         * 通話開始時刻、先頭からsize個が有効
+         */
+        long[] startTimes;
+
+        /**
+         * 料金区分、先頭からsize個が有効
+         */
+        String[] paymentCategories;
+
+        int size = 0;
+
+        /**
+         * 主キーのハッシュ値で引くオープンアドレス法のハッシュ表、要素の位置+1を保持し、0は空きを表す。
+         * 大きさは2のべき乗で、要素数の2倍以上に保つ。
+         */
+        int[] table;
+
+        Entry(Contract contract, int initialCapacity) {
+            key = contract.getKey();
+            startDate = contract.getStartDate().getTime();
+            endTime = contract.getEndDate() == null ? Long.MAX_VALUE
+                    : DateUtils.nextDate(contract.getEndDate()).getTime();
+            startTimes = new long[Math.max(initialCapacity, 1)];
+            paymentCategories = new String[startTimes.length];
+            table = new int[Integer.highestOneBit(startTimes.length * 2 - 1) * 2];
+        }
+
+        void add(History history) {
+            add(history.getPaymentCategorty(), history.getStartTime().getTime());
+        }
+
+        void add(String paymentCategory, long startTime) {
+            if (size == startTimes.length) {
+                startTimes = Arrays.copyOf(startTimes, size * 2);
+                paymentCategories = Arrays.copyOf(paymentCategories, size * 2);
+            }
+            if ((size + 1) * 2 > table.length) {
+                rehash(table.length * 2);
+            }
+            startTimes[size] = startTime;
+            paymentCategories[size] = paymentCategory;
+            int slot = hash(paymentCategory, startTime) & (table.length - 1);
+            while (table[slot] != 0) {
+                slot = (slot + 1) & (table.length - 1);
+            }
+            table[slot] = size + 1;
+            size++;
+        }
+
+        boolean inPeriod(long startTime) {
+            return startDate <= startTime && startTime < endTime;
+        }
+
+        /**
+         * 契約の有効期間内で、登録されていない主キーを追加する
+         */
+        void addIfAbsent(String paymentCategory, long startTime) {
+            if (inPeriod(startTime) && indexOf(paymentCategory, startTime) < 0) {
+                add(paymentCategory, startTime);
+            }
+        }
+
+        int indexOf(String paymentCategory, long startTime) {
+            int mask = table.length - 1;
+            for (int slot = hash(paymentCategory, startTime) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+                int i = table[slot] - 1;
+                if (startTimes[i] == startTime && paymentCategories[i].equals(paymentCategory)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * 指定の位置の主キーを削除し、最後の要素を削除した位置に移動する
+         */
+        void removeAt(int idx) {
+            removeSlot(slotOf(idx));
+            size--;
+            if (idx != size) {
+                table[slotOf(size)] = idx + 1;
+                startTimes[idx] = startTimes[size];
+                paymentCategories[idx] = paymentCategories[size];
+            }
+            paymentCategories[size] = null;
+        }
+
+        /**
+         * 指定の位置の主キーを保持するハッシュ表のスロットを返す
+         */
+        private int slotOf(int idx) {
+            int mask = table.length - 1;
+            int slot = hash(paymentCategories[idx], startTimes[idx]) & mask;
+            while (table[slot] != idx + 1) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        /**
+         * ハッシュ表のスロットを空にし、後続のスロットの要素を探索できる位置に詰める
+         */
+        private void removeSlot(int hole) {
+            int mask = table.length - 1;
+            for (int slot = (hole + 1) & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+                int i = table[slot] - 1;
+                int home = hash(paymentCategories[i], startTimes[i]) & mask;
+                if (((slot - home) & mask) >= ((slot - hole) & mask)) {
+                    table[hole] = table[slot];
+                    hole = slot;
+                }
+            }
+            table[hole] = 0;
+        }
+
+        private void rehash(int tableSize) {
+            table = new int[tableSize];
+            int mask = tableSize - 1;
+            for (int i = 0; i < size; i++) {
+                int slot = hash(paymentCategories[i], startTimes[i]) & mask;
+                while (table[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                table[slot] = i + 1;
+            }
+        }
+
+        private static int hash(String paymentCategory, long startTime) {
+            int h = Long.hashCode(startTime) * 31 + paymentCategory.hashCode();
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * 全通話履歴を読み込み中の電話番号の状態
+     */
+    private static class Loading {
+        /**
+         * 読み込み中のスレッドの数
+         */
+        int count = 0;
+
+        /**
+         * 読み込み中に追加された通話履歴
+         */
+        final List<History> histories = new ArrayList<>();
+    }
+}
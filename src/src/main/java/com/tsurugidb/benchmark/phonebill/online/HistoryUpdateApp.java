@@ -37,26 +37,51 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 public class HistoryUpdateApp extends AbstractOnlineApp {
     private static final Logger LOG = LoggerFactory.getLogger(HistoryUpdateApp.class);
-    private RandomKeySelector<Contract.Key> keySelector;
+    private KeySelector<Contract.Key> keySelector;
+    private KeyIndexSampler keyIndexSampler;
     private CallTimeGenerator callTimeGenerator;
     private Updater[] updaters = { new Updater1(), new Updater2() };
     private History history;
     private Random random;
 
-    public HistoryUpdateApp(Config config, Random random, RandomKeySelector<Contract.Key> keySelector)
+    /**
+     * 通話履歴の主キーのキャッシュ、キャッシュを使用しない場合null
+     */
+    private HistoryKeyCache historyKeyCache;
+
+    public HistoryUpdateApp(Config config, Random random, KeySelector<Contract.Key> keySelector)
             throws IOException {
-        super(config.historyUpdateRecordsPerMin, config, random);
+        this(config, random, keySelector, null);
+    }
+
+    /**
+     * @param config
+     * @param random
+     * @param keySelector
+     * @param historyKeyCache 通話履歴の主キーのキャッシュ、キャッシュを使用しない場合null
+     * @throws IOException
+     */
+    public HistoryUpdateApp(Config config, Random random, KeySelector<Contract.Key> keySelector,
+            HistoryKeyCache historyKeyCache) throws IOException {
+        super(config.historyUpdateRecordsPerMin,
+                LoadProfile.create(config.historyUpdateLoadProfile, config), config, random);
         this.callTimeGenerator = CallTimeGenerator.createCallTimeGenerator(random, config);
         this.keySelector = keySelector;
+        this.keyIndexSampler = KeyIndexSampler.create(config.historyUpdateKeyDistribution, config);
         this.random = random;
+        this.historyKeyCache = historyKeyCache;
     }
 
     @Override
     protected void createData(ContractDao contractDao, HistoryDao historyDao) {
+        if (historyKeyCache != null) {
+            createDataWithCache(contractDao, historyDao);
+            return;
+        }
         List<History> histories = Collections.emptyList();
         while (histories.isEmpty()) {
             // 更新対象となる契約を選択
-            Key key = keySelector.get();
+            Key key = keySelector.get(keyIndexSampler);
 
             // 通話履歴テーブルから、当該契約の有効期間内に当該契約の電話番号で発信した履歴を取り出す
             if (skipDatabaseAccess) {
@@ -72,6 +97,54 @@ public class HistoryUpdateApp extends AbstractOnlineApp {
         updater.update(history);
     }
 
+    /**
+     * キャッシュした通話履歴の主キーを使用して、更新する通話履歴を決める。キャッシュに登録済みの契約は、
+     * 選択した主キーの通話履歴のみを読み込む。
+     *
+     * @param contractDao
+     * @param historyDao
+     */
+    private void createDataWithCache(ContractDao contractDao, HistoryDao historyDao) {
+        History target = null;
+        while (target == null) {
+            // 更新対象となる契約を選択
+            Key key = keySelector.get(keyIndexSampler);
+            if (skipDatabaseAccess) {
+                return;
+            }
+            if (historyKeyCache.contains(key)) {
+                History historyKey = historyKeyCache.select(key, random);
+                if (historyKey != null) {
+                    target = historyDao.getHistory(historyKey);
+                    if (target == null) {
+                        // 存在しない通話履歴はキャッシュから削除する
+                        historyKeyCache.remove(key, historyKey);
+                    }
+                }
+            } else {
+                // キャッシュに存在しない契約は、契約の全通話履歴を読み込んでキャッシュに登録する。
+                // 読み込み中に履歴追加アプリが追加した通話履歴も登録されるよう、読み込みの前後を通知する。
+                historyKeyCache.startLoading(key.getPhoneNumber());
+                try {
+                    Contract contract = contractDao.getContract(key);
+                    if (contract != null) {
+                        List<History> histories = historyDao.getHistories(key);
+                        historyKeyCache.put(contract, histories);
+                        if (!histories.isEmpty()) {
+                            target = histories.get(random.nextInt(histories.size()));
+                        }
+                    }
+                } finally {
+                    historyKeyCache.endLoading(key.getPhoneNumber());
+                }
+            }
+        }
+        history = target;
+
+        Updater updater = updaters[random.nextInt(updaters.length)];
+        updater.update(history);
+    }
+
     @Override
     protected void updateDatabase(ContractDao contractDao, HistoryDao historyDao) {
         historyDao.updateNonKeyFields(history);
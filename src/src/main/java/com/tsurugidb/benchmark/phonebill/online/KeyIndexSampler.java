@@ -0,0 +1,214 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.online;
+
+import java.util.Random;
+
+import com.tsurugidb.benchmark.phonebill.app.Config;
+import com.tsurugidb.benchmark.phonebill.app.Config.KeyDistribution;
+
+/**
+ * KeySelectorが管理するキーのリストから、選択するキーの位置を指定の分布に従って決める.
+ * <p>
+ * キーの数が変化しても使用できるように、キーの数を引数に取り、O(1)で位置を決める。
+ * 実装クラスはスレッドセーフで、複数のスレッドやKeySelectorから共有できる。
+ */
+public interface KeyIndexSampler {
+    /**
+     * 一様分布
+     */
+    KeyIndexSampler UNIFORM = (random, size) -> random.nextInt(size);
+
+    /**
+     * 選択するキーの位置を返す
+     *
+     * @param random 乱数生成器
+     * @param size キーの数、1以上
+     * @return 0以上size未満の値
+     */
+    int nextIndex(Random random, int size);
+
+    /**
+     * 指定の分布のKeyIndexSamplerを生成する
+     *
+     * @param distribution 分布
+     * @param config 分布のパラメータを保持するConfig
+     * @return
+     * @throws IllegalArgumentException 分布のパラメータが範囲外のとき
+     */
+    static KeyIndexSampler create(KeyDistribution distribution, Config config) {
+        switch (distribution) {
+        case ZIPFIAN:
+            return new Zipfian(config.onlineAppZipfianTheta);
+        case HOTSPOT:
+            return new Hotspot(config.onlineAppHotspotAccessRate, config.onlineAppHotspotKeyRate);
+        case LATEST:
+            return new Latest(new Zipfian(config.onlineAppZipfianTheta));
+        default:
+            return UNIFORM;
+        }
+    }
+
+    /**
+     * Zipf分布、位置が小さいキーほど選択されやすい.
+     * <p>
+     * Grayらの方法(YCSBのZipfianGeneratorと同じ方法)で位置を求める。先頭の2つのキー以外の選択確率は
+     * 近似値になる。キーの数nに対するゼータ関数
+     * zeta(n, θ)は、先頭の項を事前に計算した値と、残りの項のEuler-Maclaurinの公式による近似値の和として
+     * 定数時間で求めるので、キーの数が変化しても再計算は不要。
+     */
+    static class Zipfian implements KeyIndexSampler {
+        /**
+         * ゼータ関数の値を事前に計算する項数
+         */
+        static final int EXACT_TERMS = 1024;
+
+        private final double theta;
+        private final double alpha;
+        private final double zeta2;
+
+        /**
+         * 1〜kの項の和(k = 0〜EXACT_TERMS)
+         */
+        private final double[] partialSums = new double[EXACT_TERMS + 1];
+
+        /**
+         * 直前に使用したキーの数に対応するパラメータ
+         */
+        private volatile Params params = new Params(0, 0d, 0d);
+
+        /**
+         * @param theta 偏りを表すパラメータ、0より大きく1未満
+         * @throws IllegalArgumentException thetaが範囲外のとき
+         */
+        Zipfian(double theta) {
+            if (!(0d < theta && theta < 1d)) {
+                throw new IllegalArgumentException("Invalid argument: theta should be between 0 and 1 (exclusive): "
+                        + theta);
+            }
+            this.theta = theta;
+            this.alpha = 1d / (1d - theta);
+            for (int k = 1; k <= EXACT_TERMS; k++) {
+                partialSums[k] = partialSums[k - 1] + Math.pow(k, -theta);
+            }
+            this.zeta2 = partialSums[2];
+        }
+
+        /**
+         * zeta(n, θ) = 1/1^θ + 1/2^θ + ... + 1/n^θを返す
+         *
+         * @param n
+         * @return
+         */
+        double zeta(long n) {
+            if (n <= EXACT_TERMS) {
+                return partialSums[(int) n];
+            }
+            // EXACT_TERMS + 1〜nの項の和をEuler-Maclaurinの公式で近似する
+            double a = EXACT_TERMS + 1;
+            double integral = (Math.pow(n, 1d - theta) - Math.pow(a, 1d - theta)) / (1d - theta);
+            double ends = (Math.pow(a, -theta) + Math.pow(n, -theta)) / 2d;
+            double correction = theta / 12d * (Math.pow(a, -theta - 1d) - Math.pow(n, -theta - 1d));
+            return partialSums[EXACT_TERMS] + integral + ends + correction;
+        }
+
+        @Override
+        public int nextIndex(Random random, int size) {
+            Params p = params;
+            if (p.n != size) {
+                double zetan = zeta(size);
+                double eta = size <= 2 ? 0d : (1d - Math.pow(2d / size, 1d - theta)) / (1d - zeta2 / zetan);
+                p = new Params(size, zetan, eta);
+                params = p;
+            }
+            double u = random.nextDouble();
+            double uz = u * p.zetan;
+            if (uz < 1d || size == 1) {
+                return 0;
+            }
+            if (uz < zeta2 || size == 2) {
+                return 1;
+            }
+            int idx = (int) (size * Math.pow(p.eta * u - p.eta + 1d, alpha));
+            return Math.min(idx, size - 1);
+        }
+
+        /**
+         * キーの数に対応するパラメータ
+         */
+        private static class Params {
+            final int n;
+            final double zetan;
+            final double eta;
+
+            Params(int n, double zetan, double eta) {
+                this.n = n;
+                this.zetan = zetan;
+                this.eta = eta;
+            }
+        }
+    }
+
+    /**
+     * 先頭の一部のキーをホットスポットとし、指定の割合でホットスポットのキーを選択する.
+     */
+    static class Hotspot implements KeyIndexSampler {
+        private final double accessRate;
+        private final double keyRate;
+
+        /**
+         * @param accessRate ホットスポットのキーを選択する割合、0〜1
+         * @param keyRate ホットスポットとするキーの割合、0〜1
+         * @throws IllegalArgumentException 割合が範囲外のとき
+         */
+        Hotspot(double accessRate, double keyRate) {
+            if (accessRate < 0d || 1d < accessRate || keyRate < 0d || 1d < keyRate) {
+                throw new IllegalArgumentException(
+                        "Invalid argument: hotspot rates should be between 0 and 1 (inclusive).");
+            }
+            this.accessRate = accessRate;
+            this.keyRate = keyRate;
+        }
+
+        @Override
+        public int nextIndex(Random random, int size) {
+            int hotKeys = Math.min(Math.max(1, (int) (size * keyRate)), size);
+            if (hotKeys == size || random.nextDouble() < accessRate) {
+                return random.nextInt(hotKeys);
+            }
+            return hotKeys + random.nextInt(size - hotKeys);
+        }
+    }
+
+    /**
+     * 位置が大きいキーほど選択されやすいZipf分布.
+     * <p>
+     * KeySelectorは追加したキーをリストの最後に置くので、最近追加したキーほど選択されやすくなる。
+     * ただし、キーの削除時にはリストの最後のキーを削除したキーの位置に移動するため、順序は近似的なものになる。
+     */
+    static class Latest implements KeyIndexSampler {
+        private final Zipfian zipfian;
+
+        Latest(Zipfian zipfian) {
+            this.zipfian = zipfian;
+        }
+
+        @Override
+        public int nextIndex(Random random, int size) {
+            return size - 1 - zipfian.nextIndex(random, size);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.online;
+
+import java.util.Collection;
+import java.util.Random;
+
+import javax.annotation.Nonnull;
+
+import com.tsurugidb.benchmark.phonebill.app.Config;
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract.Key;
+
+/**
+ * オンラインアプリが処理対象のレコードのキーをランダムに選択するためのインターフェイス.
+ * <p>
+ * 実装クラスは複数のスレッドから同時に呼び出されても正しく動作する必要がある。
+ *
+ * @param <T> 対象テーブルのPKまたはUniqKeyを表すEntityClass
+ */
+public interface KeySelector<T> {
+    /**
+     * ランダムに選択したキーを返す.
+     * <p>
+     * select/updateの対象選択時に使用する
+     *
+     * @return 選択したキー、管理しているキーが存在しない場合null
+     */
+    default T get() {
+        return get(KeyIndexSampler.UNIFORM);
+    }
+
+    /**
+     * 指定の分布に従ってランダムに選択したキーを返す.
+     * <p>
+     * at least onceのロジックを用いて選択する場合は、分布の指定は無視する。
+     *
+     * @param sampler キーを選択する分布
+     * @return 選択したキー、管理しているキーが存在しない場合null
+     */
+    T get(KeyIndexSampler sampler);
+
+    /**
+     * ランダムに選択したキーを返し、当該キーを管理対象から外す.
+     * <p>
+     * deleteの対象選択時に使用する
+     *
+     * @return 選択したキー、管理しているキーが存在しない場合null
+     */
+    default T getAndRemove() {
+        return getAndRemove(KeyIndexSampler.UNIFORM);
+    }
+
+    /**
+     * 指定の分布に従ってランダムに選択したキーを返し、当該キーを管理対象から外す.
+     * <p>
+     * at least onceのロジックを用いて選択する場合は、分布の指定は無視する。
+     *
+     * @param sampler キーを選択する分布
+     * @return 選択したキー、管理しているキーが存在しない場合null
+     */
+    T getAndRemove(KeyIndexSampler sampler);
+
+    /**
+     * 指定のKeyを追加する.
+     * <p>
+     * inserrtしたレコードのキーを追加するために使用する
+     *
+     * @param key
+     */
+    void add(@Nonnull T key);
+
+    /**
+     * 指定のKeyを削除する.
+     *
+     * @param key
+     * @return 指定されたKeyを保持していた場合はtrue
+     */
+    boolean remove(@Nonnull T key);
+
+    /**
+     * @return 管理しているキーの数
+     */
+    int size();
+
+    /**
+     * Configに従ってオンラインアプリが使用するKeySelectorを生成する
+     *
+     * @param <T>
+     * @param keys 管理させるKeyのコレクション
+     * @param random 乱数生成器
+     * @param config
+     * @return
+     */
+    static <T> KeySelector<T> create(@Nonnull Collection<T> keys, @Nonnull Random random, Config config) {
+        if (config.onlineAppKeySelectorShards > 0) {
+            return new ShardedRandomKeySelector<>(keys, random, config.onlineAppRandomAtLeastOnceRate,
+                    config.onlineAppRandomCoverRate, config.onlineAppKeySelectorShards);
+        }
+        return new RandomKeySelector<>(keys, random, config.onlineAppRandomAtLeastOnceRate,
+                config.onlineAppRandomCoverRate);
+    }
+
+    /**
+     * Configに従ってオンラインアプリが使用する契約マスタのKeySelectorを生成する.
+     * <p>
+     * 全てのキーをプリミティブ型の配列に変換できる場合はContractKeySelectorを使用し、変換できない場合は
+     * create()と同じKeySelectorを使用する。
+     *
+     * @param keys 管理させるKeyのコレクション
+     * @param random 乱数生成器
+     * @param config
+     * @return
+     */
+    static KeySelector<Key> createForContracts(@Nonnull Collection<Key> keys, @Nonnull Random random,
+            Config config) {
+        if (!ContractKeySelector.isPackable(keys)) {
+            return create(keys, random, config);
+        }
+        double aloSelectRate = config.onlineAppRandomAtLeastOnceRate;
+        if (config.onlineAppKeySelectorShards > 0) {
+            return new ShardedRandomKeySelector<>(keys, random, aloSelectRate, config.onlineAppRandomCoverRate,
+                    config.onlineAppKeySelectorShards, (list, r) -> new ContractKeySelector(list, r, aloSelectRate));
+        }
+        return new ContractKeySelector(keys, random, aloSelectRate, config.onlineAppRandomCoverRate);
+    }
+}
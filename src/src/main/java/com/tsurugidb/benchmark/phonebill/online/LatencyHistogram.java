@@ -0,0 +1,200 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.online;
+
+/**
+ * 遅延(ナノ秒)の分布を記録するヒストグラム.
+ * <p>
+ * HdrHistogramと同様の対数線形のバケットを使用する。値を2のべき乗ごとの区間に分け、各区間を
+ * 64個のバケットに等分するので、パーセンタイル値の相対誤差は1/64(約1.6%)以下になる。
+ * 件数、合計値、最小値、最大値は正確な値を保持する。
+ * <p>
+ * このクラスはスレッドセーフではない。
+ */
+class LatencyHistogram {
+    /**
+     * 2のべき乗ごとの区間を分割するバケット数のビット数
+     */
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * バケットの数、正のlongの全範囲を表せる数とする
+     */
+    private static final int BUCKET_COUNT = (62 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT + 2 * SUB_BUCKET_COUNT;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count = 0;
+    private long total = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+
+    /**
+     * 値を記録する
+     *
+     * @param value 値、負の値は0として扱う
+     */
+    void record(long value) {
+        long v = Math.max(value, 0);
+        counts[indexOf(v)]++;
+        count++;
+        total += v;
+        if (v < min) {
+            min = v;
+        }
+        if (v > max) {
+            max = v;
+        }
+    }
+
+    /**
+     * 指定のヒストグラムの値を加える
+     *
+     * @param other
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        total += other.total;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * このヒストグラムから、以前に取得したこのヒストグラムの複製を差し引いたヒストグラムを返す。
+     * 最小値と最大値は正確な値を保持できないため、バケットから求めた値になる。
+     *
+     * @param previous 以前に取得したこのヒストグラムの複製、nullの場合は複製を返す
+     * @return
+     */
+    LatencyHistogram subtract(LatencyHistogram previous) {
+        LatencyHistogram h = copy();
+        if (previous == null) {
+            return h;
+        }
+        h.min = Long.MAX_VALUE;
+        h.max = Long.MIN_VALUE;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            h.counts[i] -= previous.counts[i];
+            if (h.counts[i] > 0) {
+                h.min = Math.min(h.min, lowestValueAt(i));
+                h.max = Math.max(h.max, highestValueAt(i));
+            }
+        }
+        h.count -= previous.count;
+        h.total -= previous.total;
+        return h;
+    }
+
+    /**
+     * @return このヒストグラムの複製
+     */
+    LatencyHistogram copy() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.add(this);
+        return h;
+    }
+
+    /**
+     * 指定のパーセンタイル値を返す。記録した値が存在しない場合は0を返す。
+     *
+     * @param percentile パーセンタイル(0～100)
+     * @return 指定のパーセンタイルの値を含むバケットの最大値、ただし記録した値の最大値を超えない
+     */
+    long getValueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100d * count));
+        long n = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            n += counts[i];
+            if (n >= rank) {
+                return Math.min(highestValueAt(i), max);
+            }
+        }
+        return max;
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    long getTotal() {
+        return total;
+    }
+
+    /**
+     * @return 最小値、記録した値が存在しない場合は0
+     */
+    long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    /**
+     * @return 最大値、記録した値が存在しない場合は0
+     */
+    long getMax() {
+        return count == 0 ? 0 : max;
+    }
+
+    /**
+     * 値を格納するバケットのインデックスを返す
+     *
+     * @param value 0以上の値
+     * @return
+     */
+    static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return shift * SUB_BUCKET_COUNT + (int) (value >>> shift);
+    }
+
+    /**
+     * 指定のバケットに格納される値の最小値を返す
+     *
+     * @param index
+     * @return
+     */
+    static long lowestValueAt(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_COUNT - 1;
+        long mantissa = index - shift * SUB_BUCKET_COUNT;
+        return mantissa << shift;
+    }
+
+    /**
+     * 指定のバケットに格納される値の最大値を返す
+     *
+     * @param index
+     * @return
+     */
+    static long highestValueAt(int index) {
+        if (index < 2 * SUB_BUCKET_COUNT) {
+            return index;
+        }
+        if (index == BUCKET_COUNT - 1) {
+            return Long.MAX_VALUE;
+        }
+        return lowestValueAt(index + 1) - 1;
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.online;
+
+import java.util.Arrays;
+
+import com.tsurugidb.benchmark.phonebill.app.Config;
+import com.tsurugidb.benchmark.phonebill.app.Config.LoadProfileType;
+
+/**
+ * オンラインアプリケーションの1分間の実行回数に乗じる倍率の、時間による変化を表す負荷プロファイル.
+ * <p>
+ * 倍率はオンラインアプリケーションの開始からの経過時間の関数で、指定の周期で繰り返す。倍率は1秒ごとに
+ * 一定とみなし、各秒の中央の時刻の値を使用する。スケジューラは倍率を積分した値(負荷の累積)を時刻に
+ * 変換することで、実行回数に倍率を反映した実行時刻を求める。
+ * <p>
+ * 周期はいくつかのセグメントに分割され、レポートではセグメントごとに統計情報を集計する。
+ */
+public class LoadProfile {
+    private static final long NANOS_PER_SEC = 1000L * 1000 * 1000;
+
+    /**
+     * 倍率が常に1の負荷プロファイル
+     */
+    public static final LoadProfile CONSTANT = new LoadProfile(LoadProfileType.CONSTANT, 1, 1d, 1d, 1, 0);
+
+    private final LoadProfileType type;
+
+    /**
+     * 周期(秒)
+     */
+    private final int periodSecs;
+
+    private final double minRate;
+    private final double maxRate;
+
+    /**
+     * セグメント数
+     */
+    private final int segments;
+
+    /**
+     * SPIKEのときに、周期の最後で倍率を最大にする時間(秒)
+     */
+    private final int spikeSecs;
+
+    /**
+     * 周期内の各秒の倍率
+     */
+    private final double[] rates;
+
+    /**
+     * 周期の先頭から各秒の開始までの倍率の積分値(秒)、要素数はperiodSecs + 1
+     */
+    private final double[] cumulative;
+
+    /**
+     * Configの値から指定の種類の負荷プロファイルを生成する
+     *
+     * @param type 負荷プロファイルの種類
+     * @param config 負荷プロファイルのパラメータを保持するConfig
+     * @return
+     * @throws IllegalArgumentException パラメータが範囲外のとき
+     */
+    public static LoadProfile create(LoadProfileType type, Config config) {
+        if (type == LoadProfileType.CONSTANT) {
+            return CONSTANT;
+        }
+        return new LoadProfile(type, config.onlineAppLoadProfilePeriodSecs, config.onlineAppLoadProfileMinRate,
+                config.onlineAppLoadProfileMaxRate, config.onlineAppLoadProfileSteps,
+                config.onlineAppLoadProfileSpikeSecs);
+    }
+
+    /**
+     * @param type 負荷プロファイルの種類
+     * @param periodSecs 周期(秒)、1以上
+     * @param minRate 倍率の最小値、0以上
+     * @param maxRate 倍率の最大値、minRate以上で0より大きい値
+     * @param segments セグメント数、1以上
+     * @param spikeSecs SPIKEのときに倍率を最大にする時間(秒)、1以上periodSecs以下
+     * @throws IllegalArgumentException パラメータが範囲外のとき
+     */
+    LoadProfile(LoadProfileType type, int periodSecs, double minRate, double maxRate, int segments, int spikeSecs) {
+        if (periodSecs < 1) {
+            throw new IllegalArgumentException("Invalid argument: period should be positive: " + periodSecs);
+        }
+        if (minRate < 0d || maxRate < minRate || maxRate <= 0d) {
+            throw new IllegalArgumentException("Invalid argument: rates should satisfy 0 <= min <= max and max > 0: min = "
+                    + minRate + ", max = " + maxRate);
+        }
+        if (segments < 1) {
+            throw new IllegalArgumentException("Invalid argument: steps should be positive: " + segments);
+        }
+        if (type == LoadProfileType.SPIKE && (spikeSecs < 1 || periodSecs < spikeSecs)) {
+            throw new IllegalArgumentException("Invalid argument: spike should be between 1 and period: " + spikeSecs);
+        }
+        this.type = type;
+        this.periodSecs = periodSecs;
+        this.minRate = minRate;
+        this.maxRate = maxRate;
+        this.segments = type == LoadProfileType.CONSTANT ? 1 : type == LoadProfileType.SPIKE ? 2 : segments;
+        this.spikeSecs = spikeSecs;
+        rates = new double[periodSecs];
+        cumulative = new double[periodSecs + 1];
+        for (int i = 0; i < periodSecs; i++) {
+            rates[i] = getRate(i + 0.5d);
+            cumulative[i + 1] = cumulative[i] + rates[i];
+        }
+        if (cumulative[periodSecs] <= 0d) {
+            throw new IllegalArgumentException("Invalid argument: the load profile has no load in a period.");
+        }
+    }
+
+    /**
+     * 周期の先頭からの時間における倍率を返す
+     *
+     * @param phaseSecs 周期の先頭からの時間(秒)
+     * @return
+     */
+    double getRate(double phaseSecs) {
+        double phase = phaseSecs / periodSecs;
+        switch (type) {
+        case STEP:
+            return segments == 1 ? minRate
+                    : minRate + (maxRate - minRate) * getSegment(phaseSecs) / (segments - 1);
+        case RAMP:
+            return minRate + (maxRate - minRate) * phase;
+        case SINE:
+            return minRate + (maxRate - minRate) * (1d - Math.cos(2d * Math.PI * phase)) / 2d;
+        case SPIKE:
+            return phaseSecs >= periodSecs - spikeSecs ? maxRate : minRate;
+        case CONSTANT:
+        default:
+            return 1d;
+        }
+    }
+
+    /**
+     * 周期の先頭からの時間が属するセグメントを返す
+     *
+     * @param phaseSecs 周期の先頭からの時間(秒)
+     * @return
+     */
+    private int getSegment(double phaseSecs) {
+        if (type == LoadProfileType.SPIKE) {
+            return phaseSecs >= periodSecs - spikeSecs ? 1 : 0;
+        }
+        return Math.min((int) (phaseSecs * segments / periodSecs), segments - 1);
+    }
+
+    /**
+     * 経過時間が属するセグメントを返す
+     *
+     * @param elapsedNanos 開始からの経過時間(ナノ秒)
+     * @return
+     */
+    public int getSegmentAt(long elapsedNanos) {
+        if (this == CONSTANT) {
+            return 0;
+        }
+        long phaseNanos = Math.floorMod(elapsedNanos, periodSecs * NANOS_PER_SEC);
+        return getSegment((double) phaseNanos / NANOS_PER_SEC);
+    }
+
+    /**
+     * 開始から指定の経過時間までに、指定のセグメントに含まれる時間を返す
+     *
+     * @param segment セグメント
+     * @param elapsedMillis 開始からの経過時間(ミリ秒)
+     * @return セグメントに含まれる時間(ミリ秒)
+     */
+    public long getSegmentDurationMillis(int segment, long elapsedMillis) {
+        long periodMillis = periodSecs * 1000L;
+        double[] range = getSegmentRangeMillis(segment);
+        long periods = elapsedMillis / periodMillis;
+        long remainder = elapsedMillis % periodMillis;
+        double duration = periods * (range[1] - range[0]) + Math.max(0d, Math.min(remainder, range[1]) - range[0]);
+        return Math.round(duration);
+    }
+
+    /**
+     * セグメントの平均の倍率を返す
+     *
+     * @param segment
+     * @return
+     */
+    public double getSegmentRate(int segment) {
+        double[] range = getSegmentRangeMillis(segment);
+        double sum = 0;
+        int n = 0;
+        for (int i = 0; i < periodSecs; i++) {
+            double mid = (i + 0.5d) * 1000d;
+            if (range[0] <= mid && mid < range[1]) {
+                sum += rates[i];
+                n++;
+            }
+        }
+        // 1秒未満のセグメントは中央の時刻の倍率を返す
+        return n == 0 ? getRate((range[0] + range[1]) / 2000d) : sum / n;
+    }
+
+    /**
+     * 周期の先頭を基準としたセグメントの範囲を返す
+     *
+     * @param segment
+     * @return セグメントの開始時刻と終了時刻(ミリ秒)
+     */
+    private double[] getSegmentRangeMillis(int segment) {
+        double periodMillis = periodSecs * 1000d;
+        if (type == LoadProfileType.SPIKE) {
+            double spikeStart = (periodSecs - spikeSecs) * 1000d;
+            return segment == 0 ? new double[] { 0d, spikeStart } : new double[] { spikeStart, periodMillis };
+        }
+        return new double[] { periodMillis * segment / segments, periodMillis * (segment + 1) / segments };
+    }
+
+    /**
+     * 経過時間を、倍率を積分した値(倍率が1のときの経過時間に相当する値)に変換する
+     *
+     * @param elapsedNanos 開始からの経過時間(ナノ秒)
+     * @return 倍率を積分した値(ナノ秒)
+     */
+    public double toLoadNanos(double elapsedNanos) {
+        if (this == CONSTANT) {
+            return elapsedNanos;
+        }
+        double elapsedSecs = elapsedNanos / NANOS_PER_SEC;
+        double periods = Math.floor(elapsedSecs / periodSecs);
+        double phase = elapsedSecs - periods * periodSecs;
+        int sec = Math.min((int) phase, periodSecs - 1);
+        double load = periods * cumulative[periodSecs] + cumulative[sec] + (phase - sec) * rates[sec];
+        return load * NANOS_PER_SEC;
+    }
+
+    /**
+     * 倍率を積分した値を経過時間に変換する。{@link #toLoadNanos(double)}の逆関数。
+     *
+     * @param loadNanos 倍率を積分した値(ナノ秒)
+     * @return 開始からの経過時間(ナノ秒)
+     */
+    public double toElapsedNanos(double loadNanos) {
+        if (this == CONSTANT) {
+            return loadNanos;
+        }
+        double load = loadNanos / NANOS_PER_SEC;
+        double periodLoad = cumulative[periodSecs];
+        double periods = Math.floor(load / periodLoad);
+        double remainder = load - periods * periodLoad;
+        // cumulative[sec] <= remainder < cumulative[sec + 1]となるsecを探す、倍率が0の秒は読み飛ばされる
+        int idx = Arrays.binarySearch(cumulative, remainder);
+        int sec = idx >= 0 ? idx : -idx - 2;
+        while (sec < periodSecs - 1 && rates[sec] <= 0d) {
+            sec++;
+        }
+        sec = Math.min(Math.max(sec, 0), periodSecs - 1);
+        double phase = sec + (rates[sec] > 0d ? (remainder - cumulative[sec]) / rates[sec] : 0d);
+        return (periods * periodSecs + phase) * NANOS_PER_SEC;
+    }
+
+    /**
+     * @return 負荷プロファイルの種類
+     */
+    public LoadProfileType getType() {
+        return type;
+    }
+
+    /**
+     * @return セグメント数
+     */
+    public int getSegments() {
+        return segments;
+    }
+}
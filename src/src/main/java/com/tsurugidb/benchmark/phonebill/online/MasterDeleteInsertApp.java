@@ -36,7 +36,8 @@ import com.tsurugidb.benchmark.phonebill.db.entity.Contract.Key;
 public class MasterDeleteInsertApp extends AbstractOnlineApp {
     private static final Logger LOG = LoggerFactory.getLogger(MasterDeleteInsertApp.class);
 
-    private RandomKeySelector<Key> keySelector;
+    private KeySelector<Key> keySelector;
+    private KeyIndexSampler keyIndexSampler;
 
     /**
      * 削除したレコード、次のTXでこのレコードをインサートする
@@ -49,9 +50,11 @@ public class MasterDeleteInsertApp extends AbstractOnlineApp {
     private Contract deletingContact;
 
 
-    public MasterDeleteInsertApp(Config config, Random random, RandomKeySelector<Key> keySelector) throws IOException {
-        super(config.masterDeleteInsertRecordsPerMin, config, random);
+    public MasterDeleteInsertApp(Config config, Random random, KeySelector<Key> keySelector) throws IOException {
+        super(config.masterDeleteInsertRecordsPerMin,
+                LoadProfile.create(config.masterDeleteInsertLoadProfile, config), config, random);
         this.keySelector = keySelector;
+        this.keyIndexSampler = KeyIndexSampler.create(config.masterDeleteInsertKeyDistribution, config);
     }
 
     @Override
@@ -76,7 +79,7 @@ public class MasterDeleteInsertApp extends AbstractOnlineApp {
     }
 
     private void delete(ContractDao contractDao, HistoryDao historyDao) {
-        Key key = keySelector.getAndRemove();
+        Key key = keySelector.getAndRemove(keyIndexSampler);
         deletingContact = contractDao.getContract(key);
         int ret = contractDao.delete(key);
         LOG.debug("ONLINE_APP: Delete {} record from  contracts(phoneNumber = {}, startDate = {}).", ret,
@@ -45,7 +45,8 @@ public class MasterUpdateApp extends AbstractOnlineApp {
     private Config config;
     private Random random;
     private Updater[] updaters = {new Updater1(), new Updater2()};
-    private RandomKeySelector<Contract.Key> keySelector;
+    private KeySelector<Contract.Key> keySelector;
+    private KeyIndexSampler keyIndexSampler;
 
 
     /**
@@ -56,11 +57,13 @@ public class MasterUpdateApp extends AbstractOnlineApp {
      * @param seed
      * @throws IOException
      */
-    public MasterUpdateApp(Config config, Random random, RandomKeySelector<Contract.Key> keySelector) throws IOException {
-        super(config.masterUpdateRecordsPerMin, config, random);
+    public MasterUpdateApp(Config config, Random random, KeySelector<Contract.Key> keySelector) throws IOException {
+        super(config.masterUpdateRecordsPerMin,
+                LoadProfile.create(config.masterUpdateLoadProfile, config), config, random);
         this.config = config;
         this.random = random;
         this.keySelector = keySelector;
+        this.keyIndexSampler = KeyIndexSampler.create(config.masterUpdateKeyDistribution, config);
     }
 
 
@@ -126,7 +129,7 @@ public class MasterUpdateApp extends AbstractOnlineApp {
     protected void updateDatabase(ContractDao contractDao, HistoryDao historyDao) {
 
         // 更新対象の電話番号を取得
-        Key key = keySelector.get();
+        Key key = keySelector.get(keyIndexSampler);
 
         if (skipDatabaseAccess) {
             return;
@@ -35,12 +35,13 @@ import org.slf4j.LoggerFactory;
  * テーブル全体の中から指定した割合のデータを選択対象にします。テーブルの全レコードのうち、カバー率の割合のレコードのみをRandomKeySelectorで管理することにより実現します。</li>
  * <li>at least once:
  * 一定回数以上のランダムな選択を行った場合に、選択対象のレコードが少なくとも1回は選択されることを保証します。</li>
- * <li>分布関数の指定: 一様分布以外にも任意の分布関数を指定して、レコードの選択確率を調整します。現在未実装。</li>
+ * <li>分布関数の指定: 一様分布以外にもKeyIndexSamplerで分布を指定して、レコードの選択確率を調整します。
+ * 分布はat least onceのロジックを用いない選択に適用され、キーのリスト中の位置に対して選択確率が決まります。</li>
  * </ul>
  * Tには対象テーブルのPKまたはUniqKeyを表すEntityClassを指定してください。当該EntityClassは、適切なequals()とhashCode()を実装している必要があります。
  *
  */
-public class RandomKeySelector<T> {
+public class RandomKeySelector<T> implements KeySelector<T> {
     private static final Logger LOG = LoggerFactory.getLogger(RandomKeySelector.class);
 
 
@@ -85,6 +86,7 @@ public class RandomKeySelector<T> {
      * @param key
      * @return 指定されたKeyを保持していた場合はtrue
      */
+    @Override
     public synchronized boolean remove(@Nonnull T key) {
         KeyPositions kp = keyPositionMap.get(key);
         if (kp == null) {
@@ -211,6 +213,7 @@ public class RandomKeySelector<T> {
      * <p>
      * inserrtしたレコードのキーを追加するために使用する
      */
+    @Override
     public synchronized void add(@Nonnull T key) {
         keyList.add(key);
         keyPositionMap.put(key, new KeyPositions(keyList.size() -1 , -1));
@@ -222,18 +225,27 @@ public class RandomKeySelector<T> {
      * <p>
      * select/updateの対象選択時に使用する
      *
+     * @param sampler キーを選択する分布
      * @return 選択したキー、RandomKeySelectorが管理しているキーのリストが空の場合null
      */
-    public synchronized T get() {
+    @Override
+    public synchronized T get(KeyIndexSampler sampler) {
+        if (keyList.isEmpty()) {
+            return null;
+        }
         T key;
         if (random.nextDouble() < aloSelectRate) {
-            key = getAndRemoveLast(aloKeyList);
             if (aloKeyList.isEmpty()) {
+                // remove()によりaloKeyListが空になった場合
                 initAloKeyList();
             }
+            key = getAndRemoveLast(aloKeyList);
             keyPositionMap.get(key).aloKeyPostion = -1;
+            if (aloKeyList.isEmpty()) {
+                initAloKeyList();
+            }
         } else {
-            int idx = random.nextInt(keyList.size());
+            int idx = sampler.nextIndex(random, keyList.size());
             key = keyList.get(idx);
         }
         return key;
@@ -244,14 +256,23 @@ public class RandomKeySelector<T> {
      * <p>
      * deleteの対象選択時に使用する
      *
+     * @param sampler キーを選択する分布
      * @return 選択したキー、RandomKeySelectorが管理しているキーのリストが空の場合null
      */
-    public synchronized T getAndRemove() {
-        T key = get();
-        remove(key);
+    @Override
+    public synchronized T getAndRemove(KeyIndexSampler sampler) {
+        T key = get(sampler);
+        if (key != null) {
+            remove(key);
+        }
         return key;
     }
 
+    @Override
+    public synchronized int size() {
+        return keyList.size();
+    }
+
     /**
      * リストのKeyの位置を表すクラス
      */
@@ -117,13 +117,13 @@ public class RunOnlineApp extends ExecutableCommand {
         List<AbstractOnlineApp> historyUpdateApps = new ArrayList<>();
 
         // KeySelectorの初期化
-        RandomKeySelector<Contract.Key> keySelector;
+        KeySelector<Contract.Key> keySelector;
         try (PhoneBillDbManager manager = PhoneBillDbManager.createPhoneBillDbManager(config)) {
             List<Key> keys = manager.execute(TxOption.of(), () -> {
                 return manager.getContractDao().getAllPrimaryKeys();
             });
-            keySelector = new RandomKeySelector<>(keys, random, config.onlineAppRandomAtLeastOnceRate,
-                    config.onlineAppRandomCoverRate);        }
+            keySelector = KeySelector.createForContracts(keys, random, config);
+        }
 
         // MasterDeleteInsertAppの初期化
         for (int i = 0; i < config.masterDeleteInsertThreadCount; i++) {
@@ -139,14 +139,18 @@ public class RunOnlineApp extends ExecutableCommand {
             masterUpdateApps.add(task);
         }
 
+        // 履歴追加アプリと履歴更新アプリで通話履歴の主キーのキャッシュを共有する
+        HistoryKeyCache historyKeyCache = HistoryKeyCache.create(config);
+
         // historyInsertAppの初期化
         historyInsertApps
                 .addAll(HistoryInsertApp.createHistoryInsertApps(config, new Random(random.nextInt()), accessor,
-                        config.historyInsertThreadCount));
+                        config.historyInsertThreadCount, historyKeyCache));
 
         // HistoryUpdateAppの初期化
         for (int i = 0; i < config.historyUpdateThreadCount; i++) {
-            AbstractOnlineApp task = new HistoryUpdateApp(config, new Random(random.nextInt()), keySelector);
+            AbstractOnlineApp task = new HistoryUpdateApp(config, new Random(random.nextInt()), keySelector,
+                    historyKeyCache);
             task.setName(i);
             historyUpdateApps.add(task);
         }
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.online;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * キーを複数のシャードに分割して管理するKeySelector.
+ * <p>
+ * キーはハッシュ値によりいずれかのシャードに振り分ける。各シャードは独自のロックと乱数生成器を持つ
+ * KeySelector(デフォルトはRandomKeySelector)で、at least once用のリストもシャードごとに持つ。
+ * キーの追加と削除は、キーのハッシュ値から求めたシャードのみをロックして行う。
+ * <p>
+ * キーの選択は、呼び出したスレッドごとに異なるシャードから開始し、呼び出すたびに次のシャードを使用する。
+ * 各スレッドは全てのシャードを順番に使用するので、カバー率とat least onceの保証はシャードごとに成り立ち、
+ * 全体としても成り立つ。ただし、キーの選択確率はシャードのキー数の偏りの分だけ一様分布からずれる。
+ * また、キーを選択する分布はシャードごとに適用されるため、Zipf分布などで選択が集中するキーはシャード数倍になる。
+ *
+ * @param <T> 対象テーブルのPKまたはUniqKeyを表すEntityClass。適切なequals()とhashCode()を実装している必要がある。
+ */
+public class ShardedRandomKeySelector<T> implements KeySelector<T> {
+    private static final Logger LOG = LoggerFactory.getLogger(ShardedRandomKeySelector.class);
+
+    /**
+     * シャード
+     */
+    private final List<KeySelector<T>> shards;
+
+    /**
+     * 次に生成するカーソルの開始位置
+     */
+    private final AtomicInteger nextStartShard = new AtomicInteger(0);
+
+    /**
+     * スレッドごとの、次にキーを選択するシャードの位置
+     */
+    private final ThreadLocal<int[]> cursor;
+
+    /**
+     * @param keys ShardedRandomKeySelectorに管理させるKeyのコレクション
+     * @param random 各シャードが使用する乱数生成器の種の生成に使用する乱数生成器
+     * @param aloSelectRate get(), getAndRemove()を用いてキーを選択する際にatLeastOnceのリストからキーを選択する割合。0d〜1dの範囲で指定する。
+     * @param coverRate カーバ率。keysのうちcoverRateで指定した割合の要素を管理する。0d〜1dの範囲で指定する。
+     * @param numberOfShards シャード数
+     *
+     * @throws IllegalArgumentException keysがnullを含む場合, aloSelectRate, coverRateに0d〜1dの範囲外の値が指定されたとき、
+     *                                  シャード数が1未満のとき
+     */
+    public ShardedRandomKeySelector(@Nonnull Collection<T> keys, @Nonnull Random random, double aloSelectRate,
+            double coverRate, int numberOfShards) throws IllegalArgumentException {
+        this(keys, random, aloSelectRate, coverRate, numberOfShards,
+                (list, r) -> new RandomKeySelector<>(list, r, aloSelectRate));
+    }
+
+    /**
+     * 各シャードの生成方法を指定するコンストラクタ
+     *
+     * @param keys ShardedRandomKeySelectorに管理させるKeyのコレクション
+     * @param random 各シャードが使用する乱数生成器の種の生成に使用する乱数生成器
+     * @param aloSelectRate get(), getAndRemove()を用いてキーを選択する際にatLeastOnceのリストからキーを選択する割合。0d〜1dの範囲で指定する。
+     * @param coverRate カーバ率。keysのうちcoverRateで指定した割合の要素を管理する。0d〜1dの範囲で指定する。
+     * @param numberOfShards シャード数
+     * @param shardFactory シャードに振り分けたキーのリストと、シャードが使用する乱数生成器からシャードを生成する関数
+     */
+    ShardedRandomKeySelector(@Nonnull Collection<T> keys, @Nonnull Random random, double aloSelectRate,
+            double coverRate, int numberOfShards, BiFunction<List<T>, Random, KeySelector<T>> shardFactory)
+            throws IllegalArgumentException {
+        if (aloSelectRate < 0d || 1d < aloSelectRate) {
+            throw new IllegalArgumentException(RandomKeySelector.ERROR_RANGE);
+        }
+        if (coverRate < 0d || 1d < coverRate) {
+            throw new IllegalArgumentException(RandomKeySelector.ERROR_RANGE);
+        }
+        if (numberOfShards < 1) {
+            throw new IllegalArgumentException("Invalid argument: numberOfShards should be positive: " + numberOfShards);
+        }
+        int myKeyListSize = (int) (keys.size() * coverRate);
+        List<List<T>> lists = new ArrayList<>(numberOfShards);
+        for (int i = 0; i < numberOfShards; i++) {
+            lists.add(new ArrayList<>(myKeyListSize / numberOfShards + 1));
+        }
+        int c = 0;
+        for (T key : keys) {
+            if (++c > myKeyListSize) {
+                break;
+            }
+            if (key == null) {
+                throw new IllegalArgumentException(RandomKeySelector.ERROR_NULL_ELEMENTS);
+            }
+            lists.get(shardOf(key, numberOfShards)).add(key);
+        }
+        List<KeySelector<T>> list = new ArrayList<>(numberOfShards);
+        for (int i = 0; i < numberOfShards; i++) {
+            list.add(shardFactory.apply(lists.get(i), new Random(random.nextLong())));
+        }
+        shards = Collections.unmodifiableList(list);
+        cursor = ThreadLocal.withInitial(() -> new int[] {nextStartShard.getAndIncrement() % numberOfShards});
+        LOG.info("Inialized with {} keys and {} shards.", keys.size(), numberOfShards);
+    }
+
+    /**
+     * キーを管理するシャードの位置を返す
+     *
+     * @param key
+     * @param numberOfShards
+     * @return
+     */
+    static int shardOf(Object key, int numberOfShards) {
+        int h = key.hashCode();
+        return Math.floorMod(h ^ (h >>> 16), numberOfShards);
+    }
+
+    /**
+     * キーを管理するシャードを返す
+     *
+     * @param key
+     * @return
+     */
+    private KeySelector<T> getShard(T key) {
+        return shards.get(shardOf(key, shards.size()));
+    }
+
+    /**
+     * キーを選択するシャードを返し、呼び出したスレッドのカーソルを次のシャードに進める
+     *
+     * @return
+     */
+    private KeySelector<T> nextShard() {
+        int[] c = cursor.get();
+        KeySelector<T> shard = shards.get(c[0]);
+        c[0] = c[0] + 1 == shards.size() ? 0 : c[0] + 1;
+        return shard;
+    }
+
+    @Override
+    public T get(KeyIndexSampler sampler) {
+        // 空のシャードは読み飛ばす
+        for (int i = 0; i < shards.size(); i++) {
+            T key = nextShard().get(sampler);
+            if (key != null) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public T getAndRemove(KeyIndexSampler sampler) {
+        for (int i = 0; i < shards.size(); i++) {
+            T key = nextShard().getAndRemove(sampler);
+            if (key != null) {
+                return key;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void add(@Nonnull T key) {
+        getShard(key).add(key);
+    }
+
+    @Override
+    public boolean remove(@Nonnull T key) {
+        return getShard(key).remove(key);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (KeySelector<T> shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return シャード
+     */
+    List<KeySelector<T>> getShards() {
+        return shards;
+    }
+}
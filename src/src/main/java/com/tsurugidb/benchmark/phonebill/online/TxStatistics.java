@@ -15,22 +15,49 @@
  */
 package com.tsurugidb.benchmark.phonebill.online;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import com.tsurugidb.benchmark.phonebill.db.TxLabel;
 
 /**
- * トランザクションに関する統計情報を管理するクラス
+ * トランザクションに関する統計情報を管理するクラス.
+ * <p>
+ * 遅延はTxLabelごとに、記録するスレッドごとのヒストグラムに記録し、統計情報を参照するときにマージする。
+ * ヒストグラムへの書き込みでスレッド間の競合は発生しない。
  */
 public class TxStatistics {
+    /**
+     * レポートに出力するパーセンタイル
+     */
+    private static final double[] PERCENTILES = {50d, 99d, 99.9d};
+
+    private static final String REPORT_HEADER = "| title | tx option | dedicated time[ms] | numbers of txs | latency<br>avg[ms] | latency<br>min[ms] | latency<br>max[ms] | latency<br>p50[ms] | latency<br>p99[ms] | latency<br>p99.9[ms] | committed tx through put[task/s] |";
+    private static final String REPORT_SEPARATOR = "|-------|-----------|-------------------:|---------------:|-------------------:|-------------------:|-------------------:|-------------------:|-------------------:|---------------------:|---------------------------------:|";
+
     /**
      * TxLabelと統計情報を紐付けるmap
      */
     static Map<TxLabel, TxStatistics> map = new ConcurrentHashMap<TxLabel, TxStatistics>();
 
+    /**
+     * TxLabelと、スケジュールした時刻から計測した遅延の統計情報を紐付けるmap
+     */
+    static Map<TxLabel, TxStatistics> intendedMap = new ConcurrentHashMap<TxLabel, TxStatistics>();
+
+
+    /**
+     * TxLabelと、負荷プロファイルのセグメントごとの統計情報を紐付けるmap
+     */
+    static Map<TxLabel, LoadProfileStatistics> loadProfileMap = new ConcurrentHashMap<TxLabel, LoadProfileStatistics>();
 
     /**
      * TxStatisticsBundleに名前をつけて保存するためのMap
@@ -38,6 +65,32 @@ public class TxStatistics {
     static Map<String, TxStatisticsBundle> bundleMap = new HashMap<>();
 
 
+    /**
+     * 一定間隔で統計情報のスナップショットを取得するスレッド
+     */
+    private static ScheduledExecutorService snapshotService = null;
+
+    /**
+     * スナップショットの取得を開始した時刻(System.nanoTime()の値)
+     */
+    private static long snapshotStartNanos;
+
+    /**
+     * 直前にスナップショットを取得した時刻(System.nanoTime()の値)
+     */
+    private static long lastSnapshotNanos;
+
+    /**
+     * TxLabelと直前のスナップショット取得時のヒストグラムを紐付けるmap
+     */
+    private static Map<TxLabel, LatencyHistogram> lastHistograms = new HashMap<>();
+
+    /**
+     * 取得したスナップショット、TxStatistics.classのロックを取って操作する
+     */
+    static List<IntervalSnapshot> snapshots = new ArrayList<>();
+
+
     /**
      * 実行時間(単位:ミリ秒)
      */
@@ -48,6 +101,9 @@ public class TxStatistics {
         map.values().forEach(v -> {
             v.thisDedicatedTimeMills = dedicatedTimeMills;
         });
+        intendedMap.values().forEach(v -> {
+            v.thisDedicatedTimeMills = dedicatedTimeMills;
+        });
     }
 
     /**
@@ -61,11 +117,109 @@ public class TxStatistics {
         statistics.addLatency(latencyNanos);
     }
 
+    /**
+     * 指定のラベルのTXの、スケジュールした時刻から計測した遅延を登録する。オープンループで実行する
+     * オンラインアプリが使用し、スケジュールした時刻からTXの開始までの待ち時間を遅延に含める。
+     *
+     * @param label TXを表すラベル
+     * @param latencyNanos 遅延(単位はナノ秒)
+     */
+    public static void addIntendedLatencyForTxLabel(TxLabel label, long latencyNanos) {
+        TxStatistics statistics = intendedMap.computeIfAbsent(label, k -> new TxStatistics(label));
+        statistics.addLatency(latencyNanos);
+    }
+
+    /**
+     * 指定のラベルのTXの遅延を、TXを投入した時刻が属する負荷プロファイルのセグメントごとに登録する
+     *
+     * @param label TXを表すラベル
+     * @param loadProfile TXを投入したオンラインアプリの負荷プロファイル
+     * @param segment TXを投入した時刻が属するセグメント
+     * @param latencyNanos 遅延(単位はナノ秒)
+     */
+    public static void addLatencyForLoadProfileSegment(TxLabel label, LoadProfile loadProfile, int segment,
+            long latencyNanos) {
+        LoadProfileStatistics statistics = loadProfileMap.computeIfAbsent(label,
+                k -> new LoadProfileStatistics(label, loadProfile));
+        statistics.segments[segment].addLatency(latencyNanos);
+    }
+
     /**
      * 統計情報をクリアする
      */
-    public static void clear() {
+    public static synchronized void clear() {
         map.clear();
+        intendedMap.clear();
+        loadProfileMap.clear();
+        lastHistograms.clear();
+        snapshots.clear();
+    }
+
+    /**
+     * 一定間隔での統計情報のスナップショットの取得を開始する。取得済みのスナップショットは破棄する。
+     *
+     * @param intervalMillis スナップショットを取得する間隔(ミリ秒)
+     */
+    public static synchronized void startIntervalSnapshot(long intervalMillis) {
+        stopIntervalSnapshot();
+        lastHistograms.clear();
+        snapshots.clear();
+        snapshotStartNanos = System.nanoTime();
+        lastSnapshotNanos = snapshotStartNanos;
+        for (TxStatistics statistics : map.values()) {
+            lastHistograms.put(statistics.label, statistics.getHistogram());
+        }
+        snapshotService = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "tx-statistics-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotService.scheduleAtFixedRate(TxStatistics::takeIntervalSnapshot, intervalMillis, intervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 統計情報のスナップショットの取得を終了する。最後に、直前の取得以降の統計情報のスナップショットを取得する。
+     * スナップショットの取得を開始していない場合は何もしない。
+     */
+    public static synchronized void stopIntervalSnapshot() {
+        if (snapshotService == null) {
+            return;
+        }
+        snapshotService.shutdownNow();
+        snapshotService = null;
+        takeIntervalSnapshot();
+    }
+
+    /**
+     * 直前の取得以降の統計情報のスナップショットを取得する
+     */
+    static synchronized void takeIntervalSnapshot() {
+        long now = System.nanoTime();
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(now - snapshotStartNanos);
+        long intervalMillis = TimeUnit.NANOSECONDS.toMillis(now - lastSnapshotNanos);
+        lastSnapshotNanos = now;
+        map.keySet().stream().sorted().forEach(key -> {
+            LatencyHistogram histogram = map.get(key).getHistogram();
+            LatencyHistogram interval = histogram.subtract(lastHistograms.get(key));
+            lastHistograms.put(key, histogram);
+            snapshots.add(new IntervalSnapshot(elapsedMillis, intervalMillis, key, interval));
+        });
+    }
+
+    /**
+     * 取得したスナップショットを時系列のCSVとして返す。
+     *
+     * @param title
+     * @return
+     */
+    public static synchronized String getTimeSeriesCsvReport(String title) {
+        StringBuilder sb = new StringBuilder();
+        for (IntervalSnapshot snapshot : snapshots) {
+            sb.append(snapshot.toCsvString(title));
+            sb.append("\n");
+        }
+        return sb.toString();
     }
 
     /**
@@ -106,9 +260,9 @@ public class TxStatistics {
      */
     public static String getReport(TxStatisticsBundle baseline) {
         StringBuilder sb = new StringBuilder();
-        sb.append("| title | tx option | dedicated time[ms] | numbers of txs | latency<br>avg[ms] | latency<br>min[ms] | latency<br>max[ms] | committed tx through put[task/s] |");
+        sb.append(REPORT_HEADER);
         sb.append("\n");
-        sb.append("|-------|-----------|-------------------:|---------------:|-------------------:|-------------------:|-------------------:|---------------------------------:|");
+        sb.append(REPORT_SEPARATOR);
         sb.append("\n");
         // 各TxLabelごとの統計情報
         map.keySet().stream().sorted().forEach(key -> {
@@ -120,6 +274,114 @@ public class TxStatistics {
         return sb.toString();
     }
 
+    /**
+     * スケジュールした時刻から計測した遅延のレポートを作成する。該当する統計情報が存在しない場合は空文字列を返す。
+     *
+     * @return
+     */
+    public static String getIntendedLatencyReport() {
+        if (intendedMap.isEmpty()) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("Latency from intended start");
+        sb.append("\n\n");
+        sb.append(REPORT_HEADER);
+        sb.append("\n");
+        sb.append(REPORT_SEPARATOR);
+        sb.append("\n");
+        intendedMap.keySet().stream().sorted().forEach(key -> {
+            sb.append(intendedMap.get(key).toString(null));
+            sb.append("\n");
+        });
+        return sb.toString();
+    }
+
+    /**
+     * 負荷プロファイルのセグメントごとのレポートを作成する。負荷プロファイルを使用したTXが存在しない場合は空文字列を返す。
+     * <p>
+     * 各セグメントの実行時間は、全オンラインアプリが同時に開始したとみなし、実行時間のうちそのセグメントに含まれる時間とする。
+     *
+     * @return
+     */
+    public static String getLoadProfileReport() {
+        if (loadProfileMap.isEmpty()) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("Latency by load profile segment");
+        sb.append("\n\n");
+        sb.append("| title | load profile | segment | rate | dedicated time[ms] | numbers of txs | latency<br>avg[ms] | latency<br>p50[ms] | latency<br>p99[ms] | committed tx through put[task/s] |");
+        sb.append("\n");
+        sb.append("|-------|--------------|--------:|-----:|-------------------:|---------------:|-------------------:|-------------------:|-------------------:|---------------------------------:|");
+        sb.append("\n");
+        loadProfileMap.keySet().stream().sorted().forEach(key -> {
+            LoadProfileStatistics statistics = loadProfileMap.get(key);
+            LoadProfile profile = statistics.loadProfile;
+            for (int i = 0; i < statistics.segments.length; i++) {
+                LatencyHistogram h = statistics.segments[i].getHistogram();
+                long segmentMillis = profile.getSegmentDurationMillis(i, dedicatedTimeMills);
+                double throughput = segmentMillis == 0 ? 0d : 1000d * h.getCount() / segmentMillis;
+                sb.append(String.format("|%s|%s|%d|%.2f|%,d|%,d|%,.3f|%,.3f|%,.3f|%,.3f|", key, profile.getType(), i,
+                        profile.getSegmentRate(i), segmentMillis, h.getCount(), getAverageLatency(h),
+                        toMillis(h.getValueAtPercentile(50d)), toMillis(h.getValueAtPercentile(99d)), throughput));
+                sb.append("\n");
+            }
+        });
+        return sb.toString();
+    }
+
+    /**
+     * 統計情報をPrometheusのテキスト形式で返す。
+     * <p>
+     * 遅延はTxLabelごとのsummaryとして、スループットは直近に取得したスナップショットの値をgaugeとして出力する。
+     *
+     * @return
+     */
+    public static String getPrometheusReport() {
+        StringBuilder sb = new StringBuilder();
+        appendPrometheusSummary(sb, "phonebill_online_tx_latency_seconds", "Latency of online transactions.", map);
+        appendPrometheusSummary(sb, "phonebill_online_tx_intended_latency_seconds",
+                "Latency of online transactions measured from the intended start time.", intendedMap);
+        Map<TxLabel, IntervalSnapshot> latest = new TreeMap<>();
+        synchronized (TxStatistics.class) {
+            for (IntervalSnapshot snapshot : snapshots) {
+                latest.put(snapshot.label, snapshot);
+            }
+        }
+        if (!latest.isEmpty()) {
+            String name = "phonebill_online_tx_throughput";
+            sb.append("# HELP " + name + " Committed online transactions per second in the latest interval.\n");
+            sb.append("# TYPE " + name + " gauge\n");
+            for (IntervalSnapshot snapshot : latest.values()) {
+                sb.append(name + "{label=\"" + snapshot.label + "\"} " + snapshot.throughput + "\n");
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendPrometheusSummary(StringBuilder sb, String name, String help,
+            Map<TxLabel, TxStatistics> m) {
+        if (m.isEmpty()) {
+            return;
+        }
+        sb.append("# HELP " + name + " " + help + "\n");
+        sb.append("# TYPE " + name + " summary\n");
+        m.keySet().stream().sorted().forEach(key -> {
+            LatencyHistogram h = m.get(key).getHistogram();
+            for (double percentile : PERCENTILES) {
+                sb.append(name + "{label=\"" + key + "\",quantile=\"" + percentile / 100d + "\"} "
+                        + toSeconds(h.getValueAtPercentile(percentile)) + "\n");
+            }
+            sb.append(name + "_sum{label=\"" + key + "\"} " + toSeconds(h.getTotal()) + "\n");
+            sb.append(name + "_count{label=\"" + key + "\"} " + h.getCount() + "\n");
+        });
+    }
+
+    private static double toSeconds(long nanos) {
+        return nanos / 1000d / 1000d / 1000d;
+    }
+
     /**
      * Retrieves a CSV report containing transaction statistics.
      * 
@@ -146,29 +408,62 @@ public class TxStatistics {
         return getReport(null);
     }
 
-
-
     /**
-     * TXのラベル
+     * 指定のラベルのTXの数の合計を返す。
+     *
+     * @param intended trueの場合、スケジュールした時刻から計測した統計情報を使用する
+     * @param labels TXを表すラベル
+     * @return
      */
-    private TxLabel label;
+    public static long getCount(boolean intended, TxLabel... labels) {
+        return getMergedHistogram(intended, labels).getCount();
+    }
 
     /**
-     * 成功したTX数
+     * 指定のラベルのTXをまとめた、指定のパーセンタイルの遅延(単位:ミリ秒)を返す。該当するTXが存在しない場合は0を返す。
+     *
+     * @param percentile パーセンタイル(0～100)
+     * @param intended trueの場合、スケジュールした時刻から計測した統計情報を使用する
+     * @param labels TXを表すラベル
+     * @return
      */
-    private AtomicLong count;
+    public static double getLatencyAtPercentile(double percentile, boolean intended, TxLabel... labels) {
+        return toMillis(getMergedHistogram(intended, labels).getValueAtPercentile(percentile));
+    }
+
+    private static LatencyHistogram getMergedHistogram(boolean intended, TxLabel... labels) {
+        Map<TxLabel, TxStatistics> m = intended ? intendedMap : map;
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (TxLabel label : labels) {
+            TxStatistics statistics = m.get(label);
+            if (statistics != null) {
+                histogram.add(statistics.getHistogram());
+            }
+        }
+        return histogram;
+    }
+
+
+
     /**
-     * 遅延の最大値(単位はナノ秒)
+     * TXのラベル
      */
-    private AtomicLong maxLatency;
+    private TxLabel label;
+
     /**
-     * 遅延の最小値(単位はナノ秒)
+     * 遅延(単位はナノ秒)を記録するスレッドごとのヒストグラム
      */
-    private AtomicLong minLatency;
+    private final List<LatencyHistogram> recorders = new CopyOnWriteArrayList<>();
+
     /**
-     * 遅延の合計値
+     * 呼び出したスレッドが遅延を記録するヒストグラム
      */
-    private AtomicLong totalLatency;
+    private final ThreadLocal<LatencyHistogram> recorder = ThreadLocal.withInitial(() -> {
+        LatencyHistogram histogram = new LatencyHistogram();
+        recorders.add(histogram);
+        return histogram;
+    });
+
     /**
      * 実行時間
      * @param label
@@ -177,61 +472,75 @@ public class TxStatistics {
 
     TxStatistics(TxLabel label) {
         this.label = label;
-        count = new AtomicLong(0);
-        maxLatency = new AtomicLong(Long.MIN_VALUE);
-        minLatency = new AtomicLong(Long.MAX_VALUE);
-        totalLatency = new AtomicLong(0);
+    }
+
+    /**
+     * 全スレッドのヒストグラムをマージしたヒストグラムを返す
+     *
+     * @return
+     */
+    LatencyHistogram getHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (LatencyHistogram h : recorders) {
+            // 記録するスレッド以外との同期は統計情報の参照時のみなので、競合はほとんど発生しない
+            synchronized (h) {
+                histogram.add(h);
+            }
+        }
+        return histogram;
     }
 
     long getCount() {
-        return count.get();
+        return getHistogram().getCount();
     }
 
     double getMaxLatency() {
-        return maxLatency.get() / 1000d / 1000d;
+        return toMillis(getHistogram().getMax());
     }
 
     double getMinLatency() {
-        return minLatency.get() / 1000d / 1000d;
+        return toMillis(getHistogram().getMin());
     }
 
     double getThroughput() {
-        return 1000d * getCount() / thisDedicatedTimeMills;
+        return getThroughput(getHistogram());
     }
 
     double getAverageLatency() {
-        long totalCount = count.get();
+        return getAverageLatency(getHistogram());
+    }
+
+    /**
+     * 指定のパーセンタイルの遅延を返す
+     *
+     * @param percentile パーセンタイル(0～100)
+     * @return
+     */
+    double getLatencyAtPercentile(double percentile) {
+        return toMillis(getHistogram().getValueAtPercentile(percentile));
+    }
+
+    private double getThroughput(LatencyHistogram histogram) {
+        return 1000d * histogram.getCount() / thisDedicatedTimeMills;
+    }
+
+    private static double getAverageLatency(LatencyHistogram histogram) {
+        long totalCount = histogram.getCount();
         if (totalCount > 0) {
-            return (double) totalLatency.get() / totalCount / 1000d / 1000d ;
+            return (double) histogram.getTotal() / totalCount / 1000d / 1000d ;
         } else {
             return 0;
         }
     }
 
-    void addLatency(long latency) {
-        count.incrementAndGet();
-        totalLatency.addAndGet(latency);
-        updateMaxLatency(latency);
-        updateMinLatency(latency);
+    private static double toMillis(long nanos) {
+        return nanos / 1000d / 1000d;
     }
 
-    private void updateMaxLatency(long latency) {
-        long currentMax = maxLatency.get();
-        while (latency > currentMax) {
-            if (maxLatency.compareAndSet(currentMax, latency)) {
-                break;
-            }
-            currentMax = maxLatency.get();
-        }
-    }
-
-    private void updateMinLatency(long latency) {
-        long currentMin = minLatency.get();
-        while (latency < currentMin) {
-            if (minLatency.compareAndSet(currentMin, latency)) {
-                break;
-            }
-            currentMin = minLatency.get();
+    void addLatency(long latency) {
+        LatencyHistogram histogram = recorder.get();
+        synchronized (histogram) {
+            histogram.record(latency);
         }
     }
 
@@ -242,6 +551,8 @@ public class TxStatistics {
      * @return
      */
     public String toString(TxStatistics baselineStatistics) {
+        LatencyHistogram h = getHistogram();
+        LatencyHistogram b = baselineStatistics != null ? baselineStatistics.getHistogram() : null;
         var sb = new StringBuilder(64);
         sb.append("|");
         sb.append(label);
@@ -255,17 +566,22 @@ public class TxStatistics {
 
         {
             // numbers of txs
-            sb.append(String.format("%,d", getCount()));
+            sb.append(String.format("%,d", h.getCount()));
             sb.append("|");
 
             // latency
-            sb.append(formatWithBaseline(getAverageLatency(), baselineStatistics != null ? baselineStatistics.getAverageLatency() : -1d));
+            sb.append(formatWithBaseline(getAverageLatency(h), b != null ? getAverageLatency(b) : -1d));
             sb.append("|");
-            sb.append(formatWithBaseline(getMinLatency(), baselineStatistics != null ? baselineStatistics.getMinLatency() : -1d));
+            sb.append(formatWithBaseline(toMillis(h.getMin()), b != null ? toMillis(b.getMin()) : -1d));
             sb.append("|");
-            sb.append(formatWithBaseline(getMaxLatency(), baselineStatistics != null ? baselineStatistics.getMaxLatency() : -1d));
+            sb.append(formatWithBaseline(toMillis(h.getMax()), b != null ? toMillis(b.getMax()) : -1d));
             sb.append("|");
-            sb.append(formatWithBaseline(getThroughput(), baselineStatistics != null ? baselineStatistics.getThroughput() : -1d));
+            for (double percentile : PERCENTILES) {
+                sb.append(formatWithBaseline(toMillis(h.getValueAtPercentile(percentile)),
+                        b != null ? toMillis(b.getValueAtPercentile(percentile)) : -1d));
+                sb.append("|");
+            }
+            sb.append(formatWithBaseline(getThroughput(h), b != null ? baselineStatistics.getThroughput(b) : -1d));
             sb.append("|");
         }
 
@@ -279,6 +595,7 @@ public class TxStatistics {
      * @return The CSV string representation of the object.
      */
     public String toCsvString(String title) {
+        LatencyHistogram h = getHistogram();
         var sb = new StringBuilder(64);
         sb.append(title);
         sb.append(",");
@@ -292,17 +609,21 @@ public class TxStatistics {
         sb.append(",");
 
         // numbers of txs
-        sb.append(String.format("%d", getCount()));
+        sb.append(String.format("%d", h.getCount()));
         sb.append(",");
 
         // latency
-        sb.append(String.format("%.3f", getAverageLatency()));
+        sb.append(String.format("%.3f", getAverageLatency(h)));
         sb.append(",");
-        sb.append(String.format("%.3f", (getMinLatency())));
+        sb.append(String.format("%.3f", (toMillis(h.getMin()))));
         sb.append(",");
-        sb.append(String.format("%.3f", (getMaxLatency())));
+        sb.append(String.format("%.3f", (toMillis(h.getMax()))));
         sb.append(",");
-        sb.append(String.format("%.3f", (getThroughput())));
+        for (double percentile : PERCENTILES) {
+            sb.append(String.format("%.3f", toMillis(h.getValueAtPercentile(percentile))));
+            sb.append(",");
+        }
+        sb.append(String.format("%.3f", (getThroughput(h))));
 
         return sb.toString();
     }
@@ -319,6 +640,62 @@ public class TxStatistics {
         return sb.toString();
     }
 
+    /**
+     * 一定間隔で取得した統計情報のスナップショット. 長時間の実行でもメモリを使いすぎないように、
+     * ヒストグラムは保持せずに出力する値のみを保持する。
+     */
+    static class IntervalSnapshot {
+        final long elapsedMillis;
+        final long intervalMillis;
+        final TxLabel label;
+
+        /**
+         * TXの数
+         */
+        final long count;
+
+        /**
+         * スループット(TPS)
+         */
+        final double throughput;
+
+        /**
+         * 遅延の平均値、PERCENTILESの各パーセンタイル値、最大値(単位はミリ秒)
+         */
+        final double average;
+        final double[] percentiles;
+        final double max;
+
+        IntervalSnapshot(long elapsedMillis, long intervalMillis, TxLabel label, LatencyHistogram histogram) {
+            this.elapsedMillis = elapsedMillis;
+            this.intervalMillis = intervalMillis;
+            this.label = label;
+            count = histogram.getCount();
+            throughput = intervalMillis == 0 ? 0d : 1000d * count / intervalMillis;
+            average = getAverageLatency(histogram);
+            percentiles = new double[PERCENTILES.length];
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                percentiles[i] = toMillis(histogram.getValueAtPercentile(PERCENTILES[i]));
+            }
+            max = toMillis(histogram.getMax());
+        }
+
+        String toCsvString(String title) {
+            List<String> list = new ArrayList<>();
+            list.add(title);
+            list.add(String.format("%d", elapsedMillis));
+            list.add(label.toString());
+            list.add(String.format("%d", count));
+            list.add(String.format("%.3f", throughput));
+            list.add(String.format("%.3f", average));
+            for (double percentile : percentiles) {
+                list.add(String.format("%.3f", percentile));
+            }
+            list.add(String.format("%.3f", max));
+            return String.join(",", list);
+        }
+    }
+
     /**
      * 複数の統計情報をまとめて保持するクラス。
      */
@@ -330,4 +707,19 @@ public class TxStatistics {
         }
     }
 
+    /**
+     * 負荷プロファイルのセグメントごとの統計情報
+     */
+    static class LoadProfileStatistics {
+        final LoadProfile loadProfile;
+        final TxStatistics[] segments;
+
+        LoadProfileStatistics(TxLabel label, LoadProfile loadProfile) {
+            this.loadProfile = loadProfile;
+            segments = new TxStatistics[loadProfile.getSegments()];
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = new TxStatistics(label);
+            }
+        }
+    }
 }
@@ -32,8 +32,13 @@ import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import com.tsurugidb.benchmark.phonebill.app.Config.ArrivalDistribution;
+import com.tsurugidb.benchmark.phonebill.app.Config.BillingEngine;
+import com.tsurugidb.benchmark.phonebill.app.Config.CalculationTargetQueueType;
 import com.tsurugidb.benchmark.phonebill.app.Config.DbmsType;
 import com.tsurugidb.benchmark.phonebill.app.Config.DistributionFunction;
+import com.tsurugidb.benchmark.phonebill.app.Config.KeyDistribution;
+import com.tsurugidb.benchmark.phonebill.app.Config.LoadProfileType;
 import com.tsurugidb.benchmark.phonebill.app.Config.TransactionOption;
 import com.tsurugidb.benchmark.phonebill.app.Config.TransactionScope;
 import com.tsurugidb.benchmark.phonebill.util.DateUtils;
@@ -42,6 +47,7 @@ class ConfigTest {
     private static String NOT_DEFALUT_CONFIG_PATH = "src/test/config/not-default.properties";
     private static String DEFALUT_CONFIG_PATH = "src/test/config/default.properties";
     private static String INCONSISTENT_CONFIG_PATH = "src/test/config/inconsistent.properties";
+    private static String INCONSISTENT_ADAPTIVE_CONFIG_PATH = "src/test/config/inconsistent-adaptive.properties";
     private static String UNKNOWN_DISTRIBUTION_FUNCTION_TYPE = "src/test/config/unknown_distribution_function_type.properties";
     private static String UNSUPPORTED_TRANSACTION_SCOPE = "src/test/config/unsupported_transaction_scope.properties";
     private static String ICEAXE_CONFIG = "src/test/config/iceaxe.properties";
@@ -181,6 +187,9 @@ class ConfigTest {
         Exception e = assertThrows(RuntimeException.class, () -> Config.getConfig(INCONSISTENT_CONFIG_PATH));
         assertEquals("TransactionScope Contract and sharedConnection cannot be specified at the same time.",
                 e.getMessage());
+        e = assertThrows(RuntimeException.class, () -> Config.getConfig(INCONSISTENT_ADAPTIVE_CONFIG_PATH));
+        assertEquals("TransactionScope Adaptive and sharedConnection cannot be specified at the same time.",
+                e.getMessage());
     }
 
     private void checkDifferent(Config defaultConfig, Config config)
@@ -230,6 +239,24 @@ class ConfigTest {
     private void checkDefault(Config config) throws IOException {
         // 料金計算に関するパラメータ
         assertEquals(DateUtils.toDate("2020-12-01"), config.targetMonth);
+        assertEquals(CalculationTargetQueueType.SIMPLE, config.calculationTargetQueueType);
+        assertEquals(4, config.partitionsPerThread);
+        assertEquals(BillingEngine.PER_CONTRACT, config.billingEngine);
+        assertEquals(1000, config.historyScanBatchSize);
+        assertEquals(0, config.prefetchDepth);
+        assertFalse(config.enableDeltaBilling);
+        assertFalse(config.enableColumnarFetch);
+        assertFalse(config.skipUnchangedCharge);
+        assertFalse(config.enableResume);
+        assertFalse(config.enableRetryScheduler);
+        assertEquals(10, config.retryBackoffBaseMillis);
+        assertEquals(1000, config.retryBackoffMaxMillis);
+        assertEquals(3, config.retryFinalPhaseThreshold);
+        assertFalse(config.enableLargestFirst);
+        assertEquals(1, config.targetMonthCount);
+        assertEquals(0, config.contractLoadPageSize);
+        assertEquals(10000, config.contractLoadQueueCapacity);
+        assertFalse(config.enableCommitOverlap);
 
         /* 契約マスタ生成に関するパラメータ */
         assertEquals((int) 1e3, config.numberOfContractsRecords);
@@ -292,15 +319,46 @@ class ConfigTest {
         assertEquals(false, config.skipDatabaseAccess);
         assertEquals(1d, config.onlineAppRandomCoverRate);
         assertEquals(0d, config.onlineAppRandomAtLeastOnceRate);
+        assertFalse(config.onlineAppOpenLoop);
+        assertEquals(ArrivalDistribution.UNIFORM, config.onlineAppArrivalDistribution);
+        assertEquals(0, config.onlineAppKeySelectorShards);
+        assertEquals(KeyDistribution.UNIFORM, config.masterUpdateKeyDistribution);
+        assertEquals(KeyDistribution.UNIFORM, config.masterDeleteInsertKeyDistribution);
+        assertEquals(KeyDistribution.UNIFORM, config.historyUpdateKeyDistribution);
+        assertEquals(0.99d, config.onlineAppZipfianTheta);
+        assertEquals(0.8d, config.onlineAppHotspotAccessRate);
+        assertEquals(0.2d, config.onlineAppHotspotKeyRate);
+        assertEquals(LoadProfileType.CONSTANT, config.masterUpdateLoadProfile);
+        assertEquals(LoadProfileType.CONSTANT, config.masterDeleteInsertLoadProfile);
+        assertEquals(LoadProfileType.CONSTANT, config.historyUpdateLoadProfile);
+        assertEquals(LoadProfileType.CONSTANT, config.historyInsertLoadProfile);
+        assertEquals(600, config.onlineAppLoadProfilePeriodSecs);
+        assertEquals(0.5d, config.onlineAppLoadProfileMinRate);
+        assertEquals(2.0d, config.onlineAppLoadProfileMaxRate);
+        assertEquals(4, config.onlineAppLoadProfileSteps);
+        assertEquals(30, config.onlineAppLoadProfileSpikeSecs);
+        assertEquals(0, config.historyUpdateKeyCacheSize);
+
+        /* 飽和点探索に関するパラメータ */
+        assertEquals(60, config.saturationSearchStepSecs);
+        assertEquals(1.5d, config.saturationSearchRateFactor);
+        assertEquals(10, config.saturationSearchMaxSteps);
+        assertEquals(100, config.saturationSearchP99SloMillis);
+        assertEquals(0.05d, config.saturationSearchMinThroughputGain);
 
         /* その他のパラメータ */
         assertEquals(0, config.randomSeed);
         assertEquals(TransactionScope.WHOLE, config.transactionScope);
+        assertEquals(16, config.adaptiveScopeInitialSize);
+        assertEquals(1024, config.adaptiveScopeMaxSize);
+        assertEquals(1000, config.adaptiveScopeTargetLatencyMillis);
         assertEquals(0, config.listenPort);
         assertEquals(false, config.onlineOnly);
         assertEquals(0, config.execTimeLimitSecs);
         assertEquals("/tmp", config.reportDir);
         assertEquals(false, config.enableTsurugiWatcher);
+        assertEquals(0, config.metricsPort);
+        assertEquals("127.0.0.1", config.metricsBindAddress);
 
         // toStringのチェック
         Path path = Paths.get(DEFALUT_CONFIG_PATH);
@@ -317,6 +375,24 @@ class ConfigTest {
     private void checkConfig(Config config) throws IOException {
         // 料金計算に関するパラメータ
         assertEquals(DateUtils.toDate("2030-12-01"), config.targetMonth);
+        assertEquals(CalculationTargetQueueType.WORK_STEALING, config.calculationTargetQueueType);
+        assertEquals(16, config.partitionsPerThread);
+        assertEquals(BillingEngine.HISTORY_SCAN, config.billingEngine);
+        assertEquals(500, config.historyScanBatchSize);
+        assertEquals(2, config.prefetchDepth);
+        assertTrue(config.enableDeltaBilling);
+        assertTrue(config.enableColumnarFetch);
+        assertTrue(config.skipUnchangedCharge);
+        assertTrue(config.enableResume);
+        assertTrue(config.enableRetryScheduler);
+        assertEquals(20, config.retryBackoffBaseMillis);
+        assertEquals(5000, config.retryBackoffMaxMillis);
+        assertEquals(5, config.retryFinalPhaseThreshold);
+        assertTrue(config.enableLargestFirst);
+        assertEquals(3, config.targetMonthCount);
+        assertEquals(100000, config.contractLoadPageSize);
+        assertEquals(5000, config.contractLoadQueueCapacity);
+        assertTrue(config.enableCommitOverlap);
 
         /* 契約マスタ生成に関するパラメータ */
         assertEquals((int) 1e4, config.numberOfContractsRecords);
@@ -368,15 +444,46 @@ class ConfigTest {
         assertEquals(true, config.skipDatabaseAccess);
         assertEquals(0.125, config.onlineAppRandomCoverRate);
         assertEquals(0.25, config.onlineAppRandomAtLeastOnceRate);
+        assertTrue(config.onlineAppOpenLoop);
+        assertEquals(ArrivalDistribution.POISSON, config.onlineAppArrivalDistribution);
+        assertEquals(16, config.onlineAppKeySelectorShards);
+        assertEquals(KeyDistribution.ZIPFIAN, config.masterUpdateKeyDistribution);
+        assertEquals(KeyDistribution.HOTSPOT, config.masterDeleteInsertKeyDistribution);
+        assertEquals(KeyDistribution.LATEST, config.historyUpdateKeyDistribution);
+        assertEquals(0.5d, config.onlineAppZipfianTheta);
+        assertEquals(0.9d, config.onlineAppHotspotAccessRate);
+        assertEquals(0.01d, config.onlineAppHotspotKeyRate);
+        assertEquals(LoadProfileType.STEP, config.masterUpdateLoadProfile);
+        assertEquals(LoadProfileType.SPIKE, config.masterDeleteInsertLoadProfile);
+        assertEquals(LoadProfileType.SINE, config.historyUpdateLoadProfile);
+        assertEquals(LoadProfileType.RAMP, config.historyInsertLoadProfile);
+        assertEquals(3600, config.onlineAppLoadProfilePeriodSecs);
+        assertEquals(0.1d, config.onlineAppLoadProfileMinRate);
+        assertEquals(5.0d, config.onlineAppLoadProfileMaxRate);
+        assertEquals(6, config.onlineAppLoadProfileSteps);
+        assertEquals(60, config.onlineAppLoadProfileSpikeSecs);
+        assertEquals(10000, config.historyUpdateKeyCacheSize);
+
+        /* 飽和点探索に関するパラメータ */
+        assertEquals(30, config.saturationSearchStepSecs);
+        assertEquals(2.0d, config.saturationSearchRateFactor);
+        assertEquals(5, config.saturationSearchMaxSteps);
+        assertEquals(50, config.saturationSearchP99SloMillis);
+        assertEquals(0.1d, config.saturationSearchMinThroughputGain);
 
         /* その他のパラメータ */
         assertEquals(1969, config.randomSeed);
         assertEquals(TransactionScope.CONTRACT, config.transactionScope);
+        assertEquals(32, config.adaptiveScopeInitialSize);
+        assertEquals(4096, config.adaptiveScopeMaxSize);
+        assertEquals(500, config.adaptiveScopeTargetLatencyMillis);
         assertEquals(1967, config.listenPort);
         assertEquals(true, config.onlineOnly);
         assertEquals(1192, config.execTimeLimitSecs);
         assertEquals("/var/log/report", config.reportDir);
         assertEquals(true, config.enableTsurugiWatcher);
+        assertEquals(9464, config.metricsPort);
+        assertEquals("0.0.0.0", config.metricsBindAddress);
 
         /* スレッドに関するパラメータ */
         assertEquals(10, config.threadCount);
@@ -478,7 +585,7 @@ class ConfigTest {
     public void testGetTransactionScope() {
         RuntimeException e = assertThrows(RuntimeException.class,
                 () -> Config.getConfig(UNSUPPORTED_TRANSACTION_SCOPE));
-        assertEquals("Unsupported transaction scope: BAD_SCOPE, only 'CONTRACT' or 'WHOLE' are supported.",
+        assertEquals("Unsupported transaction scope: BAD_SCOPE, only 'CONTRACT', 'WHOLE' or 'ADAPTIVE' are supported.",
                 e.getMessage());
     }
 
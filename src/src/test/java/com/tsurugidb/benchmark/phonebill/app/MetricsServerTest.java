@@ -0,0 +1,94 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+
+import com.tsurugidb.benchmark.phonebill.db.TxLabel;
+import com.tsurugidb.benchmark.phonebill.online.TxStatistics;
+
+class MetricsServerTest {
+
+    @Test
+    final void testServe() throws IOException {
+        TxStatistics.clear();
+        TxStatistics.addLatencyFotTxLabel(TxLabel.ONLINE_HISTORY_INSERT, 1000 * 1000); // 1ミリ秒
+        try (MetricsServer server = new MetricsServer(0)) {
+            // /metricsはPrometheusのテキスト形式でメトリクスを返す
+            HttpURLConnection conn = (HttpURLConnection) new URL(
+                    "http://localhost:" + server.getPort() + "/metrics").openConnection();
+            assertEquals(200, conn.getResponseCode());
+            assertTrue(conn.getContentType().startsWith("text/plain; version=0.0.4"));
+            String body;
+            try (InputStream is = conn.getInputStream()) {
+                body = new String(is.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            assertTrue(body.contains("phonebill_online_tx_latency_seconds_count{label=\"ONLINE_HISTORY_INSERT\"} 1\n"));
+
+            // それ以外のパスは404
+            conn = (HttpURLConnection) new URL("http://localhost:" + server.getPort() + "/").openConnection();
+            assertEquals(404, conn.getResponseCode());
+        } finally {
+            TxStatistics.clear();
+        }
+    }
+
+    @Test
+    final void testBindAddress() throws IOException {
+        // デフォルトではループバックアドレスにのみバインドする
+        try (MetricsServer server = new MetricsServer(0)) {
+            assertTrue(server.getBindAddress().isLoopbackAddress());
+        }
+        // 指定のアドレスにバインドする
+        InetAddress any = InetAddress.getByName("0.0.0.0");
+        try (MetricsServer server = new MetricsServer(any, 0)) {
+            assertEquals(any, server.getBindAddress());
+        }
+    }
+
+    @Test
+    final void testAppendBatchMetrics() {
+        // キューの処理対象の数を状態ごとに出力する
+        StringBuilder sb = new StringBuilder();
+        MetricsServer.appendBatchMetrics(sb, 10, 2, 30, 5, 65);
+        String expect = "# HELP phonebill_batch_tries_total Number of tries of billing transactions.\n"
+                + "# TYPE phonebill_batch_tries_total counter\n"
+                + "phonebill_batch_tries_total 10\n"
+                + "# HELP phonebill_batch_aborts_total Number of aborts of billing transactions.\n"
+                + "# TYPE phonebill_batch_aborts_total counter\n"
+                + "phonebill_batch_aborts_total 2\n"
+                + "# HELP phonebill_batch_queue_targets Progress of the calculation target queue.\n"
+                + "# TYPE phonebill_batch_queue_targets gauge\n"
+                + "phonebill_batch_queue_targets{state=\"queued\"} 30\n"
+                + "phonebill_batch_queue_targets{state=\"running\"} 5\n"
+                + "phonebill_batch_queue_targets{state=\"finished\"} 65\n";
+        assertEquals(expect, sb.toString());
+
+        // キューを使用していない場合はキューの状態を出力しない
+        sb = new StringBuilder();
+        MetricsServer.appendBatchMetrics(sb, 0, 0, -1, -1, -1);
+        assertFalse(sb.toString().contains("phonebill_batch_queue_targets"));
+    }
+}
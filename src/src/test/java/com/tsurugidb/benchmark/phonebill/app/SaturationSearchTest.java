@@ -0,0 +1,44 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import com.tsurugidb.benchmark.phonebill.app.SaturationSearch.StepResult;
+
+class SaturationSearchTest {
+
+    @Test
+    final void testJudge() throws Exception {
+        Config config = Config.getConfig();
+        config.saturationSearchP99SloMillis = 100;
+        config.saturationSearchMinThroughputGain = 0.05d;
+
+        // 最初のステップはSLOを満たせば探索を続ける
+        assertEquals(StepResult.CONTINUE, SaturationSearch.judge(0d, 10d, 100d, config));
+        assertEquals(StepResult.SLO_BREACHED, SaturationSearch.judge(0d, 10d, 100.1d, config));
+
+        // スループットの増加率が指定の値未満の場合は飽和したとみなす
+        assertEquals(StepResult.CONTINUE, SaturationSearch.judge(10d, 10.5d, 50d, config));
+        assertEquals(StepResult.SATURATED, SaturationSearch.judge(10d, 10.49d, 50d, config));
+        assertEquals(StepResult.SATURATED, SaturationSearch.judge(10d, 9d, 50d, config));
+
+        // SLOの超過を優先する
+        assertEquals(StepResult.SLO_BREACHED, SaturationSearch.judge(10d, 9d, 200d, config));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+class AdaptiveTransactionScopeTest {
+    private static final long MILLIS = 1000L * 1000;
+    private static final long SECONDS = 1000L * MILLIS;
+
+    @Test
+    final void testAimd() {
+        AtomicLong clock = new AtomicLong(0);
+        AdaptiveTransactionScope scope = new AdaptiveTransactionScope(4, 8, 100, clock::get);
+        assertEquals(4, scope.getSize());
+
+        // 処理時間が目標値以下のコミットでKが1増える
+        scope.onCommit(4, 4, 10 * MILLIS);
+        assertEquals(5, scope.getSize());
+
+        // 処理対象が不足してK件に満たなかった場合は増やさない
+        scope.onCommit(5, 2, 10 * MILLIS);
+        assertEquals(5, scope.getSize());
+
+        // 最大値を超えない
+        for (int i = 0; i < 10; i++) {
+            scope.onCommit(scope.getSize(), scope.getSize(), 10 * MILLIS);
+        }
+        assertEquals(8, scope.getSize());
+
+        // abortでKが半分になる
+        scope.onAbort(8);
+        assertEquals(4, scope.getSize());
+
+        // 同時に開始したトランザクションのabortではKを減らさない
+        scope.onAbort(8);
+        assertEquals(4, scope.getSize());
+
+        // 処理時間が目標値を超えるとKが半分になる
+        scope.onCommit(4, 4, 200 * MILLIS);
+        assertEquals(2, scope.getSize());
+
+        // 最小値を下回らない
+        scope.onAbort(2);
+        scope.onAbort(1);
+        assertEquals(1, scope.getSize());
+    }
+
+    @Test
+    final void testInitialSize() {
+        assertEquals(1, new AdaptiveTransactionScope(0, 8, 100, () -> 0).getSize());
+        assertEquals(8, new AdaptiveTransactionScope(100, 8, 100, () -> 0).getSize());
+        assertThrows(IllegalArgumentException.class, () -> new AdaptiveTransactionScope(1, 0, 100, () -> 0));
+    }
+
+    @Test
+    final void testReport() {
+        AtomicLong clock = new AtomicLong(0);
+        AdaptiveTransactionScope scope = new AdaptiveTransactionScope(4, 100, 100, clock::get);
+
+        // 0秒目: 2回コミット、1回abort
+        scope.onCommit(4, 4, 10 * MILLIS);
+        scope.onCommit(5, 5, 10 * MILLIS);
+        scope.onAbort(6);
+
+        // 2秒目: 1回コミット
+        clock.set(2 * SECONDS + 1);
+        scope.onCommit(3, 3, 10 * MILLIS);
+
+        String report = scope.getReport();
+        assertTrue(report.contains("|0|3|6|3|2|1|0.333|4.5|"), report);
+        assertTrue(report.contains("|2|3|4|4|1|0|0.000|3.0|"), report);
+        assertFalse(report.contains("\n|1|"), report);
+    }
+}
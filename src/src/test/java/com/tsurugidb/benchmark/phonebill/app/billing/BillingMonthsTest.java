@@ -0,0 +1,79 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+import com.tsurugidb.benchmark.phonebill.util.DateUtils;
+
+class BillingMonthsTest {
+
+    @Test
+    final void testMonths() {
+        // 年をまたぐ計算対象期間
+        BillingMonths months = new BillingMonths(DateUtils.toDate("2020-11-01"), DateUtils.toDate("2021-02-28"));
+        assertEquals(4, months.size());
+        assertEquals(Arrays.asList(DateUtils.toDate("2020-11-01"), DateUtils.toDate("2020-12-01"),
+                DateUtils.toDate("2021-01-01"), DateUtils.toDate("2021-02-01")), months.getMonths());
+        assertEquals(DateUtils.toDate("2021-01-01"), months.getMonth(2));
+
+        // 1か月の場合
+        months = new BillingMonths(DateUtils.toDate("2020-11-01"), DateUtils.toDate("2020-11-30"));
+        assertEquals(Arrays.asList(DateUtils.toDate("2020-11-01")), months.getMonths());
+
+        // 不正な期間
+        assertThrows(IllegalArgumentException.class,
+                () -> new BillingMonths(DateUtils.toDate("2020-11-01"), DateUtils.toDate("2020-10-31")));
+    }
+
+    @Test
+    final void testIsMultiMonth() {
+        assertFalse(BillingMonths.isMultiMonth(DateUtils.toDate("2020-11-01"), DateUtils.toDate("2020-11-30")));
+        assertTrue(BillingMonths.isMultiMonth(DateUtils.toDate("2020-11-01"), DateUtils.toDate("2020-12-31")));
+        assertTrue(BillingMonths.isMultiMonth(DateUtils.toDate("2020-11-01"), DateUtils.toDate("2021-11-30")));
+        assertFalse(BillingMonths.isMultiMonth(null, DateUtils.toDate("2020-11-30")));
+        assertFalse(BillingMonths.isMultiMonth(DateUtils.toDate("2020-11-01"), null));
+    }
+
+    @Test
+    final void testIndexOf() {
+        BillingMonths months = new BillingMonths(DateUtils.toDate("2020-11-01"), DateUtils.toDate("2021-01-31"));
+        assertEquals(-1, months.indexOf(DateUtils.toTimestamp("2020-10-31 23:59:59.999").getTime()));
+        assertEquals(0, months.indexOf(DateUtils.toTimestamp("2020-11-01 00:00:00.000").getTime()));
+        assertEquals(1, months.indexOf(DateUtils.toTimestamp("2020-12-31 23:59:59.999").getTime()));
+        assertEquals(2, months.indexOf(DateUtils.toTimestamp("2021-01-01 00:00:00.000").getTime()));
+        assertEquals(-1, months.indexOf(DateUtils.toTimestamp("2021-02-01 00:00:00.000").getTime()));
+    }
+
+    @Test
+    final void testIsValid() {
+        BillingMonths months = new BillingMonths(DateUtils.toDate("2020-11-01"), DateUtils.toDate("2021-01-31"));
+        Contract c = Contract.create("001", "2020-11-30", "2020-12-01", null);
+        assertTrue(months.isValid(c, 0));
+        assertTrue(months.isValid(c, 1));
+        assertFalse(months.isValid(c, 2));
+
+        c = Contract.create("001", "2021-01-31", null, null);
+        assertFalse(months.isValid(c, 0));
+        assertFalse(months.isValid(c, 1));
+        assertTrue(months.isValid(c, 2));
+    }
+}
@@ -19,6 +19,7 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
@@ -26,6 +27,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.junit.jupiter.api.Test;
 
@@ -134,6 +136,99 @@ class CalculationTaskTest extends AbstractJdbcTestCase {
         }
     }
 
+    @Test
+    final void testDoCalcSkipUnchangedCharge() throws Exception {
+        // 初期化
+        Config config = Config.getConfig();
+        config.skipUnchangedCharge = true;
+        new CreateTable().execute(config);
+
+        CallChargeCalculator callChargeCalculator = new SimpleCallChargeCalculator();
+        BillingCalculator billingCalculator = new SimpleBillingCalculator();
+        CalculationTask task = new CalculationTask(null, getManager(), config, "", new AtomicBoolean(false),
+                new AtomicInteger(0), new AtomicInteger(0));
+
+        insertToContracts("Phone-0001", "2010-01-01", null, "Simple");
+        insertToHistory("Phone-0001", "Phone-0008", "C", "2020-11-01 00:00:00.000", 30, 0);
+        insertToHistory("Phone-0001", "Phone-0008", "C", "2020-11-30 23:59:59.999", 90, 0);
+        Contract c = getContracts().get(0);
+
+        // 料金がnullの通話履歴はすべて更新される(+1は請求情報の分)
+        CalculationTarget target = new CalculationTarget(c, billingCalculator, callChargeCalculator,
+                DateUtils.toDate("2020-11-01"), DateUtils.toDate("2020-11-30"), false);
+        assertEquals(3, task.calculator.doCalc(target));
+        var histories = getHistories();
+        assertEquals(toHistory("Phone-0001", "Phone-0008", "C", "2020-11-01 00:00:00.000", 30, 10, 0), histories.get(0));
+        assertEquals(toHistory("Phone-0001", "Phone-0008", "C", "2020-11-30 23:59:59.999", 90, 20, 0), histories.get(1));
+
+        // 再計算では料金が変化しないので通話履歴は更新されない
+        truncateTable("billing");
+        assertEquals(1, task.calculator.doCalc(target));
+        assertEquals(histories, getHistories());
+        assertEquals(Billing.create("Phone-0001", "2020-11-01", 3000, 30, 3000, null), getBillings().get(0));
+
+        // 列ごとの配列で読み込む場合も同様
+        config.enableColumnarFetch = true;
+        truncateTable("billing");
+        assertEquals(1, task.calculator.doCalc(target));
+        assertEquals(Billing.create("Phone-0001", "2020-11-01", 3000, 30, 3000, null), getBillings().get(0));
+    }
+
+    @Test
+    final void testDoCalcMultiMonth() throws Exception {
+        // 初期化
+        Config config = Config.getConfig();
+        new CreateTable().execute(config);
+
+        CallChargeCalculator callChargeCalculator = new SimpleCallChargeCalculator();
+        BillingCalculator billingCalculator = new SimpleBillingCalculator();
+        CalculationTask task = new CalculationTask(null, getManager(), config, "", new AtomicBoolean(false),
+                new AtomicInteger(0), new AtomicInteger(0));
+
+        insertToContracts("Phone-0001", "2010-01-01", null, "Simple");
+        insertToContracts("Phone-0005", "2020-11-30", "2021-01-10", "Simple");
+        insertToHistory("Phone-0001", "Phone-0008", "C", "2020-10-15 00:00:00.000", 30, 0);
+        insertToHistory("Phone-0001", "Phone-0008", "C", "2020-11-15 00:00:00.000", 90, 0);
+        insertToHistory("Phone-0001", "Phone-0008", "C", "2021-01-31 23:59:59.999", 30, 0);
+        insertToHistory("Phone-0001", "Phone-0008", "C", "2021-02-01 00:00:00.000", 30, 0);  	// 計算対象期間外
+        insertToHistory("Phone-0005", "Phone-0008", "C", "2020-10-20 00:00:00.000", 30, 0);  	// 契約が有効でない月
+        insertToHistory("Phone-0005", "Phone-0008", "C", "2020-12-01 00:00:00.000", 250, 0);
+
+        // 計算対象期間全体の通話履歴を1回で処理し、契約が有効な月ごとに請求情報を作成する
+        truncateTable("billing");
+        List<Contract> contracts = getContracts();
+        int[] expectedRecords = {3 + 4, 1 + 3};
+        for (int i = 0; i < contracts.size(); i++) {
+            CalculationTarget target = new CalculationTarget(contracts.get(i), billingCalculator,
+                    callChargeCalculator, DateUtils.toDate("2020-10-01"), DateUtils.toDate("2021-01-31"), false);
+            assertEquals(expectedRecords[i], task.calculator.doCalc(target));
+        }
+        assertEquals(new HashSet<>(Arrays.asList(
+                Billing.create("Phone-0001", "2020-10-01", 3000, 10, 3000, null),
+                Billing.create("Phone-0001", "2020-11-01", 3000, 20, 3000, null),
+                Billing.create("Phone-0001", "2020-12-01", 3000, 0, 3000, null),
+                Billing.create("Phone-0001", "2021-01-01", 3000, 10, 3000, null),
+                Billing.create("Phone-0005", "2020-11-01", 3000, 0, 3000, null),
+                Billing.create("Phone-0005", "2020-12-01", 3000, 50, 3000, null),
+                Billing.create("Phone-0005", "2021-01-01", 3000, 0, 3000, null))), new HashSet<>(getBillings()));
+        assertEquals(new HashSet<>(Arrays.asList(
+                toHistory("Phone-0001", "Phone-0008", "C", "2020-10-15 00:00:00.000", 30, 10, 0),
+                toHistory("Phone-0001", "Phone-0008", "C", "2020-11-15 00:00:00.000", 90, 20, 0),
+                toHistory("Phone-0001", "Phone-0008", "C", "2021-01-31 23:59:59.999", 30, 10, 0),
+                toHistory("Phone-0001", "Phone-0008", "C", "2021-02-01 00:00:00.000", 30, null, 0),
+                toHistory("Phone-0005", "Phone-0008", "C", "2020-10-20 00:00:00.000", 30, null, 0),
+                toHistory("Phone-0005", "Phone-0008", "C", "2020-12-01 00:00:00.000", 250, 50, 0))),
+                new HashSet<>(getHistories()));
+    }
+
+    @Test
+    final void testIsChargeChanged() {
+        assertTrue(CalculationTask.isChargeChanged(null, 0));
+        assertTrue(CalculationTask.isChargeChanged(10, 20));
+        assertFalse(CalculationTask.isChargeChanged(10, 10));
+        assertFalse(CalculationTask.isChargeChanged(1000, 1000));
+    }
+
     @Test
     final void testCallCount() throws Exception {
         Config config = Config.getConfig();
@@ -463,6 +558,55 @@ class CalculationTaskTest extends AbstractJdbcTestCase {
         }
     }
 
+    @Test
+    final void testCallOverlapped() throws Exception {
+        Config config = Config.getConfig();
+        config.transactionScope = TransactionScope.CONTRACT;
+        AtomicBoolean abortRequested = new AtomicBoolean(false);
+        AtomicInteger tryCounter = new AtomicInteger(0);
+        AtomicInteger abortCounter = new AtomicInteger(0);
+
+        try (PhoneBillDbManager manager1 = PhoneBillDbManager.createPhoneBillDbManager(config);
+                PhoneBillDbManager manager2 = PhoneBillDbManager.createPhoneBillDbManager(config)) {
+            // 処理対象が2つのセッションに交互に割り当てられる
+            CalculationTargetQueue queue = new CalculationTargetQueue(Arrays.asList(createCalculationTarget("T1"),
+                    createCalculationTarget("T2"), createCalculationTarget("T3"), createCalculationTarget("T4"),
+                    createCalculationTarget("T5")));
+            CalculationTask task = new CalculationTask(queue, manager1, config, "BID", abortRequested, tryCounter,
+                    abortCounter, null, new AtomicLong(0), manager2);
+            TestCalculator calculator1 = new TestCalculator();
+            TestCalculator calculator2 = new TestCalculator();
+            task.setCalculator(calculator1);
+            task.overlapCalculator = calculator2;
+            assertNull(task.call());
+            assertEquals(3, calculator1.callCount);
+            assertEquals(2, calculator2.callCount);
+            assertEquals(5, tryCounter.get());
+            assertEquals(0, abortCounter.get());
+            assertTrue(queue.finished());
+
+            // 2つ目のセッションでリトライできない例外が発生したケース
+            queue = new CalculationTargetQueue(Arrays.asList(createCalculationTarget("T1"),
+                    createCalculationTarget("T2"), createCalculationTarget("T3")));
+            task = new CalculationTask(queue, manager1, config, "BID", abortRequested, tryCounter, abortCounter,
+                    null, new AtomicLong(0), manager2);
+            calculator1 = new TestCalculator();
+            calculator2 = new TestCalculator();
+            calculator2.countThrowsException = 1;
+            task.setCalculator(calculator1);
+            task.overlapCalculator = calculator2;
+            assertEquals(calculator2.runtimeException, task.call());
+            assertEquals(1, calculator2.callCount);
+            assertEquals(1, abortCounter.get());
+
+            // トランザクションスコープがCONTRACT以外の場合はコミットを重ねない
+            config.transactionScope = TransactionScope.WHOLE;
+            task = new CalculationTask(queue, manager1, config, "BID", abortRequested, tryCounter, abortCounter,
+                    null, new AtomicLong(0), manager2);
+            assertNull(task.overlapCalculator);
+        }
+    }
+
     private static class AnotherTask implements Runnable {
         CalculationTarget target;
         CalculationTargetQueue queue;
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.tsurugidb.benchmark.phonebill.db.entity.Billing;
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+import com.tsurugidb.benchmark.phonebill.db.entity.History;
+import com.tsurugidb.benchmark.phonebill.util.DateUtils;
+
+class DeltaBillingTest {
+
+    @Test
+    final void testGetBilledPhoneNumbers() {
+        // 支払区分が'C'なら発信者、'R'なら受信者の電話番号
+        List<History> histories = Arrays.asList(
+                createHistory("001", "002", "C"),
+                createHistory("003", "004", "R"),
+                createHistory("001", "005", "C"));
+        assertEquals(new HashSet<>(Arrays.asList("001", "004")), DeltaBilling.getBilledPhoneNumbers(histories));
+        assertTrue(DeltaBilling.getBilledPhoneNumbers(Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    final void testSelectContracts() {
+        DeltaBilling deltaBilling = new DeltaBilling(DateUtils.toDate("2020-11-01"), DateUtils.toDate("2020-11-30"));
+        Contract c1 = createContract("001");
+        Contract c2 = createContract("002");
+        Contract c3 = createContract("003");
+        Contract c4 = createContract("004");
+        List<Contract> contracts = Arrays.asList(c1, c2, c3, c4);
+        Set<String> dirty = new HashSet<>(Arrays.asList("002", "999"));
+        List<Billing> billings = Arrays.asList(createBilling("001"), createBilling("002"), createBilling("003"),
+                createBilling("005"));
+
+        // 料金がnullの通話履歴を持つ契約と、請求情報の無い契約が選択される
+        assertEquals(Arrays.asList(c2, c4), deltaBilling.selectContracts(contracts, dirty, billings));
+        assertEquals("total contracts = 0, dirty contracts = 1, unbilled contracts = 1, orphan billings = 0,"
+                + " deleted histories = 0", deltaBilling.getReport());
+
+        // 契約の無い請求情報
+        assertEquals(Collections.singleton("005"), DeltaBilling.getOrphanPhoneNumbers(contracts, billings));
+
+        // 請求情報が1件も無い場合は全契約が選択される
+        assertEquals(contracts, deltaBilling.selectContracts(contracts, Collections.emptySet(),
+                Collections.emptyList()));
+    }
+
+    private Contract createContract(String phoneNumber) {
+        return Contract.create(phoneNumber, "2000-01-01", null, null);
+    }
+
+    private Billing createBilling(String phoneNumber) {
+        Billing b = new Billing();
+        b.setPhoneNumber(phoneNumber);
+        b.setTargetMonth(DateUtils.toDate("2020-11-01"));
+        return b;
+    }
+
+    private History createHistory(String caller, String recipient, String paymentCategory) {
+        History h = new History();
+        h.setCallerPhoneNumber(caller);
+        h.setRecipientPhoneNumber(recipient);
+        h.setPaymentCategorty(paymentCategory);
+        return h;
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.sql.Date;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.tsurugidb.benchmark.phonebill.app.billing.HistoryScanBilling.ChargeAggregator;
+import com.tsurugidb.benchmark.phonebill.app.billing.HistoryScanBilling.SubRange;
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+import com.tsurugidb.benchmark.phonebill.db.entity.History;
+import com.tsurugidb.benchmark.phonebill.util.DateUtils;
+
+class HistoryScanBillingTest {
+
+    @Test
+    final void testCreateSubRanges() {
+        Date start = DateUtils.toDate("2020-11-01");
+        Date end = DateUtils.toDate("2020-11-30");
+
+        // 1つのサブレンジは計算対象月全体
+        List<SubRange> list = HistoryScanBilling.createSubRanges(start, end, 1);
+        assertEquals(1, list.size());
+        assertEquals(DateUtils.toTimestamp("2020-11-01 00:00:00.000"), list.get(0).start);
+        assertEquals(DateUtils.toTimestamp("2020-12-01 00:00:00.000"), list.get(0).end);
+
+        // サブレンジは隙間なく連続する
+        list = HistoryScanBilling.createSubRanges(start, end, 3);
+        assertEquals(3, list.size());
+        assertEquals(DateUtils.toTimestamp("2020-11-01 00:00:00.000"), list.get(0).start);
+        assertEquals(DateUtils.toTimestamp("2020-11-11 00:00:00.000"), list.get(0).end);
+        assertEquals(list.get(0).end, list.get(1).start);
+        assertEquals(DateUtils.toTimestamp("2020-11-21 00:00:00.000"), list.get(1).end);
+        assertEquals(list.get(1).end, list.get(2).start);
+        assertEquals(DateUtils.toTimestamp("2020-12-01 00:00:00.000"), list.get(2).end);
+
+        assertThrows(IllegalArgumentException.class, () -> HistoryScanBilling.createSubRanges(start, end, 0));
+    }
+
+    @Test
+    final void testChargeAggregator() {
+        Map<String, CalculationTarget> targetMap = new HashMap<>();
+        targetMap.put("001", createCalculationTarget("001"));
+        targetMap.put("002", createCalculationTarget("002"));
+        List<List<History>> batches = new ArrayList<>();
+        ChargeAggregator aggregator = new ChargeAggregator(targetMap, 2, list -> batches.add(list));
+
+        // 支払区分が'C'なら発信者、'R'なら受信者に課金する、契約の無い電話番号の通話履歴は無視する
+        aggregator.accept(createHistory("001", "002", "C", 59));
+        aggregator.accept(createHistory("001", "002", "R", 61));
+        aggregator.accept(createHistory("003", "001", "R", 120));
+        aggregator.accept(createHistory("003", "002", "C", 30));
+        assertEquals(1, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(10, batches.get(0).get(0).getCharge());
+        assertEquals(20, batches.get(0).get(1).getCharge());
+
+        aggregator.flush();
+        assertEquals(2, batches.size());
+        assertEquals(1, batches.get(1).size());
+        assertEquals(30, aggregator.getTotalCharges().get("001")[0]);
+        assertEquals(20, aggregator.getTotalCharges().get("002")[0]);
+        assertNull(aggregator.getTotalCharges().get("003"));
+        assertEquals(4, aggregator.getScannedHistories());
+        assertEquals(3, aggregator.getUpdatedHistories());
+
+        // initで集計結果がクリアされる
+        aggregator.init();
+        assertTrue(aggregator.getTotalCharges().isEmpty());
+        assertEquals(0, aggregator.getScannedHistories());
+        assertEquals(0, aggregator.getUpdatedHistories());
+
+        // 通話時間が負の場合は例外
+        assertThrows(RuntimeException.class, () -> aggregator.accept(createHistory("001", "002", "C", -1)));
+    }
+
+    @Test
+    final void testChargeAggregatorSkipUnchanged() {
+        Map<String, CalculationTarget> targetMap = new HashMap<>();
+        targetMap.put("001", createCalculationTarget("001"));
+        List<List<History>> batches = new ArrayList<>();
+        ChargeAggregator aggregator = new ChargeAggregator(targetMap, 10, true, list -> batches.add(list));
+
+        // 料金が変化しない通話履歴はwriterに渡さないが、料金の集計には含める
+        History h1 = createHistory("001", "002", "C", 59);
+        h1.setCharge(10);
+        History h2 = createHistory("001", "002", "C", 61);
+        h2.setCharge(10);
+        History h3 = createHistory("001", "002", "C", 30);
+        aggregator.accept(h1);
+        aggregator.accept(h2);
+        aggregator.accept(h3);
+        aggregator.flush();
+        assertEquals(1, batches.size());
+        assertEquals(Arrays.asList(h2, h3), batches.get(0));
+        assertEquals(20, h2.getCharge());
+        assertEquals(40, aggregator.getTotalCharges().get("001")[0]);
+        assertEquals(3, aggregator.getScannedHistories());
+        assertEquals(2, aggregator.getUpdatedHistories());
+        assertEquals(1, aggregator.getSkippedHistories());
+
+        // initでスキップ数もクリアされる
+        aggregator.init();
+        assertEquals(0, aggregator.getSkippedHistories());
+    }
+
+    private CalculationTarget createCalculationTarget(String phoneNumber) {
+        Contract c = Contract.create(phoneNumber, "2000-01-01", null, null);
+        return new CalculationTarget(c, new SimpleBillingCalculator(), new SimpleCallChargeCalculator(), null, null,
+                false);
+    }
+
+    private History createHistory(String caller, String recipient, String paymentCategory, int timeSecs) {
+        History h = new History();
+        h.setCallerPhoneNumber(caller);
+        h.setRecipientPhoneNumber(recipient);
+        h.setPaymentCategorty(paymentCategory);
+        h.setStartTime(DateUtils.toTimestamp("2020-11-10 01:23:45.678"));
+        h.setTimeSecs(timeSecs);
+        h.setDf(0);
+        return h;
+    }
+}
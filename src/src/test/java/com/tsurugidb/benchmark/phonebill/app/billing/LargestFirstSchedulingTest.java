@@ -0,0 +1,89 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+import com.tsurugidb.benchmark.phonebill.util.DateUtils;
+
+class LargestFirstSchedulingTest {
+
+    @Test
+    final void testSort() {
+        LargestFirstScheduling scheduling = new LargestFirstScheduling(DateUtils.toDate("2020-11-01"),
+                DateUtils.toDate("2020-11-30"));
+        CalculationTarget t1 = createCalculationTarget("001");
+        CalculationTarget t2 = createCalculationTarget("002");
+        CalculationTarget t3 = createCalculationTarget("003");
+        CalculationTarget t4 = createCalculationTarget("004");
+        Map<String, Long> counts = new HashMap<>();
+        counts.put("001", 5L);
+        counts.put("002", 10L);
+        counts.put("004", 5L);
+        counts.put("005", 100L);
+
+        // 件数の多い順に並び、件数が同じ場合は元の順序を保つ、件数が無い場合は0件とみなす
+        assertEquals(Arrays.asList(t2, t1, t4, t3), scheduling.sort(Arrays.asList(t1, t2, t3, t4), counts));
+        assertEquals("targets = 4, estimated histories = 20, max histories per target = 10, "
+                + "min histories per target = 0", scheduling.getReport());
+
+        // 処理対象が無い場合
+        assertEquals(Collections.emptyList(), scheduling.sort(Collections.emptyList(), counts));
+    }
+
+    @Test
+    final void testInterleave() {
+        List<CalculationTarget> sorted = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            sorted.add(createCalculationTarget("00" + i));
+        }
+
+        // 各ワーカの範囲の先頭から、処理量の多い順に振り分けられる
+        List<CalculationTarget> list = LargestFirstScheduling.interleave(sorted, 3);
+        WorkStealingCalculationTargetQueue queue = new WorkStealingCalculationTargetQueue(list, 3);
+        assertEquals(Arrays.asList(sorted.get(0), sorted.get(3), sorted.get(6)), list.subList(0, 3));
+        assertEquals(Arrays.asList(sorted.get(1), sorted.get(4)), list.subList(3, 5));
+        assertEquals(Arrays.asList(sorted.get(2), sorted.get(5)), list.subList(5, 7));
+        assertEquals(7, queue.size());
+
+        // ワーカ数が処理対象数より多い場合
+        list = LargestFirstScheduling.interleave(sorted.subList(0, 2), 3);
+        assertEquals(sorted.subList(0, 2), list);
+    }
+
+    @Test
+    final void testGetStragglerMills() {
+        assertEquals(0, LargestFirstScheduling.getStragglerMills(Collections.emptyList()));
+        assertEquals(0, LargestFirstScheduling.getStragglerMills(Arrays.asList(100L)));
+        assertEquals(70, LargestFirstScheduling.getStragglerMills(Arrays.asList(200L, 100L, 130L)));
+        assertEquals(85, LargestFirstScheduling.getStragglerMills(Arrays.asList(200L, 100L, 130L, 100L)));
+    }
+
+    private CalculationTarget createCalculationTarget(String phoneNumber) {
+        Contract c = Contract.create(phoneNumber, "2000-01-01", null, null);
+        return new CalculationTarget(c, null, null, null, null, false);
+    }
+}
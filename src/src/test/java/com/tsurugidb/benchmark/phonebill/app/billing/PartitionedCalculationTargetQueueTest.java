@@ -0,0 +1,209 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.tsurugidb.benchmark.phonebill.app.billing.PartitionedCalculationTargetQueue.Partition;
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+
+class PartitionedCalculationTargetQueueTest {
+
+    @Test
+    final void testCreatePartitions() {
+        List<CalculationTarget> targets = Arrays.asList(
+                createCalculationTarget("001"),
+                createCalculationTarget("002"),
+                createCalculationTarget("002"),
+                createCalculationTarget("003"),
+                createCalculationTarget("004"),
+                createCalculationTarget("005"));
+
+        // 同一電話番号の契約は同じパーティションに入る
+        List<Partition> list = PartitionedCalculationTargetQueue.createPartitions(targets, 3);
+        assertEquals(3, list.size());
+        assertPartition(list.get(0), 0, "001", "002", 3);
+        assertPartition(list.get(1), 1, "003", "003", 1);
+        assertPartition(list.get(2), 2, "004", "005", 2);
+
+        // 処理対象よりパーティション数が多い場合
+        list = PartitionedCalculationTargetQueue.createPartitions(targets, 10);
+        assertEquals(5, list.size());
+        assertPartition(list.get(0), 0, "001", "001", 1);
+        assertPartition(list.get(1), 1, "002", "002", 2);
+        assertPartition(list.get(4), 4, "005", "005", 1);
+
+        // 処理対象が空の場合
+        assertEquals(0, PartitionedCalculationTargetQueue.createPartitions(Collections.emptyList(), 3).size());
+    }
+
+    @Test
+    final void testSingleThread() throws InterruptedException {
+        List<CalculationTarget> targets = new ArrayList<>();
+        for (int i = 7; i >= 0; i--) {
+            targets.add(createCalculationTarget(String.format("%03d", i)));
+        }
+        PartitionedCalculationTargetQueue queue = new PartitionedCalculationTargetQueue(targets, 2, 2);
+        queue.registerWorker(0);
+        assertEquals(4, queue.getPartitions().size());
+        assertEquals(8, queue.size());
+
+        // 自分のパーティションを電話番号順に処理し、その後他のワーカのパーティションを末尾から盗む
+        List<String> order = new ArrayList<>();
+        for (CalculationTarget target = queue.poll(); target != null; target = queue.poll()) {
+            order.add(target.getContract().getPhoneNumber());
+            if (order.size() == 1) {
+                // 失敗して戻した処理対象は優先して処理される
+                queue.revert(target);
+                assertEquals("000", queue.poll().getContract().getPhoneNumber());
+            }
+            queue.success(target);
+        }
+        assertEquals(Arrays.asList("000", "001", "002", "003", "006", "007", "004", "005"), order);
+        assertTrue(queue.finished());
+        assertNull(queue.take());
+
+        String report = queue.getPartitionReport();
+        assertTrue(report.contains("|0|000|001|2|3|1|1|0|"), report);
+        assertTrue(report.contains("|3|006|007|2|2|0|0|1|"), report);
+    }
+
+    @Test
+    final void testRevertFromOtherThread() throws Exception {
+        List<CalculationTarget> targets = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            targets.add(createCalculationTarget(String.format("%03d", i)));
+        }
+        PartitionedCalculationTargetQueue queue = new PartitionedCalculationTargetQueue(targets, 2, 1);
+        queue.registerWorker(0);
+        CalculationTarget target = queue.poll();
+        assertEquals("000", target.getContract().getPhoneNumber());
+
+        // ワーカ以外のスレッドが戻した処理対象も、呼び出したワーカが優先して処理する
+        ExecutorService service = Executors.newSingleThreadExecutor();
+        try {
+            service.submit(() -> queue.revert(target)).get(10, TimeUnit.SECONDS);
+        } finally {
+            service.shutdown();
+        }
+        assertEquals(target, queue.poll());
+        assertEquals("001", queue.poll().getContract().getPhoneNumber());
+        assertEquals("002", queue.poll().getContract().getPhoneNumber());
+        assertEquals("003", queue.poll().getContract().getPhoneNumber());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    final void testNonWorker() throws Exception {
+        List<CalculationTarget> targets = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            targets.add(createCalculationTarget(String.format("%03d", i)));
+        }
+        PartitionedCalculationTargetQueue queue = new PartitionedCalculationTargetQueue(targets, 2, 2);
+
+        // ワーカとして登録していないスレッドは、ワーカのパーティションの末尾から取り出す
+        assertEquals("003", queue.poll().getContract().getPhoneNumber());
+
+        // ワーカは自分のパーティションを先頭から処理する
+        ExecutorService service = Executors.newSingleThreadExecutor();
+        try {
+            CalculationTarget target = service.submit(() -> {
+                queue.registerWorker(1);
+                return queue.poll();
+            }).get(10, TimeUnit.SECONDS);
+            assertEquals("004", target.getContract().getPhoneNumber());
+        } finally {
+            service.shutdown();
+        }
+        queue.registerWorker(0);
+        assertEquals("000", queue.poll().getContract().getPhoneNumber());
+    }
+
+    @Test
+    final void testMultiThread() throws Exception {
+        int numberOfWorkers = 8;
+        List<CalculationTarget> targets = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            targets.add(createCalculationTarget(String.format("%05d", i)));
+        }
+        CalculationTargetQueue queue = new PartitionedCalculationTargetQueue(targets, numberOfWorkers, 4);
+        Set<CalculationTarget> processed = ConcurrentHashMap.newKeySet();
+
+        ExecutorService service = Executors.newFixedThreadPool(numberOfWorkers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < numberOfWorkers; i++) {
+                int worker = i;
+                futures.add(service.submit(() -> {
+                    queue.registerWorker(worker);
+                    int n = 0;
+                    while (!queue.finished()) {
+                        CalculationTarget target = queue.take();
+                        if (target == null) {
+                            continue;
+                        }
+                        // 一部の処理対象は一度失敗させる
+                        if (++n % 7 == worker && !processed.contains(target)) {
+                            queue.revert(target);
+                            continue;
+                        }
+                        // ワーカによって処理時間に差をつける
+                        if (worker == 0) {
+                            Thread.sleep(0, 100000);
+                        }
+                        assertTrue(processed.add(target));
+                        queue.success(target);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            service.shutdown();
+        }
+        assertEquals(new HashSet<>(targets), processed);
+        assertEquals(0, queue.size());
+        assertTrue(queue.finished());
+    }
+
+    private void assertPartition(Partition p, int id, String first, String last, int size) {
+        assertEquals(id, p.id);
+        assertEquals(first, p.firstPhoneNumber);
+        assertEquals(last, p.lastPhoneNumber);
+        assertEquals(size, p.size);
+    }
+
+    private CalculationTarget createCalculationTarget(String phoneNumber) {
+        Contract c = Contract.create(phoneNumber, "2000-01-01", null, null);
+        return new CalculationTarget(c, null, null, null, null, false);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.Test;
+
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+import com.tsurugidb.benchmark.phonebill.db.entity.History;
+
+class PrefetchingCalculationTargetQueueTest {
+
+    @Test
+    final void testPrefetch() throws InterruptedException {
+        CalculationTarget t1 = createCalculationTarget("T1");
+        CalculationTarget t2 = createCalculationTarget("T2");
+        CalculationTarget t3 = createCalculationTarget("T3");
+        CalculationTargetQueue shared = new CalculationTargetQueue(Arrays.asList(t1, t2, t3));
+        ConcurrentHashMap<String, AtomicInteger> readCounts = new ConcurrentHashMap<>();
+        Function<CalculationTarget, List<History>> reader = target -> {
+            readCounts.computeIfAbsent(target.getContract().getPhoneNumber(), k -> new AtomicInteger()).incrementAndGet();
+            return Collections.singletonList(new History());
+        };
+
+        try (PrefetchingCalculationTargetQueue queue = new PrefetchingCalculationTargetQueue(shared, reader, 2, 0,
+                new AtomicBoolean(false))) {
+            // 取り出した処理対象は通話履歴が先読みされている
+            Set<CalculationTarget> set = new HashSet<>();
+            CalculationTarget target = queue.take();
+            assertNotNull(target);
+            set.add(target);
+            assertEquals(1, target.takePrefetchedHistories().size());
+            assertNull(target.takePrefetchedHistories());
+            queue.success(target);
+
+            // revertした処理対象は先読みした通話履歴が破棄され、再度読み込まれる
+            target = queue.take();
+            assertNotNull(target.takePrefetchedHistories());
+            target.setPrefetchedHistories(Collections.emptyList());
+            queue.revert(target);
+            assertNull(target.takePrefetchedHistories());
+
+            for (int i = 0; i < 2; i++) {
+                target = queue.take();
+                assertNotNull(target.takePrefetchedHistories());
+                queue.success(target);
+                set.add(target);
+            }
+            assertEquals(new HashSet<>(Arrays.asList(t1, t2, t3)), set);
+            assertEquals(4, readCounts.values().stream().mapToInt(AtomicInteger::get).sum());
+
+            // すべて成功するとfinishedになる
+            assertNull(queue.take());
+            assertTrue(queue.finished());
+            assertTrue(shared.finished());
+            assertEquals("prefetched = 4, failed = 0, discarded = 1, bypassed = 0", queue.getReport());
+        }
+    }
+
+    @Test
+    final void testPrefetchFailure() throws InterruptedException {
+        CalculationTarget t1 = createCalculationTarget("T1");
+        CalculationTargetQueue shared = new CalculationTargetQueue(Arrays.asList(t1));
+        Function<CalculationTarget, List<History>> reader = target -> {
+            throw new RuntimeException("prefetch failed");
+        };
+
+        // 先読みに失敗した処理対象は通話履歴なしで取り出される
+        try (PrefetchingCalculationTargetQueue queue = new PrefetchingCalculationTargetQueue(shared, reader, 1, 0,
+                new AtomicBoolean(false))) {
+            CalculationTarget target = queue.take();
+            assertEquals(t1, target);
+            assertNull(target.takePrefetchedHistories());
+            queue.success(target);
+            assertNull(queue.take());
+            assertEquals("prefetched = 0, failed = 1, discarded = 0, bypassed = 0", queue.getReport());
+        }
+    }
+
+    @Test
+    final void testWorkerIndex() throws InterruptedException {
+        CalculationTarget t1 = createCalculationTarget("T1");
+        CalculationTarget t2 = createCalculationTarget("T2");
+        CalculationTarget t3 = createCalculationTarget("T3");
+        CalculationTarget t4 = createCalculationTarget("T4");
+        CalculationTargetQueue shared = new WorkStealingCalculationTargetQueue(Arrays.asList(t1, t2, t3, t4), 2);
+
+        // 先読み用のスレッドは指定したワーカのDequeの先頭から取り出す
+        try (PrefetchingCalculationTargetQueue queue = new PrefetchingCalculationTargetQueue(shared,
+                t -> Collections.emptyList(), 1, 1, new AtomicBoolean(false))) {
+            assertEquals(t3, queue.take());
+            assertEquals(t4, queue.take());
+        }
+    }
+
+    @Test
+    final void testIllegalDepth() {
+        CalculationTargetQueue shared = new CalculationTargetQueue(Collections.emptyList());
+        assertThrows(IllegalArgumentException.class,
+                () -> new PrefetchingCalculationTargetQueue(shared, t -> null, 0, 0, new AtomicBoolean(false)));
+    }
+
+    private CalculationTarget createCalculationTarget(String label) {
+        Contract c = Contract.create(label, "2000-01-01", null, null);
+        return new CalculationTarget(c, null, null, null, null, false);
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.tsurugidb.benchmark.phonebill.db.entity.Billing;
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+import com.tsurugidb.benchmark.phonebill.util.DateUtils;
+
+class ResumeBillingTest {
+
+    @Test
+    final void testSelectContracts() {
+        ResumeBilling resumeBilling = new ResumeBilling(DateUtils.toDate("2020-11-01"));
+        Contract c1 = createContract("001");
+        Contract c2 = createContract("002");
+        Contract c3 = createContract("003");
+        List<Contract> contracts = Arrays.asList(c1, c2, c3);
+
+        // 請求情報の無い契約のみが選択され、バッチ実行IDが引き継がれる
+        List<Billing> billings = Arrays.asList(createBilling("001", "BID1"), createBilling("003", "BID1"),
+                createBilling("005", "BID1"));
+        assertEquals(Arrays.asList(c2), resumeBilling.selectContracts(contracts, billings));
+        assertEquals("BID1", resumeBilling.getBatchExecId());
+        assertEquals("total contracts = 3, billed contracts = 2, remaining contracts = 1, batch exec id = BID1",
+                resumeBilling.getReport());
+
+        // 複数のバッチ実行IDが混在する場合はバッチ実行IDを引き継がない
+        billings = Arrays.asList(createBilling("001", "BID1"), createBilling("002", "BID2"));
+        assertEquals(Arrays.asList(c3), resumeBilling.selectContracts(contracts, billings));
+        assertNull(resumeBilling.getBatchExecId());
+
+        // 請求情報が1件も無い場合は全契約が選択される
+        assertEquals(contracts, resumeBilling.selectContracts(contracts, Collections.emptyList()));
+        assertNull(resumeBilling.getBatchExecId());
+    }
+
+    private Contract createContract(String phoneNumber) {
+        return Contract.create(phoneNumber, "2000-01-01", null, null);
+    }
+
+    private Billing createBilling(String phoneNumber, String batchExecId) {
+        Billing b = new Billing();
+        b.setPhoneNumber(phoneNumber);
+        b.setTargetMonth(DateUtils.toDate("2020-11-01"));
+        b.setBatchExecId(batchExecId);
+        return b;
+    }
+}
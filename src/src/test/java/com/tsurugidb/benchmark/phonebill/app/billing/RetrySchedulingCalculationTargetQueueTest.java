@@ -0,0 +1,187 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+
+class RetrySchedulingCalculationTargetQueueTest {
+
+    @Test
+    final void testRetryScheduling() throws InterruptedException {
+        CalculationTarget t1 = createCalculationTarget("T1");
+        CalculationTarget t2 = createCalculationTarget("T2");
+        AtomicLong clock = new AtomicLong(0);
+        RetrySchedulingCalculationTargetQueue queue = new RetrySchedulingCalculationTargetQueue(
+                new CalculationTargetQueue(Arrays.asList(t1, t2)), 100, 1000, 2, clock::get, new Random(0));
+
+        // abortした処理対象はバックオフ中は取り出されない
+        assertEquals(t1, queue.take());
+        queue.revert(t1);
+        assertEquals(2, queue.size());
+
+        // バックオフ中の処理対象は処理待ちとして数える
+        assertEquals(2, queue.getNumberOfQueuedTargets());
+        assertEquals(0, queue.getNumberOfRunningTargets());
+        assertEquals(0, queue.getNumberOfFinishedTargets());
+        assertEquals(t2, queue.take());
+        assertNull(queue.poll());
+        assertFalse(queue.finished());
+
+        // バックオフ後に取り出せる
+        clock.set(100);
+        assertEquals(t1, queue.poll());
+        assertFalse(t1.isFinalPhase());
+
+        // abort回数が閾値に達した処理対象は最終フェーズに回され、poll()では取り出されない
+        queue.revert(t1);
+        clock.set(10000);
+        assertNull(queue.poll());
+        queue.success(t2);
+
+        // 通常の処理対象がなくなると、最終フェーズの処理対象が取り出される
+        assertEquals(t1, queue.take());
+        assertTrue(t1.isFinalPhase());
+
+        // 最終フェーズでabortした場合も最終フェーズで再処理する
+        queue.revert(t1);
+        assertEquals(t1, queue.take());
+        assertTrue(t1.isFinalPhase());
+        queue.success(t1);
+
+        assertNull(queue.take());
+        assertTrue(queue.finished());
+        assertEquals(0, queue.getNumberOfQueuedTargets());
+        assertEquals(0, queue.getNumberOfRunningTargets());
+        assertEquals(2, queue.getNumberOfFinishedTargets());
+        assertEquals("backoffs = 1, final phase targets = 1, aborts per target histogram = {0=1, 3=1}, "
+                + "hot targets = [T1=3]", queue.getReport());
+    }
+
+    @Test
+    final void testFinalPhaseOneByOne() throws InterruptedException {
+        CalculationTarget t1 = createCalculationTarget("T1");
+        CalculationTarget t2 = createCalculationTarget("T2");
+        RetrySchedulingCalculationTargetQueue queue = new RetrySchedulingCalculationTargetQueue(
+                new CalculationTargetQueue(Arrays.asList(t1, t2)), 0, 0, 1, () -> 0L, new Random(0));
+
+        // 最終フェーズの処理対象は同時に1つしか取り出されない
+        queue.revert(Arrays.asList(queue.take(), queue.take()));
+        CalculationTarget target = queue.take();
+        assertTrue(target.isFinalPhase());
+        assertEquals(1, queue.size());
+        queue.success(Collections.singletonList(target));
+        target = queue.take();
+        assertTrue(target.isFinalPhase());
+        queue.success(target);
+        assertNull(queue.take());
+        assertTrue(queue.finished());
+    }
+
+    @Test
+    final void testTakeWaitsForBackoff() throws Exception {
+        CalculationTarget t1 = createCalculationTarget("T1");
+        RetrySchedulingCalculationTargetQueue queue = new RetrySchedulingCalculationTargetQueue(
+                new CalculationTargetQueue(Arrays.asList(t1)), 200, 200, 3);
+
+        // バックオフ中の処理対象しかない場合、take()はバックオフが終了するまで待つ
+        assertEquals(t1, queue.take());
+        long start = System.nanoTime();
+        queue.revert(t1);
+        assertEquals(t1, queue.take());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+
+        // 処理中の処理対象が成功するとtake()はnullを返す
+        ExecutorService service = Executors.newSingleThreadExecutor();
+        try {
+            Future<CalculationTarget> future = service.submit(() -> queue.take());
+            Thread.sleep(100);
+            assertFalse(future.isDone());
+            queue.success(t1);
+            assertNull(future.get(10, TimeUnit.SECONDS));
+            assertTrue(queue.finished());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    final void testTakeWakesOnRevert() throws Exception {
+        CalculationTarget t1 = createCalculationTarget("T1");
+        RetrySchedulingCalculationTargetQueue queue = new RetrySchedulingCalculationTargetQueue(
+                new CalculationTargetQueue(Arrays.asList(t1)), 0, 0, 1);
+
+        // ラップしたQueueが空の状態でtake()を待っているスレッドも、戻された処理対象を取り出せる
+        assertEquals(t1, queue.take());
+        ExecutorService service = Executors.newSingleThreadExecutor();
+        try {
+            Future<CalculationTarget> future = service.submit(() -> queue.take());
+            Thread.sleep(100);
+            assertFalse(future.isDone());
+            queue.revert(t1);
+            assertEquals(t1, future.get(10, TimeUnit.SECONDS));
+            assertTrue(t1.isFinalPhase());
+            queue.success(t1);
+            assertNull(queue.take());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    final void testGetBackoffMills() {
+        RetrySchedulingCalculationTargetQueue queue = new RetrySchedulingCalculationTargetQueue(
+                new CalculationTargetQueue(Collections.emptyList()), 100, 1000, 3, () -> 0L, new Random(0));
+
+        // バックオフ時間はabortごとに倍になり、上限で打ち切られる、後半の半分はランダム
+        for (int i = 0; i < 100; i++) {
+            long backoff = queue.getBackoffMills(1);
+            assertTrue(50 <= backoff && backoff <= 100, "backoff = " + backoff);
+            backoff = queue.getBackoffMills(3);
+            assertTrue(200 <= backoff && backoff <= 400, "backoff = " + backoff);
+            backoff = queue.getBackoffMills(100);
+            assertTrue(500 <= backoff && backoff <= 1000, "backoff = " + backoff);
+        }
+    }
+
+    @Test
+    final void testIllegalArguments() {
+        CalculationTargetQueue shared = new CalculationTargetQueue(Collections.emptyList());
+        assertThrows(IllegalArgumentException.class,
+                () -> new RetrySchedulingCalculationTargetQueue(shared, -1, 1000, 3));
+        assertThrows(IllegalArgumentException.class,
+                () -> new RetrySchedulingCalculationTargetQueue(shared, 100, 10, 3));
+        assertThrows(IllegalArgumentException.class,
+                () -> new RetrySchedulingCalculationTargetQueue(shared, 100, 1000, 0));
+    }
+
+    private CalculationTarget createCalculationTarget(String label) {
+        Contract c = Contract.create(label, "2000-01-01", null, null);
+        return new CalculationTarget(c, null, null, null, null, false);
+    }
+}
@@ -79,4 +79,24 @@ class SimpleBillingCalculatorTest {
 		assertEquals(6001, calculator.getMeteredCharge());
 	}
 
+	@Test
+	void testAddCallCharges() {
+		SimpleBillingCalculator calculator = new SimpleBillingCalculator();
+
+		// 配列で追加した通話料金が合計される
+		calculator.addCallCharges(new int[] { 1000, 500, 499 });
+		assertEquals(3000, calculator.getBillingAmount());
+		assertEquals(1999, calculator.getMeteredCharge());
+		calculator.addCallCharges(new int[0]);
+		assertEquals(1999, calculator.getMeteredCharge());
+		calculator.addCallCharge(2);
+		calculator.addCallCharges(new int[] { 1000 });
+		assertEquals(4001, calculator.getBillingAmount());
+		assertEquals(3001, calculator.getMeteredCharge());
+
+		// initでクリアされる
+		calculator.init();
+		assertEquals(0, calculator.getMeteredCharge());
+	}
+
 }
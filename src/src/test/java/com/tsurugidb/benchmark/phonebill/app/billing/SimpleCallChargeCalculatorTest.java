@@ -34,4 +34,21 @@ class SimpleCallChargeCalculatorTest {
 		assertEquals(30, calculator.calc(121));
 	}
 
+	@Test
+	void testArray() {
+		SimpleCallChargeCalculator calculator = new SimpleCallChargeCalculator();
+		int[] timeSecs = { -1, 0, 59, 60, 61, 119, 120, 121 };
+		int[] charges = new int[timeSecs.length];
+		calculator.calc(timeSecs, charges);
+		assertArrayEquals(new int[] { 10, 10, 10, 10, 20, 20, 20, 30 }, charges);
+
+		// 1件ずつ計算した結果と一致する
+		for (int i = 0; i < timeSecs.length; i++) {
+			assertEquals(calculator.calc(timeSecs[i]), charges[i]);
+		}
+
+		// 空の配列
+		calculator.calc(new int[0], new int[0]);
+	}
+
 }
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.tsurugidb.benchmark.phonebill.app.Config;
+import com.tsurugidb.benchmark.phonebill.app.billing.SqlPushdownBilling.PhoneNumberRange;
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+import com.tsurugidb.benchmark.phonebill.util.DateUtils;
+
+class SqlPushdownBillingTest {
+
+    @Test
+    final void testCreatePhoneNumberRanges() {
+        List<CalculationTarget> targets = new ArrayList<>();
+        for (String phoneNumber : Arrays.asList("006", "001", "002", "002", "003", "004", "005")) {
+            targets.add(createCalculationTarget(phoneNumber));
+        }
+
+        // 1つの範囲は全電話番号
+        List<PhoneNumberRange> list = SqlPushdownBilling.createPhoneNumberRanges(targets, 1);
+        assertEquals(1, list.size());
+        assertRange(list.get(0), null, null);
+
+        // 範囲は隙間なく連続し、最初の範囲は下限なし、最後の範囲は上限なし
+        list = SqlPushdownBilling.createPhoneNumberRanges(targets, 3);
+        assertEquals(3, list.size());
+        assertRange(list.get(0), null, "003");
+        assertRange(list.get(1), "003", "005");
+        assertRange(list.get(2), "005", null);
+
+        // 電話番号より範囲の数が多い場合は電話番号の数で打ち切る
+        list = SqlPushdownBilling.createPhoneNumberRanges(targets.subList(0, 2), 10);
+        assertEquals(2, list.size());
+        assertRange(list.get(0), null, "006");
+        assertRange(list.get(1), "006", null);
+
+        // 計算対象が空の場合
+        list = SqlPushdownBilling.createPhoneNumberRanges(Collections.emptyList(), 3);
+        assertEquals(1, list.size());
+        assertRange(list.get(0), null, null);
+
+        assertThrows(IllegalArgumentException.class, () -> SqlPushdownBilling.createPhoneNumberRanges(targets, 0));
+    }
+
+    @Test
+    final void testUnsupportedCalculator() {
+        // SQLで表した料金体系と異なるCalculatorは使用できない
+        Contract c = Contract.create("001", "2000-01-01", null, null);
+        List<CalculationTarget> targets = Collections.singletonList(
+                new CalculationTarget(c, null, new SimpleCallChargeCalculator(), null, null, false));
+        assertThrows(IllegalArgumentException.class,
+                () -> new SqlPushdownBilling(Config.getConfig(), targets, DateUtils.toDate("2020-11-01"),
+                        DateUtils.toDate("2020-11-30"), 1, "id", new AtomicBoolean(false), new AtomicInteger(0),
+                        new AtomicInteger(0)));
+    }
+
+    private void assertRange(PhoneNumberRange range, String from, String to) {
+        assertEquals(from, range.from);
+        assertEquals(to, range.to);
+    }
+
+    private CalculationTarget createCalculationTarget(String phoneNumber) {
+        Contract c = Contract.create(phoneNumber, "2000-01-01", null, null);
+        return new CalculationTarget(c, new SimpleBillingCalculator(), new SimpleCallChargeCalculator(), null, null,
+                false);
+    }
+}
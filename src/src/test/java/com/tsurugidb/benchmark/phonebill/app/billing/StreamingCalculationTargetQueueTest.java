@@ -0,0 +1,163 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+
+class StreamingCalculationTargetQueueTest {
+
+    @Test
+    final void testStreaming() throws InterruptedException {
+        List<Contract> contracts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            contracts.add(Contract.create(StreamingCalculationTargetQueue.toPhoneNumber(i), "2000-01-01", null, null));
+        }
+        // 同じ電話番号の契約は同じ範囲で読み込まれる
+        contracts.add(6, Contract.create(StreamingCalculationTargetQueue.toPhoneNumber(5), "2010-01-01", null, null));
+        List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+        BiFunction<String, String, List<Contract>> pageReader = (from, to) -> {
+            ranges.add(from + "-" + to);
+            return select(contracts, from, to);
+        };
+
+        try (StreamingCalculationTargetQueue queue = new StreamingCalculationTargetQueue(() -> "00000000009",
+                pageReader, 3, 2, c -> createCalculationTarget(c), new AtomicBoolean(false))) {
+            // バッファの容量を超えて読み込まない
+            Thread.sleep(100);
+            assertEquals(2, queue.size());
+            assertFalse(queue.finished());
+
+            // revertした処理対象は優先して取り出される
+            CalculationTarget target = queue.take();
+            assertEquals(contracts.get(0), target.getContract());
+            queue.revert(target);
+            assertEquals(contracts.get(0), queue.take().getContract());
+            queue.success(target);
+
+            List<Contract> list = new ArrayList<>();
+            list.add(target.getContract());
+            for (target = queue.take(); target != null; target = queue.take()) {
+                list.add(target.getContract());
+                queue.success(target);
+            }
+            assertEquals(contracts, list);
+            assertTrue(queue.finished());
+            assertEquals(0, queue.size());
+
+            // 最初の範囲は下限なし、最大の電話番号を含む範囲は上限なし
+            assertEquals(Arrays.asList("null-00000000003", "00000000003-00000000006", "00000000006-00000000009",
+                    "00000000009-null"), ranges);
+            assertTrue(queue.getReport().startsWith("pages = 4, loaded contracts = 11, "));
+        }
+    }
+
+    @Test
+    final void testTakeBlocksUntilRevert() throws Exception {
+        Contract contract = Contract.create(StreamingCalculationTargetQueue.toPhoneNumber(1), "2000-01-01", null, null);
+        ExecutorService service = Executors.newSingleThreadExecutor();
+        try (StreamingCalculationTargetQueue queue = new StreamingCalculationTargetQueue(() -> "00000000001",
+                (from, to) -> select(Arrays.asList(contract), from, to), 3, 2, c -> createCalculationTarget(c),
+                new AtomicBoolean(false))) {
+            CalculationTarget target = queue.take();
+            assertEquals(contract, target.getContract());
+
+            // 処理中の処理対象がある間は、読み込みが終わっていてもtake()はブロックする
+            Future<CalculationTarget> future = service.submit(() -> queue.take());
+            assertThrows(TimeoutException.class, () -> future.get(100, TimeUnit.MILLISECONDS));
+
+            // revertするとブロックしているtake()が処理対象を返す
+            queue.revert(target);
+            assertEquals(contract, future.get(1, TimeUnit.SECONDS).getContract());
+
+            // 全処理対象の処理が終わると、ブロックしているtake()がnullを返す
+            Future<CalculationTarget> future2 = service.submit(() -> queue.take());
+            assertThrows(TimeoutException.class, () -> future2.get(100, TimeUnit.MILLISECONDS));
+            queue.success(target);
+            assertNull(future2.get(1, TimeUnit.SECONDS));
+            assertTrue(queue.finished());
+            assertNull(queue.poll());
+        } finally {
+            service.shutdownNow();
+        }
+    }
+
+    @Test
+    final void testNoContracts() throws InterruptedException {
+        List<String> ranges = Collections.synchronizedList(new ArrayList<>());
+        BiFunction<String, String, List<Contract>> pageReader = (from, to) -> {
+            ranges.add(from + "-" + to);
+            return Collections.emptyList();
+        };
+
+        // 契約が存在しない場合は、範囲を指定せずに1回だけ読み込む
+        try (StreamingCalculationTargetQueue queue = new StreamingCalculationTargetQueue(() -> null, pageReader, 3,
+                2, c -> createCalculationTarget(c), new AtomicBoolean(false))) {
+            assertNull(queue.take());
+            assertTrue(queue.finished());
+            assertEquals(Arrays.asList("null-null"), ranges);
+        }
+    }
+
+    @Test
+    final void testLoaderFailure() throws InterruptedException {
+        BiFunction<String, String, List<Contract>> pageReader = (from, to) -> {
+            throw new RuntimeException("load failed");
+        };
+
+        // 読み込みに失敗した場合は処理対象の取り出しで例外になる
+        try (StreamingCalculationTargetQueue queue = new StreamingCalculationTargetQueue(() -> "00000000009",
+                pageReader, 3, 2, c -> createCalculationTarget(c), new AtomicBoolean(false))) {
+            IllegalStateException e = assertThrows(IllegalStateException.class, () -> queue.take());
+            assertEquals("load failed", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    final void testIllegalArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new StreamingCalculationTargetQueue(() -> null,
+                (from, to) -> null, 0, 1, c -> null, new AtomicBoolean(false)));
+        assertThrows(IllegalArgumentException.class, () -> new StreamingCalculationTargetQueue(() -> null,
+                (from, to) -> null, 1, 0, c -> null, new AtomicBoolean(false)));
+    }
+
+    private static List<Contract> select(List<Contract> contracts, String from, String to) {
+        return contracts.stream()
+                .filter(c -> from == null || c.getPhoneNumber().compareTo(from) >= 0)
+                .filter(c -> to == null || c.getPhoneNumber().compareTo(to) < 0)
+                .collect(Collectors.toList());
+    }
+
+    private CalculationTarget createCalculationTarget(Contract c) {
+        return new CalculationTarget(c, null, null, null, null, false);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.app.billing;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+
+class WorkStealingCalculationTargetQueueTest {
+
+    @Test
+    final void testEmpty() throws InterruptedException {
+        CalculationTargetQueue queue = new WorkStealingCalculationTargetQueue(Collections.emptyList(), 4);
+        assertFalse(queue.finished());
+        assertNull(queue.take());
+        assertTrue(queue.finished());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    final void testSingleThread() throws InterruptedException {
+        CalculationTarget t1 = createCalculationTarget("T1");
+        CalculationTarget t2 = createCalculationTarget("T2");
+        CalculationTarget t3 = createCalculationTarget("T3");
+        CalculationTargetQueue queue = new WorkStealingCalculationTargetQueue(Arrays.asList(t1, t2, t3), 2);
+        assertEquals("Contracts queue status: total size = 3, in queue = 3, running = 0", queue.getStatus());
+
+        // 自分のDequeからは先頭から、他のワーカのDequeからは末尾から取り出す
+        Set<CalculationTarget> set = new HashSet<>();
+        set.add(queue.poll());
+        set.add(queue.poll());
+        assertEquals("Contracts queue status: total size = 3, in queue = 1, running = 2", queue.getStatus());
+        assertEquals(1, queue.getNumberOfQueuedTargets());
+        assertEquals(2, queue.getNumberOfRunningTargets());
+        assertEquals(0, queue.getNumberOfFinishedTargets());
+        assertEquals(1, queue.size());
+
+        // revertした処理対象は再度取り出せる
+        CalculationTarget target = set.iterator().next();
+        queue.revert(target);
+        set.remove(target);
+        assertEquals(2, queue.size());
+        set.add(queue.poll());
+        set.add(queue.poll());
+        assertEquals(new HashSet<>(Arrays.asList(t1, t2, t3)), set);
+        assertNull(queue.poll());
+        assertFalse(queue.finished());
+
+        // すべて成功するとfinishedになる
+        queue.success(new ArrayList<>(set));
+        assertEquals("Contracts queue status: total size = 3, in queue = 0, running = 0", queue.getStatus());
+        assertEquals(0, queue.getNumberOfQueuedTargets());
+        assertEquals(0, queue.getNumberOfRunningTargets());
+        assertEquals(3, queue.getNumberOfFinishedTargets());
+        assertNull(queue.take());
+        assertTrue(queue.finished());
+    }
+
+    @Test
+    final void testNonWorker() throws Exception {
+        CalculationTarget t1 = createCalculationTarget("T1");
+        CalculationTarget t2 = createCalculationTarget("T2");
+        CalculationTarget t3 = createCalculationTarget("T3");
+        CalculationTarget t4 = createCalculationTarget("T4");
+        CalculationTargetQueue queue = new WorkStealingCalculationTargetQueue(Arrays.asList(t1, t2, t3, t4), 2);
+
+        // ワーカとして登録していないスレッドはDequeを持たず、Dequeの末尾から盗む
+        ExecutorService service = Executors.newSingleThreadExecutor();
+        try {
+            assertEquals(t2, service.submit(() -> queue.poll()).get(10, TimeUnit.SECONDS));
+        } finally {
+            service.shutdown();
+        }
+
+        // ワーカとして登録したスレッドは自分のDequeの先頭から取り出し、空になると他のワーカのDequeの末尾から盗む
+        queue.registerWorker(0);
+        assertEquals(t1, queue.poll());
+        assertEquals(t4, queue.poll());
+        assertEquals(t3, queue.poll());
+        assertNull(queue.poll());
+
+        // ワーカの番号はワーカ数未満
+        assertThrows(IllegalArgumentException.class, () -> queue.registerWorker(2));
+        assertThrows(IllegalArgumentException.class, () -> queue.registerWorker(-1));
+    }
+
+    @Test
+    final void testTakeBlocksUntilRevert() throws Exception {
+        CalculationTarget t1 = createCalculationTarget("T1");
+        CalculationTargetQueue queue = new WorkStealingCalculationTargetQueue(Collections.singletonList(t1), 2);
+        assertEquals(t1, queue.poll());
+
+        ExecutorService service = Executors.newFixedThreadPool(1);
+        try {
+            Future<CalculationTarget> future = service.submit(() -> queue.take());
+            Thread.sleep(100);
+            assertFalse(future.isDone());
+            queue.revert(t1);
+            assertEquals(t1, future.get(10, TimeUnit.SECONDS));
+
+            // 処理中の対象が成功するとtake()はnullを返す
+            Future<CalculationTarget> future2 = service.submit(() -> queue.take());
+            Thread.sleep(100);
+            assertFalse(future2.isDone());
+            queue.success(t1);
+            assertNull(future2.get(10, TimeUnit.SECONDS));
+            assertTrue(queue.finished());
+        } finally {
+            service.shutdown();
+        }
+    }
+
+    @Test
+    final void testMultiThread() throws Exception {
+        int numberOfWorkers = 8;
+        List<CalculationTarget> targets = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            targets.add(createCalculationTarget(String.format("%05d", i)));
+        }
+        CalculationTargetQueue queue = new WorkStealingCalculationTargetQueue(targets, numberOfWorkers);
+        Set<CalculationTarget> processed = ConcurrentHashMap.newKeySet();
+
+        ExecutorService service = Executors.newFixedThreadPool(numberOfWorkers);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < numberOfWorkers; i++) {
+                int worker = i;
+                futures.add(service.submit(() -> {
+                    queue.registerWorker(worker);
+                    int n = 0;
+                    while (!queue.finished()) {
+                        CalculationTarget target = queue.take();
+                        if (target == null) {
+                            continue;
+                        }
+                        // 一部の処理対象は一度失敗させる
+                        if (++n % 7 == worker && !processed.contains(target)) {
+                            queue.revert(target);
+                            continue;
+                        }
+                        assertTrue(processed.add(target));
+                        queue.success(target);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : futures) {
+                f.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            service.shutdown();
+        }
+        assertEquals(new HashSet<>(targets), processed);
+        assertEquals(0, queue.size());
+        assertTrue(queue.finished());
+    }
+
+    private CalculationTarget createCalculationTarget(String label) {
+        Contract c = Contract.create(label, "2000-01-01", null, null);
+        return new CalculationTarget(c, null, null, null, null, false);
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.db.entity;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import com.tsurugidb.benchmark.phonebill.util.DateUtils;
+
+class HistoryColumnsTest {
+
+    @Test
+    final void testAddAndTrim() {
+        HistoryColumns columns = new HistoryColumns(2);
+        long startTime = DateUtils.toTimestamp("2020-11-01 10:00:00.000").getTime();
+        for (int i = 0; i < 5; i++) {
+            columns.add(i, "0000000000" + i, i % 2 == 0 ? "C" : "R", startTime + i, 60 * i, i == 3 ? null : i * 10, 0);
+        }
+        assertEquals(5, columns.size());
+
+        // trim()後は配列の長さがレコード数と一致する
+        columns.trim();
+        assertEquals(5, columns.getTimeSecs().length);
+        assertArrayEquals(new int[] {0, 60, 120, 180, 240}, columns.getTimeSecs());
+
+        // 各項目の値
+        assertEquals(3L, columns.getSid(3));
+        assertEquals("00000000003", columns.getCallerPhoneNumber(3));
+        assertEquals("R", columns.getPaymentCategory(3));
+        assertEquals(startTime + 3, columns.getStartTime(3));
+        assertNull(columns.getCharge(3));
+        assertEquals(Integer.valueOf(20), columns.getCharge(2));
+
+        // Historyへの変換
+        History h = columns.toHistory(1);
+        assertEquals("00000000001", h.getCallerPhoneNumber());
+        assertEquals("R", h.getPaymentCategorty());
+        assertEquals(startTime + 1, h.getStartTime().getTime());
+        assertEquals(60, h.getTimeSecs());
+        assertEquals(Integer.valueOf(10), h.getCharge());
+        assertEquals(0, h.getDf());
+    }
+
+    @Test
+    final void testSetCharges() {
+        HistoryColumns columns = new HistoryColumns();
+        columns.add(0, "00000000001", "C", 0, 10, null, 0);
+        columns.add(0, "00000000002", "C", 0, 70, 5, 0);
+        columns.trim();
+
+        // 料金がnullのレコードも含めて料金が設定される
+        columns.setCharges(new int[] {10, 20});
+        assertEquals(Integer.valueOf(10), columns.getCharge(0));
+        assertEquals(Integer.valueOf(20), columns.getCharge(1));
+
+        // 配列がレコード数より短い場合は例外
+        assertThrows(IllegalArgumentException.class, () -> columns.setCharges(new int[1]));
+    }
+}
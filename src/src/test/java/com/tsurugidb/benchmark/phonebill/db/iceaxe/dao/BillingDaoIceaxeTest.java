@@ -17,6 +17,8 @@ package com.tsurugidb.benchmark.phonebill.db.iceaxe.dao;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.sql.Date;
+import java.sql.Timestamp;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
@@ -30,6 +32,8 @@ import org.junit.jupiter.api.Test;
 import com.tsurugidb.benchmark.phonebill.app.Config;
 import com.tsurugidb.benchmark.phonebill.db.PhoneBillDbManager;
 import com.tsurugidb.benchmark.phonebill.db.entity.Billing;
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+import com.tsurugidb.benchmark.phonebill.db.entity.History;
 import com.tsurugidb.benchmark.phonebill.db.iceaxe.IceaxeTestTools;
 import com.tsurugidb.benchmark.phonebill.util.DateUtils;
 
@@ -120,6 +124,39 @@ class BillingDaoIceaxeTest {
         assertEquals(Collections.emptySet(), testTools.getBillingSet());
     }
 
+    @Test
+    final void testDeleteByPhoneNumber() {
+        testTools.insertToBilling(B1, B2, B3, B4);
+
+        testTools.execute(() -> {
+            assertEquals(0, dao.delete(DateUtils.toDate("2022-07-01"), "002"));
+        });
+        assertEquals(new HashSet<>(Arrays.asList(B1, B2, B3, B4)), testTools.getBillingSet());
+
+        testTools.execute(() -> {
+            assertEquals(1, dao.delete(DateUtils.toDate("2022-01-01"), "002"));
+        });
+        assertEquals(new HashSet<>(Arrays.asList(B1, B3, B4)), testTools.getBillingSet());
+    }
+
+    @Test
+    final void testUpsert() {
+        testTools.insertToBilling(B1, B2, B3);
+
+        // 対象年月と電話番号が同じ請求情報が置き換えられる
+        Billing b = Billing.create("002", "2022-01-01", 10, 20, 30, "id1");
+        testTools.execute(() -> {
+            assertEquals(1, dao.upsert(b));
+        });
+        assertEquals(new HashSet<>(Arrays.asList(B1, b, B3)), testTools.getBillingSet());
+
+        // 存在しない場合は挿入される
+        testTools.execute(() -> {
+            assertEquals(1, dao.upsert(B4));
+        });
+        assertEquals(new HashSet<>(Arrays.asList(B1, b, B3, B4)), testTools.getBillingSet());
+    }
+
     @Test
     final void testGetBillings() {
         testTools.insertToBilling(B1, B2, B3, B4);
@@ -128,6 +165,76 @@ class BillingDaoIceaxeTest {
             return new HashSet<>(dao.getBillings());
         });
         assertEquals(new HashSet<>(Arrays.asList(B1, B2, B3, B4)), actual);
+
+        // 対象年月を指定
+        actual = testTools.execute(() -> {
+            return new HashSet<>(dao.getBillings(DateUtils.toDate("2022-01-01")));
+        });
+        assertEquals(new HashSet<>(Arrays.asList(B1, B2)), actual);
+        actual = testTools.execute(() -> {
+            return new HashSet<>(dao.getBillings(DateUtils.toDate("2022-07-01")));
+        });
+        assertEquals(Collections.emptySet(), actual);
+    }
+
+    @Test
+    final void testInsertBillingsBySql() {
+        if (testTools.tableExists("history")) {
+            testTools.execute(() -> ddl.dropTable("history"));
+        }
+        testTools.execute(ddl::createHistoryTable);
+        testTools.insertToHistory(
+                History.create("001", "002", "C", "2022-01-10 10:00:00.000", 10, 1500, 0),
+                History.create("003", "001", "R", "2022-01-11 10:00:00.000", 10, 1000, 0),
+                History.create("001", "002", "C", "2022-01-12 10:00:00.000", 10, 500, 1), // 論理削除済み
+                History.create("002", "001", "C", "2022-01-13 10:00:00.000", 10, 100, 0),
+                History.create("004", "001", "C", "2022-02-01 00:00:00.000", 10, 100, 0)); // 期間外
+        Timestamp start = DateUtils.toTimestamp("2022-01-01 00:00:00.000");
+        Timestamp end = DateUtils.toTimestamp("2022-02-01 00:00:00.000");
+
+        // 課金対象の電話番号ごとに料金が集計される
+        testTools.execute(() -> {
+            assertEquals(2, dao.insertBillingsBySql(DateUtils.toDate("2022-01-01"), start, end, null, null, "id1"));
+        });
+        assertEquals(new HashSet<>(Arrays.asList(
+                Billing.create("001", "2022-01-01", 3000, 2500, 3500, "id1"),
+                Billing.create("002", "2022-01-01", 3000, 100, 3000, "id1"))), testTools.getBillingSet());
+
+        // 課金対象の電話番号の範囲を指定
+        testTools.execute(() -> dao.delete());
+        testTools.execute(() -> {
+            assertEquals(1, dao.insertBillingsBySql(DateUtils.toDate("2022-01-01"), start, end, "002", null, "id1"));
+            assertEquals(1, dao.insertBillingsBySql(DateUtils.toDate("2022-01-01"), start, end, null, "002", "id1"));
+        });
+        assertEquals(new HashSet<>(Arrays.asList(
+                Billing.create("001", "2022-01-01", 3000, 2500, 3500, "id1"),
+                Billing.create("002", "2022-01-01", 3000, 100, 3000, "id1"))), testTools.getBillingSet());
     }
 
+    @Test
+    final void testInsertBasicOnlyBillingsBySql() {
+        if (testTools.tableExists("contracts")) {
+            testTools.execute(() -> ddl.dropTable("contracts"));
+        }
+        testTools.execute(ddl::createContractsTable);
+        testTools.insertToContracts(Arrays.asList(
+                Contract.create("001", "2021-01-01", null, "dummy"),
+                Contract.create("002", "2021-01-01", "2022-01-15", "dummy"),
+                Contract.create("003", "2022-01-10", null, "dummy"),
+                Contract.create("004", "2021-01-01", "2021-12-31", "dummy"), // 期間外
+                Contract.create("005", "2022-02-01", null, "dummy"))); // 期間外
+        testTools.insertToBilling(Billing.create("001", "2022-01-01", 3000, 2500, 3500, "id1"));
+        Date targetMonth = DateUtils.toDate("2022-01-01");
+        Date end = DateUtils.toDate("2022-01-31");
+
+        // 請求情報の無い有効な契約の請求情報が挿入される
+        testTools.execute(() -> {
+            assertEquals(1, dao.insertBasicOnlyBillingsBySql(targetMonth, targetMonth, end, null, "003", "id1"));
+            assertEquals(1, dao.insertBasicOnlyBillingsBySql(targetMonth, targetMonth, end, "003", null, "id1"));
+        });
+        assertEquals(new HashSet<>(Arrays.asList(
+                Billing.create("001", "2022-01-01", 3000, 2500, 3500, "id1"),
+                Billing.create("002", "2022-01-01", 3000, 0, 3000, "id1"),
+                Billing.create("003", "2022-01-01", 3000, 0, 3000, "id1"))), testTools.getBillingSet());
+    }
 }
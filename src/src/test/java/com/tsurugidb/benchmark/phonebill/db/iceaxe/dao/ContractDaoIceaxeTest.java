@@ -332,6 +332,48 @@ class ContractDaoIceaxeTest {
 
     }
 
+    @Test
+    final void testGetContractsWithPhoneNumberRange() {
+        Date start = DateUtils.toDate("2022-01-01");
+        Date end = DateUtils.toDate("2022-12-31");
+
+        // テーブルが空の時
+        assertEquals(Collections.EMPTY_LIST, testTools.execute(() -> {
+            return dao.getContracts(start, end, null, null);
+        }));
+
+        // テーブルにレコード追加
+        testTools.insertToContracts(C10, C20, C30, C31, C41, C40);
+
+        // 範囲の指定なし
+        assertEquals(Arrays.asList(C10, C20, C31, C41), testTools.execute(() -> {
+            return dao.getContracts(start, end, null, null);
+        }));
+
+        // 下限を含み、上限を含まない
+        assertEquals(Arrays.asList(C20, C31), testTools.execute(() -> {
+            return dao.getContracts(start, end, "2", "4");
+        }));
+
+        // 下限のみ、上限のみの指定
+        assertEquals(Arrays.asList(C10), testTools.execute(() -> {
+            return dao.getContracts(start, end, null, "2");
+        }));
+        assertEquals(Arrays.asList(C31, C41), testTools.execute(() -> {
+            return dao.getContracts(start, end, "3", null);
+        }));
+    }
+
+    @Test
+    final void testGetMaxPhoneNumber() {
+        // テーブルが空の時
+        assertNull(testTools.execute(dao::getMaxPhoneNumber));
+
+        // テーブルにレコード追加
+        testTools.insertToContracts(C20, C30, C40, C31, C10, C41);
+        assertEquals("4", testTools.execute(dao::getMaxPhoneNumber));
+    }
+
     @Test
     final void testGetContracts() {
         Set<Contract> actualSet;
@@ -19,6 +19,7 @@ import static org.junit.jupiter.api.Assertions.*;
 
 import java.sql.Date;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.time.LocalDate;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -301,6 +302,31 @@ class HistoryDaoIceaxeTest {
 
     }
 
+    @Test
+    final void testBatchUpdateCharge() {
+        History h1 = History.create("001", "456", "C", "2022-01-10 15:15:28.312", 5, 2, 0);
+        History h2 = History.create("001", "456", "C", "2022-01-10 15:15:28.313", 5, null, 0);
+        History h3 = History.create("001", "456", "C", "2022-01-10 15:15:28.314", 5, 2, 1);
+
+        History h2u = History.create("001", "459", "C", "2022-01-10 15:15:28.313", 15, 5, 1);
+        History h2r = History.create("001", "456", "C", "2022-01-10 15:15:28.313", 5, 5, 0); // 料金以外はアップデートされない
+        History h4u = History.create("001", "456", "C", "2022-01-05 00:00:00.000", 5, 2, 0); // 同一キーのデータがないのでアップデートされない
+
+        // テストデータを入れる
+        Set<History> testDataSet = new HashSet<>(Arrays.asList(h1, h2, h3));
+        testTools.insertToHistory(testDataSet);
+        assertEquals(testDataSet, testTools.getHistorySet());
+
+        // アップデート実行
+        List<History> updateDataList = Arrays.asList(h2u, h4u);
+        assertEquals(2, testTools.execute(() -> {
+            return dao.batchUpdateCharge(updateDataList);
+        }));
+        testDataSet.remove(h2);
+        testDataSet.add(h2r);
+        assertEquals(testDataSet, testTools.getHistorySet());
+    }
+
     @Test
     final void testBatchUpdate() {
         History h1 = History.create("001", "456", "C", "2022-01-10 15:15:28.312", 5, 2, 0);
@@ -398,6 +424,23 @@ class HistoryDaoIceaxeTest {
 
     }
 
+    @Test
+    final void testGetHistory() {
+        History h1 = History.create("001", "002", "C", "2022-03-05 12:10:01.999", 11, null, 0);
+        History h2 = History.create("001", "002", "R", "2022-03-05 12:10:01.999", 12, 5, 0);
+        History h3 = History.create("001", "005", "C", "2022-03-05 12:10:02.000", 13, null, 1);
+        testTools.insertToHistory(h1, h2, h3);
+
+        // 主キーが一致する通話履歴を返す
+        assertEquals(h1, testTools.execute(() -> dao.getHistory(h1)));
+        assertEquals(h2, testTools.execute(() -> dao.getHistory(h2)));
+        assertEquals(h3, testTools.execute(() -> dao.getHistory(h3)));
+
+        // 主キーが一致する通話履歴が存在しない
+        History h4 = History.create("001", "002", "C", "2022-03-05 12:10:01.998", 11, null, 0);
+        assertNull(testTools.execute(() -> dao.getHistory(h4)));
+    }
+
     @Test
     final void testGetHistoriesCalculationTarget() {
         Contract c = Contract.create("001", "2022-01-01", "2024-09-25", "dummy");
@@ -546,6 +589,66 @@ class HistoryDaoIceaxeTest {
         assertEquals(set, actualSet);
     }
 
+    @Test
+    final void testGetNullChargeHistoriesAndUpdateChargeOfDeletedHistories() {
+        History h1 = History.create("1", "456", "C", "2022-08-01 00:00:00.000", 5, null, 0);
+        History h2 = History.create("2", "456", "C", "2022-08-15 15:15:28.312", 5, 5, 0);
+        History h3 = History.create("3", "456", "R", "2022-08-31 23:59:59.999", 5, null, 1);
+        History h4 = History.create("4", "456", "C", "2022-08-31 10:00:00.000", 5, 5, 1);
+        History h5 = History.create("5", "456", "C", "2022-09-01 00:00:00.000", 5, null, 1);
+        History h6 = History.create("6", "456", "C", "2022-07-31 23:59:59.999", 5, null, 0);
+        testTools.insertToHistory(h1, h2, h3, h4, h5, h6);
+        Timestamp start = DateUtils.toTimestamp("2022-08-01 00:00:00.000");
+        Timestamp end = DateUtils.toTimestamp("2022-09-01 00:00:00.000");
+
+        // 期間内の料金がnullの通話履歴が、論理削除されたものも含めて取得される
+        Set<History> actualSet = testTools.execute(() -> {
+            return new HashSet<>(dao.getNullChargeHistories(start, end));
+        });
+        assertEquals(new HashSet<>(Arrays.asList(h1, h3)), actualSet);
+
+        // 期間内の論理削除された料金がnullの通話履歴の料金が0になる
+        int ret = testTools.execute(() -> {
+            return dao.updateChargeOfDeletedHistories(start, end);
+        });
+        assertEquals(1, ret);
+        h3.setCharge(0);
+        actualSet = testTools.execute(() -> {
+            return new HashSet<>(dao.getHistories());
+        });
+        assertEquals(new HashSet<>(Arrays.asList(h1, h2, h3, h4, h5, h6)), actualSet);
+        actualSet = testTools.execute(() -> {
+            return new HashSet<>(dao.getNullChargeHistories(start, end));
+        });
+        assertEquals(Collections.singleton(h1), actualSet);
+    }
+
+    @Test
+    final void testUpdateChargesBySql() {
+        Timestamp start = DateUtils.toTimestamp("2022-01-10 00:00:00.000");
+        Timestamp end = DateUtils.toTimestamp("2022-01-11 00:00:00.000");
+        History h1 = History.create("001", "456", "C", "2022-01-10 15:15:28.312", 0, null, 0);
+        History h2 = History.create("001", "456", "C", "2022-01-10 15:15:28.313", 60, 5, 0);
+        History h3 = History.create("001", "456", "C", "2022-01-10 15:15:28.314", 61, 20, 0);
+        History h4 = History.create("001", "456", "C", "2022-01-10 15:15:28.315", 61, null, 1); // 論理削除済み
+        History h5 = History.create("001", "456", "C", "2022-01-11 00:00:00.000", 61, null, 0); // 期間外
+        testTools.insertToHistory(h1, h2, h3, h4, h5);
+
+        // 料金が変化しない通話履歴は更新しない
+        assertEquals(2, testTools.execute(() -> {
+            return dao.updateChargesBySql(start, end, true);
+        }));
+        h1.setCharge(10);
+        h2.setCharge(10);
+        assertEquals(new HashSet<>(Arrays.asList(h1, h2, h3, h4, h5)), testTools.getHistorySet());
+
+        // 期間内の論理削除されていない通話履歴がすべて更新される
+        assertEquals(3, testTools.execute(() -> {
+            return dao.updateChargesBySql(start, end, false);
+        }));
+        assertEquals(new HashSet<>(Arrays.asList(h1, h2, h3, h4, h5)), testTools.getHistorySet());
+    }
+
     @Test
     final void testDelete() {
         Set<History> actualSet;
@@ -250,6 +250,43 @@ class ContractDaoJdbcTest extends AbstractJdbcTestCase {
         assertEquals(Collections.EMPTY_LIST, actual);
     }
 
+    @Test
+    final void testGetContractsWithPhoneNumberRange() throws SQLException {
+        ContractDao dao = getManager().getContractDao();
+        truncateTable("contracts");
+        Date start = DateUtils.toDate("2022-01-01");
+        Date end = DateUtils.toDate("2022-12-31");
+
+        // テーブルが空の時
+        assertEquals(Collections.EMPTY_LIST, dao.getContracts(start, end, null, null));
+
+        // テーブルにレコード追加
+        dao.batchInsert(Arrays.asList(C10, C20, C30, C31, C41, C40));
+
+        // 範囲の指定なし
+        assertEquals(Arrays.asList(C10, C20, C31, C41), dao.getContracts(start, end, null, null));
+
+        // 下限を含み、上限を含まない
+        assertEquals(Arrays.asList(C20, C31), dao.getContracts(start, end, "2", "4"));
+
+        // 下限のみ、上限のみの指定
+        assertEquals(Arrays.asList(C10), dao.getContracts(start, end, null, "2"));
+        assertEquals(Arrays.asList(C31, C41), dao.getContracts(start, end, "3", null));
+    }
+
+    @Test
+    final void testGetMaxPhoneNumber() throws SQLException {
+        ContractDao dao = getManager().getContractDao();
+        truncateTable("contracts");
+
+        // テーブルが空の時
+        assertNull(dao.getMaxPhoneNumber());
+
+        // テーブルにレコード追加
+        dao.batchInsert(Arrays.asList(C20, C30, C40, C31, C10, C41));
+        assertEquals("4", dao.getMaxPhoneNumber());
+    }
+
     @Test
     final void testGetContracts() throws SQLException {
         ContractDao dao = getManager().getContractDao();
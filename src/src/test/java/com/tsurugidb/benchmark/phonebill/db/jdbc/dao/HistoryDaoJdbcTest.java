@@ -305,6 +305,25 @@ class HistoryDaoJdbcTest extends AbstractJdbcTestCase {
 
 	}
 
+	@Test
+	final void testGetHistory() {
+		HistoryDao dao = getManager().getHistoryDao();
+
+		History h1 = History.create("001", "002", "C", "2022-03-05 12:10:01.999", 11, null, 0);
+		History h2 = History.create("001", "002", "R", "2022-03-05 12:10:01.999", 12, 5, 0);
+		History h3 = History.create("001", "005", "C", "2022-03-05 12:10:02.000", 13, null, 1);
+		dao.batchInsert(Arrays.asList(h1, h2, h3));
+
+		// 主キーが一致する通話履歴を返す
+		assertEquals(h1, dao.getHistory(h1));
+		assertEquals(h2, dao.getHistory(h2));
+		assertEquals(h3, dao.getHistory(h3));
+
+		// 主キーが一致する通話履歴が存在しない
+		assertNull(dao.getHistory(History.create("001", "002", "C", "2022-03-05 12:10:01.998", 11, null, 0)));
+		assertNull(dao.getHistory(History.create("002", "002", "C", "2022-03-05 12:10:01.999", 11, null, 0)));
+	}
+
 	@Test
 	final void testGetHistoriesCalculationTarget() throws SQLException {
 		HistoryDao dao = getManager().getHistoryDao();
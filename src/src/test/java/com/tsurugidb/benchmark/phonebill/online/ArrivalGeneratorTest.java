@@ -0,0 +1,93 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.online;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.tsurugidb.benchmark.phonebill.app.Config.ArrivalDistribution;
+import com.tsurugidb.benchmark.phonebill.app.Config.LoadProfileType;
+
+class ArrivalGeneratorTest {
+    private static final long NANOS_PER_MINUTE = 60L * 1000 * 1000 * 1000;
+
+    @Test
+    final void testUniform() {
+        // 1分間に7回 => 到着間隔は丸め誤差を累積せず、7回目がちょうど1分後になる
+        ArrivalGenerator generator = new ArrivalGenerator(ArrivalDistribution.UNIFORM, 7, new Random(0), 1000);
+        long prev = 1000;
+        for (int i = 1; i <= 7; i++) {
+            long next = generator.next();
+            assertEquals(NANOS_PER_MINUTE / 7d, next - prev, 1d);
+            prev = next;
+        }
+        assertEquals(1000 + NANOS_PER_MINUTE, prev);
+
+        // resetすると指定の時刻から到着時刻を生成する
+        generator.reset(5000);
+        assertEquals(5000 + Math.round(NANOS_PER_MINUTE / 7d), generator.next());
+    }
+
+    @Test
+    final void testPoisson() {
+        // 到着間隔の平均が1分間の実行回数から求めた値に近く、到着時刻が単調に増加する
+        int execPerMin = 600;
+        int n = 100000;
+        ArrivalGenerator generator = new ArrivalGenerator(ArrivalDistribution.POISSON, execPerMin, new Random(0), 0);
+        long prev = 0;
+        for (int i = 0; i < n; i++) {
+            long next = generator.next();
+            assertTrue(next >= prev);
+            prev = next;
+        }
+        double mean = (double) NANOS_PER_MINUTE / execPerMin;
+        assertEquals(mean, (double) prev / n, mean * 0.02);
+    }
+
+    @Test
+    final void testIllegalArguments() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ArrivalGenerator(ArrivalDistribution.UNIFORM, 0, new Random(0), 0));
+        assertThrows(IllegalArgumentException.class,
+                () -> new ArrivalGenerator(ArrivalDistribution.POISSON, -1, new Random(0), 0));
+    }
+
+    @Test
+    final void testLoadProfile() {
+        // SPIKEの負荷プロファイル(最初の50秒は倍率1、最後の10秒は倍率10)では、倍率が最大の時間帯に到着が集中する
+        long nanosPerSec = NANOS_PER_MINUTE / 60;
+        LoadProfile spike = new LoadProfile(LoadProfileType.SPIKE, 60, 1d, 10d, 4, 10);
+        ArrivalGenerator generator = new ArrivalGenerator(ArrivalDistribution.UNIFORM, 60, new Random(0), 1000,
+                spike);
+        int[] counts = new int[2];
+        long prev = 1000;
+        long next;
+        while ((next = generator.next()) <= 1000 + NANOS_PER_MINUTE) {
+            assertTrue(next > prev);
+            counts[spike.getSegmentAt(next - 1000 - 1)]++;
+            prev = next;
+        }
+        assertEquals(50, counts[0]);
+        assertEquals(100, counts[1]);
+
+        // resetしても負荷プロファイルの基準となる時刻は変わらない
+        generator.reset(1000 + 55 * nanosPerSec);
+        assertEquals(1000 + 55 * nanosPerSec + nanosPerSec / 10, generator.next(), 1d);
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.online;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract.Key;
+
+class ContractKeySelectorTest {
+    private static final LocalDate BASE_DATE = LocalDate.of(2020, 11, 1);
+
+    @Test
+    final void testSameSelectionAsRandomKeySelector() {
+        List<Key> keys = createKeys(1000);
+
+        // 同じ乱数生成器を使用すると、RandomKeySelectorと同じキーを選択する
+        RandomKeySelector<Key> expected = new RandomKeySelector<>(keys, new Random(0), 0.5d, 0.8d);
+        ContractKeySelector actual = new ContractKeySelector(keys, new Random(0), 0.5d, 0.8d);
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < 5000; i++) {
+            assertEquals(expected.get(), actual.get());
+        }
+        for (int i = 0; i < 100; i++) {
+            assertEquals(expected.getAndRemove(), actual.getAndRemove());
+        }
+        assertEquals(expected.size(), actual.size());
+    }
+
+    @Test
+    final void testAtLeastOnce() {
+        List<Key> keys = createKeys(1000);
+        ContractKeySelector ks = new ContractKeySelector(keys, new Random(0), 1d);
+
+        // キー数だけ選択すると、全てのキーが1回ずつ選択される
+        Set<Key> selected = new HashSet<>();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(selected.add(ks.get()));
+        }
+        assertEquals(new HashSet<>(keys), selected);
+    }
+
+    @Test
+    final void testAddAndRemove() {
+        ContractKeySelector ks = new ContractKeySelector(Collections.emptyList(), new Random(0), 0.5d);
+        assertNull(ks.get());
+        assertNull(ks.getAndRemove());
+
+        // 追加したキーと同じ値のKeyが返る
+        Key key1 = createKey("00000000001", BASE_DATE);
+        Key key2 = createKey("00000000002", BASE_DATE.plusDays(1));
+        ks.add(key1);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(key1, ks.get());
+        }
+        ks.add(key2);
+        ks.add(createKey("00000000001", BASE_DATE));
+        assertEquals(2, ks.size());
+
+        // 削除
+        assertTrue(ks.remove(createKey("00000000001", BASE_DATE)));
+        assertFalse(ks.remove(key1));
+        assertFalse(ks.remove(createKey("abc", BASE_DATE)));
+        assertEquals(1, ks.size());
+        assertEquals(key2, ks.getAndRemove());
+        assertEquals(0, ks.size());
+        assertNull(ks.getAndRemove());
+
+        // 変換できないキーは追加できない
+        IllegalArgumentException ie;
+        ie = assertThrows(IllegalArgumentException.class, () -> ks.add(createKey("0000000000x", BASE_DATE)));
+        assertTrue(ie.getMessage().startsWith(ContractKeySelector.ERROR_NOT_PACKABLE));
+        assertThrows(IllegalArgumentException.class, () -> ks.add(createKey("000000000001", BASE_DATE)));
+    }
+
+    @Test
+    final void testRandomOperations() {
+        // HashSetと同じ内容を保持していることを確認する
+        Random random = new Random(1);
+        List<Key> keys = createKeys(500);
+        ContractKeySelector ks = new ContractKeySelector(keys, new Random(0), 0.3d);
+        Set<Key> expected = new HashSet<>(keys);
+        for (int i = 0; i < 20000; i++) {
+            Key key = createKey(String.format("%011d", random.nextInt(1000)), BASE_DATE.plusDays(random.nextInt(2)));
+            switch (random.nextInt(4)) {
+            case 0:
+                if (expected.add(key)) {
+                    ks.add(key);
+                }
+                break;
+            case 1:
+                assertEquals(expected.remove(key), ks.remove(key));
+                break;
+            case 2:
+                Key removed = ks.getAndRemove();
+                assertEquals(removed != null, expected.remove(removed));
+                break;
+            default:
+                Key selected = ks.get();
+                assertTrue(selected == null ? expected.isEmpty() : expected.contains(selected));
+            }
+            assertEquals(expected.size(), ks.size());
+        }
+        Set<Key> actual = new HashSet<>();
+        Key key;
+        while ((key = ks.getAndRemove()) != null) {
+            actual.add(key);
+        }
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    final void testConstructor() {
+        List<Key> keys = createKeys(100);
+        assertEquals(100, new ContractKeySelector(keys, new Random(0), 0d).size());
+        assertEquals(50, new ContractKeySelector(keys, new Random(0), 0d, 0.5d).size());
+
+        // メモリ使用量はRandomKeySelectorよりも十分に小さい
+        assertTrue(new ContractKeySelector(createKeys(10000), new Random(0), 0d).getBytesPerKey() < 40d);
+
+        // 引数のチェック
+        IllegalArgumentException ie;
+        ie = assertThrows(IllegalArgumentException.class, () -> new ContractKeySelector(keys, new Random(0), 1.1d));
+        assertEquals(RandomKeySelector.ERROR_RANGE, ie.getMessage());
+        ie = assertThrows(IllegalArgumentException.class,
+                () -> new ContractKeySelector(keys, new Random(0), 1d, -0.1d));
+        assertEquals(RandomKeySelector.ERROR_RANGE, ie.getMessage());
+        ie = assertThrows(IllegalArgumentException.class,
+                () -> new ContractKeySelector(Arrays.asList(keys.get(0), null), new Random(0), 1d));
+        assertEquals(RandomKeySelector.ERROR_NULL_ELEMENTS, ie.getMessage());
+        ie = assertThrows(IllegalArgumentException.class,
+                () -> new ContractKeySelector(Arrays.asList(keys.get(0), keys.get(0)), new Random(0), 1d));
+        assertTrue(ie.getMessage().startsWith(RandomKeySelector.ERROR_DUPLICATE_ELEMENTS));
+    }
+
+    @Test
+    final void testIsPackable() {
+        assertTrue(ContractKeySelector.isPackable(createKeys(10)));
+        assertTrue(ContractKeySelector.isPackable(Collections.emptyList()));
+
+        List<Key> keys = createKeys(10);
+        keys.add(createKey("123-4567", BASE_DATE));
+        assertFalse(ContractKeySelector.isPackable(keys));
+
+        keys = createKeys(10);
+        keys.add(createKey("0000000000001", BASE_DATE));
+        assertFalse(ContractKeySelector.isPackable(keys));
+
+        // 日付の境界以外の時刻
+        keys = createKeys(10);
+        Key key = createKey("00000000001", BASE_DATE);
+        keys.add(Contract.createKey(key.getPhoneNumber(), key.getStartDateAsLong() + 1));
+        assertFalse(ContractKeySelector.isPackable(keys));
+    }
+
+    private static List<Key> createKeys(int n) {
+        List<Key> keys = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            keys.add(createKey(String.format("%011d", i / 2), BASE_DATE.plusDays(i % 2)));
+        }
+        return keys;
+    }
+
+    private static Key createKey(String phoneNumber, LocalDate startDate) {
+        Key key = new Key();
+        key.setPhoneNumber(phoneNumber);
+        key.setStartDate(startDate);
+        return key;
+    }
+}
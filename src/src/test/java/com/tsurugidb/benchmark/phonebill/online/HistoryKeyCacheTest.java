@@ -0,0 +1,239 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.online;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.tsurugidb.benchmark.phonebill.app.Config;
+import com.tsurugidb.benchmark.phonebill.db.entity.Contract;
+import com.tsurugidb.benchmark.phonebill.db.entity.History;
+
+class HistoryKeyCacheTest {
+    private static final Contract C1 = Contract.create("001", "2022-01-01", "2022-12-31", "dummy");
+    private static final Contract C2 = Contract.create("002", "2022-01-01", null, "dummy");
+    private static final Contract C3 = Contract.create("003", "2022-01-01", null, "dummy");
+
+    @Test
+    final void testCreate() throws Exception {
+        Config config = Config.getConfig();
+        config.historyUpdateKeyCacheSize = 0;
+        assertNull(HistoryKeyCache.create(config));
+        config.historyUpdateKeyCacheSize = 10;
+        assertNotNull(HistoryKeyCache.create(config));
+        assertThrows(IllegalArgumentException.class, () -> new HistoryKeyCache(0));
+    }
+
+    @Test
+    final void testSelect() {
+        HistoryKeyCache cache = new HistoryKeyCache(10);
+        Random random = new Random(0);
+
+        // 登録されていない契約
+        assertFalse(cache.contains(C1.getKey()));
+        assertNull(cache.select(C1.getKey(), random));
+
+        // 通話履歴が存在しない契約
+        cache.put(C2, List.of());
+        assertTrue(cache.contains(C2.getKey()));
+        assertNull(cache.select(C2.getKey(), random));
+
+        // 登録した通話履歴のいずれかの主キーを返す
+        History h1 = History.create("001", "002", "C", "2022-03-05 12:10:01.999", 11, null, 0);
+        History h2 = History.create("001", "005", "R", "2022-03-05 12:10:11.999", 12, 10, 0);
+        cache.put(C1, Arrays.asList(h1, h2));
+        assertEquals(Set.of(toKey(h1), toKey(h2)), select(cache, C1, random));
+    }
+
+    @Test
+    final void testAdd() {
+        HistoryKeyCache cache = new HistoryKeyCache(10);
+        Random random = new Random(0);
+        cache.put(C1, List.of());
+
+        // 契約の有効期間内の通話履歴のみ追加する
+        History h1 = History.create("001", "002", "C", "2022-01-01 00:00:00.000", 11, null, 0); // 境界値
+        History h2 = History.create("001", "002", "C", "2022-12-31 23:59:59.999", 12, null, 0); // 境界値
+        History h3 = History.create("001", "002", "C", "2021-12-31 23:59:59.999", 13, null, 0); // 有効期間外
+        History h4 = History.create("001", "002", "C", "2023-01-01 00:00:00.000", 14, null, 0); // 有効期間外
+        History h5 = History.create("002", "002", "C", "2022-06-01 00:00:00.000", 15, null, 0); // 未登録の契約
+        Arrays.asList(h1, h2, h3, h4, h5).forEach(cache::add);
+        assertEquals(Set.of(toKey(h1), toKey(h2)), select(cache, C1, random));
+        assertFalse(cache.contains(C2.getKey()));
+
+        // 追加時に重複は確認しないが、削除すると重複した主キーも全て削除される
+        cache.add(h1);
+        cache.remove(C1.getKey(), h1);
+        assertEquals(Set.of(toKey(h2)), select(cache, C1, random));
+    }
+
+    @Test
+    final void testRemove() {
+        HistoryKeyCache cache = new HistoryKeyCache(10);
+        Random random = new Random(0);
+        History h1 = History.create("002", "002", "C", "2022-03-05 12:10:01.999", 11, null, 0);
+        History h2 = History.create("002", "005", "C", "2022-03-05 12:10:11.999", 12, null, 0);
+        History h3 = History.create("002", "009", "C", "2022-03-06 12:10:01.999", 13, null, 0);
+        cache.put(C2, Arrays.asList(h1, h2, h3));
+
+        cache.remove(C2.getKey(), h1);
+        assertEquals(Set.of(toKey(h2), toKey(h3)), select(cache, C2, random));
+        cache.remove(C2.getKey(), h3);
+        cache.remove(C2.getKey(), h3);
+        assertEquals(Set.of(toKey(h2)), select(cache, C2, random));
+        cache.remove(C2.getKey(), h2);
+        assertNull(cache.select(C2.getKey(), random));
+        // 契約は登録されたまま
+        assertTrue(cache.contains(C2.getKey()));
+    }
+
+    @Test
+    final void testRemoveMany() {
+        HistoryKeyCache cache = new HistoryKeyCache(10);
+        Random random = new Random(0);
+        List<History> histories = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            histories.add(History.create("002", "002", i % 2 == 0 ? "C" : "R",
+                    String.format("2022-03-05 12:%02d:%02d.000", i / 60 % 60, i % 60), i, null, 0));
+        }
+        cache.put(C2, histories);
+
+        // 半数の主キーを削除しても、残りの主キーを削除できる
+        Set<History> expected = new HashSet<>();
+        for (int i = 0; i < histories.size(); i++) {
+            if (random.nextBoolean()) {
+                cache.remove(C2.getKey(), histories.get(i));
+            } else {
+                expected.add(toKey(histories.get(i)));
+            }
+        }
+        Set<History> actual = new HashSet<>();
+        for (int i = 0; i < 100000; i++) {
+            actual.add(cache.select(C2.getKey(), random));
+        }
+        assertEquals(expected, actual);
+        for (History history : histories) {
+            cache.remove(C2.getKey(), history);
+        }
+        assertNull(cache.select(C2.getKey(), random));
+    }
+
+    @Test
+    final void testSegments() {
+        // 契約は電話番号ごとに分割したセグメントに登録し、登録数の合計は上限を超えない
+        HistoryKeyCache cache = new HistoryKeyCache(1000);
+        for (int i = 0; i < 2000; i++) {
+            cache.put(Contract.create(String.format("%011d", i), "2022-01-01", null, "dummy"), List.of());
+        }
+        assertTrue(cache.size() <= 1000);
+        assertTrue(cache.contains(Contract.create(String.format("%011d", 1999), "2022-01-01", null, "dummy").getKey()));
+    }
+
+    @Test
+    final void testPutMerge() {
+        HistoryKeyCache cache = new HistoryKeyCache(10);
+        Random random = new Random(0);
+        History h1 = History.create("001", "002", "C", "2022-03-05 12:10:01.999", 11, null, 0);
+        History h2 = History.create("001", "005", "C", "2022-03-05 12:10:11.999", 12, null, 0);
+        History h3 = History.create("001", "009", "C", "2022-03-06 12:10:01.999", 13, null, 0);
+        cache.put(C1, List.of(h1));
+        cache.add(h2);
+
+        // 既に登録されている契約を登録する場合は、登録済みの主キーを引き継ぐ
+        cache.put(C1, Arrays.asList(h1, h3));
+        assertEquals(Set.of(toKey(h1), toKey(h2), toKey(h3)), select(cache, C1, random));
+        assertEquals(1, cache.size());
+
+        // 置き換えた契約にも通話履歴を追加できる
+        History h4 = History.create("001", "002", "C", "2022-03-07 12:10:01.999", 14, null, 0);
+        cache.add(h4);
+        assertEquals(Set.of(toKey(h1), toKey(h2), toKey(h3), toKey(h4)), select(cache, C1, random));
+    }
+
+    @Test
+    final void testLoading() {
+        HistoryKeyCache cache = new HistoryKeyCache(10);
+        Random random = new Random(0);
+        History h1 = History.create("001", "002", "C", "2022-03-05 12:10:01.999", 11, null, 0);
+        History h2 = History.create("001", "005", "C", "2022-03-05 12:10:11.999", 12, null, 0);
+        History h3 = History.create("001", "005", "C", "2023-03-05 12:10:11.999", 13, null, 0); // 有効期間外
+
+        // 読み込み中に追加された通話履歴は、読み込んだ結果に含まれなくても登録する
+        cache.startLoading("001");
+        cache.add(h2);
+        cache.add(h3);
+        cache.put(C1, List.of(h1));
+        cache.endLoading("001");
+        assertEquals(Set.of(toKey(h1), toKey(h2)), select(cache, C1, random));
+
+        // 読み込みが終わったあとに追加された通話履歴は、置き換え時に加えない
+        History h4 = History.create("001", "009", "C", "2022-03-06 12:10:01.999", 14, null, 0);
+        cache.remove(C1.getKey(), h2);
+        cache.startLoading("001");
+        cache.endLoading("001");
+        cache.add(h4);
+        cache.remove(C1.getKey(), h4);
+        cache.put(C1, List.of(h1));
+        assertEquals(Set.of(toKey(h1)), select(cache, C1, random));
+    }
+
+    @Test
+    final void testEviction() {
+        HistoryKeyCache cache = new HistoryKeyCache(2);
+        Random random = new Random(0);
+        cache.put(C1, List.of());
+        cache.put(C2, List.of());
+
+        // 最も長い間使用されていない契約を削除する
+        cache.select(C1.getKey(), random);
+        cache.put(C3, List.of());
+        assertEquals(2, cache.size());
+        assertTrue(cache.contains(C1.getKey()));
+        assertFalse(cache.contains(C2.getKey()));
+        assertTrue(cache.contains(C3.getKey()));
+
+        // 削除した契約には通話履歴を追加しない
+        cache.add(History.create("002", "002", "C", "2022-03-05 12:10:01.999", 11, null, 0));
+        assertFalse(cache.contains(C2.getKey()));
+    }
+
+    private static Set<History> select(HistoryKeyCache cache, Contract contract, Random random) {
+        Set<History> set = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            set.add(cache.select(contract.getKey(), random));
+        }
+        return set;
+    }
+
+    /**
+     * selectが返す値と比較するために主キー以外の項目を除いたHistoryを作成する
+     */
+    private static History toKey(History history) {
+        History key = new History();
+        key.setCallerPhoneNumber(history.getCallerPhoneNumber());
+        key.setPaymentCategorty(history.getPaymentCategorty());
+        key.setStartTime(history.getStartTime());
+        return key;
+    }
+}
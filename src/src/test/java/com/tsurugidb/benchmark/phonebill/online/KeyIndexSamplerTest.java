@@ -0,0 +1,157 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.online;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import com.tsurugidb.benchmark.phonebill.app.Config;
+import com.tsurugidb.benchmark.phonebill.app.Config.KeyDistribution;
+import com.tsurugidb.benchmark.phonebill.online.KeyIndexSampler.Hotspot;
+import com.tsurugidb.benchmark.phonebill.online.KeyIndexSampler.Latest;
+import com.tsurugidb.benchmark.phonebill.online.KeyIndexSampler.Zipfian;
+
+class KeyIndexSamplerTest {
+    private static final int SAMPLES = 200000;
+
+    @Test
+    final void testCreate() throws Exception {
+        Config config = Config.getConfig();
+        assertSame(KeyIndexSampler.UNIFORM, KeyIndexSampler.create(KeyDistribution.UNIFORM, config));
+        assertEquals(Zipfian.class, KeyIndexSampler.create(KeyDistribution.ZIPFIAN, config).getClass());
+        assertEquals(Hotspot.class, KeyIndexSampler.create(KeyDistribution.HOTSPOT, config).getClass());
+        assertEquals(Latest.class, KeyIndexSampler.create(KeyDistribution.LATEST, config).getClass());
+
+        // パラメータのチェック
+        config.onlineAppZipfianTheta = 1d;
+        assertThrows(IllegalArgumentException.class, () -> KeyIndexSampler.create(KeyDistribution.ZIPFIAN, config));
+        assertThrows(IllegalArgumentException.class, () -> KeyIndexSampler.create(KeyDistribution.LATEST, config));
+        config.onlineAppHotspotKeyRate = 1.5d;
+        assertThrows(IllegalArgumentException.class, () -> KeyIndexSampler.create(KeyDistribution.HOTSPOT, config));
+    }
+
+    @Test
+    final void testZeta() {
+        // 近似値と項の和が一致する
+        for (double theta : new double[] { 0.1d, 0.5d, 0.99d }) {
+            Zipfian zipfian = new Zipfian(theta);
+            double sum = 0;
+            for (int n = 1; n <= 100000; n++) {
+                sum += Math.pow(n, -theta);
+                if (n == 1 || n == 1024 || n == 1025 || n == 5000 || n == 100000) {
+                    assertEquals(sum, zipfian.zeta(n), sum * 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    final void testZipfian() {
+        Random random = new Random(0);
+        Zipfian zipfian = new Zipfian(0.99d);
+        int[] counts = sample(zipfian, random, 1000);
+
+        // 位置が小さいほど選択されやすく、先頭の2つのキーの選択確率は1/(i+1)^θに比例する
+        // (3番目以降のキーはGrayらの方法による近似)
+        double zeta = zipfian.zeta(1000);
+        for (int i = 0; i < 2; i++) {
+            double expected = SAMPLES * Math.pow(i + 1, -0.99d) / zeta;
+            assertEquals(expected, counts[i], expected * 0.05);
+        }
+        assertTrue(counts[0] > counts[1]);
+        assertTrue(counts[1] > counts[10]);
+        assertTrue(counts[10] > counts[999]);
+
+        // キーの数が変化しても使用できる
+        for (int size = 1; size < 10; size++) {
+            for (int i = 0; i < 100; i++) {
+                int idx = zipfian.nextIndex(random, size);
+                assertTrue(0 <= idx && idx < size);
+            }
+        }
+    }
+
+    @Test
+    final void testHotspot() {
+        Random random = new Random(0);
+        int[] counts = sample(new Hotspot(0.9d, 0.1d), random, 1000);
+
+        // 先頭の10%のキーが90%選択される
+        int hot = 0;
+        for (int i = 0; i < 100; i++) {
+            hot += counts[i];
+        }
+        assertEquals(SAMPLES * 0.9d, hot, SAMPLES * 0.01d);
+        assertTrue(counts[999] > 0);
+
+        // ホットスポットのキーは少なくとも1つ
+        for (int i = 0; i < 100; i++) {
+            int idx = new Hotspot(1d, 0d).nextIndex(random, 5);
+            assertEquals(0, idx);
+        }
+        assertEquals(0, new Hotspot(0.5d, 0.5d).nextIndex(random, 1));
+    }
+
+    @Test
+    final void testLatest() {
+        Random random = new Random(0);
+        int[] counts = sample(new Latest(new Zipfian(0.99d)), random, 1000);
+
+        // 位置が大きいほど選択されやすい
+        assertTrue(counts[999] > counts[998]);
+        assertTrue(counts[998] > counts[989]);
+        assertTrue(counts[989] > counts[0]);
+    }
+
+    @Test
+    final void testKeySelector() {
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            keys.add(i);
+        }
+
+        // 一様分布は分布を指定しない場合と同じキーを選択する
+        RandomKeySelector<Integer> ks1 = new RandomKeySelector<>(keys, new Random(0), 0.3d);
+        RandomKeySelector<Integer> ks2 = new RandomKeySelector<>(keys, new Random(0), 0.3d);
+        for (int i = 0; i < 1000; i++) {
+            assertEquals(ks1.get(), ks2.get(KeyIndexSampler.UNIFORM));
+        }
+
+        // Zipf分布ではリストの先頭のキーに選択が集中する
+        RandomKeySelector<Integer> ks = new RandomKeySelector<>(keys, new Random(0), 0d);
+        KeyIndexSampler zipfian = new Zipfian(0.99d);
+        int zero = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (ks.get(zipfian) == 0) {
+                zero++;
+            }
+        }
+        assertTrue(zero > 10000 / 10);
+    }
+
+    private static int[] sample(KeyIndexSampler sampler, Random random, int size) {
+        int[] counts = new int[size];
+        for (int i = 0; i < SAMPLES; i++) {
+            counts[sampler.nextIndex(random, size)]++;
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.online;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+
+    @Test
+    final void testIndex() {
+        // 128未満の値は値ごとにバケットを持つ
+        for (int i = 0; i < 128; i++) {
+            assertEquals(i, LatencyHistogram.indexOf(i));
+            assertEquals(i, LatencyHistogram.lowestValueAt(i));
+            assertEquals(i, LatencyHistogram.highestValueAt(i));
+        }
+        // バケットは連続し、各バケットの幅は最小値の1/64以下
+        long expectedLowest = 128;
+        for (int i = 128; LatencyHistogram.highestValueAt(i) != Long.MAX_VALUE; i++) {
+            long lowest = LatencyHistogram.lowestValueAt(i);
+            long highest = LatencyHistogram.highestValueAt(i);
+            assertEquals(expectedLowest, lowest);
+            assertEquals(i, LatencyHistogram.indexOf(lowest));
+            assertEquals(i, LatencyHistogram.indexOf(highest));
+            assertTrue(highest - lowest + 1 <= lowest / 64);
+            expectedLowest = highest + 1;
+        }
+        // longの最大値まで格納できる
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    final void testPercentile() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 記録した値が存在しない場合
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMin());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+
+        // 1～10000を記録
+        for (long i = 10000; i >= 1; i--) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(10000, histogram.getCount());
+        assertEquals(50005000L * 1000, histogram.getTotal());
+        assertEquals(1000, histogram.getMin());
+        assertEquals(10000 * 1000, histogram.getMax());
+        assertEquals(5000 * 1000, histogram.getValueAtPercentile(50), 5000 * 1000 / 64);
+        assertEquals(9900 * 1000, histogram.getValueAtPercentile(99), 9900 * 1000 / 64);
+        assertEquals(9990 * 1000, histogram.getValueAtPercentile(99.9), 9990 * 1000 / 64);
+        assertEquals(10000 * 1000, histogram.getValueAtPercentile(100));
+
+        // 負の値は0として扱う
+        histogram = new LatencyHistogram();
+        histogram.record(-5);
+        assertEquals(0, histogram.getMax());
+        assertEquals(1, histogram.getCount());
+    }
+
+    @Test
+    final void testAddAndSubtract() {
+        Random random = new Random(0);
+        LatencyHistogram h1 = new LatencyHistogram();
+        LatencyHistogram h2 = new LatencyHistogram();
+        LatencyHistogram all = new LatencyHistogram();
+        for (int i = 0; i < 1000; i++) {
+            long v1 = random.nextInt(1000000);
+            long v2 = random.nextInt(1000000) + 1000000;
+            h1.record(v1);
+            h2.record(v2);
+            all.record(v1);
+            all.record(v2);
+        }
+        LatencyHistogram merged = h1.copy();
+        merged.add(h2);
+        assertEquals(all.getCount(), merged.getCount());
+        assertEquals(all.getTotal(), merged.getTotal());
+        assertEquals(all.getMin(), merged.getMin());
+        assertEquals(all.getMax(), merged.getMax());
+        assertEquals(all.getValueAtPercentile(99), merged.getValueAtPercentile(99));
+
+        // 差し引くと、後から加えた値のヒストグラムになる
+        LatencyHistogram diff = merged.subtract(h1);
+        assertEquals(h2.getCount(), diff.getCount());
+        assertEquals(h2.getTotal(), diff.getTotal());
+        assertEquals(h2.getValueAtPercentile(50), diff.getValueAtPercentile(50));
+        assertTrue(diff.getMin() <= h2.getMin());
+        assertTrue(diff.getMin() >= 1000000 - 1000000 / 64);
+        assertTrue(diff.getMax() >= h2.getMax());
+
+        // nullを差し引くと複製を返す
+        diff = merged.subtract(null);
+        assertNotSame(merged, diff);
+        assertEquals(merged.getCount(), diff.getCount());
+        assertEquals(merged.getMin(), diff.getMin());
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.online;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import com.tsurugidb.benchmark.phonebill.app.Config;
+import com.tsurugidb.benchmark.phonebill.app.Config.LoadProfileType;
+
+class LoadProfileTest {
+    private static final long NANOS_PER_SEC = 1000L * 1000 * 1000;
+
+    @Test
+    final void testCreate() throws Exception {
+        Config config = Config.getConfig();
+        assertSame(LoadProfile.CONSTANT, LoadProfile.create(LoadProfileType.CONSTANT, config));
+        for (LoadProfileType type : LoadProfileType.values()) {
+            assertEquals(type, LoadProfile.create(type, config).getType());
+        }
+
+        // パラメータのチェック
+        assertThrows(IllegalArgumentException.class, () -> new LoadProfile(LoadProfileType.STEP, 0, 0.5d, 2d, 4, 1));
+        assertThrows(IllegalArgumentException.class, () -> new LoadProfile(LoadProfileType.STEP, 60, -1d, 2d, 4, 1));
+        assertThrows(IllegalArgumentException.class, () -> new LoadProfile(LoadProfileType.STEP, 60, 2d, 1d, 4, 1));
+        assertThrows(IllegalArgumentException.class, () -> new LoadProfile(LoadProfileType.STEP, 60, 0d, 0d, 4, 1));
+        assertThrows(IllegalArgumentException.class, () -> new LoadProfile(LoadProfileType.RAMP, 60, 0.5d, 2d, 0, 1));
+        assertThrows(IllegalArgumentException.class, () -> new LoadProfile(LoadProfileType.SPIKE, 60, 0.5d, 2d, 4, 0));
+        assertThrows(IllegalArgumentException.class, () -> new LoadProfile(LoadProfileType.SPIKE, 60, 0.5d, 2d, 4, 61));
+    }
+
+    @Test
+    final void testRate() {
+        // STEP: 周期を段数に分け、最小値から最大値まで段階的に上がる
+        LoadProfile step = new LoadProfile(LoadProfileType.STEP, 40, 1d, 4d, 4, 1);
+        assertEquals(4, step.getSegments());
+        assertEquals(1d, step.getRate(5d));
+        assertEquals(2d, step.getRate(15d));
+        assertEquals(3d, step.getRate(25d));
+        assertEquals(4d, step.getRate(35d));
+        assertEquals(2d, step.getSegmentRate(1), 1e-9);
+
+        // RAMP: 直線的に上がる
+        LoadProfile ramp = new LoadProfile(LoadProfileType.RAMP, 100, 0d, 2d, 4, 1);
+        assertEquals(0d, ramp.getRate(0d));
+        assertEquals(1d, ramp.getRate(50d));
+
+        // SINE: 先頭で最小値、中央で最大値
+        LoadProfile sine = new LoadProfile(LoadProfileType.SINE, 100, 0.5d, 1.5d, 4, 1);
+        assertEquals(0.5d, sine.getRate(0d), 1e-9);
+        assertEquals(1.5d, sine.getRate(50d), 1e-9);
+        assertEquals(1d, sine.getRate(25d), 1e-9);
+
+        // SPIKE: 周期の最後のみ最大値、セグメントは2つ
+        LoadProfile spike = new LoadProfile(LoadProfileType.SPIKE, 60, 1d, 10d, 4, 10);
+        assertEquals(2, spike.getSegments());
+        assertEquals(1d, spike.getRate(49.5d));
+        assertEquals(10d, spike.getRate(50.5d));
+        assertEquals(0, spike.getSegmentAt(49 * NANOS_PER_SEC));
+        assertEquals(1, spike.getSegmentAt(50 * NANOS_PER_SEC));
+        assertEquals(0, spike.getSegmentAt(61 * NANOS_PER_SEC));
+        assertEquals(10d, spike.getSegmentRate(1), 1e-9);
+    }
+
+    @Test
+    final void testSegmentDuration() {
+        LoadProfile step = new LoadProfile(LoadProfileType.STEP, 40, 1d, 4d, 4, 1);
+        // 1周期と15秒 => セグメント0は10秒 + 10秒、セグメント1は10秒 + 5秒、セグメント2, 3は10秒
+        assertEquals(20000, step.getSegmentDurationMillis(0, 55000));
+        assertEquals(15000, step.getSegmentDurationMillis(1, 55000));
+        assertEquals(10000, step.getSegmentDurationMillis(2, 55000));
+        assertEquals(10000, step.getSegmentDurationMillis(3, 55000));
+
+        LoadProfile spike = new LoadProfile(LoadProfileType.SPIKE, 60, 1d, 10d, 4, 10);
+        assertEquals(50000, spike.getSegmentDurationMillis(0, 60000));
+        assertEquals(10000, spike.getSegmentDurationMillis(1, 60000));
+        assertEquals(0, spike.getSegmentDurationMillis(1, 50000));
+    }
+
+    @Test
+    final void testLoadConversion() {
+        // 倍率が常に1の場合は経過時間と等しい
+        assertEquals(123d, LoadProfile.CONSTANT.toLoadNanos(123d));
+        assertEquals(123d, LoadProfile.CONSTANT.toElapsedNanos(123d));
+
+        // SPIKE: 最初の50秒は倍率1、最後の10秒は倍率10 => 1周期の積分値は150秒
+        LoadProfile spike = new LoadProfile(LoadProfileType.SPIKE, 60, 1d, 10d, 4, 10);
+        assertEquals(50d * NANOS_PER_SEC, spike.toLoadNanos(50d * NANOS_PER_SEC), 1d);
+        assertEquals(150d * NANOS_PER_SEC, spike.toLoadNanos(60d * NANOS_PER_SEC), 1d);
+        assertEquals(305d * NANOS_PER_SEC, spike.toLoadNanos(125d * NANOS_PER_SEC), 1d);
+        assertEquals(55d * NANOS_PER_SEC, spike.toElapsedNanos(100d * NANOS_PER_SEC), 1d);
+
+        // toElapsedNanosはtoLoadNanosの逆関数、倍率が0の時間帯があっても単調に増加する
+        LoadProfile ramp = new LoadProfile(LoadProfileType.RAMP, 100, 0d, 2d, 4, 1);
+        double prev = -1;
+        for (double secs = 0; secs < 300; secs += 0.7d) {
+            double load = ramp.toLoadNanos(secs * NANOS_PER_SEC);
+            assertEquals(secs * NANOS_PER_SEC, ramp.toElapsedNanos(load), 1000d);
+            assertTrue(load >= prev);
+            prev = load;
+        }
+        LoadProfile zero = new LoadProfile(LoadProfileType.SPIKE, 60, 0d, 1d, 4, 10);
+        assertEquals(50d * NANOS_PER_SEC, zero.toElapsedNanos(0.1d * NANOS_PER_SEC) - 0.1d * NANOS_PER_SEC, 1000d);
+    }
+}
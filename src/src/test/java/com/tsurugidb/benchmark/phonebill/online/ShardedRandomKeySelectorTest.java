@@ -0,0 +1,152 @@
+/*
+ * Copyright 2023-2024 Project Tsurugi.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.tsurugidb.benchmark.phonebill.online;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.jupiter.api.Test;
+
+class ShardedRandomKeySelectorTest {
+
+    @Test
+    final void testConstructor() {
+        List<Integer> keys = createKeys(1000);
+
+        // キーはハッシュ値によりシャードに振り分けられる
+        ShardedRandomKeySelector<Integer> ks = new ShardedRandomKeySelector<>(keys, new Random(0), 0d, 1d, 4);
+        assertEquals(1000, ks.size());
+        assertEquals(4, ks.getShards().size());
+        for (int i = 0; i < 4; i++) {
+            RandomKeySelector<Integer> shard = (RandomKeySelector<Integer>) ks.getShards().get(i);
+            assertTrue(shard.size() > 0);
+            for (Integer key : shard.keyList) {
+                assertEquals(i, ShardedRandomKeySelector.shardOf(key, 4));
+            }
+        }
+
+        // coverRateの指定
+        ks = new ShardedRandomKeySelector<>(keys, new Random(0), 0d, 0.5d, 4);
+        assertEquals(500, ks.size());
+        ks = new ShardedRandomKeySelector<>(keys, new Random(0), 0d, 0d, 4);
+        assertEquals(0, ks.size());
+        assertNull(ks.get());
+        assertNull(ks.getAndRemove());
+
+        // 引数のチェック
+        IllegalArgumentException ie;
+        ie = assertThrows(IllegalArgumentException.class,
+                () -> new ShardedRandomKeySelector<>(keys, new Random(0), 1.1d, 1d, 4));
+        assertEquals(RandomKeySelector.ERROR_RANGE, ie.getMessage());
+        ie = assertThrows(IllegalArgumentException.class,
+                () -> new ShardedRandomKeySelector<>(keys, new Random(0), 1d, -0.1d, 4));
+        assertEquals(RandomKeySelector.ERROR_RANGE, ie.getMessage());
+        assertThrows(IllegalArgumentException.class,
+                () -> new ShardedRandomKeySelector<>(keys, new Random(0), 1d, 1d, 0));
+        ie = assertThrows(IllegalArgumentException.class,
+                () -> new ShardedRandomKeySelector<>(java.util.Arrays.asList(1, null), new Random(0), 1d, 1d, 4));
+        assertEquals(RandomKeySelector.ERROR_NULL_ELEMENTS, ie.getMessage());
+    }
+
+    @Test
+    final void testAtLeastOnce() {
+        List<Integer> keys = createKeys(1000);
+        ShardedRandomKeySelector<Integer> ks = new ShardedRandomKeySelector<>(keys, new Random(0), 1d, 1d, 8);
+        int maxShardSize = ks.getShards().stream().mapToInt(KeySelector::size).max().getAsInt();
+
+        // シャード数 * 最大のシャードのキー数だけ選択すると、全てのキーが少なくとも1回選択される
+        Set<Integer> selected = new HashSet<>();
+        for (int i = 0; i < 8 * maxShardSize; i++) {
+            selected.add(ks.get());
+        }
+        assertEquals(new HashSet<>(keys), selected);
+    }
+
+    @Test
+    final void testAddAndRemove() {
+        ShardedRandomKeySelector<Integer> ks = new ShardedRandomKeySelector<>(Collections.emptyList(), new Random(0),
+                0.5d, 1d, 4);
+        assertNull(ks.get());
+
+        // 空のシャードは読み飛ばされる
+        ks.add(5);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(5, ks.get());
+        }
+        ks.add(6);
+        assertEquals(2, ks.size());
+
+        // 削除はキーを管理するシャードで行われる
+        assertTrue(ks.remove(5));
+        assertFalse(ks.remove(5));
+        assertEquals(1, ks.size());
+        assertEquals(6, ks.getAndRemove());
+        assertEquals(0, ks.size());
+        assertNull(ks.getAndRemove());
+    }
+
+    @Test
+    final void testConcurrentAccess() throws InterruptedException {
+        List<Integer> keys = createKeys(10000);
+        ShardedRandomKeySelector<Integer> ks = new ShardedRandomKeySelector<>(keys, new Random(0), 0.5d, 1d, 4);
+        Set<Integer> removed = ConcurrentHashMap.newKeySet();
+        List<Thread> threads = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < 8; t++) {
+            int base = 100000 * (t + 1);
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < 1000; i++) {
+                        // 削除と挿入を繰り返す(MasterDeleteInsertAppと同じ使い方)
+                        Integer key = ks.getAndRemove();
+                        assertNotNull(key);
+                        assertTrue(removed.add(key));
+                        ks.add(base + i);
+                        assertNotNull(ks.get());
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(Collections.emptyList(), errors);
+        assertEquals(10000, ks.size());
+        for (Integer key : removed) {
+            assertFalse(ks.remove(key));
+        }
+    }
+
+    private static List<Integer> createKeys(int n) {
+        List<Integer> keys = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            keys.add(i);
+        }
+        return keys;
+    }
+}
@@ -21,6 +21,7 @@ import java.util.Map;
 
 import org.junit.jupiter.api.Test;
 
+import com.tsurugidb.benchmark.phonebill.app.Config.LoadProfileType;
 import com.tsurugidb.benchmark.phonebill.db.TxLabel;
 import com.tsurugidb.benchmark.phonebill.online.TxStatistics.TxStatisticsBundle;
 
@@ -51,10 +52,10 @@ class TxStatisticsTest {
         assertEquals(112, statistics.getAverageLatency(), 1e-9);
 
         System.out.println(TxStatistics.getReport());
-        String expect ="| title | tx option | dedicated time[ms] | numbers of txs | latency<br>avg[ms] | latency<br>min[ms] | latency<br>max[ms] | committed tx through put[task/s] |\n"
-                + "|-------|-----------|-------------------:|---------------:|-------------------:|-------------------:|-------------------:|---------------------------------:|\n"
-                + "|ONLINE_MASTER_DELETE|OCC3, LTX1|10,000|3|37.333|25.000|52.000|0.300|\n"
-                + "|ONLINE_MASTER_INSERT|OCC3, LTX1|10,000|1|112.000|112.000|112.000|0.100|\n";
+        String expect ="| title | tx option | dedicated time[ms] | numbers of txs | latency<br>avg[ms] | latency<br>min[ms] | latency<br>max[ms] | latency<br>p50[ms] | latency<br>p99[ms] | latency<br>p99.9[ms] | committed tx through put[task/s] |\n"
+                + "|-------|-----------|-------------------:|---------------:|-------------------:|-------------------:|-------------------:|-------------------:|-------------------:|---------------------:|---------------------------------:|\n"
+                + "|ONLINE_MASTER_DELETE|OCC3, LTX1|10,000|3|37.333|25.000|52.000|35.127|52.000|52.000|0.300|\n"
+                + "|ONLINE_MASTER_INSERT|OCC3, LTX1|10,000|1|112.000|112.000|112.000|112.000|112.000|112.000|0.100|\n";
 
         assertEquals(expect, TxStatistics.getReport());
         TxStatistics.saveTxStatisticsBundle("base");
@@ -80,13 +81,183 @@ class TxStatisticsTest {
 
         TxStatisticsBundle baseline = TxStatistics.getStatisticsBundle("base");
         System.out.println(TxStatistics.getReport(baseline));
-        expect ="| title | tx option | dedicated time[ms] | numbers of txs | latency<br>avg[ms] | latency<br>min[ms] | latency<br>max[ms] | committed tx through put[task/s] |\n"
-                + "|-------|-----------|-------------------:|---------------:|-------------------:|-------------------:|-------------------:|---------------------------------:|\n"
-                + "|ONLINE_MASTER_DELETE|OCC3, LTX1|20,000|1|350.000<br>(937.50%)|350.000<br>(1,400.00%)|350.000<br>(673.08%)|0.050<br>(16.67%)|\n"
-                + "|ONLINE_MASTER_INSERT|OCC3, LTX1|20,000|1|240.000<br>(214.29%)|240.000<br>(214.29%)|240.000<br>(214.29%)|0.050<br>(50.00%)|\n";
+        expect ="| title | tx option | dedicated time[ms] | numbers of txs | latency<br>avg[ms] | latency<br>min[ms] | latency<br>max[ms] | latency<br>p50[ms] | latency<br>p99[ms] | latency<br>p99.9[ms] | committed tx through put[task/s] |\n"
+                + "|-------|-----------|-------------------:|---------------:|-------------------:|-------------------:|-------------------:|-------------------:|-------------------:|---------------------:|---------------------------------:|\n"
+                + "|ONLINE_MASTER_DELETE|OCC3, LTX1|20,000|1|350.000<br>(937.50%)|350.000<br>(1,400.00%)|350.000<br>(673.08%)|350.000<br>(996.38%)|350.000<br>(673.08%)|350.000<br>(673.08%)|0.050<br>(16.67%)|\n"
+                + "|ONLINE_MASTER_INSERT|OCC3, LTX1|20,000|1|240.000<br>(214.29%)|240.000<br>(214.29%)|240.000<br>(214.29%)|240.000<br>(214.29%)|240.000<br>(214.29%)|240.000<br>(214.29%)|0.050<br>(50.00%)|\n";
 
         assertEquals(expect, TxStatistics.getReport(baseline));
 
     }
 
+    @Test
+    final void testPercentileAndCsv() throws InterruptedException {
+        TxStatistics.clear();
+        // 1～1000ミリ秒を複数のスレッドから記録する
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            int offset = t;
+            threads[t] = new Thread(() -> {
+                for (long i = 1 + offset; i <= 1000; i += threads.length) {
+                    TxStatistics.addLatencyFotTxLabel(TxLabel.ONLINE_HISTORY_INSERT, i * 1000 * 1000);
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        TxStatistics.setDedicatedTimeMills(10000);
+        TxStatistics statistics = TxStatistics.map.get(TxLabel.ONLINE_HISTORY_INSERT);
+        assertEquals(1000, statistics.getCount());
+        assertEquals(1, statistics.getMinLatency());
+        assertEquals(1000, statistics.getMaxLatency());
+        assertEquals(500.5, statistics.getAverageLatency(), 1e-9);
+        // パーセンタイル値の誤差は1/64以下
+        assertEquals(500, statistics.getLatencyAtPercentile(50), 500d / 64);
+        assertEquals(990, statistics.getLatencyAtPercentile(99), 990d / 64);
+        assertEquals(999, statistics.getLatencyAtPercentile(99.9), 999d / 64);
+
+        String csv = TxStatistics.getCsvReport("title");
+        assertTrue(csv.startsWith("title,ONLINE_HISTORY_INSERT,OCC3-LTX1,10000,1000,500.500,1.000,1000.000,"));
+        assertTrue(csv.endsWith(",100.000\n"));
+        assertEquals(12, csv.trim().split(",").length);
+    }
+
+    @Test
+    final void testIntervalSnapshot() throws InterruptedException {
+        TxStatistics.clear();
+        TxStatistics.addLatencyFotTxLabel(TxLabel.ONLINE_MASTER_UPDATE, 10 * 1000 * 1000); // 10ミリ秒
+        TxStatistics.startIntervalSnapshot(1000 * 1000);
+        // 開始前に記録した遅延はスナップショットに含まれない
+        TxStatistics.addLatencyFotTxLabel(TxLabel.ONLINE_MASTER_UPDATE, 20 * 1000 * 1000); // 20ミリ秒
+        TxStatistics.addLatencyFotTxLabel(TxLabel.ONLINE_MASTER_UPDATE, 40 * 1000 * 1000); // 40ミリ秒
+        TxStatistics.takeIntervalSnapshot();
+        TxStatistics.addLatencyFotTxLabel(TxLabel.ONLINE_MASTER_UPDATE, 100 * 1000 * 1000); // 100ミリ秒
+        // 終了時に直前の取得以降のスナップショットを取得する
+        TxStatistics.stopIntervalSnapshot();
+        TxStatistics.stopIntervalSnapshot();
+
+        assertEquals(2, TxStatistics.snapshots.size());
+        assertEquals(2, TxStatistics.snapshots.get(0).count);
+        assertEquals(1, TxStatistics.snapshots.get(1).count);
+        String[] lines = TxStatistics.getTimeSeriesCsvReport("title").split("\n");
+        assertEquals(2, lines.length);
+        String[] values = lines[0].split(",");
+        assertEquals("title", values[0]);
+        assertEquals("ONLINE_MASTER_UPDATE", values[2]);
+        assertEquals("2", values[3]);
+        assertEquals("30.000", values[5]);
+        assertEquals(10, values.length);
+        assertTrue(lines[1].contains(",ONLINE_MASTER_UPDATE,1,"));
+
+        // 一定間隔でスナップショットを取得する
+        TxStatistics.clear();
+        TxStatistics.startIntervalSnapshot(10);
+        TxStatistics.addLatencyFotTxLabel(TxLabel.ONLINE_MASTER_UPDATE, 10 * 1000 * 1000);
+        Thread.sleep(200);
+        TxStatistics.stopIntervalSnapshot();
+        assertTrue(TxStatistics.snapshots.size() > 2);
+        assertEquals(1, TxStatistics.snapshots.stream().mapToLong(s -> s.count).sum());
+    }
+
+    @Test
+    final void testIntendedLatency() {
+        TxStatistics.clear();
+        // スケジュールした時刻からの遅延が登録されていない場合はレポートを作成しない
+        TxStatistics.addLatencyFotTxLabel(TxLabel.ONLINE_MASTER_DELETE, 10 * 1000 * 1000); // 10ミリ秒
+        assertEquals("", TxStatistics.getIntendedLatencyReport());
+
+        // スケジュールした時刻からの遅延は、実行時間から計測した遅延とは別に集計する
+        TxStatistics.addIntendedLatencyForTxLabel(TxLabel.ONLINE_MASTER_DELETE, 30 * 1000 * 1000); // 30ミリ秒
+        TxStatistics.addIntendedLatencyForTxLabel(TxLabel.ONLINE_MASTER_DELETE, 50 * 1000 * 1000); // 50ミリ秒
+        TxStatistics.setDedicatedTimeMills(10000); // 10000ミリ秒 = 10秒
+        assertEquals(1, TxStatistics.map.get(TxLabel.ONLINE_MASTER_DELETE).getCount());
+        TxStatistics statistics = TxStatistics.intendedMap.get(TxLabel.ONLINE_MASTER_DELETE);
+        assertEquals(2, statistics.getCount());
+        assertEquals(40, statistics.getAverageLatency(), 1e-9);
+
+        String expect = "Latency from intended start\n\n"
+                + "| title | tx option | dedicated time[ms] | numbers of txs | latency<br>avg[ms] | latency<br>min[ms] | latency<br>max[ms] | latency<br>p50[ms] | latency<br>p99[ms] | latency<br>p99.9[ms] | committed tx through put[task/s] |\n"
+                + "|-------|-----------|-------------------:|---------------:|-------------------:|-------------------:|-------------------:|-------------------:|-------------------:|---------------------:|---------------------------------:|\n"
+                + "|ONLINE_MASTER_DELETE|OCC3, LTX1|10,000|2|40.000|30.000|50.000|30.147|50.000|50.000|0.200|\n";
+        assertEquals(expect, TxStatistics.getIntendedLatencyReport());
+
+        // clearでスケジュールした時刻からの遅延もクリアされる
+        TxStatistics.clear();
+        assertEquals("", TxStatistics.getIntendedLatencyReport());
+    }
+
+    @Test
+    final void testMergedStatistics() {
+        TxStatistics.clear();
+        // 登録されていないラベルは0件として扱う
+        assertEquals(0, TxStatistics.getCount(false, TxLabel.ONLINE_MASTER_DELETE));
+        assertEquals(0d, TxStatistics.getLatencyAtPercentile(99d, false, TxLabel.ONLINE_MASTER_DELETE));
+
+        // 指定の複数のラベルをまとめて集計する
+        for (int i = 1; i <= 99; i++) {
+            TxStatistics.addLatencyFotTxLabel(TxLabel.ONLINE_MASTER_DELETE, 1000 * 1000); // 1ミリ秒
+        }
+        TxStatistics.addLatencyFotTxLabel(TxLabel.ONLINE_MASTER_INSERT, 100 * 1000 * 1000); // 100ミリ秒
+        TxStatistics.addLatencyFotTxLabel(TxLabel.ONLINE_MASTER_UPDATE, 200 * 1000 * 1000); // 200ミリ秒
+        TxStatistics.addIntendedLatencyForTxLabel(TxLabel.ONLINE_MASTER_INSERT, 300 * 1000 * 1000); // 300ミリ秒
+        assertEquals(100, TxStatistics.getCount(false, TxLabel.ONLINE_MASTER_DELETE, TxLabel.ONLINE_MASTER_INSERT));
+        assertEquals(1d, TxStatistics.getLatencyAtPercentile(99d, false, TxLabel.ONLINE_MASTER_DELETE,
+                TxLabel.ONLINE_MASTER_INSERT), 0.01d);
+        assertEquals(100d, TxStatistics.getLatencyAtPercentile(100d, false, TxLabel.ONLINE_MASTER_DELETE,
+                TxLabel.ONLINE_MASTER_INSERT), 1e-9);
+
+        // スケジュールした時刻から計測した遅延
+        assertEquals(1, TxStatistics.getCount(true, TxLabel.ONLINE_MASTER_DELETE, TxLabel.ONLINE_MASTER_INSERT));
+        assertEquals(300d, TxStatistics.getLatencyAtPercentile(99d, true, TxLabel.ONLINE_MASTER_INSERT), 1e-9);
+        TxStatistics.clear();
+    }
+
+    @Test
+    final void testLoadProfileReport() {
+        TxStatistics.clear();
+        // 負荷プロファイルを使用したTXが存在しない場合はレポートを作成しない
+        assertEquals("", TxStatistics.getLoadProfileReport());
+
+        // セグメントごとに集計し、スループットはセグメントに含まれる時間から求める
+        LoadProfile profile = new LoadProfile(LoadProfileType.SPIKE, 60, 1d, 10d, 4, 10);
+        TxStatistics.addLatencyForLoadProfileSegment(TxLabel.ONLINE_MASTER_UPDATE, profile, 0, 10 * 1000 * 1000);
+        TxStatistics.addLatencyForLoadProfileSegment(TxLabel.ONLINE_MASTER_UPDATE, profile, 1, 20 * 1000 * 1000);
+        TxStatistics.addLatencyForLoadProfileSegment(TxLabel.ONLINE_MASTER_UPDATE, profile, 1, 20 * 1000 * 1000);
+        TxStatistics.setDedicatedTimeMills(60000);
+        String expect = "Latency by load profile segment\n\n"
+                + "| title | load profile | segment | rate | dedicated time[ms] | numbers of txs | latency<br>avg[ms] | latency<br>p50[ms] | latency<br>p99[ms] | committed tx through put[task/s] |\n"
+                + "|-------|--------------|--------:|-----:|-------------------:|---------------:|-------------------:|-------------------:|-------------------:|---------------------------------:|\n"
+                + "|ONLINE_MASTER_UPDATE|SPIKE|0|1.00|50,000|1|10.000|10.000|10.000|0.020|\n"
+                + "|ONLINE_MASTER_UPDATE|SPIKE|1|10.00|10,000|2|20.000|20.000|20.000|0.200|\n";
+        assertEquals(expect, TxStatistics.getLoadProfileReport());
+
+        // clearで負荷プロファイルの統計情報もクリアされる
+        TxStatistics.clear();
+        assertEquals("", TxStatistics.getLoadProfileReport());
+    }
+
+    @Test
+    final void testPrometheusReport() {
+        TxStatistics.clear();
+        // 統計情報が存在しない場合は空文字列
+        assertEquals("", TxStatistics.getPrometheusReport());
+
+        // ラベルごとのsummaryを出力する
+        TxStatistics.addLatencyFotTxLabel(TxLabel.ONLINE_MASTER_UPDATE, 100 * 1000 * 1000); // 100ミリ秒
+        TxStatistics.addLatencyFotTxLabel(TxLabel.ONLINE_MASTER_UPDATE, 100 * 1000 * 1000); // 100ミリ秒
+        String report = TxStatistics.getPrometheusReport();
+        assertTrue(report.contains("# TYPE phonebill_online_tx_latency_seconds summary\n"));
+        assertTrue(report.contains(
+                "phonebill_online_tx_latency_seconds{label=\"ONLINE_MASTER_UPDATE\",quantile=\"0.99\"} 0.1\n"));
+        assertTrue(report.contains("phonebill_online_tx_latency_seconds_sum{label=\"ONLINE_MASTER_UPDATE\"} 0.2\n"));
+        assertTrue(report.contains("phonebill_online_tx_latency_seconds_count{label=\"ONLINE_MASTER_UPDATE\"} 2\n"));
+        // スケジュールした時刻から計測した遅延とスループットは、存在しない場合は出力しない
+        assertFalse(report.contains("phonebill_online_tx_intended_latency_seconds"));
+        assertFalse(report.contains("phonebill_online_tx_throughput"));
+        TxStatistics.clear();
+    }
 }